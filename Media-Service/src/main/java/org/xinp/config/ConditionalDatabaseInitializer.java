@@ -7,6 +7,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.datasource.init.CompositeDatabasePopulator;
 import org.springframework.jdbc.datasource.init.DataSourceInitializer;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 
@@ -17,6 +18,7 @@ import java.nio.file.Path;
 
 /**
  * 数据库初始化
+ * 新建数据库执行 schema.sql，已存在的数据库由 SchemaMigrator 按版本号升级
  */
 @Configuration
 @Slf4j
@@ -27,7 +29,7 @@ public class ConditionalDatabaseInitializer {
 
     /**
      * 这个 Bean 会在 Spring 初始化数据源后被调用, 并执行数据库初始化逻辑。
-     * 数据库存在则跳过 schema.sql，没初始化则执行 schema.sql。
+     * 数据库存在则跳过 schema.sql (按版本执行 SchemaMigrator 中的迁移)，没初始化则执行 schema.sql 并记录最新版本号。
      *
      * @param dataSource  由 Spring 自动注入的数据源
      * @param projectPath 定义的项目根路径 Bean
@@ -56,16 +58,19 @@ public class ConditionalDatabaseInitializer {
         } else {
             populator.addScript(scripts[0]);
         }
+        // schema.sql 创建的是最新结构，执行后直接记录最新版本号
+        final CompositeDatabasePopulator createPopulator = new CompositeDatabasePopulator(populator, SchemaMigrator::markLatest);
         
         // 创建数据源初始化器-用于初始化数据库
         final DataSourceInitializer initializer = new DataSourceInitializer();
         initializer.setDataSource(dataSource);
-        initializer.setDatabasePopulator(populator);
+        initializer.setDatabasePopulator(createPopulator);
 
-        // 检查数据库文件是否存在。如果存在，则禁用此初始化器。
+        // 检查数据库文件是否存在。如果存在，则跳过 schema.sql，按版本号执行尚未执行的迁移。
         if (Files.exists(dbFilePath)) {
             log.info("数据库文件 '{}' 已存在，跳过 schema.sql 初始化。", dbFileName);
-            initializer.setEnabled(false);
+            initializer.setDatabasePopulator(connection -> SchemaMigrator.migrate(connection));
+            initializer.setEnabled(true);
         } else {
             log.info("数据库文件 '{}' 不存在，将执行 schema.sql进行初始化。", dbFileName);
             initializer.setEnabled(true);
@@ -73,4 +78,4 @@ public class ConditionalDatabaseInitializer {
 
         return initializer;
     }
-}
\ No newline at end of file
+}
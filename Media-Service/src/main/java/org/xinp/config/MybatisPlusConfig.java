@@ -21,4 +21,12 @@ public class MybatisPlusConfig {
         interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.SQLITE)); //SQList数据库
         return interceptor;
     }
+
+    /**
+     * 事务外的查询使用只读连接池
+     */
+    @Bean
+    public ReadQueryInterceptor readQueryInterceptor() {
+        return new ReadQueryInterceptor();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package org.xinp.config;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * 将 MyBatis 的查询标记为读取，事务外执行时使用只读连接池 (见 ReadWriteRoutingDataSource)
+ * 插入、更新、删除走 Executor.update，不经过这里，始终使用写连接。
+ */
+@Intercepts({
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+        @Signature(type = Executor.class, method = "query",
+                args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class}),
+        @Signature(type = Executor.class, method = "queryCursor",
+                args = {MappedStatement.class, Object.class, RowBounds.class})
+})
+public class ReadQueryInterceptor implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        boolean outermost = ReadWriteRoutingDataSource.beginRead();
+        try {
+            return invocation.proceed();
+        } finally {
+            if (outermost) {
+                ReadWriteRoutingDataSource.endRead();
+            }
+        }
+    }
+}
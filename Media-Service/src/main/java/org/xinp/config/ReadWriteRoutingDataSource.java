@@ -0,0 +1,64 @@
+package org.xinp.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.util.Map;
+
+/**
+ * 读写分离的 SQLite 数据源
+ * 写连接池只有一个连接：所有写入 (以及事务) 排队使用这一个连接，同一时刻只有一个写入者，不会再出现 SQLITE_BUSY；
+ * 只读连接池有多个只读连接，WAL 模式下读取不被写入阻塞，大批量扫描写库时列表查询不受影响。
+ * 事务中的查询仍使用事务的写连接 (可以读到事务中未提交的修改)；事务外的查询由 ReadQueryInterceptor 标记后使用只读连接。
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    private static final String WRITE = "write";
+    private static final String READ = "read";
+    // 当前线程正在执行的是否为查询
+    private static final ThreadLocal<Boolean> READING = new ThreadLocal<>();
+
+    private final HikariDataSource writeDataSource;
+    private final HikariDataSource readDataSource;
+
+    public ReadWriteRoutingDataSource(HikariDataSource writeDataSource, HikariDataSource readDataSource) {
+        this.writeDataSource = writeDataSource;
+        this.readDataSource = readDataSource;
+        setTargetDataSources(Map.of(WRITE, writeDataSource, READ, readDataSource));
+        setDefaultTargetDataSource(writeDataSource);
+    }
+
+    /**
+     * 标记当前线程开始执行查询：之后 (事务外) 获取的连接是只读连接
+     * @return 是否是最外层的查询 (只有最外层需要调用 endRead)
+     */
+    static boolean beginRead() {
+        if (Boolean.TRUE.equals(READING.get())) {
+            return false;
+        }
+        READING.set(Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * 查询结束，清除标记
+     */
+    static void endRead() {
+        READING.remove();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        // 事务开始时获取的连接用于整个事务 (包括其中的写入)，必须是写连接
+        boolean reading = Boolean.TRUE.equals(READING.get()) && !TransactionSynchronizationManager.isActualTransactionActive();
+        return reading ? READ : WRITE;
+    }
+
+    @Override
+    public void close() {
+        readDataSource.close();
+        writeDataSource.close();
+    }
+}
@@ -0,0 +1,287 @@
+package org.xinp.config;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 数据库版本迁移
+ * 数据库的版本记录在 SQLite 的 PRAGMA user_version 中 (未记录过版本的旧数据库为 0)。
+ * 启动时按版本号顺序执行所有高于当前版本的迁移，每个迁移连同版本号的更新在一个事务中完成，
+ * 中途失败时回滚到上一个版本，修复后再次启动从失败的迁移继续。
+ * 新建的数据库由 schema.sql 直接创建最新结构，之后只记录最新版本号 (见 markLatest)，因此修改表结构时
+ * 需要同时修改 schema.sql 并在 MIGRATIONS 末尾追加迁移，已发布的迁移不能修改。
+ */
+@Slf4j
+public class SchemaMigrator {
+
+    /**
+     * 单个迁移的执行内容 (在迁移事务中执行，不要自行提交)
+     */
+    @FunctionalInterface
+    interface MigrationStep {
+        void apply(Connection connection) throws SQLException;
+    }
+
+    /**
+     * 迁移
+     * @param version     迁移后的版本号 (从 1 开始连续递增)
+     * @param description 说明，用于日志
+     * @param step        执行内容
+     */
+    record Migration(int version, String description, MigrationStep step) {
+    }
+
+    // 版本 1 之前 schema.sql 中陆续新增的表
+    private static final String[] LEGACY_ADDED_TABLES = {
+            "CREATE TABLE IF NOT EXISTS scan_sessions (session_id INTEGER PRIMARY KEY AUTOINCREMENT, scan_path TEXT NOT NULL, "
+                    + "scan_mode TEXT, status TEXT, cursor_path TEXT, processed_files INTEGER DEFAULT 0, message TEXT, "
+                    + "create_time INTEGER, update_time INTEGER)",
+            "CREATE TABLE IF NOT EXISTS scrub_cursor (cursor_id INTEGER PRIMARY KEY, cursor_file_id INTEGER DEFAULT 0, "
+                    + "cycle_start INTEGER, cycle_deadline INTEGER, completed_cycles INTEGER DEFAULT 0, verified_files INTEGER DEFAULT 0, "
+                    + "verified_bytes INTEGER DEFAULT 0, mismatched_files INTEGER DEFAULT 0, update_time INTEGER)",
+            "CREATE TABLE IF NOT EXISTS probe_results (cache_key TEXT PRIMARY KEY, file_size INTEGER, last_modified INTEGER, "
+                    + "probe_result BLOB, update_time INTEGER)"
+    };
+    // 版本 1 之前 schema.sql 中陆续新增的字段：{表名, 字段名, 字段定义}
+    private static final String[][] LEGACY_ADDED_COLUMNS = {
+            {"media_files", "last_modified", "INTEGER"},
+            {"media_files", "file_key", "TEXT"},
+            {"media_files", "fingerprint", "INTEGER"},
+            {"media_files", "perceptual_hash", "INTEGER"},
+            {"media_files", "video_codec", "TEXT"},
+            {"media_files", "audio_codec", "TEXT"},
+            {"media_files", "bit_rate", "INTEGER"},
+            {"media_files", "frame_rate", "REAL"},
+            {"media_files", "audio_channels", "INTEGER"},
+            {"media_files", "captured_at", "INTEGER"},
+            {"media_files", "camera_model", "TEXT"},
+            {"media_files", "attributes_version", "INTEGER"}
+    };
+    // 版本 1 之前 schema.sql 中陆续新增的索引
+    private static final String[] LEGACY_ADDED_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS idx_media_files_file_key ON media_files (file_key)",
+            "CREATE INDEX IF NOT EXISTS idx_media_files_fingerprint ON media_files (fingerprint)",
+            "CREATE INDEX IF NOT EXISTS idx_media_files_file_hash ON media_files (file_hash)",
+            "CREATE INDEX IF NOT EXISTS idx_media_files_video_codec ON media_files (video_codec, height)",
+            "CREATE INDEX IF NOT EXISTS idx_media_files_audio_codec ON media_files (audio_codec)",
+            "CREATE INDEX IF NOT EXISTS idx_media_files_timeline ON media_files (captured_at, file_status, tool_id)",
+            "CREATE INDEX IF NOT EXISTS idx_media_files_camera_model ON media_files (camera_model, captured_at)"
+    };
+    // 版本 1 之前已被其他索引取代、需要删除的旧索引
+    private static final String[] LEGACY_DROPPED_INDEXES = {
+            "idx_media_files_captured_at" // 由 idx_media_files_timeline 覆盖 (时间线统计只读索引)
+    };
+    // 版本 1 的 media_files 字段定义，用于重建带有 file_hash UNIQUE 约束的旧表
+    private static final String MEDIA_FILES_V1_COLUMNS = "file_id INTEGER PRIMARY KEY AUTOINCREMENT, file_name TEXT NOT NULL, "
+            + "mime_type TEXT, file_size INTEGER, file_status TEXT, tool_id INTEGER, file_path TEXT NOT NULL, width INTEGER, "
+            + "height INTEGER, duration INTEGER, thumbnail TEXT, file_hash TEXT, fingerprint INTEGER, perceptual_hash INTEGER, metadata BLOB, "
+            + "update_time INTEGER, last_modified INTEGER, file_key TEXT, video_codec TEXT, audio_codec TEXT, bit_rate INTEGER, "
+            + "frame_rate REAL, audio_channels INTEGER, captured_at INTEGER, camera_model TEXT, attributes_version INTEGER";
+    private static final String MEDIA_FILES_V1_COLUMN_NAMES = "file_id, file_name, mime_type, file_size, file_status, tool_id, "
+            + "file_path, width, height, duration, thumbnail, file_hash, fingerprint, perceptual_hash, metadata, update_time, last_modified, file_key, "
+            + "video_codec, audio_codec, bit_rate, frame_rate, audio_channels, captured_at, camera_model, attributes_version";
+
+    /**
+     * 全部迁移，按版本号顺序排列
+     */
+    static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "补齐版本记录之前新增的表、字段和索引", SchemaMigrator::upgradeLegacySchema),
+            new Migration(2, "常用查询条件的索引", executeAll(
+                    // 扫描、移动时按路径查找记录，对账时按路径顺序分页
+                    "CREATE INDEX IF NOT EXISTS idx_media_files_file_path ON media_files (file_path)",
+                    // 分类下的文件列表按更新时间倒序分页，删除分类时按分类查找文件
+                    "CREATE INDEX IF NOT EXISTS idx_media_files_tool_id ON media_files (tool_id, update_time)",
+                    // 按状态查找 (损坏、处理中的文件) 以及不限分类的列表按更新时间倒序分页
+                    "CREATE INDEX IF NOT EXISTS idx_media_files_file_status ON media_files (file_status, update_time)",
+                    // 任务调度按类型和状态查找待执行的任务
+                    "CREATE INDEX IF NOT EXISTS idx_operation_logs_type_status ON operation_logs (operation_type, status)")),
+            new Migration(3, "file_path 唯一索引", executeAll(
+                    // 扫描、文件监听和对账互不协调，同一路径可能已被重复入库：保留最早入库的记录
+                    "DELETE FROM media_files WHERE file_id NOT IN (SELECT MIN(file_id) FROM media_files GROUP BY file_path)",
+                    // 同一路径只能有一条记录，批量插入时路径已存在的记录直接跳过
+                    "DROP INDEX IF EXISTS idx_media_files_file_path",
+                    "CREATE UNIQUE INDEX idx_media_files_file_path ON media_files (file_path)"))
+    );
+
+    /**
+     * @return 最新的版本号
+     */
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+    }
+
+    /**
+     * 读取数据库当前的版本号
+     */
+    public static int currentVersion(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA user_version")) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * 将已存在的数据库升级到最新版本
+     * @param connection 数据库连接
+     * @return 执行的迁移数量
+     */
+    public static int migrate(Connection connection) throws SQLException {
+        int current = currentVersion(connection);
+        if (current > latestVersion()) {
+            log.warn("数据库版本 {} 高于程序支持的版本 {}，跳过迁移", current, latestVersion());
+            return 0;
+        }
+        int applied = 0;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version() <= current) {
+                continue;
+            }
+            log.info("数据库迁移：版本 {} -> {}，{}", current, migration.version(), migration.description());
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                migration.step().apply(connection);
+                setVersion(connection, migration.version());
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw new SQLException("数据库迁移到版本 " + migration.version() + " 失败: " + e.getMessage(), e);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            current = migration.version();
+            applied++;
+        }
+        return applied;
+    }
+
+    /**
+     * 由 schema.sql 新建的数据库已经是最新结构，直接记录最新版本号
+     */
+    public static void markLatest(Connection connection) throws SQLException {
+        setVersion(connection, latestVersion());
+    }
+
+    private static void setVersion(Connection connection, int version) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            // PRAGMA 不支持参数绑定，版本号是程序内的常量
+            statement.execute("PRAGMA user_version = " + version);
+        }
+    }
+
+    private static MigrationStep executeAll(String... sqls) {
+        return connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : sqls) {
+                    statement.execute(sql);
+                }
+            }
+        };
+    }
+
+    /**
+     * 版本 1：为版本记录之前创建的数据库补齐新增的表、字段和索引 (并删除已被取代的旧索引)。
+     * 这类数据库可能停留在任意一个中间状态，因此每一步都先检查再执行。
+     * SQLite 的 ALTER TABLE ADD COLUMN 不支持 IF NOT EXISTS，因此先通过 PRAGMA table_info 检查字段是否存在。
+     * 旧版本 media_files.file_hash 带有 UNIQUE 约束，SQLite 无法直接删除列约束，需要重建表。
+     */
+    private static void upgradeLegacySchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String table : LEGACY_ADDED_TABLES) {
+                statement.execute(table);
+            }
+        }
+        for (String[] column : LEGACY_ADDED_COLUMNS) {
+            String table = column[0];
+            String columnName = column[1];
+            if (!hasColumn(connection, table, columnName)) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("ALTER TABLE " + table + " ADD COLUMN " + columnName + " " + column[2]);
+                    log.info("数据库升级：为表 {} 新增字段 {}", table, columnName);
+                }
+            }
+        }
+        if (hasUniqueIndexOn(connection, "media_files", "file_hash")) {
+            rebuildMediaFilesTable(connection);
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (String index : LEGACY_DROPPED_INDEXES) {
+                statement.execute("DROP INDEX IF EXISTS " + index);
+            }
+            for (String index : LEGACY_ADDED_INDEXES) {
+                statement.execute(index);
+            }
+        }
+    }
+
+    /**
+     * 判断字段上是否有 UNIQUE 约束 (约束会生成 origin 为 'u' 的自动索引)
+     */
+    private static boolean hasUniqueIndexOn(Connection connection, String table, String columnName) throws SQLException {
+        List<String> uniqueIndexes = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA index_list(" + table + ")")) {
+            while (resultSet.next()) {
+                if ("u".equals(resultSet.getString("origin"))) {
+                    uniqueIndexes.add(resultSet.getString("name"));
+                }
+            }
+        }
+        for (String index : uniqueIndexes) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("PRAGMA index_info('" + index + "')")) {
+                while (resultSet.next()) {
+                    if (columnName.equalsIgnoreCase(resultSet.getString("name"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按版本 1 的字段定义重建 media_files 表 (去掉 file_hash 的 UNIQUE 约束)，在迁移事务中完成。
+     * 保留原有的 file_id 和自增序号，避免已删除文件的 ID 被重新分配；索引随旧表删除，之后由 LEGACY_ADDED_INDEXES 重新创建。
+     */
+    private static void rebuildMediaFilesTable(Connection connection) throws SQLException {
+        log.info("数据库升级：重建表 media_files，去掉 file_hash 的唯一约束");
+        try (Statement statement = connection.createStatement()) {
+            long sequence = 0;
+            try (ResultSet resultSet = statement.executeQuery("SELECT seq FROM sqlite_sequence WHERE name = 'media_files'")) {
+                if (resultSet.next()) {
+                    sequence = resultSet.getLong(1);
+                }
+            }
+            statement.execute("DROP TABLE IF EXISTS media_files_rebuild");
+            statement.execute("CREATE TABLE media_files_rebuild (" + MEDIA_FILES_V1_COLUMNS + ")");
+            statement.execute("INSERT INTO media_files_rebuild (" + MEDIA_FILES_V1_COLUMN_NAMES + ") SELECT "
+                    + MEDIA_FILES_V1_COLUMN_NAMES + " FROM media_files");
+            statement.execute("DROP TABLE media_files");
+            statement.execute("ALTER TABLE media_files_rebuild RENAME TO media_files");
+            if (statement.executeUpdate("UPDATE sqlite_sequence SET seq = MAX(seq, " + sequence + ") WHERE name = 'media_files'") == 0
+                    && sequence > 0) {
+                // 旧表为空时新表还没有自增序号记录
+                statement.execute("INSERT INTO sqlite_sequence (name, seq) VALUES ('media_files', " + sequence + ")");
+            }
+        }
+    }
+
+    private static boolean hasColumn(Connection connection, String table, String columnName) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (resultSet.next()) {
+                if (columnName.equalsIgnoreCase(resultSet.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,73 @@
+package org.xinp.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.sqlite.SQLiteConfig;
+
+/**
+ * SQLite 数据源配置
+ * 数据库使用 WAL 日志模式：读取和写入互不阻塞，提交只追加到 WAL 文件。
+ * synchronous=NORMAL 时提交不再逐次刷盘，由检查点统一刷盘，多次提交合并为一次刷盘 (掉电时可能丢失最后几次提交，但不会损坏数据库)。
+ * 写入和查询分别使用写连接池 (一个连接) 和只读连接池，见 ReadWriteRoutingDataSource。
+ */
+@Slf4j
+@Configuration
+public class SqliteDataSourceConfig {
+
+    private static final String DRIVER_CLASS_NAME = "org.sqlite.JDBC";
+
+    /**
+     * @param jdbcUrl           从 application.yml 中获取的数据库URL
+     * @param readPoolSize      只读连接池的连接数
+     * @param writeWaitMillis   写入排队等待写连接的最长时间 (毫秒)
+     * @param busyTimeoutMillis SQLite 等待数据库锁的最长时间 (毫秒)
+     * @return 读写分离的数据源 (MyBatis、事务管理器和 JdbcTemplate 都使用它)
+     */
+    @Bean
+    @Primary
+    public ReadWriteRoutingDataSource dataSource(
+            @Value("${spring.datasource.url}") String jdbcUrl,
+            @Value("${media.database.read-pool-size:4}") int readPoolSize,
+            @Value("${media.database.write-wait-ms:60000}") long writeWaitMillis,
+            @Value("${media.database.busy-timeout-ms:5000}") int busyTimeoutMillis
+    ) {
+        SQLiteConfig writeConfig = new SQLiteConfig();
+        writeConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        writeConfig.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        writeConfig.setBusyTimeout(busyTimeoutMillis);
+        HikariDataSource writeDataSource = newPool("media-db-write", jdbcUrl, writeConfig, false, 1, writeWaitMillis);
+
+        SQLiteConfig readConfig = new SQLiteConfig();
+        readConfig.setReadOnly(true);
+        readConfig.setBusyTimeout(busyTimeoutMillis);
+        HikariDataSource readDataSource = newPool("media-db-read", jdbcUrl, readConfig, true, Math.max(1, readPoolSize), writeWaitMillis);
+
+        log.info("SQLite 数据源：WAL 模式，1 个写连接，{} 个只读连接", readDataSource.getMaximumPoolSize());
+        return new ReadWriteRoutingDataSource(writeDataSource, readDataSource);
+    }
+
+    /**
+     * 创建连接池 (首次获取连接时才打开数据库，数据库文件由 ConditionalDatabaseInitializer 通过写连接创建)
+     */
+    private static HikariDataSource newPool(String poolName, String jdbcUrl, SQLiteConfig sqliteConfig, boolean readOnly,
+                                            int size, long connectionTimeout) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setPoolName(poolName);
+        dataSource.setDriverClassName(DRIVER_CLASS_NAME);
+        dataSource.setJdbcUrl(jdbcUrl);
+        dataSource.setDataSourceProperties(sqliteConfig.toProperties());
+        // 只读必须在打开数据库时指定 (SQLiteConfig)，连接池设置相同的值，避免取得连接后修改只读标记出错
+        dataSource.setReadOnly(readOnly);
+        dataSource.setMaximumPoolSize(size);
+        dataSource.setMinimumIdle(size);
+        dataSource.setConnectionTimeout(connectionTimeout);
+        // 本地数据库文件没有服务端超时，连接一直保持打开 (最后一个连接关闭时 SQLite 会删除 WAL 文件，只读连接无法重建)
+        dataSource.setMaxLifetime(0);
+        dataSource.setIdleTimeout(0);
+        return dataSource;
+    }
+}
@@ -0,0 +1,27 @@
+package org.xinp.constant;
+
+/**
+ * 重复文件的处理方式 (每组保留一个文件，处理其余的副本)
+ */
+public enum DedupeAction {
+    /**
+     * 删除副本 - 删除多余副本的物理文件和数据库记录。
+     */
+    DELETE("删除副本"),
+
+    /**
+     * 替换为硬链接 - 将多余副本替换为指向保留文件的硬链接，保留各自的路径和记录，只占用一份磁盘空间。
+     * 要求副本与保留文件位于同一文件系统。
+     */
+    HARDLINK("替换为硬链接");
+
+    private final String description;
+
+    DedupeAction(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,26 @@
+package org.xinp.constant;
+
+/**
+ * 计算文件哈希时读取文件内容的方式
+ */
+public enum HashReadMode {
+    /**
+     * 文件通道 - 通过 FileChannel 读入可复用的直接缓冲区，适用于所有文件。
+     */
+    CHANNEL("文件通道"),
+
+    /**
+     * 内存映射 - 将文件分段映射到内存后直接计算，省去一次内核到用户空间的拷贝；映射在垃圾回收时才释放，适合大文件。
+     */
+    MMAP("内存映射");
+
+    private final String description;
+
+    HashReadMode(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,31 @@
+package org.xinp.constant;
+
+/**
+ * 磁盘 I/O 的优先级，由 {@link org.xinp.util.IoGovernor} 统一调度
+ */
+public enum IoPriority {
+    /**
+     * 交互 - 用户正在等待结果的操作 (例如上传文件入库)，优先获得读写配额，可以短暂透支。
+     */
+    INTERACTIVE("交互"),
+
+    /**
+     * 后台 - 扫描、缩略图生成、转码等批量任务，有交互操作等待时让行。
+     */
+    BACKGROUND("后台"),
+
+    /**
+     * 空闲 - 可以无限期推迟的补充工作 (例如后台补算哈希)，有交互或后台操作等待时都让行。
+     */
+    IDLE("空闲");
+
+    private final String description;
+
+    IoPriority(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,26 @@
+package org.xinp.constant;
+
+/**
+ * 图片感知哈希算法 (64 位，内容相似的图片哈希的汉明距离小)
+ */
+public enum PerceptualHashAlgorithm {
+    /**
+     * 差异哈希 - 缩小为 9x8 灰度图，比较每行相邻像素的亮度。计算快，对缩放和重新压缩不敏感。
+     */
+    DHASH("差异哈希"),
+
+    /**
+     * 感知哈希 - 缩小为 32x32 灰度图做离散余弦变换，比较 8x8 低频系数与中位数。计算稍慢，对亮度、对比度调整更稳健。
+     */
+    PHASH("感知哈希");
+
+    private final String description;
+
+    PerceptualHashAlgorithm(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
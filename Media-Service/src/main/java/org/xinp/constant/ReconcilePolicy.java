@@ -0,0 +1,26 @@
+package org.xinp.constant;
+
+/**
+ * 对账时数据库记录对应的物理文件缺失的处理策略
+ */
+public enum ReconcilePolicy {
+    /**
+     * 标记为错误 - 保留记录，将文件状态置为 ERROR，方便管理员排查或在文件恢复后自动还原。
+     */
+    MARK_ERROR("标记为错误"),
+
+    /**
+     * 删除记录 - 直接从数据库中删除文件记录。
+     */
+    PURGE("删除记录");
+
+    private final String description;
+
+    ReconcilePolicy(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
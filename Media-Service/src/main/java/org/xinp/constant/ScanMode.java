@@ -0,0 +1,27 @@
+package org.xinp.constant;
+
+/**
+ * 扫描模式枚举类
+ */
+public enum ScanMode {
+    /**
+     * 全量扫描 - 路径已入库的文件直接跳过，其余文件完整计算哈希并提取元数据。
+     */
+    FULL("全量扫描"),
+
+    /**
+     * 增量扫描 - 根据 (文件大小, 最后修改时间, 设备号+inode) 指纹判断文件是否变化：
+     * 未变化的文件不读取内容直接跳过，变化的文件重新提取并原地更新，硬链接副本不再重复计算哈希。
+     */
+    INCREMENTAL("增量扫描");
+
+    private final String description;
+
+    ScanMode(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,45 @@
+package org.xinp.constant;
+
+import java.time.temporal.ChronoUnit;
+
+/**
+ * 时间线的分组粒度 (按拍摄时间)
+ */
+public enum TimelineGranularity {
+    /**
+     * 按年分组，分组名如 2024
+     */
+    YEAR("按年", ChronoUnit.YEARS, "yyyy"),
+
+    /**
+     * 按月分组，分组名如 2024-06
+     */
+    MONTH("按月", ChronoUnit.MONTHS, "yyyy-MM"),
+
+    /**
+     * 按日分组，分组名如 2024-06-01
+     */
+    DAY("按日", ChronoUnit.DAYS, "yyyy-MM-dd");
+
+    private final String description;
+    private final ChronoUnit unit;
+    private final String pattern;
+
+    TimelineGranularity(String description, ChronoUnit unit, String pattern) {
+        this.description = description;
+        this.unit = unit;
+        this.pattern = pattern;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public ChronoUnit getUnit() {
+        return unit;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+}
@@ -3,6 +3,9 @@ package org.xinp.controller;
 import lombok.RequiredArgsConstructor;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.xinp.constant.ReconcilePolicy;
+import org.xinp.constant.ScanMode;
+import org.xinp.constant.TimelineGranularity;
 import org.xinp.entity.MediaFiles;
 import org.xinp.pojo.*;
 import org.xinp.service.MediaService;
@@ -25,29 +28,173 @@ public class MediaController {
     /**
      * 媒体文件扫描
      * @param path 扫描路径
-     * @return 执行结果
+     * @param mode 扫描模式：FULL 全量扫描 (默认)，INCREMENTAL 增量扫描 (按大小/修改时间/inode 指纹跳过未变化的文件)
+     * @param workers 本次扫描的工作线程数，不传时使用默认配置
+     * @return 扫描ID (多个互不重叠的目录可以同时扫描)
      */
     @PostMapping("/scan/start")
-    public Result<String> mediaStartScan(@RequestParam("path") String path) {
-        return mediaService.mediaStartScan(path);
+    public Result<Long> mediaStartScan(@RequestParam("path") String path,
+                                       @RequestParam(value = "mode", required = false, defaultValue = "FULL") ScanMode mode,
+                                       @RequestParam(value = "workers", required = false) Integer workers) {
+        return mediaService.mediaStartScan(path, mode, workers);
     }
 
     /**
      * 进度查询
+     * @param id 扫描ID，不传时返回最近启动的任务的进度
      * @return 进度信息
      */
     @GetMapping("/scan/progress")
-    public Result<ScanProgress> getScanProgress() {
-        return mediaService.getScanProgress();
+    public Result<ScanProgress> getScanProgress(@RequestParam(value = "id", required = false) Long id) {
+        return mediaService.getScanProgress(id);
     }
 
     /**
      * 停止扫描
+     * @param id 扫描ID，不传时取消最近启动的任务
      * @return 执行信息
      */
     @PostMapping("/scan/cancel")
-    public Result<String> cancelScan() {
-        return mediaService.cancelScan();
+    public Result<String> cancelScan(@RequestParam(value = "id", required = false) Long id) {
+        return mediaService.cancelScan(id);
+    }
+
+    /**
+     * 从断点继续扫描 (扫描被取消、失败或应用重启后)
+     * @param sessionId 扫描会话ID (即扫描ID)，不传时继续最近一次未完成的扫描
+     * @param workers 本次扫描的工作线程数，不传时使用默认配置
+     * @return 继续的扫描ID
+     */
+    @PostMapping("/scan/resume")
+    public Result<Long> mediaResumeScan(@RequestParam(value = "sessionId", required = false) Long sessionId,
+                                        @RequestParam(value = "workers", required = false) Integer workers) {
+        return mediaService.mediaResumeScan(sessionId, workers);
+    }
+
+    /**
+     * 数据库/文件系统对账：物理文件缺失的记录按策略处理，未入库的文件自动入库
+     * 进度通过 /scan/progress 查询，通过 /scan/cancel 取消
+     * @param path 对账路径
+     * @param policy 文件缺失时的处理策略：MARK_ERROR 标记为错误 (默认)，PURGE 删除记录
+     * @return 执行结果
+     */
+    @PostMapping("/reconcile/start")
+    public Result<String> mediaStartReconcile(@RequestParam("path") String path,
+                                              @RequestParam(value = "policy", required = false, defaultValue = "MARK_ERROR") ReconcilePolicy policy) {
+        return mediaService.mediaStartReconcile(path, policy);
+    }
+
+    /**
+     * 最近一次对账报告
+     * @return 各类文件的数量统计
+     */
+    @GetMapping("/reconcile/report")
+    public Result<ReconcileReport> getReconcileReport() {
+        return mediaService.getReconcileReport();
+    }
+
+    /**
+     * 后台哈希计算进度 (文件入库时只计算快速指纹，完整哈希由后台补算)
+     * @return 待计算的记录数和本轮已处理的记录数
+     */
+    @GetMapping("/hash/progress")
+    public Result<TaskProgress> getHashProgress() {
+        return mediaService.getHashProgress();
+    }
+
+    /**
+     * 暂停后台哈希计算，正在计算的文件立即中止 (通过 /hash/start 继续，应用重启后自动继续)
+     * @return 执行信息
+     */
+    @PostMapping("/hash/cancel")
+    public Result<String> pauseBackgroundHash() {
+        return mediaService.pauseBackgroundHash();
+    }
+
+    /**
+     * 继续后台哈希计算
+     * @return 执行信息
+     */
+    @PostMapping("/hash/start")
+    public Result<String> resumeBackgroundHash() {
+        return mediaService.resumeBackgroundHash();
+    }
+
+    /**
+     * 完整性校验进度 (后台按计划周期逐个重新计算文件哈希，内容与入库时不一致的文件标记为 ERROR，详情见 SCRUB 类型的操作日志)
+     * @return 本轮已校验/总文件数、发现的损坏文件数和当前校验速率
+     */
+    @GetMapping("/scrub/progress")
+    public Result<TaskProgress> getScrubProgress() {
+        return mediaService.getScrubProgress();
+    }
+
+    /**
+     * 暂停完整性校验，正在校验的文件立即中止 (通过 /scrub/start 继续，应用重启后自动从断点继续)
+     * @return 执行信息
+     */
+    @PostMapping("/scrub/cancel")
+    public Result<String> pauseScrub() {
+        return mediaService.pauseScrub();
+    }
+
+    /**
+     * 继续完整性校验
+     * @return 执行信息
+     */
+    @PostMapping("/scrub/start")
+    public Result<String> resumeScrub() {
+        return mediaService.resumeScrub();
+    }
+
+    /**
+     * 结构化属性补全进度 (升级前入库的记录由后台从 metadata JSON 和图片 EXIF 中补全编码、帧率、拍摄时间等字段)
+     * @return 待补全的记录数和已处理的记录数
+     */
+    @GetMapping("/attributes/progress")
+    public Result<TaskProgress> getAttributeBackfillProgress() {
+        return mediaService.getAttributeBackfillProgress();
+    }
+
+    /**
+     * 开始结构化属性补全 (应用启动时自动开始，通常不需要手动调用)
+     * @return 执行信息
+     */
+    @PostMapping("/attributes/backfill")
+    public Result<String> startAttributeBackfill() {
+        return mediaService.startAttributeBackfill();
+    }
+
+    /**
+     * 外部进程 (ffmpeg/ffprobe) 的运行统计
+     * @return 按工具统计的并发上限、运行中/排队数、累计启动/成功/失败/超时/取消次数和运行时间
+     */
+    @GetMapping("/processes")
+    public Result<List<ProcessMetrics>> getProcessMetrics() {
+        return mediaService.getProcessMetrics();
+    }
+
+    /**
+     * 全局磁盘 I/O 限额 (扫描、缩略图等后台任务共用)
+     * @return 当前限额及使用情况
+     */
+    @GetMapping("/io/limits")
+    public Result<IoLimits> getIoLimits() {
+        return mediaService.getIoLimits();
+    }
+
+    /**
+     * 运行时调整全局磁盘 I/O 限额，立即对正在运行的任务生效
+     * @param bytesPerSecond 每秒读写字节数上限，0 表示不限速，不传时保持原值
+     * @param maxOpenFiles 同时打开的文件数上限，0 表示不限制，不传时保持原值
+     * @param interactiveReservedFiles 为交互操作 (如上传) 预留的打开文件数，不传时保持原值
+     * @return 调整后的限额
+     */
+    @PostMapping("/io/limits")
+    public Result<IoLimits> updateIoLimits(@RequestParam(value = "bytesPerSecond", required = false) Long bytesPerSecond,
+                                           @RequestParam(value = "maxOpenFiles", required = false) Integer maxOpenFiles,
+                                           @RequestParam(value = "interactiveReservedFiles", required = false) Integer interactiveReservedFiles) {
+        return mediaService.updateIoLimits(bytesPerSecond, maxOpenFiles, interactiveReservedFiles);
     }
 
     /**
@@ -68,6 +215,58 @@ public class MediaController {
         return mediaService.getMediaFilesList(toolId, page, pageSize, keyword);
     }
 
+    /**
+     * 按结构化属性筛选文件，例如 /search?videoCodec=hevc&minHeight=2160 (全部 HEVC 4K 视频)
+     * @param query 筛选条件：videoCodec、minHeight、audioCodec、minFrameRate、cameraModel、capturedFrom、capturedTo
+     * @param page 页码
+     * @param pageSize 每页大小
+     * @return 文件列表，按拍摄时间倒序
+     */
+    @GetMapping("/search")
+    public Result<PageResult<MediaFileDTO>> searchMedia(
+            MediaAttributeQuery query,
+            @RequestParam(required = false, defaultValue = "1") Integer page,
+            @RequestParam(required = false, defaultValue = "50") Integer pageSize
+    ) {
+        return mediaService.searchMediaFiles(query, page, pageSize);
+    }
+
+    /**
+     * 按拍摄时间分组的时间线，例如 /timeline?granularity=MONTH&from=...&to=... 为某一年按月的文件数
+     * @param granularity 分组粒度：YEAR (默认)、MONTH、DAY
+     * @param from 拍摄时间起点 (毫秒，包含)，为空时从最早的文件开始
+     * @param to 拍摄时间终点 (毫秒，不包含)，为空时到最晚的文件为止
+     * @return 有文件的分组 (按时间倒序，含每组的起止时间) 和没有拍摄时间的文件数
+     */
+    @GetMapping("/timeline")
+    public Result<TimelineDTO> getTimeline(
+            @RequestParam(required = false) TimelineGranularity granularity,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to
+    ) {
+        return mediaService.getTimeline(granularity, from, to);
+    }
+
+    /**
+     * 时间线分组内的文件，按拍摄时间倒序，使用游标分页 (from/to 取分组的 startTime/endTime)
+     * @param from 拍摄时间起点 (毫秒，包含)
+     * @param to 拍摄时间终点 (毫秒，不包含)
+     * @param cursorCapturedAt 上一页返回的 nextCapturedAt，第一页不传
+     * @param cursorFileId 上一页返回的 nextFileId，第一页不传
+     * @param limit 每页数量
+     * @return 当前页的文件和下一页游标
+     */
+    @GetMapping("/timeline/files")
+    public Result<TimelinePageDTO> getTimelineFiles(
+            @RequestParam("from") Long from,
+            @RequestParam("to") Long to,
+            @RequestParam(required = false) Long cursorCapturedAt,
+            @RequestParam(required = false) Long cursorFileId,
+            @RequestParam(required = false, defaultValue = "50") Integer limit
+    ) {
+        return mediaService.getTimelineFiles(from, to, cursorCapturedAt, cursorFileId, limit);
+    }
+
     /**
      * 文件上传，Nginx
      * @param tempFilePath 临时文件路径
@@ -142,4 +341,49 @@ public class MediaController {
         return mediaService.addTranscodeTask(taskDTO);
     }
 
-}
\ No newline at end of file
+    /**
+     * 重复文件报告：按完整哈希分组，按可回收空间从大到小排序
+     * 完整哈希由后台补算，尚未计算完的文件暂不参与 (进度见 /hash/progress)
+     * @param page     页码
+     * @param pageSize 每页的组数
+     * @return 重复组数量、多余副本数、可回收空间及当前页的重复组
+     */
+    @GetMapping("/duplicates")
+    public Result<DuplicateReport> getDuplicates(
+            @RequestParam(required = false, defaultValue = "1") Integer page,
+            @RequestParam(required = false, defaultValue = "20") Integer pageSize
+    ) {
+        return mediaService.getDuplicates(page, pageSize);
+    }
+
+    /**
+     * 批量处理重复文件（每组保留一个文件），创建去重操作日志，由 /api/task/start?type=DEDUPE 执行
+     * @param request 请求体
+     * @return 创建的操作日志ID列表
+     * {
+     *     "action": "HARDLINK", // 必须，DELETE 删除副本，HARDLINK 替换为硬链接 (需在同一文件系统)
+     *     "fileHashes": ["9f86d08...", "60303ae..."], // 必须，要处理的重复组
+     *     "keepFileIds": [12] // 非必须，各组要保留的文件ID，未指定的组保留已分类的、最早入库的文件
+     * }
+     */
+    @PostMapping("/duplicates/resolve")
+    public Result<List<Long>> resolveDuplicates(@RequestBody DuplicateResolveRequestDTO request) {
+        return mediaService.resolveDuplicates(request);
+    }
+
+    /**
+     * 查找相似图片：按感知哈希的汉明距离查找缩放、裁边、重新压缩等近似重复的图片
+     * @param fileId      图片的文件ID
+     * @param maxDistance 最大汉明距离 (默认 6；越小越相似，上限由 media.similar.max-distance 配置，默认 7)
+     * @param limit       最多返回的数量
+     * @return 相似的图片，按距离从小到大排序
+     */
+    @GetMapping("/similar")
+    public Result<List<SimilarImageDTO>> getSimilarImages(
+            @RequestParam Long fileId,
+            @RequestParam(required = false) Integer maxDistance,
+            @RequestParam(required = false, defaultValue = "50") Integer limit
+    ) {
+        return mediaService.getSimilarImages(fileId, maxDistance, limit);
+    }
+}
@@ -21,6 +21,7 @@ public class OperationLogController {
      *             3. TRANSCODE 转码任务
      *             4. TRANSCODE 生成缩略图任务
      *             5. THUMBNAIL 生成封面缩略图
+     *             6. DEDUPE 处理重复文件 (删除副本/替换为硬链接)
      * @return ok
      */
     @PostMapping("/start")
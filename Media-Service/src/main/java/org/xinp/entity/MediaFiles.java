@@ -1,14 +1,16 @@
 package org.xinp.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
 import org.xinp.constant.FileStatus;
+import org.xinp.handler.CompressedJsonTypeHandler;
 
 //文件信息信息
 @Data
-@TableName("media_files")
+@TableName(value = "media_files", autoResultMap = true)
 public class MediaFiles {
     //文件id 使用数据库生成的字段
     @TableId(type = IdType.AUTO)
@@ -32,10 +34,35 @@ public class MediaFiles {
     private Long duration;
     //缩略图/另类版本路径
     private String thumbnail;
-    //文件哈希值
+    //文件哈希值 (完整内容的 SHA-256)，为空表示尚未计算
     private String fileHash;
-    //文件详细信息JSON信息
+    //快速指纹 (文件大小 + 头/中/尾三段内容的 64 位哈希)，用于先行判断内容是否可能重复
+    private Long fingerprint;
+    //图片感知哈希 (64 位，缩放/重新压缩后的相似图片汉明距离小)，非图片或无法解码时为空
+    private Long perceptualHash;
+    //文件详细信息JSON信息 (压缩存储，读取时自动解压)
+    @TableField(typeHandler = CompressedJsonTypeHandler.class)
     private String metadata;
     //文件更新时间
     private Long updateTime;
+    //文件最后修改时间 (毫秒)，用于增量扫描判断文件是否变化
+    private Long lastModified;
+    //文件系统标识 (设备号+inode)，用于增量扫描识别硬链接
+    private String fileKey;
+    //第一条视频流的编码 (ffprobe 的 codec_name，如 h264/hevc)，与 height 组成索引，用于按编码和分辨率筛选
+    private String videoCodec;
+    //第一条音频流的编码 (如 aac/opus)
+    private String audioCodec;
+    //总码率 (比特/秒)
+    private Long bitRate;
+    //视频平均帧率
+    private Double frameRate;
+    //音频声道数
+    private Integer audioChannels;
+    //拍摄时间 (毫秒)：图片取 EXIF 拍摄时间，视频取容器中的创建时间
+    private Long capturedAt;
+    //拍摄设备型号 (EXIF Model 或 QuickTime 元数据中的型号)
+    private String cameraModel;
+    //以上结构化属性的提取版本 (MediaAttributeExtractor.VERSION)，为空或低于当前版本时由后台任务补全
+    private Integer attributesVersion;
 }
@@ -0,0 +1,26 @@
+package org.xinp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import org.xinp.handler.CompressedJsonTypeHandler;
+
+// 媒体探测结果缓存 (文件大小和修改时间与探测时一致才有效)
+@Data
+@TableName(value = "probe_results", autoResultMap = true)
+public class ProbeResults {
+    //文件标识 (设备号+inode，文件系统不支持时为相对路径)
+    @TableId(type = IdType.INPUT)
+    private String cacheKey;
+    //探测时的文件大小
+    private Long fileSize;
+    //探测时的修改时间
+    private Long lastModified;
+    //ffprobe 输出的 JSON (压缩存储，读取时自动解压)
+    @TableField(typeHandler = CompressedJsonTypeHandler.class)
+    private String probeResult;
+    //最近一次探测时间
+    private Long updateTime;
+}
@@ -0,0 +1,31 @@
+package org.xinp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import lombok.Data;
+import org.xinp.constant.ScanMode;
+import org.xinp.constant.ScanStatus;
+
+// 扫描会话 (记录扫描断点，用于取消或重启后继续扫描)
+@Data
+public class ScanSessions {
+    //会话ID
+    @TableId(type = IdType.AUTO)
+    private Long sessionId;
+    //扫描目录 (相对项目根目录)
+    private String scanPath;
+    //扫描模式
+    private ScanMode scanMode;
+    //状态
+    private ScanStatus status;
+    //断点：遍历顺序中已提交的最后一个文件 (相对扫描目录)，为空表示尚未提交任何文件
+    private String cursorPath;
+    //断点之前已处理的文件数
+    private Long processedFiles;
+    //状态信息/失败原因
+    private String message;
+    //创建时间
+    private Long createTime;
+    //最近一次检查点时间
+    private Long updateTime;
+}
@@ -0,0 +1,29 @@
+package org.xinp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import lombok.Data;
+
+// 完整性校验游标 (记录后台校验进度，重启后从断点继续；只有一行)
+@Data
+public class ScrubCursor {
+    //游标ID (固定为 1)
+    @TableId(type = IdType.INPUT)
+    private Long cursorId;
+    //本轮已校验到的 file_id
+    private Long cursorFileId;
+    //本轮开始时间
+    private Long cycleStart;
+    //本轮计划完成时间
+    private Long cycleDeadline;
+    //已完成的轮数
+    private Long completedCycles;
+    //本轮已校验的文件数
+    private Long verifiedFiles;
+    //本轮已校验的字节数
+    private Long verifiedBytes;
+    //本轮发现内容损坏的文件数
+    private Long mismatchedFiles;
+    //最近一次保存时间
+    private Long updateTime;
+}
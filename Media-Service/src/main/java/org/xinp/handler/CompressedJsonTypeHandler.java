@@ -0,0 +1,161 @@
+package org.xinp.handler;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.MappedTypes;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩存储的 JSON 文本 (media_files.metadata、probe_results.probe_result)
+ * 写入时用 Deflate 压缩为 BLOB，第一个字节是格式标记：
+ * 0x01 表示使用预置字典 DICTIONARY_V1 压缩的数据，0x00 表示未压缩的 UTF-8 文本 (内容太短、压缩后不会变小时)。
+ * ffprobe 的输出中大量重复字段名和常见取值，单条记录只有几 KB，直接压缩效果有限：一条约 3KB 的输出直接压缩后约 1.2KB，预置字典后约 450 字节。
+ * 读取时自动解压；旧版本写入的 TEXT 值 (以 '{' 或 '[' 开头，不会与格式标记冲突) 原样返回，由 MetadataCompactor 在后台转换。
+ */
+@MappedTypes(String.class)
+@MappedJdbcTypes(JdbcType.BLOB)
+public class CompressedJsonTypeHandler extends BaseTypeHandler<String> {
+
+    public static final byte FORMAT_PLAIN = 0x00;
+    public static final byte FORMAT_DEFLATE_V1 = 0x01;
+
+    // 短于该长度的内容不压缩
+    private static final int MIN_COMPRESS_LENGTH = 64;
+
+    /**
+     * 预置字典：常见的 ffprobe 字段名和取值，越常出现的放在越后面 (距离越近编码越短)。
+     * 已写入数据库的数据依赖这份字典解压，内容不能修改；需要调整时新增 DICTIONARY_V2 和对应的格式标记。
+     */
+    private static final byte[] DICTIONARY_V1 = ("""
+            "disposition":{"default":1,"dub":0,"original":0,"comment":0,"lyrics":0,"karaoke":0,"forced":0,\
+            "hearing_impaired":0,"visual_impaired":0,"clean_effects":0,"attached_pic":0,"timed_thumbnails":0,\
+            "non_diegetic":0,"captions":0,"descriptions":0,"metadata":0,"dependent":0,"still_image":0},\
+            "tags":{"creation_time":"","language":"und","handler_name":"VideoHandler","vendor_id":"[0][0][0][0]",\
+            "encoder":"Lavf","major_brand":"isom","minor_version":"512","compatible_brands":"isomiso2avc1mp41",\
+            "com.apple.quicktime.make":"Apple","com.apple.quicktime.model":"","com.apple.quicktime.software":"",\
+            "com.apple.quicktime.creationdate":"","com.apple.quicktime.location.ISO6709":""},\
+            "side_data_list":[{"side_data_type":"Display Matrix","displaymatrix":"","rotation":-90}],\
+            "codec_long_name":"H.264 / AVC / MPEG-4 AVC / MPEG-4 part 10","profile":"High","codec_tag_string":"avc1",\
+            "codec_long_name":"H.265 / HEVC (High Efficiency Video Coding)","profile":"Main 10","codec_tag_string":"hvc1",\
+            "codec_long_name":"AAC (Advanced Audio Coding)","profile":"LC","codec_tag_string":"mp4a","sample_fmt":"fltp",\
+            "channel_layout":"stereo","bits_per_sample":0,"initial_padding":0,\
+            "coded_width":1920,"coded_height":1080,"closed_captions":0,"film_grain":0,"has_b_frames":1,\
+            "sample_aspect_ratio":"1:1","display_aspect_ratio":"16:9","pix_fmt":"yuv420p","level":40,\
+            "color_range":"tv","color_space":"bt709","color_transfer":"bt709","color_primaries":"bt709",\
+            "chroma_location":"left","field_order":"progressive","refs":1,"is_avc":"true","nal_length_size":"4",\
+            "id":"0x1","r_frame_rate":"30/1","avg_frame_rate":"30/1","time_base":"1/90000","start_pts":0,\
+            "start_time":"0.000000","duration_ts":0,"duration":"","bit_rate":"","bits_per_raw_sample":"8",\
+            "nb_frames":"","extradata_size":0,\
+            {"format":{"filename":"","nb_streams":2,"nb_programs":0,"nb_stream_groups":0,\
+            "format_name":"mov,mp4,m4a,3gp,3g2,mj2","format_long_name":"QuickTime / MOV","start_time":"0.000000",\
+            "duration":"","size":"","bit_rate":"","probe_score":100,\
+            {"streams":[{"index":0,"codec_name":"h264","codec_type":"video","codec_tag":"0x31637661",\
+            "width":1920,"height":1080,"index":1,"codec_name":"aac","codec_type":"audio","codec_tag":"0x6134706d",\
+            "sample_rate":"48000","channels":2,"sample_rate":"44100","channels":2,""").getBytes(StandardCharsets.UTF_8);
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, String parameter, JdbcType jdbcType) throws SQLException {
+        ps.setBytes(i, compress(parameter));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return decompress(rs.getBytes(columnName));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return decompress(rs.getBytes(columnIndex));
+    }
+
+    @Override
+    public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return decompress(cs.getBytes(columnIndex));
+    }
+
+    /**
+     * 压缩文本
+     * @param text JSON 文本
+     * @return 带格式标记的存储内容
+     */
+    public static byte[] compress(String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        if (raw.length >= MIN_COMPRESS_LENGTH) {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+            try {
+                deflater.setDictionary(DICTIONARY_V1);
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+                out.write(FORMAT_DEFLATE_V1);
+                byte[] buffer = new byte[4096];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                if (out.size() < raw.length) {
+                    return out.toByteArray();
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+        byte[] plain = new byte[raw.length + 1];
+        plain[0] = FORMAT_PLAIN;
+        System.arraycopy(raw, 0, plain, 1, raw.length);
+        return plain;
+    }
+
+    /**
+     * 解压存储内容
+     * @param stored 数据库中的值 (带格式标记的 BLOB，或旧版本写入的 TEXT)
+     * @return JSON 文本
+     */
+    public static String decompress(byte[] stored) throws SQLException {
+        if (stored == null || stored.length == 0) {
+            return stored == null ? null : "";
+        }
+        switch (stored[0]) {
+            case FORMAT_PLAIN:
+                return new String(stored, 1, stored.length - 1, StandardCharsets.UTF_8);
+            case FORMAT_DEFLATE_V1:
+                return inflate(stored);
+            default:
+                return new String(stored, StandardCharsets.UTF_8); // 未压缩的旧数据
+        }
+    }
+
+    private static String inflate(byte[] stored) throws SQLException {
+        // nowrap 模式的 Inflater 需要在输入末尾多一个填充字节
+        byte[] input = Arrays.copyOfRange(stored, 1, stored.length + 1);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY_V1);
+            inflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new SQLException("压缩数据不完整");
+                }
+                out.write(buffer, 0, length);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new SQLException("解压数据失败: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -1,9 +1,106 @@
 package org.xinp.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.baomidou.mybatisplus.core.metadata.IPage;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 import org.xinp.entity.MediaFiles;
+import org.xinp.pojo.DuplicateGroupDTO;
+import org.xinp.pojo.DuplicateReport;
+import org.xinp.pojo.TimelineBucketDTO;
+
+import java.util.Collection;
+import java.util.List;
 
 @Mapper
 public interface MediaFilesMapper extends BaseMapper<MediaFiles> {
+
+    /**
+     * 按完整哈希分组的重复文件 (待删除的记录不参与)
+     * 物理副本按 file_key 区分，互为硬链接的记录只算一份；已全部是硬链接、没有可回收空间的组不返回
+     */
+    String DUPLICATE_GROUPS_SQL = "SELECT file_hash, MAX(file_size) AS file_size, COUNT(*) AS file_count, "
+            + "COUNT(DISTINCT COALESCE(file_key, file_path)) AS copy_count, "
+            + "MAX(file_size) * (COUNT(DISTINCT COALESCE(file_key, file_path)) - 1) AS reclaimable_bytes "
+            + "FROM media_files WHERE file_hash IS NOT NULL AND (file_status IS NULL OR file_status != 'MARKED_FOR_DELETION') "
+            + "GROUP BY file_hash HAVING COUNT(DISTINCT COALESCE(file_key, file_path)) > 1";
+
+    /**
+     * 多行批量插入：一条 INSERT 语句写入多条记录 (不回填自增ID)
+     * 单条语句的参数个数受 SQLite 限制，调用方需控制每次传入的记录数
+     * file_path 已存在的记录不插入 (扫描、文件监听和对账可能同时发现同一个新文件)，其他约束错误仍然抛出
+     * @param list 待插入的记录
+     * @return 插入的行数 (不含路径已存在而跳过的记录)
+     */
+    @Insert({"<script>",
+            "INSERT INTO media_files (file_name, mime_type, file_size, file_status, tool_id, file_path, width, height,",
+            "duration, thumbnail, file_hash, fingerprint, perceptual_hash, metadata, update_time, last_modified, file_key,",
+            "video_codec, audio_codec, bit_rate, frame_rate, audio_channels, captured_at, camera_model, attributes_version) VALUES",
+            "<foreach collection='list' item='f' separator=','>",
+            "(#{f.fileName}, #{f.mimeType}, #{f.fileSize}, #{f.fileStatus}, #{f.toolId}, #{f.filePath}, #{f.width}, #{f.height},",
+            "#{f.duration}, #{f.thumbnail}, #{f.fileHash}, #{f.fingerprint}, #{f.perceptualHash},",
+            "#{f.metadata, typeHandler=org.xinp.handler.CompressedJsonTypeHandler}, #{f.updateTime},",
+            "#{f.lastModified}, #{f.fileKey}, #{f.videoCodec}, #{f.audioCodec}, #{f.bitRate}, #{f.frameRate}, #{f.audioChannels},",
+            "#{f.capturedAt}, #{f.cameraModel}, #{f.attributesVersion})",
+            "</foreach>",
+            "ON CONFLICT (file_path) DO NOTHING",
+            "</script>"})
+    int insertMultiRow(@Param("list") List<MediaFiles> list);
+
+    /**
+     * 用重新提取的结果覆盖已入库的记录：提取得到的字段全部写入 (新结果中为 null 的字段同样清空，不保留旧值)，
+     * 缩略图清空等待重新生成；路径、分类不变，文件状态为 null 时保留原状态
+     * @param f 重新提取的记录 (fileId 为要更新的记录)
+     * @return 更新的行数
+     */
+    @Update({"UPDATE media_files SET file_name = #{f.fileName}, mime_type = #{f.mimeType}, file_size = #{f.fileSize},",
+            "file_status = COALESCE(#{f.fileStatus}, file_status), width = #{f.width}, height = #{f.height}, duration = #{f.duration},",
+            "thumbnail = NULL, file_hash = #{f.fileHash}, fingerprint = #{f.fingerprint}, perceptual_hash = #{f.perceptualHash},",
+            "metadata = #{f.metadata, typeHandler=org.xinp.handler.CompressedJsonTypeHandler}, update_time = #{f.updateTime},",
+            "last_modified = #{f.lastModified}, file_key = #{f.fileKey}, video_codec = #{f.videoCodec}, audio_codec = #{f.audioCodec},",
+            "bit_rate = #{f.bitRate}, frame_rate = #{f.frameRate}, audio_channels = #{f.audioChannels}, captured_at = #{f.capturedAt},",
+            "camera_model = #{f.cameraModel}, attributes_version = #{f.attributesVersion}",
+            "WHERE file_id = #{f.fileId}"})
+    int updateExtracted(@Param("f") MediaFiles f);
+
+    /**
+     * 分页查询重复组，按可回收空间从大到小排序 (file_hash 有索引，分组不需要排序整张表)
+     * @param page 分页参数
+     * @return 当前页的重复组 (不含组内文件)
+     */
+    @Select(DUPLICATE_GROUPS_SQL + " ORDER BY reclaimable_bytes DESC, file_hash")
+    IPage<DuplicateGroupDTO> selectDuplicateGroups(IPage<DuplicateGroupDTO> page);
+
+    /**
+     * 统计全部重复组
+     * @return 重复组数量、多余副本数和可回收空间 (不含分页结果)
+     */
+    @Select("SELECT COUNT(*) AS group_count, COALESCE(SUM(copy_count - 1), 0) AS duplicate_files, "
+            + "COALESCE(SUM(reclaimable_bytes), 0) AS reclaimable_bytes FROM (" + DUPLICATE_GROUPS_SQL + ")")
+    DuplicateReport selectDuplicateSummary();
+
+    /**
+     * 统计时间线各分组的文件数：每个分组是拍摄时间上的一段范围，在 idx_media_files_timeline 上做范围计数
+     * (索引包含 file_status 和 tool_id，筛选条件不需要回表)
+     * @param buckets       分组范围 (startTime 包含，endTime 不包含)
+     * @param hiddenToolIds 需要排除的分类ID
+     * @return 各分组的范围和文件数，按起点升序
+     */
+    @Select({"<script>",
+            "WITH buckets (start_time, end_time) AS (VALUES",
+            "<foreach collection='buckets' item='b' separator=','>(#{b.startTime}, #{b.endTime})</foreach>)",
+            "SELECT start_time, end_time, (SELECT COUNT(*) FROM media_files",
+            "WHERE captured_at &gt;= buckets.start_time AND captured_at &lt; buckets.end_time",
+            "AND file_status IN ('PENDING_CLASSIFICATION', 'AVAILABLE')",
+            "<if test='hiddenToolIds != null and hiddenToolIds.size() > 0'>",
+            "AND (tool_id IS NULL OR tool_id NOT IN",
+            "<foreach collection='hiddenToolIds' item='id' open='(' separator=',' close=')'>#{id}</foreach>)",
+            "</if>",
+            ") AS file_count FROM buckets ORDER BY start_time",
+            "</script>"})
+    List<TimelineBucketDTO> countTimelineBuckets(@Param("buckets") List<TimelineBucketDTO> buckets,
+                                                 @Param("hiddenToolIds") Collection<Integer> hiddenToolIds);
 }
@@ -0,0 +1,18 @@
+package org.xinp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Mapper;
+import org.xinp.entity.ProbeResults;
+
+@Mapper
+public interface ProbeResultsMapper extends BaseMapper<ProbeResults> {
+
+    /**
+     * 保存探测结果，同一文件标识的旧结果直接覆盖
+     */
+    @Insert("INSERT OR REPLACE INTO probe_results (cache_key, file_size, last_modified, probe_result, update_time) "
+            + "VALUES (#{cacheKey}, #{fileSize}, #{lastModified}, "
+            + "#{probeResult, typeHandler=org.xinp.handler.CompressedJsonTypeHandler}, #{updateTime})")
+    int upsert(ProbeResults probeResults);
+}
@@ -0,0 +1,9 @@
+package org.xinp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Mapper;
+import org.xinp.entity.ScanSessions;
+
+@Mapper
+public interface ScanSessionsMapper extends BaseMapper<ScanSessions> {
+}
@@ -0,0 +1,9 @@
+package org.xinp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Mapper;
+import org.xinp.entity.ScrubCursor;
+
+@Mapper
+public interface ScrubCursorMapper extends BaseMapper<ScrubCursor> {
+}
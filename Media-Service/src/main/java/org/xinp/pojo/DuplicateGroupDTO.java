@@ -0,0 +1,18 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 一组内容相同 (完整哈希相同) 的文件
+ */
+@Data
+public class DuplicateGroupDTO {
+    private String fileHash; // 完整哈希
+    private Long fileSize; // 单个文件的大小
+    private Long fileCount; // 组内的记录数
+    private Long copyCount; // 组内的物理副本数 (互为硬链接的记录只算一份)
+    private Long reclaimableBytes; // 只保留一份时可回收的空间
+    private List<MediaFileDTO> files; // 组内的文件
+}
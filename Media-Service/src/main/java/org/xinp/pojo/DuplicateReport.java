@@ -0,0 +1,14 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+
+/**
+ * 重复文件报告
+ */
+@Data
+public class DuplicateReport {
+    private long groupCount; // 重复组的数量
+    private long duplicateFiles; // 多余的物理副本数 (每组只保留一份时可以处理的文件数)
+    private long reclaimableBytes; // 全部重复组可回收的空间
+    private PageResult<DuplicateGroupDTO> groups; // 当前页的重复组，按可回收空间从大到小排序
+}
@@ -0,0 +1,16 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+import org.xinp.constant.DedupeAction;
+
+import java.util.List;
+
+/**
+ * 重复文件批量处理请求
+ */
+@Data
+public class DuplicateResolveRequestDTO {
+    private DedupeAction action; // 处理方式：DELETE 删除副本，HARDLINK 替换为硬链接
+    private List<String> fileHashes; // 要处理的重复组 (完整哈希)
+    private List<Long> keepFileIds; // 可选，各组要保留的文件ID；未指定的组保留已分类的、最早入库的文件
+}
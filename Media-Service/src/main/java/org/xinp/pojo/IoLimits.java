@@ -0,0 +1,19 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 全局磁盘 I/O 限额及当前使用情况
+ */
+@Data
+@NoArgsConstructor
+public class IoLimits {
+    private long bytesPerSecond; // 每秒读写字节数上限，0 表示不限速
+    private int maxOpenFiles; // 同时打开的文件数上限，0 表示不限制
+    private int interactiveReservedFiles; // 为交互操作预留的打开文件数，后台任务不能占用
+    private int openFiles; // 当前打开的文件数
+    private int interactiveWaiting; // 当前等待配额的交互操作数
+    private int backgroundWaiting; // 当前等待配额的后台操作数
+    private int idleWaiting; // 当前等待配额的空闲操作数
+}
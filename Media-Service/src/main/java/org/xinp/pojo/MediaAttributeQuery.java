@@ -0,0 +1,18 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+
+/**
+ * 按结构化属性筛选媒体文件的条件 (为空的条件不参与筛选)
+ * 编码+最小高度、拍摄时间范围、设备型号都有对应的索引
+ */
+@Data
+public class MediaAttributeQuery {
+    private String videoCodec;   // 视频编码，如 hevc、h264 (不区分大小写)
+    private Integer minHeight;   // 最小高度 (像素)，如 2160 表示 4K
+    private String audioCodec;   // 音频编码，如 aac、opus
+    private Double minFrameRate; // 最低帧率
+    private String cameraModel;  // 拍摄设备型号 (完整匹配)
+    private Long capturedFrom;   // 拍摄时间起点 (毫秒，包含)
+    private Long capturedTo;     // 拍摄时间终点 (毫秒，不包含)
+}
@@ -15,6 +15,13 @@ public class MediaFileDTO {
     private Integer width;
     private Integer height;
     private Long duration; // 毫秒
+    private String videoCodec;
+    private String audioCodec;
+    private Long bitRate;        // 比特/秒
+    private Double frameRate;
+    private Integer audioChannels;
+    private Long capturedAt;     // 拍摄时间 (毫秒)
+    private String cameraModel;
     private String fileUrl;      // 关键：文件内容的访问URL
     private String thumbnailUrl; // 关键：缩略图的访问URL
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 外部进程 (ffmpeg/ffprobe) 的运行统计，按工具分别统计
+ */
+@Data
+@NoArgsConstructor
+public class ProcessMetrics {
+    private String tool; // 工具名 (命令的可执行文件名)
+    private int maxConcurrent; // 同时运行的进程数上限
+    private int running; // 当前运行中的进程数
+    private int waiting; // 当前等待并发配额的调用数
+    private long spawned; // 累计启动的进程数
+    private long succeeded; // 累计成功 (退出码为 0) 的进程数
+    private long failed; // 累计失败 (退出码不为 0 或启动失败) 的进程数
+    private long timedOut; // 累计超时被终止的进程数
+    private long canceled; // 累计因任务取消被终止的进程数
+    private long totalRuntimeMs; // 累计运行时间 (毫秒)
+    private long maxRuntimeMs; // 单个进程的最长运行时间 (毫秒)
+    private Integer lastExitCode; // 最近一个进程的退出码，被终止时为空
+    private long lastRuntimeMs; // 最近一个进程的运行时间 (毫秒)
+}
@@ -0,0 +1,34 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.xinp.constant.ReconcilePolicy;
+
+/**
+ * 数据库/文件系统对账报告
+ */
+@Data
+@NoArgsConstructor
+public class ReconcileReport {
+    private String directory; // 对账的目录 (相对路径)
+    private ReconcilePolicy policy; // 文件缺失时的处理策略
+    private long matchedFiles = 0; // 数据库记录与物理文件一致的数量
+    private long missingFiles = 0; // 数据库中有记录但物理文件缺失的数量
+    private long markedErrorFiles = 0; // 本次新标记为 ERROR 的记录数
+    private long purgedFiles = 0; // 本次删除的记录数
+    private long restoredFiles = 0; // 之前为 ERROR、本次发现文件已恢复的记录数
+    private long skippedFiles = 0; // 因正在处理中而跳过的缺失记录数
+    private long unreadableFiles = 0; // 所在目录 (或文件本身) 无法读取、无法确认是否缺失而未处理的记录数
+    private long orphanFiles = 0; // 有物理文件但数据库中没有记录、已提交入库的文件数
+    private long startTime; // 开始时间
+    private long endTime; // 结束时间
+
+    /**
+     * @return 用于进度信息展示的摘要
+     */
+    public String summary() {
+        return "对账完成：一致 " + matchedFiles + " 个，缺失 " + missingFiles + " 个 (标记错误 " + markedErrorFiles
+                + " 个，删除记录 " + purgedFiles + " 个)，恢复 " + restoredFiles + " 个，新文件入库 " + orphanFiles + " 个"
+                + (unreadableFiles > 0 ? "，目录无法读取未处理 " + unreadableFiles + " 个。" : "。");
+    }
+}
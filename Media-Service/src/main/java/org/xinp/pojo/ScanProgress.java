@@ -13,9 +13,10 @@ import org.xinp.constant.ScanStatus;
 @AllArgsConstructor
 public class ScanProgress {
     private ScanStatus status;
-    private long totalFiles = 0;
+    private long totalFiles = 0; // 截至目前已发现的文件数 (边遍历边入库，遍历结束后即为最终总数)
     private long processedFiles = 0;
     private int percentage = 0;
     private String currentFileName = "";
     private String message = "尚未开始"; // 用于显示状态信息，如错误消息
+    private Long scanId; // 扫描ID (扫描会话ID)，对账任务为空
 }
\ No newline at end of file
@@ -0,0 +1,12 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+
+/**
+ * 相似图片查询结果
+ */
+@Data
+public class SimilarImageDTO {
+    private Integer distance; // 与查询图片感知哈希的汉明距离 (0 表示几乎相同)
+    private MediaFileDTO file; // 相似的图片
+}
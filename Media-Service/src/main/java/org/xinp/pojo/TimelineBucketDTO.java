@@ -0,0 +1,14 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+
+/**
+ * 时间线的一个分组 (年/月/日)
+ */
+@Data
+public class TimelineBucketDTO {
+    private String bucket;   // 分组名，如 2024、2024-06、2024-06-01
+    private Long startTime;  // 分组起点 (毫秒，包含)，查询组内文件时作为 from
+    private Long endTime;    // 分组终点 (毫秒，不包含)，查询组内文件时作为 to
+    private Long fileCount;  // 组内文件数
+}
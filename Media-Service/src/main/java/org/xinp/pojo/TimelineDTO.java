@@ -0,0 +1,16 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+import org.xinp.constant.TimelineGranularity;
+
+import java.util.List;
+
+/**
+ * 按拍摄时间分组的时间线
+ */
+@Data
+public class TimelineDTO {
+    private TimelineGranularity granularity; // 分组粒度
+    private List<TimelineBucketDTO> buckets; // 有文件的分组，按时间倒序
+    private Long undatedCount;               // 没有拍摄时间的文件数 (不在任何分组中)
+}
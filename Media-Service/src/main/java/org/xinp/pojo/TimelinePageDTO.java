@@ -0,0 +1,17 @@
+package org.xinp.pojo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 时间线分组内的一页文件 (按拍摄时间倒序的游标分页)
+ * 取下一页时把 nextCapturedAt/nextFileId 作为 cursorCapturedAt/cursorFileId 传回，翻页深度不影响查询速度
+ */
+@Data
+public class TimelinePageDTO {
+    private List<MediaFileDTO> records; // 当前页的文件
+    private Long nextCapturedAt;        // 下一页游标：本页最后一个文件的拍摄时间，没有下一页时为空
+    private Long nextFileId;            // 下一页游标：本页最后一个文件的ID，没有下一页时为空
+    private boolean hasMore;            // 是否还有下一页
+}
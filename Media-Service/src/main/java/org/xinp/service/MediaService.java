@@ -1,5 +1,8 @@
 package org.xinp.service;
 
+import org.xinp.constant.ReconcilePolicy;
+import org.xinp.constant.ScanMode;
+import org.xinp.constant.TimelineGranularity;
 import org.xinp.entity.MediaFiles;
 import org.xinp.entity.ToolList;
 import org.xinp.pojo.*;
@@ -10,12 +13,40 @@ import java.util.List;
  * 媒体文件服务
  */
 public interface MediaService {
-    //启动扫描
-    Result mediaStartScan(String scanPath);
+    //启动扫描 (scanMode: 全量/增量，workers: 本次扫描的工作线程数)，返回扫描ID
+    Result mediaStartScan(String scanPath, ScanMode scanMode, Integer workers);
     //获取扫描进度
-    Result<ScanProgress> getScanProgress();
+    Result<ScanProgress> getScanProgress(Long scanId);
     //取消扫描
-    Result<String> cancelScan();
+    Result<String> cancelScan(Long scanId);
+    //从断点继续扫描 (sessionId 为空时继续最近一次未完成的扫描)
+    Result<Long> mediaResumeScan(Long sessionId, Integer workers);
+    //启动对账 (policy: 文件缺失时的处理策略)
+    Result<String> mediaStartReconcile(String reconcilePath, ReconcilePolicy policy);
+    //获取最近一次对账报告
+    Result<ReconcileReport> getReconcileReport();
+    //获取全局磁盘 I/O 限额及使用情况
+    Result<IoLimits> getIoLimits();
+    //运行时调整全局磁盘 I/O 限额 (参数为空时保持原值)
+    Result<IoLimits> updateIoLimits(Long bytesPerSecond, Integer maxOpenFiles, Integer interactiveReservedFiles);
+    //获取外部进程 (ffmpeg/ffprobe) 的运行统计
+    Result<List<ProcessMetrics>> getProcessMetrics();
+    //获取后台哈希计算进度
+    Result<TaskProgress> getHashProgress();
+    //暂停后台哈希计算
+    Result<String> pauseBackgroundHash();
+    //继续后台哈希计算
+    Result<String> resumeBackgroundHash();
+    //获取完整性校验进度
+    Result<TaskProgress> getScrubProgress();
+    //暂停完整性校验
+    Result<String> pauseScrub();
+    //继续完整性校验
+    Result<String> resumeScrub();
+    //获取结构化属性补全进度
+    Result<TaskProgress> getAttributeBackfillProgress();
+    //开始结构化属性补全 (已在运行时不重复启动)
+    Result<String> startAttributeBackfill();
     /**
      * 新增方法：分页获取媒体文件列表
      * @param toolId   分类ID
@@ -25,6 +56,32 @@ public interface MediaService {
      * @return 分页结果
      */
     Result<PageResult<MediaFileDTO>> getMediaFilesList(Integer toolId, Integer page, Integer pageSize, String keyword);
+    /**
+     * 按编码、分辨率、帧率、拍摄时间、设备型号等结构化属性筛选媒体文件 (不限分类，隐藏的分类除外)
+     * @param query    筛选条件
+     * @param page     当前页
+     * @param pageSize 每页数量
+     * @return 分页结果，按拍摄时间倒序
+     */
+    Result<PageResult<MediaFileDTO>> searchMediaFiles(MediaAttributeQuery query, Integer page, Integer pageSize);
+    /**
+     * 按拍摄时间分组统计文件数 (年/月/日)
+     * @param granularity 分组粒度，为空时按年
+     * @param from        拍摄时间起点 (毫秒，包含)，为空时从最早的文件开始
+     * @param to          拍摄时间终点 (毫秒，不包含)，为空时到最晚的文件为止
+     * @return 有文件的分组 (按时间倒序) 和没有拍摄时间的文件数
+     */
+    Result<TimelineDTO> getTimeline(TimelineGranularity granularity, Long from, Long to);
+    /**
+     * 按拍摄时间倒序分页获取时间范围 (通常是时间线的一个分组) 内的文件，使用游标分页
+     * @param from             拍摄时间起点 (毫秒，包含)
+     * @param to               拍摄时间终点 (毫秒，不包含)
+     * @param cursorCapturedAt 上一页返回的 nextCapturedAt，第一页为空
+     * @param cursorFileId     上一页返回的 nextFileId，第一页为空
+     * @param limit            每页数量
+     * @return 当前页的文件和下一页游标
+     */
+    Result<TimelinePageDTO> getTimelineFiles(Long from, Long to, Long cursorCapturedAt, Long cursorFileId, Integer limit);
     /**
      * 处理由Nginx上传并转发过来的单个文件。
      * @param uploadInfo 包含临时文件路径和元数据的DTO
@@ -51,4 +108,25 @@ public interface MediaService {
      * @return 操作结果，成功时data为新创建的操作日志ID
      */
     Result<Long> addTranscodeTask(TranscodeTaskDTO taskDTO);
+    /**
+     * 分页获取重复文件报告 (按完整哈希分组)
+     * @param page     当前页
+     * @param pageSize 每页的组数
+     * @return 重复组数量、可回收空间及当前页的重复组
+     */
+    Result<DuplicateReport> getDuplicates(Integer page, Integer pageSize);
+    /**
+     * 批量处理重复文件：每组保留一个文件，为其余副本创建去重操作日志，再由后台任务执行。
+     * @param request 处理方式、要处理的重复组和各组保留的文件
+     * @return 操作结果，成功时data中可返回创建的操作日志ID列表
+     */
+    Result<List<Long>> resolveDuplicates(DuplicateResolveRequestDTO request);
+    /**
+     * 查找与指定图片相似的图片 (感知哈希的汉明距离不超过 maxDistance)
+     * @param fileId      图片的文件ID
+     * @param maxDistance 最大汉明距离
+     * @param limit       最多返回的数量
+     * @return 相似的图片，按距离从小到大排序
+     */
+    Result<List<SimilarImageDTO>> getSimilarImages(Long fileId, Integer maxDistance, Integer limit);
 }
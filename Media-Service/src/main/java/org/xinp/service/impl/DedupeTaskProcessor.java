@@ -0,0 +1,136 @@
+package org.xinp.service.impl;
+
+import com.baomidou.mybatisplus.core.toolkit.StringUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.DedupeAction;
+import org.xinp.constant.FileStatus;
+import org.xinp.constant.IoPriority;
+import org.xinp.entity.MediaFiles;
+import org.xinp.entity.OperationLogs;
+import org.xinp.mapper.MediaFilesMapper;
+import org.xinp.service.OperationLogProcessor;
+import org.xinp.util.FileHasher;
+import org.xinp.util.FileManagementUtil;
+import org.xinp.util.MediaScannerService;
+import org.xinp.util.SimilarImageIndex;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * 重复文件处理：删除多余的副本，或将其替换为指向保留文件的硬链接
+ * 执行前重新计算两个文件的完整哈希，确认内容仍与入队时一致，避免文件在排队期间被修改后误删。
+ * 执行失败时副本恢复为入队前的状态。
+ */
+@Service("DEDUPE_Processor")
+@RequiredArgsConstructor
+@Slf4j
+public class DedupeTaskProcessor implements OperationLogProcessor {
+    private final MediaFilesMapper mediaFilesMapper;
+    private final FileManagementUtil fileManagementUtil;
+    private final FileHasher fileHasher;
+    private final ObjectMapper objectMapper;
+    private final SimilarImageIndex similarImageIndex;
+
+    @Override
+    public void process(OperationLogs log) throws Exception {
+        JsonNode detail = objectMapper.readTree(log.getOperationDetail());
+        DedupeAction action = DedupeAction.valueOf(detail.get("action").asText());
+        Long keepFileId = detail.get("keepFileId").asLong();
+        String fileHash = detail.get("fileHash").asText();
+        FileStatus previousStatus = FileStatus.valueOf(detail.get("previousStatus").asText());
+
+        MediaFiles duplicate = mediaFilesMapper.selectById(log.getFileId());
+        if (duplicate == null) {
+            // 副本记录可能已被其他操作删除，视为成功
+            return;
+        }
+        try {
+            MediaFiles keep = mediaFilesMapper.selectById(keepFileId);
+            if (keep == null || keep.getFileStatus() == FileStatus.MARKED_FOR_DELETION) {
+                throw new IllegalStateException("保留的文件 (ID: " + keepFileId + ") 已不存在或已被标记删除。");
+            }
+            if (keep.getFileStatus() == FileStatus.PROCESSING) {
+                throw new IllegalStateException("保留的文件 (ID: " + keepFileId + ") 正在被其他任务处理。");
+            }
+            boolean sameInode = verifySameContent(keep, duplicate, fileHash);
+            if (action == DedupeAction.DELETE) {
+                deleteDuplicate(keep, duplicate, sameInode);
+            } else if (sameInode) {
+                restoreStatus(duplicate, previousStatus); // 已经是硬链接
+            } else {
+                linkDuplicate(keep, duplicate, previousStatus);
+            }
+        } catch (Exception e) {
+            restoreStatus(duplicate, previousStatus);
+            // 入队时已从相似图片索引中移除，副本保留下来时重新加入
+            if (action == DedupeAction.DELETE && duplicate.getPerceptualHash() != null) {
+                similarImageIndex.add(duplicate.getFileId(), duplicate.getPerceptualHash());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 确认保留文件和副本的内容都仍与入队时的哈希一致
+     * @return 两个路径是否已经是同一个文件 (同一路径的重复记录，或硬链接)
+     */
+    private boolean verifySameContent(MediaFiles keep, MediaFiles duplicate, String fileHash) throws Exception {
+        Path keepPath = fileManagementUtil.resolveSafely(keep.getFilePath());
+        Path duplicatePath = fileManagementUtil.resolveSafely(duplicate.getFilePath());
+        if (!Files.isRegularFile(keepPath) || !Files.isRegularFile(duplicatePath)) {
+            throw new IllegalStateException("保留文件或副本已不存在: " + keep.getFilePath() + ", " + duplicate.getFilePath());
+        }
+        if (keepPath.equals(duplicatePath) || Files.isSameFile(keepPath, duplicatePath)) {
+            return true;
+        }
+        if (!fileHash.equals(fileHasher.hash(keepPath, IoPriority.BACKGROUND))
+                || !fileHash.equals(fileHasher.hash(duplicatePath, IoPriority.BACKGROUND))) {
+            throw new IllegalStateException("文件内容已变化，不再重复: " + keep.getFilePath() + ", " + duplicate.getFilePath());
+        }
+        return false;
+    }
+
+    /**
+     * @param sameFile 副本与保留文件是否为同一个文件：此时删除副本路径会删掉保留文件的内容 (同一路径) 或没有意义 (硬链接)，只删除记录
+     */
+    private void deleteDuplicate(MediaFiles keep, MediaFiles duplicate, boolean sameFile) {
+        // 1. 删除物理文件 (与保留文件是同一个文件时不删除，缩略图与保留文件共用时不删除)
+        if (sameFile) {
+            log.warn("重复记录 {} (ID: {}) 与保留文件是同一个文件，只删除记录", duplicate.getFilePath(), duplicate.getFileId());
+        } else {
+            fileManagementUtil.deleteFile(duplicate.getFilePath());
+        }
+        if (StringUtils.isNotBlank(duplicate.getThumbnail()) && !Objects.equals(duplicate.getThumbnail(), keep.getThumbnail())) {
+            fileManagementUtil.deleteFile(duplicate.getThumbnail());
+        }
+
+        // 2. 从数据库中彻底删除记录
+        mediaFilesMapper.deleteById(duplicate.getFileId());
+        log.info("已删除重复文件 {} (保留 {})", duplicate.getFilePath(), keep.getFilePath());
+    }
+
+    private void linkDuplicate(MediaFiles keep, MediaFiles duplicate, FileStatus previousStatus) throws Exception {
+        // 1. 替换为硬链接
+        Path linkedPath = fileManagementUtil.replaceWithHardLink(keep.getFilePath(), duplicate.getFilePath());
+
+        // 2. 更新记录的文件标识和修改时间，增量扫描据此识别为同一文件
+        BasicFileAttributes attrs = Files.readAttributes(linkedPath, BasicFileAttributes.class);
+        duplicate.setFileKey(MediaScannerService.fileKeyOf(attrs));
+        duplicate.setLastModified(attrs.lastModifiedTime().toMillis());
+        duplicate.setFileStatus(previousStatus);
+        duplicate.setUpdateTime(System.currentTimeMillis());
+        mediaFilesMapper.updateById(duplicate);
+    }
+
+    private void restoreStatus(MediaFiles duplicate, FileStatus previousStatus) {
+        duplicate.setFileStatus(previousStatus);
+        mediaFilesMapper.updateById(duplicate);
+    }
+}
@@ -8,12 +8,14 @@ import org.xinp.entity.OperationLogs;
 import org.xinp.mapper.MediaFilesMapper;
 import org.xinp.service.OperationLogProcessor;
 import org.xinp.util.FileManagementUtil;
+import org.xinp.util.SimilarImageIndex;
 
 @Service("DELETE_Processor")
 @RequiredArgsConstructor
 public class DeleteTaskProcessor implements OperationLogProcessor {
     private final MediaFilesMapper mediaFilesMapper;
     private final FileManagementUtil fileManagementUtil;
+    private final SimilarImageIndex similarImageIndex;
 
     @Override
     public void process(OperationLogs log) throws Exception {
@@ -31,5 +33,8 @@ public class DeleteTaskProcessor implements OperationLogProcessor {
 
         // 2. 从数据库中彻底删除记录
         mediaFilesMapper.deleteById(log.getFileId());
+        if (mediaFile.getPerceptualHash() != null) {
+            similarImageIndex.remove(mediaFile.getFileId(), mediaFile.getPerceptualHash());
+        }
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package org.xinp.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.core.toolkit.StringUtils;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -8,11 +9,17 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.xinp.constant.Code;
+import org.xinp.constant.DedupeAction;
 import org.xinp.constant.FileStatus;
+import org.xinp.constant.IoPriority;
 import org.xinp.constant.OperationLogStatus;
+import org.xinp.constant.ReconcilePolicy;
+import org.xinp.constant.ScanMode;
+import org.xinp.constant.TimelineGranularity;
 import org.xinp.entity.HideList;
 import org.xinp.entity.MediaFiles;
 import org.xinp.entity.OperationLogs;
@@ -23,15 +30,25 @@ import org.xinp.mapper.OperationLogsMapper;
 import org.xinp.mapper.ToolListMapper;
 import org.xinp.pojo.*;
 import org.xinp.service.MediaService;
+import org.xinp.util.BackgroundHasher;
+import org.xinp.util.ExternalProcessManager;
+import org.xinp.util.IntegrityScrubber;
+import org.xinp.util.MediaAttributeBackfill;
 import org.xinp.util.CurrentHolderUtils;
 import org.xinp.util.FileManagementUtil;
+import org.xinp.util.IoGovernor;
 import org.xinp.util.MediaScannerService;
 import org.xinp.util.ScanTaskManager;
+import org.xinp.util.SimilarImageIndex;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -42,6 +59,12 @@ public class MediaServiceImpl implements MediaService {
 
     private final FileManagementUtil fileManagementUtil;
     private final ScanTaskManager scanTaskManager;
+    private final IoGovernor ioGovernor;
+    private final ExternalProcessManager externalProcessManager;
+    private final BackgroundHasher backgroundHasher;
+    private final IntegrityScrubber integrityScrubber;
+    private final MediaAttributeBackfill mediaAttributeBackfill;
+    private final SimilarImageIndex similarImageIndex;
     private final MediaFilesMapper mediaFilesMapper;
     private final ToolListMapper toolListMapper;
     private final OperationLogsMapper operationLogsMapper;
@@ -51,25 +74,32 @@ public class MediaServiceImpl implements MediaService {
     private final MediaScannerService mediaScannerService; // 我们需要复用它的文件处理逻辑
     // Nginx配置的访问前缀是 /content
     private static final String CONTENT_URL_PREFIX = "/content/";
+    private static final int MAX_TIMELINE_BUCKETS = 1000; // 时间线一次返回的分组数上限
+    private static final int MAX_TIMELINE_PAGE_SIZE = 500; // 时间线分组内每页文件数上限
+    private static final int DEFAULT_SIMILAR_DISTANCE = 6; // 相似图片查询的默认最大汉明距离
     @Qualifier("projectPath") // 注入项目根路径
     private final Path rootPath;
+    @Value("${media.similar.max-distance:7}")
+    private int maxSimilarDistance; // 相似图片查询允许的最大汉明距离
 
     /**
      * 媒体文件扫描
      *
      * @param scanPath 扫描路径
-     * @return 执行结果
+     * @param scanMode 扫描模式 (全量/增量)
+     * @param workers  本次扫描的工作线程数，为空时使用默认配置
+     * @return 扫描ID
      */
-    public Result mediaStartScan(String scanPath) {
+    public Result mediaStartScan(String scanPath, ScanMode scanMode, Integer workers) {
         try {
             // 检查路径
             Path targetPath = fileManagementUtil.resolveSafely(scanPath);
-            // 开始扫描
-            scanTaskManager.startScan(targetPath);
-            return Result.okResult();
+            // 开始扫描，返回扫描ID (扫描会话ID)
+            Long scanId = scanTaskManager.startScan(targetPath, scanMode, workers == null ? 0 : workers);
+            return Result.okResult(scanId);
         } catch (IllegalStateException e) {
-            // 如果任务已在运行
-            return Result.errorResult(Code.TASK_IN_EXECUTION.getCode(), Code.TASK_IN_EXECUTION.getMsg());
+            // 如果目录与正在运行的任务重叠，或并发任务数已达上限
+            return Result.errorResult(Code.TASK_IN_EXECUTION.getCode(), e.getMessage());
         } catch (Exception e) {
             // 其他路径解析等错误
             return Result.errorResult(Code.SYSTEM_ERROR.getCode(), Code.SYSTEM_ERROR.getMsg());
@@ -79,6 +109,7 @@ public class MediaServiceImpl implements MediaService {
     /**
      * 获取扫描进度
      *
+     * @param scanId 扫描ID，为空时返回最近启动的任务的进度
      * @return ScanProgress 对象
      * private ScanStatus status;         // 扫描状态
      * private long totalFiles = 0;       // 总文件数
@@ -86,23 +117,144 @@ public class MediaServiceImpl implements MediaService {
      * private int percentage = 0;        // 完成百分比
      * private String currentFileName = "";// 当前处理的文件名
      * private String message = "尚未开始"; // 状态信息或错误消息
+     * private Long scanId;               // 扫描ID
      */
-    public Result<ScanProgress> getScanProgress() {
-        return Result.okResult(scanTaskManager.getCurrentProgress());
+    public Result<ScanProgress> getScanProgress(Long scanId) {
+        ScanProgress progress = scanTaskManager.getProgress(scanId);
+        if (progress == null) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "扫描任务不存在: " + scanId);
+        }
+        return Result.okResult(progress);
     }
 
     /**
      * 取消任务
      *
+     * @param scanId 扫描ID，为空时取消最近启动的任务
      * @return 响应
      */
     @Override
-    public Result<String> cancelScan() {
+    public Result<String> cancelScan(Long scanId) {
         // 调用取消扫描任务
-        scanTaskManager.cancelScan();
+        scanTaskManager.cancelScan(scanId);
         return Result.okResult();
     }
 
+    /**
+     * 从断点继续扫描
+     *
+     * @param sessionId 扫描会话ID，为空时继续最近一次未完成的扫描
+     * @param workers   本次扫描的工作线程数，为空时使用默认配置
+     * @return 继续的扫描ID
+     */
+    @Override
+    public Result<Long> mediaResumeScan(Long sessionId, Integer workers) {
+        try {
+            return Result.okResult(scanTaskManager.resumeScan(sessionId, workers == null ? 0 : workers));
+        } catch (IllegalStateException e) {
+            // 如果该扫描已在运行、目录与正在运行的任务重叠，或并发任务数已达上限
+            return Result.errorResult(Code.TASK_IN_EXECUTION.getCode(), e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), e.getMessage());
+        } catch (Exception e) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), Code.SYSTEM_ERROR.getMsg());
+        }
+    }
+
+    /**
+     * 启动对账任务 (与扫描共用进度查询和取消接口，不指定扫描ID即可)
+     *
+     * @param reconcilePath 对账路径
+     * @param policy        文件缺失时的处理策略
+     * @return 响应
+     */
+    @Override
+    public Result<String> mediaStartReconcile(String reconcilePath, ReconcilePolicy policy) {
+        try {
+            Path targetPath = fileManagementUtil.resolveSafely(reconcilePath);
+            scanTaskManager.startReconcile(targetPath, policy);
+            return Result.okResult();
+        } catch (IllegalStateException e) {
+            // 如果已有对账任务在运行、目录与正在运行的任务重叠，或并发任务数已达上限
+            return Result.errorResult(Code.TASK_IN_EXECUTION.getCode(), e.getMessage());
+        } catch (Exception e) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), Code.SYSTEM_ERROR.getMsg());
+        }
+    }
+
+    /**
+     * 获取最近一次对账报告
+     *
+     * @return 对账报告，尚未执行过对账时为 null
+     */
+    @Override
+    public Result<ReconcileReport> getReconcileReport() {
+        return Result.okResult(scanTaskManager.getLastReconcileReport());
+    }
+
+    @Override
+    public Result<TaskProgress> getHashProgress() {
+        return Result.okResult(backgroundHasher.getProgress());
+    }
+
+    @Override
+    public Result<String> pauseBackgroundHash() {
+        backgroundHasher.pause();
+        return Result.okResult("后台哈希计算已暂停");
+    }
+
+    @Override
+    public Result<String> resumeBackgroundHash() {
+        backgroundHasher.resume();
+        return Result.okResult("后台哈希计算已继续");
+    }
+
+    @Override
+    public Result<TaskProgress> getScrubProgress() {
+        return Result.okResult(integrityScrubber.getProgress());
+    }
+
+    @Override
+    public Result<String> pauseScrub() {
+        integrityScrubber.pause();
+        return Result.okResult("完整性校验已暂停");
+    }
+
+    @Override
+    public Result<String> resumeScrub() {
+        integrityScrubber.resume();
+        return Result.okResult("完整性校验已继续");
+    }
+
+    @Override
+    public Result<TaskProgress> getAttributeBackfillProgress() {
+        return Result.okResult(mediaAttributeBackfill.getProgress());
+    }
+
+    @Override
+    public Result<String> startAttributeBackfill() {
+        return Result.okResult(mediaAttributeBackfill.start() ? "属性补全已开始" : "属性补全正在运行");
+    }
+
+    @Override
+    public Result<List<ProcessMetrics>> getProcessMetrics() {
+        return Result.okResult(externalProcessManager.getMetrics());
+    }
+
+    @Override
+    public Result<IoLimits> getIoLimits() {
+        return Result.okResult(ioGovernor.getLimits());
+    }
+
+    @Override
+    public Result<IoLimits> updateIoLimits(Long bytesPerSecond, Integer maxOpenFiles, Integer interactiveReservedFiles) {
+        try {
+            return Result.okResult(ioGovernor.updateLimits(bytesPerSecond, maxOpenFiles, interactiveReservedFiles));
+        } catch (IllegalArgumentException e) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), e.getMessage());
+        }
+    }
+
     /**
      * 分页获取媒体文件列表的实现
      */
@@ -115,8 +267,9 @@ public class MediaServiceImpl implements MediaService {
         int currentPage = (page == null || page < 1) ? 1 : page;
         int size = (pageSize == null || pageSize < 1) ? 50 : pageSize;
 
-        // 2. 构建查询条件
+        // 2. 构建查询条件 (列表不需要 metadata，不读取也不解压)
         LambdaQueryWrapper<MediaFiles> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.select(MediaFiles.class, field -> !"metadata".equals(field.getColumn()));
 
         // --- 核心修改：将 fileStatus 的判断用 and() 包裹起来 ---
         queryWrapper.and(qw ->
@@ -169,6 +322,158 @@ public class MediaServiceImpl implements MediaService {
         return Result.okResult(PageResult.from(dtoPage));
     }
 
+    /**
+     * 按结构化属性筛选 (例如 videoCodec=hevc&minHeight=2160 为全部 HEVC 4K 视频，走 (video_codec, height) 索引的范围扫描)
+     */
+    @Override
+    public Result<PageResult<MediaFileDTO>> searchMediaFiles(MediaAttributeQuery query, Integer page, Integer pageSize) {
+        Set<Integer> hiddenToolIds = getHiddenToolIdsForCurrentUser();
+        int currentPage = (page == null || page < 1) ? 1 : page;
+        int size = (pageSize == null || pageSize < 1) ? 50 : pageSize;
+
+        LambdaQueryWrapper<MediaFiles> queryWrapper = visibleFilesQuery(hiddenToolIds);
+        queryWrapper.select(MediaFiles.class, field -> !"metadata".equals(field.getColumn()));
+        // 编码按小写保存，条件同样转为小写才能使用索引
+        queryWrapper.eq(StringUtils.isNotBlank(query.getVideoCodec()), MediaFiles::getVideoCodec, normalizeCodec(query.getVideoCodec()));
+        queryWrapper.ge(query.getMinHeight() != null, MediaFiles::getHeight, query.getMinHeight());
+        queryWrapper.eq(StringUtils.isNotBlank(query.getAudioCodec()), MediaFiles::getAudioCodec, normalizeCodec(query.getAudioCodec()));
+        queryWrapper.ge(query.getMinFrameRate() != null, MediaFiles::getFrameRate, query.getMinFrameRate());
+        queryWrapper.eq(StringUtils.isNotBlank(query.getCameraModel()), MediaFiles::getCameraModel,
+                query.getCameraModel() == null ? null : query.getCameraModel().trim());
+        queryWrapper.ge(query.getCapturedFrom() != null, MediaFiles::getCapturedAt, query.getCapturedFrom());
+        queryWrapper.lt(query.getCapturedTo() != null, MediaFiles::getCapturedAt, query.getCapturedTo());
+        queryWrapper.orderByDesc(MediaFiles::getCapturedAt, MediaFiles::getFileId);
+
+        Page<MediaFiles> pageResult = mediaFilesMapper.selectPage(new Page<>(currentPage, size), queryWrapper);
+        if (pageResult.getRecords().isEmpty()) {
+            return Result.okResult(null);
+        }
+        Page<MediaFileDTO> dtoPage = new Page<>(currentPage, size, pageResult.getTotal());
+        dtoPage.setRecords(pageResult.getRecords().stream()
+                .map(this::convertToDTO)
+                .collect(Collectors.toList()));
+        return Result.okResult(PageResult.from(dtoPage));
+    }
+
+    @Override
+    public Result<TimelineDTO> getTimeline(TimelineGranularity granularity, Long from, Long to) {
+        TimelineGranularity timelineGranularity = granularity == null ? TimelineGranularity.YEAR : granularity;
+        Set<Integer> hiddenToolIds = getHiddenToolIdsForCurrentUser();
+
+        // 没有指定范围时取最早和最晚的拍摄时间 (索引两端，不扫描)
+        Long start = from != null ? from : boundaryCapturedAt(true);
+        Long end = to != null ? to : Optional.ofNullable(boundaryCapturedAt(false)).map(latest -> latest + 1).orElse(null);
+        List<TimelineBucketDTO> buckets = new ArrayList<>();
+        if (start != null && end != null && start < end) {
+            // 分组边界按本机时区的自然年/月/日计算 (与 EXIF 拍摄时间的解析时区一致)，跨夏令时也准确
+            ZoneId zone = ZoneId.systemDefault();
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern(timelineGranularity.getPattern());
+            LocalDate bucketDate = truncateToBucket(Instant.ofEpochMilli(start).atZone(zone).toLocalDate(), timelineGranularity);
+            long bucketStart = bucketDate.atStartOfDay(zone).toInstant().toEpochMilli();
+            while (bucketStart < end) {
+                if (buckets.size() >= MAX_TIMELINE_BUCKETS) {
+                    return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "时间范围内的分组超过 " + MAX_TIMELINE_BUCKETS + " 个，请缩小范围或使用更大的分组粒度");
+                }
+                LocalDate nextDate = bucketDate.plus(1, timelineGranularity.getUnit());
+                long nextStart = nextDate.atStartOfDay(zone).toInstant().toEpochMilli();
+                TimelineBucketDTO bucket = new TimelineBucketDTO();
+                bucket.setBucket(bucketDate.format(formatter));
+                bucket.setStartTime(Math.max(bucketStart, start));
+                bucket.setEndTime(Math.min(nextStart, end));
+                buckets.add(bucket);
+                bucketDate = nextDate;
+                bucketStart = nextStart;
+            }
+        }
+
+        List<TimelineBucketDTO> nonEmpty = new ArrayList<>();
+        if (!buckets.isEmpty()) {
+            Map<Long, Long> counts = mediaFilesMapper.countTimelineBuckets(buckets, hiddenToolIds).stream()
+                    .collect(Collectors.toMap(TimelineBucketDTO::getStartTime, TimelineBucketDTO::getFileCount));
+            for (int i = buckets.size() - 1; i >= 0; i--) {
+                TimelineBucketDTO bucket = buckets.get(i);
+                bucket.setFileCount(counts.getOrDefault(bucket.getStartTime(), 0L));
+                if (bucket.getFileCount() > 0) {
+                    nonEmpty.add(bucket);
+                }
+            }
+        }
+
+        TimelineDTO timeline = new TimelineDTO();
+        timeline.setGranularity(timelineGranularity);
+        timeline.setBuckets(nonEmpty);
+        timeline.setUndatedCount(mediaFilesMapper.selectCount(visibleFilesQuery(hiddenToolIds).isNull(MediaFiles::getCapturedAt)));
+        return Result.okResult(timeline);
+    }
+
+    @Override
+    public Result<TimelinePageDTO> getTimelineFiles(Long from, Long to, Long cursorCapturedAt, Long cursorFileId, Integer limit) {
+        if (from == null || to == null || from >= to) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "时间范围无效");
+        }
+        int size = (limit == null || limit < 1) ? 50 : Math.min(limit, MAX_TIMELINE_PAGE_SIZE);
+        LambdaQueryWrapper<MediaFiles> queryWrapper = visibleFilesQuery(getHiddenToolIdsForCurrentUser())
+                .select(MediaFiles.class, field -> !"metadata".equals(field.getColumn()))
+                .ge(MediaFiles::getCapturedAt, from)
+                .lt(MediaFiles::getCapturedAt, to);
+        // 游标：从上一页最后一个文件之后继续 (拍摄时间相同的按ID倒序)，不使用 OFFSET
+        if (cursorCapturedAt != null && cursorFileId != null) {
+            queryWrapper.and(qw -> qw.lt(MediaFiles::getCapturedAt, cursorCapturedAt)
+                    .or(tie -> tie.eq(MediaFiles::getCapturedAt, cursorCapturedAt).lt(MediaFiles::getFileId, cursorFileId)));
+        }
+        queryWrapper.orderByDesc(MediaFiles::getCapturedAt, MediaFiles::getFileId).last("LIMIT " + (size + 1));
+
+        List<MediaFiles> records = mediaFilesMapper.selectList(queryWrapper);
+        TimelinePageDTO timelinePage = new TimelinePageDTO();
+        timelinePage.setHasMore(records.size() > size);
+        if (timelinePage.isHasMore()) {
+            records = records.subList(0, size);
+            MediaFiles last = records.get(size - 1);
+            timelinePage.setNextCapturedAt(last.getCapturedAt());
+            timelinePage.setNextFileId(last.getFileId());
+        }
+        timelinePage.setRecords(records.stream().map(this::convertToDTO).collect(Collectors.toList()));
+        return Result.okResult(timelinePage);
+    }
+
+    /**
+     * 最早或最晚的拍摄时间
+     */
+    private Long boundaryCapturedAt(boolean earliest) {
+        LambdaQueryWrapper<MediaFiles> queryWrapper = new LambdaQueryWrapper<MediaFiles>()
+                .select(MediaFiles::getCapturedAt)
+                .isNotNull(MediaFiles::getCapturedAt)
+                .last("LIMIT 1");
+        queryWrapper.orderBy(true, earliest, MediaFiles::getCapturedAt);
+        MediaFiles boundary = mediaFilesMapper.selectOne(queryWrapper);
+        return boundary == null ? null : boundary.getCapturedAt();
+    }
+
+    private static LocalDate truncateToBucket(LocalDate date, TimelineGranularity granularity) {
+        return switch (granularity) {
+            case YEAR -> date.withDayOfYear(1);
+            case MONTH -> date.withDayOfMonth(1);
+            case DAY -> date;
+        };
+    }
+
+    /**
+     * 可以展示的文件 (待分类或正常，且不属于当前用户隐藏的分类)
+     * 待分类的文件 (tool_id 为空) 不受隐藏影响，NOT IN 对空值不成立，需要单独保留
+     */
+    private LambdaQueryWrapper<MediaFiles> visibleFilesQuery(Set<Integer> hiddenToolIds) {
+        LambdaQueryWrapper<MediaFiles> queryWrapper = new LambdaQueryWrapper<>();
+        queryWrapper.in(MediaFiles::getFileStatus, FileStatus.PENDING_CLASSIFICATION, FileStatus.AVAILABLE);
+        if (!hiddenToolIds.isEmpty()) {
+            queryWrapper.and(qw -> qw.isNull(MediaFiles::getToolId).or().notIn(MediaFiles::getToolId, hiddenToolIds));
+        }
+        return queryWrapper;
+    }
+
+    private static String normalizeCodec(String codec) {
+        return codec == null ? null : codec.trim().toLowerCase(Locale.ROOT);
+    }
+
     /**
      * 新增的辅助方法：获取当前用户所有需要隐藏的分类ID集合。
      *
@@ -244,9 +549,10 @@ public class MediaServiceImpl implements MediaService {
 
     /**
      * 文件上传
+     * 文件校验、提取元数据和移动都在事务外完成 (不占用唯一的写连接)，最后只用一条 INSERT 入库；
+     * 入库失败时删除已移动的文件，保证文件和记录一致。
      */
     @Override
-    @Transactional // 事务，确保文件移动和数据库写入的原子性
     public Result<MediaFiles> processUploadedFile(UploadFileDTO uploadInfo) {
         // Nginx传来的绝对路径，例如 "/var/www/uploads/0000000001"
         Path tempAbsoluteFilePath = Paths.get(uploadInfo.getTempFilePath());
@@ -256,6 +562,8 @@ public class MediaServiceImpl implements MediaService {
         // tempRelativePath 将会是 "uploads/0000000001"
         Path tempRelativePath = rootPath.relativize(tempAbsoluteFilePath);
         String tempRelativePathStr = tempRelativePath.toString().replace('\\', '/');
+        // 文件当前所在的相对路径 (移动成功后为最终路径)，处理失败时删除
+        String currentRelativePath = tempRelativePathStr;
         try {
             // 安全检查：我们现在可以直接使用 FileManagementUtil 的方法来检查文件是否存在
             // 因为它内部会用 resolveSafely 转换回绝对路径进行检查
@@ -266,7 +574,7 @@ public class MediaServiceImpl implements MediaService {
 
             // 校验文件并提取元数据 (复用MediaScannerService的核心逻辑)
             // 传入绝对路径进行处理，因为文件I/O需要绝对路径
-            MediaFiles mediaFile = mediaScannerService.processSingleFile(tempAbsoluteFilePath);
+            MediaFiles mediaFile = mediaScannerService.processSingleFile(tempAbsoluteFilePath, IoPriority.INTERACTIVE);
 
             // 校验失败的判断
             String mimeType = mediaFile.getMimeType();
@@ -298,15 +606,18 @@ public class MediaServiceImpl implements MediaService {
             // 移动文件 (现在可以使用你现有的 moveFile 方法)
             log.info("准备移动文件: from '{}' to '{}'", tempRelativePathStr, finalRelativePath);
             fileManagementUtil.moveFile(tempRelativePathStr, finalRelativePath);
+            currentRelativePath = finalRelativePath;
 
             // 5. 更新数据库记录
             mediaFile.setFileName(uploadInfo.getOriginalFileName());
             mediaFile.setFilePath(finalRelativePath); // 存储最终的相对路径
             mediaFile.setUpdateTime(System.currentTimeMillis());
 
-            // 因为我们是移动文件，processSingleFile 中计算的 hash, size, metadata等都是正确的，可以直接用
+            // 因为我们是移动文件，processSingleFile 中计算的指纹, size, metadata等都是正确的，可以直接用
             // 只有文件名和路径需要更新
             mediaFilesMapper.insert(mediaFile);
+            // 入库时只计算了快速指纹，完整哈希由后台补算
+            backgroundHasher.wakeUp();
 
             log.info("文件 {} 成功处理并入库，ID: {}", mediaFile.getFileName(), mediaFile.getFileId());
             return Result.okResult(mediaFile);
@@ -315,14 +626,14 @@ public class MediaServiceImpl implements MediaService {
             //log.error("处理上传文件失败: {}, 错误: {}", tempAbsoluteFilePath, e.getMessage(), e);
             log.error("处理上传文件失败: {}, 错误: {}", tempAbsoluteFilePath, e.getMessage());
 
-            // 如果处理过程中发生任何异常，确保删除临时文件
+            // 如果处理过程中发生任何异常，确保删除临时文件 (已移动时删除移动后的文件)
             try {
                 // 异常情况下，我们仍然用deleteFile并传入相对路径来删除
-                fileManagementUtil.deleteFile(tempRelativePathStr);
-                log.info("已自动清理处理失败的临时文件: {}", tempRelativePathStr);
+                fileManagementUtil.deleteFile(currentRelativePath);
+                log.info("已自动清理处理失败的临时文件: {}", currentRelativePath);
             } catch (Exception deleteException) {
                 // 如果删除也失败，记录严重错误，可能需要手动干预
-                log.error("!!! 严重错误: 自动清理临时文件 {} 失败", tempRelativePathStr);
+                log.error("!!! 严重错误: 自动清理临时文件 {} 失败", currentRelativePath);
                 //log.error("!!! 严重错误: 自动清理临时文件 {} 失败", tempRelativePathStr, deleteException);
             }
 
@@ -464,6 +775,10 @@ public class MediaServiceImpl implements MediaService {
             // 记录更新时间，方便追踪文件何时被移入回收站
             mediaFile.setUpdateTime(System.currentTimeMillis());
             mediaFilesMapper.updateById(mediaFile);
+            // 回收站中的文件不再出现在相似图片中 (事务提交后移除)
+            if (mediaFile.getPerceptualHash() != null) {
+                similarImageIndex.remove(fileId, mediaFile.getPerceptualHash());
+            }
 
             // --- 4. 创建操作日志 ---
             OperationLogs log = new OperationLogs();
@@ -596,4 +911,195 @@ public class MediaServiceImpl implements MediaService {
         }
         return fileName.substring(0, dotIndex);
     }
+
+    /**
+     * 重复文件报告
+     *
+     * @param page     当前页
+     * @param pageSize 每页的组数
+     * @return 重复组数量、可回收空间及当前页的重复组
+     */
+    @Override
+    public Result<DuplicateReport> getDuplicates(Integer page, Integer pageSize) {
+        int currentPage = (page == null || page < 1) ? 1 : page;
+        int size = (pageSize == null || pageSize < 1) ? 20 : pageSize;
+
+        // 1. 统计全部重复组，组数即为分页总数，分页查询不再单独统计
+        DuplicateReport report = mediaFilesMapper.selectDuplicateSummary();
+        IPage<DuplicateGroupDTO> groups = mediaFilesMapper.selectDuplicateGroups(
+                new Page<>(currentPage, size, report.getGroupCount(), false));
+
+        // 2. 一次查询出当前页所有组的文件
+        if (!groups.getRecords().isEmpty()) {
+            List<String> fileHashes = groups.getRecords().stream().map(DuplicateGroupDTO::getFileHash).toList();
+            Map<String, List<MediaFileDTO>> filesByHash = selectDuplicateCandidates(fileHashes).stream()
+                    .collect(Collectors.groupingBy(MediaFiles::getFileHash,
+                            Collectors.mapping(this::convertToDTO, Collectors.toList())));
+            groups.getRecords().forEach(group -> group.setFiles(filesByHash.getOrDefault(group.getFileHash(), List.of())));
+        }
+        report.setGroups(PageResult.from(groups));
+        return Result.okResult(report);
+    }
+
+    /**
+     * 批量处理重复文件
+     *
+     * @param request 处理方式、要处理的重复组和各组保留的文件
+     * @return 创建的操作日志ID列表
+     */
+    @Override
+    @Transactional // 保证所有副本的标记和日志创建在一个事务中完成
+    public Result<List<Long>> resolveDuplicates(DuplicateResolveRequestDTO request) {
+        if (request == null || request.getAction() == null) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "处理方式不能为空");
+        }
+        if (request.getFileHashes() == null || request.getFileHashes().isEmpty()) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "重复组列表不能为空");
+        }
+        DedupeAction action = request.getAction();
+        Set<Long> keepFileIds = request.getKeepFileIds() == null ? Set.of() : new HashSet<>(request.getKeepFileIds());
+
+        // --- 1. 一次性查询出所有涉及的文件，按哈希分组 (按 file_id 排序，最早入库的在前) ---
+        Map<String, List<MediaFiles>> groups = selectDuplicateCandidates(request.getFileHashes()).stream()
+                .collect(Collectors.groupingBy(MediaFiles::getFileHash));
+
+        List<Long> createdOperationLogIds = new ArrayList<>();
+        for (String fileHash : new LinkedHashSet<>(request.getFileHashes())) {
+            List<MediaFiles> group = groups.get(fileHash);
+            if (group == null || group.size() < 2) {
+                log.warn("哈希为 {} 的文件已不存在重复，跳过。", fileHash);
+                continue;
+            }
+
+            // --- 2. 确定保留的文件：指定的文件 > 已分类的文件 > 最早入库的文件 ---
+            MediaFiles keep = group.stream().filter(file -> keepFileIds.contains(file.getFileId())).findFirst()
+                    .orElseGet(() -> group.stream().filter(file -> file.getToolId() != null).findFirst().orElse(group.get(0)));
+
+            for (MediaFiles duplicate : group) {
+                if (duplicate == keep) {
+                    continue;
+                }
+                // a. 校验副本状态是否允许处理
+                if (duplicate.getFileStatus() == FileStatus.PROCESSING || duplicate.getFileStatus() == FileStatus.LOCKED) {
+                    log.warn("文件 {} (ID: {}) 当前状态为 {}，跳过。", duplicate.getFileName(), duplicate.getFileId(), duplicate.getFileStatus().getDescription());
+                    continue;
+                }
+                // b. 与保留文件路径相同 (重复的记录而不是重复的文件)，删除副本会删掉保留的文件
+                if (Objects.equals(duplicate.getFilePath(), keep.getFilePath())) {
+                    log.warn("文件 {} (ID: {}) 与保留的文件 (ID: {}) 路径相同，跳过。", duplicate.getFilePath(), duplicate.getFileId(), keep.getFileId());
+                    continue;
+                }
+                // c. 已经是指向保留文件的硬链接
+                if (action == DedupeAction.HARDLINK && duplicate.getFileKey() != null && duplicate.getFileKey().equals(keep.getFileKey())) {
+                    continue;
+                }
+
+                // --- 3. 更新副本状态：删除的副本进入待删除状态，替换为硬链接的副本在处理期间为处理中 ---
+                FileStatus previousStatus = duplicate.getFileStatus() == null ? FileStatus.PENDING_CLASSIFICATION : duplicate.getFileStatus();
+                duplicate.setFileStatus(action == DedupeAction.DELETE ? FileStatus.MARKED_FOR_DELETION : FileStatus.PROCESSING);
+                duplicate.setUpdateTime(System.currentTimeMillis());
+                mediaFilesMapper.updateById(duplicate);
+                // 待删除的副本不再出现在相似图片中，删除失败时由 DedupeTaskProcessor 重新加入
+                if (action == DedupeAction.DELETE && duplicate.getPerceptualHash() != null) {
+                    similarImageIndex.remove(duplicate.getFileId(), duplicate.getPerceptualHash());
+                }
+
+                // --- 4. 创建操作日志 ---
+                OperationLogs log = new OperationLogs();
+                log.setFileId(duplicate.getFileId());
+                log.setOperationType("DEDUPE"); // 定义去重操作类型
+                log.setStatus(OperationLogStatus.PENDING);
+                log.setOperationTime(System.currentTimeMillis());
+                Map<String, Object> detail = Map.of(
+                        "action", action.name(),
+                        "keepFileId", keep.getFileId(),
+                        "fileHash", fileHash,
+                        "previousStatus", previousStatus.name(),
+                        "originalFilePath", duplicate.getFilePath()
+                );
+                try {
+                    log.setOperationDetail(objectMapper.writeValueAsString(detail));
+                } catch (Exception e) {
+                    throw new RuntimeException("序列化操作详情失败");
+                }
+
+                operationLogsMapper.insert(log);
+                createdOperationLogIds.add(log.getOperationId());
+            }
+        }
+
+        // --- 5. 返回成功响应 ---
+        return Result.okResult(createdOperationLogIds);
+    }
+
+    /**
+     * 查询指定哈希的所有文件 (待删除的文件除外)，按 file_id 排序
+     */
+    private List<MediaFiles> selectDuplicateCandidates(Collection<String> fileHashes) {
+        return mediaFilesMapper.selectList(new LambdaQueryWrapper<MediaFiles>()
+                .in(MediaFiles::getFileHash, fileHashes)
+                .and(w -> w.isNull(MediaFiles::getFileStatus).or().ne(MediaFiles::getFileStatus, FileStatus.MARKED_FOR_DELETION))
+                .orderByAsc(MediaFiles::getFileId));
+    }
+
+    /**
+     * 查找相似图片
+     *
+     * @param fileId      图片的文件ID
+     * @param maxDistance 最大汉明距离
+     * @param limit       最多返回的数量
+     * @return 相似的图片，按距离从小到大排序
+     */
+    @Override
+    public Result<List<SimilarImageDTO>> getSimilarImages(Long fileId, Integer maxDistance, Integer limit) {
+        int distance = maxDistance == null ? Math.min(DEFAULT_SIMILAR_DISTANCE, maxSimilarDistance) : maxDistance;
+        int size = (limit == null || limit < 1) ? 50 : limit;
+        if (distance < 0 || distance > maxSimilarDistance) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "最大距离需在 0 到 " + maxSimilarDistance + " 之间");
+        }
+        MediaFiles source = fileId == null ? null : mediaFilesMapper.selectById(fileId);
+        if (source == null) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "文件 (ID: " + fileId + ") 不存在。");
+        }
+        if (source.getPerceptualHash() == null) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "该文件没有感知哈希 (不是图片、格式不支持或尚未计算)。");
+        }
+        long hash = source.getPerceptualHash();
+
+        // 1. 在内存索引中查找候选
+        long start = System.nanoTime();
+        List<SimilarImageIndex.Match> candidates = similarImageIndex.search(hash, distance).stream()
+                .filter(match -> match.fileId() != fileId)
+                .toList();
+        log.debug("相似图片索引查询耗时 {} 微秒，候选 {} 个", (System.nanoTime() - start) / 1000, candidates.size());
+
+        // 2. 以数据库中的当前记录为准再过滤一次 (索引中可能残留已删除文件或旧哈希)，并排除当前用户隐藏的分类
+        Set<Integer> hiddenToolIds = getHiddenToolIdsForCurrentUser();
+        List<SimilarImageDTO> result = new ArrayList<>();
+        for (int from = 0; from < candidates.size() && result.size() < size; from += 500) {
+            List<SimilarImageIndex.Match> chunk = candidates.subList(from, Math.min(from + 500, candidates.size()));
+            Map<Long, MediaFiles> records = mediaFilesMapper.selectBatchIds(chunk.stream().map(SimilarImageIndex.Match::fileId).toList())
+                    .stream().collect(Collectors.toMap(MediaFiles::getFileId, file -> file));
+            for (SimilarImageIndex.Match match : chunk) {
+                MediaFiles record = records.get(match.fileId());
+                if (record == null || record.getPerceptualHash() == null || record.getFileStatus() == FileStatus.MARKED_FOR_DELETION
+                        || (record.getToolId() != null && hiddenToolIds.contains(record.getToolId()))) {
+                    continue;
+                }
+                int actual = Long.bitCount(record.getPerceptualHash() ^ hash);
+                if (actual > distance) {
+                    continue;
+                }
+                SimilarImageDTO dto = new SimilarImageDTO();
+                dto.setDistance(actual);
+                dto.setFile(convertToDTO(record));
+                result.add(dto);
+                if (result.size() >= size) {
+                    break;
+                }
+            }
+        }
+        result.sort(Comparator.comparing(SimilarImageDTO::getDistance));
+        return Result.okResult(result);
+    }
 }
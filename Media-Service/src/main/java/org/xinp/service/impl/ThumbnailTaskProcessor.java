@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import org.xinp.constant.IoPriority;
 import org.xinp.constant.ScanStatus;
 import org.xinp.entity.MediaFiles;
 import org.xinp.entity.UserSettings;
@@ -14,7 +15,9 @@ import org.xinp.mapper.UserSettingsMapper;
 import org.xinp.pojo.TaskProgress;
 import org.xinp.util.FfmpegService;
 import org.xinp.util.FileManagementUtil;
+import org.xinp.util.IoGovernor;
 
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
@@ -29,6 +32,7 @@ public class ThumbnailTaskProcessor { // 注意：这个不是实现OperationLog
     private final UserSettingsMapper userSettingsMapper;
     private final FileManagementUtil fileManagementUtil;
     private final FfmpegService ffmpegService;
+    private final IoGovernor ioGovernor;
     @Qualifier("projectPath")
     private final Path rootPath;
 
@@ -129,8 +133,9 @@ private void processImage(MediaFiles imageFile, float quality) throws Exception
     // 我们定义一个目标尺寸，例如宽度为800像素。
     int targetWidth = 800;
 
-    try {
-        Thumbnails.of(sourcePath.toFile())
+    // 读取原图受全局 I/O 配额控制，缩略图任务不会占满磁盘带宽
+    try (InputStream source = ioGovernor.newInputStream(sourcePath, IoPriority.BACKGROUND)) {
+        Thumbnails.of(source)
                 // 使用 size() 并配合 keepAspectRatio() 是最常见的缩略图生成方式
                 // Thumbnailator内部对大图有优化，但我们仍需确保JVM内存充足
                 .size(targetWidth, targetWidth) // 限制最大宽/高为800，保持比例
@@ -174,8 +179,10 @@ private void processImage(MediaFiles imageFile, float quality) throws Exception
                 targetPath.toAbsolutePath().toString()
         );
 
-        // 使用 FfmpegService 执行命令
-        ffmpegService.execute(commandList);
+        // 使用 FfmpegService 执行命令 (FFmpeg 自行读取文件，只占用打开文件的配额)
+        try (IoGovernor.FilePermit ignored = ioGovernor.acquireFile(IoPriority.BACKGROUND)) {
+            ffmpegService.execute(commandList);
+        }
 
         // 更新数据库
         videoFile.setThumbnail(thumbnailRelativePath);
@@ -7,7 +7,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.xinp.constant.Code;
 import org.xinp.entity.HideList;
 import org.xinp.entity.MediaFiles;
@@ -20,6 +20,7 @@ import org.xinp.pojo.*;
 import org.xinp.service.ToolListService;
 import org.xinp.util.CurrentHolderUtils;
 import org.xinp.util.FileManagementUtil;
+import org.xinp.util.SimilarImageIndex;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -34,6 +35,9 @@ public class ToolListServiceImpl implements ToolListService {
     private final FileManagementUtil fileManagementUtil;
     private final MediaFilesMapper mediaFilesMapper;
     private final HideListMapper hideListMapper;
+    private final SimilarImageIndex similarImageIndex;
+    // 只包住数据库写入的短事务：文件系统操作放在事务外，不占用唯一的写连接
+    private final TransactionTemplate transactionTemplate;
 
     /**
      * 创建分类
@@ -42,7 +46,6 @@ public class ToolListServiceImpl implements ToolListService {
      * @return 创建成功的分类信息
      */
     @Override
-    @Transactional(rollbackFor = Exception.class) // 确保所有异常都触发回滚
     public Result<ToolList> createTool(ToolCreateRequestDTO createRequest) {
         // --- 1. 数据库层面的校验 ---
         // a. 检查路径是否已在数据库中存在，防止重复
@@ -96,7 +99,6 @@ public class ToolListServiceImpl implements ToolListService {
                 // 如果回滚也失败，记录一个严重错误，需要手动干预
                 log.error("!!! 严重错误：数据库插入失败后，回滚物理目录 {} 也失败！", relativePath, rollbackException);
             }
-            // 向上层抛出异常，触发@Transactional的回滚
             throw new RuntimeException("数据库操作失败", dbException);
         }
     }
@@ -225,7 +227,6 @@ public class ToolListServiceImpl implements ToolListService {
      * @return 删除结果
      */
     @Override
-    @Transactional(rollbackFor = Exception.class)
     public Result<Void> deleteToolAndChildren(Integer toolId) {
         // --- 1. 查找所有待删除的分类 (包括自身和所有子孙) ---
         // a. 从数据库获取所有分类，以便在内存中构建树形关系
@@ -249,23 +250,36 @@ public class ToolListServiceImpl implements ToolListService {
         List<Long> fileIdsToDelete = filesToDelete.stream()
                 .map(MediaFiles::getFileId).collect(Collectors.toList());
 
-        // --- 3. 数据库删除操作 ---
-        // a. 删除所有相关的文件记录
-        if (!fileIdsToDelete.isEmpty()) {
-            int deletedFilesCount = mediaFilesMapper.deleteBatchIds(fileIdsToDelete);
-            log.info("从数据库中删除了 {} 条文件记录。", deletedFilesCount);
-        }
+        // --- 3. 数据库删除操作 (一个短事务，只包含删除语句) ---
+        int deletedToolsCount = transactionTemplate.execute(status -> {
+            // a. 删除所有相关的文件记录
+            if (!fileIdsToDelete.isEmpty()) {
+                int deletedFilesCount = mediaFilesMapper.deleteBatchIds(fileIdsToDelete);
+                log.info("从数据库中删除了 {} 条文件记录。", deletedFilesCount);
+                // 事务提交后从相似图片索引中移除
+                for (MediaFiles file : filesToDelete) {
+                    if (file.getPerceptualHash() != null) {
+                        similarImageIndex.remove(file.getFileId(), file.getPerceptualHash());
+                    }
+                }
+            }
 
-        // b. 删除所有相关的分类记录
-        int deletedToolsCount = toolListMapper.deleteBatchIds(idsToDelete);
-        log.info("从数据库中删除了 {} 条分类记录。", deletedToolsCount);
+            // b. 删除所有相关的分类记录
+            int deleted = toolListMapper.deleteBatchIds(idsToDelete);
+            log.info("从数据库中删除了 {} 条分类记录。", deleted);
+            if (deleted == 0) {
+                status.setRollbackOnly();
+            }
+            return deleted;
+        });
         if (deletedToolsCount == 0) {
             return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "未找到ID为 " + toolId + " 的分类，无法删除。");
         }
 
         // --- 4. 物理文件和目录删除操作 ---
-        // *** 将物理删除放在数据库操作成功之后 ***
+        // *** 将物理删除放在数据库事务提交之后 (不占用写连接)，记录已删除，残留的文件由下次扫描重新发现 ***
         // a. 删除物理文件
+        List<String> failedPaths = new ArrayList<>();
         for (MediaFiles file : filesToDelete) {
             try {
                 // 同时删除文件本身和可能的缩略图
@@ -274,10 +288,9 @@ public class ToolListServiceImpl implements ToolListService {
                     fileManagementUtil.deleteFile(file.getThumbnail());
                 }
             } catch (Exception e) {
-                // 如果单个文件删除失败，我们记录日志并继续，但事务会回滚
-                log.error("删除物理文件 {} 失败，操作将回滚。", file.getFilePath(), e);
-                // 抛出异常以触发事务回滚
-                throw new RuntimeException("物理文件删除失败: " + file.getFilePath(), e);
+                // 如果单个文件删除失败，记录日志并继续删除其余文件
+                log.error("删除物理文件 {} 失败。", file.getFilePath(), e);
+                failedPaths.add(file.getFilePath());
             }
         }
 
@@ -292,11 +305,14 @@ public class ToolListServiceImpl implements ToolListService {
                 fileManagementUtil.deleteDirectory(relativePath);
                 log.info("成功删除物理目录及其所有内容: {}", relativePath);
             } catch (Exception e) {
-                log.error("删除物理目录 {} 失败，操作将回滚。", topLevelToolToDelete.getPath(), e);
-                throw new RuntimeException("物理目录删除失败: " + topLevelToolToDelete.getPath(), e);
+                log.error("删除物理目录 {} 失败。", topLevelToolToDelete.getPath(), e);
+                failedPaths.add(topLevelToolToDelete.getPath());
             }
         }
 
+        if (!failedPaths.isEmpty()) {
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "分类已删除，但以下文件或目录删除失败，请手动清理: " + failedPaths);
+        }
         return Result.okResult();
     }
 
@@ -327,7 +343,6 @@ public class ToolListServiceImpl implements ToolListService {
      * @return 更新结果
      */
     @Override
-    @Transactional(rollbackFor = Exception.class)
     public Result<ToolList> updateTool(ToolUpdateRequestDTO request) {
         // --- 1. 基础校验 ---
         ToolList toolToUpdate = toolListMapper.selectById(request.getToolId());
@@ -429,36 +444,50 @@ public class ToolListServiceImpl implements ToolListService {
         List<Integer> allChildrenIds = new ArrayList<>();
         findChildrenIds(request.getToolId(), allTools, allChildrenIds);
 
-        // 更新数据库记录 (当前分类，子孙分类，相关文件)
-        toolListMapper.updateById(toolToUpdate);
-
-        // b. 批量更新所有子孙分类的路径
-        if (!allChildrenIds.isEmpty()) {
-            List<ToolList> childrenToUpdate = allTools.stream()
-                    .filter(t -> allChildrenIds.contains(t.getToolId()))
-                    .collect(Collectors.toList());
-
-            for (ToolList child : childrenToUpdate) {
-                String newChildPath = child.getPath().replaceFirst(oldPath, newPath);
-                child.setPath(newChildPath);
-                toolListMapper.updateById(child);
-            }
-        }
-
-        // c. 批量更新所有相关文件的路径
-        allChildrenIds.add(request.getToolId());
-        LambdaUpdateWrapper<MediaFiles> fileUpdateWrapper = new LambdaUpdateWrapper<>();
-        fileUpdateWrapper.in(MediaFiles::getToolId, allChildrenIds)
-                .setSql("file_path = REPLACE(file_path, {0}, {1})", oldPath.substring(1), newPath.substring(1));
-        mediaFilesMapper.update(null, fileUpdateWrapper);
-
-        // --- 7. 执行文件系统操作 ---
-        // 执行文件系统操作
+        // --- 7. 执行文件系统操作 (在事务外，移动目录期间不占用写连接) ---
         try {
             fileManagementUtil.moveDirectory(oldPath.substring(1), newPath.substring(1));
         } catch (Exception e) {
-            log.error("移动/重命名目录失败，但数据库已更新。源: {}, 目标: {}", oldPath, newPath, e);
-            throw new RuntimeException("文件系统操作失败：从 " + oldPath + " 到 " + newPath + " 移动失败，请联系管理员。数据库更改将回滚。");
+            log.error("移动/重命名目录失败，数据库未修改。源: {}, 目标: {}", oldPath, newPath, e);
+            return Result.errorResult(Code.SYSTEM_ERROR.getCode(), "文件系统操作失败：从 " + oldPath + " 到 " + newPath + " 移动失败。");
+        }
+
+        // --- 8. 更新数据库记录 (当前分类，子孙分类，相关文件)，一个短事务 ---
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                // a. 更新当前分类
+                toolListMapper.updateById(toolToUpdate);
+
+                // b. 批量更新所有子孙分类的路径
+                if (!allChildrenIds.isEmpty()) {
+                    List<ToolList> childrenToUpdate = allTools.stream()
+                            .filter(t -> allChildrenIds.contains(t.getToolId()))
+                            .collect(Collectors.toList());
+
+                    for (ToolList child : childrenToUpdate) {
+                        String newChildPath = child.getPath().replaceFirst(oldPath, newPath);
+                        child.setPath(newChildPath);
+                        toolListMapper.updateById(child);
+                    }
+                }
+
+                // c. 批量更新所有相关文件的路径
+                List<Integer> affectedToolIds = new ArrayList<>(allChildrenIds);
+                affectedToolIds.add(request.getToolId());
+                LambdaUpdateWrapper<MediaFiles> fileUpdateWrapper = new LambdaUpdateWrapper<>();
+                fileUpdateWrapper.in(MediaFiles::getToolId, affectedToolIds)
+                        .setSql("file_path = REPLACE(file_path, {0}, {1})", oldPath.substring(1), newPath.substring(1));
+                mediaFilesMapper.update(null, fileUpdateWrapper);
+            });
+        } catch (Exception dbException) {
+            // *** 补偿操作：数据库更新失败，把目录移回原位置 ***
+            log.error("数据库更新分类路径失败，将尝试把目录移回原位置。", dbException);
+            try {
+                fileManagementUtil.moveDirectory(newPath.substring(1), oldPath.substring(1));
+            } catch (Exception rollbackException) {
+                log.error("!!! 严重错误：数据库更新失败后，目录 {} 移回 {} 也失败！", newPath, oldPath, rollbackException);
+            }
+            throw new RuntimeException("数据库操作失败", dbException);
         }
 
         return Result.okResult(toolToUpdate);
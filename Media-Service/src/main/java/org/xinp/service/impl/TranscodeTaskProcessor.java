@@ -11,6 +11,7 @@ import org.xinp.entity.MediaFiles;
 import org.xinp.entity.OperationLogs;
 import org.xinp.mapper.MediaFilesMapper;
 import org.xinp.service.OperationLogProcessor;
+import org.xinp.util.BackgroundHasher;
 import org.xinp.util.FfmpegService;
 import org.xinp.util.FileManagementUtil;
 import org.xinp.util.MediaScannerService;
@@ -33,6 +34,7 @@ public class TranscodeTaskProcessor implements OperationLogProcessor {
     private final MediaScannerService mediaScannerService;
     private final ObjectMapper objectMapper;
     private final FfmpegService ffmpegService; // 注入 FfmpegService
+    private final BackgroundHasher backgroundHasher;
     @Qualifier("projectPath")
     private final Path rootPath;
 
@@ -96,6 +98,7 @@ public class TranscodeTaskProcessor implements OperationLogProcessor {
         newMediaFile.setToolId(outputTargetToolId);
         newMediaFile.setFileStatus(FileStatus.AVAILABLE);
         mediaFilesMapper.insert(newMediaFile);
+        backgroundHasher.wakeUp(); // 完整哈希由后台补算
 
         // 6. 恢复源文件状态
         MediaFiles sourceFile = mediaFilesMapper.selectById(log.getFileId());
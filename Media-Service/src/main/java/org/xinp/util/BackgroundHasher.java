@@ -0,0 +1,388 @@
+package org.xinp.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.xinp.constant.FileStatus;
+import org.xinp.constant.IoPriority;
+import org.xinp.constant.ScanStatus;
+import org.xinp.entity.MediaFiles;
+import org.xinp.mapper.MediaFilesMapper;
+import org.xinp.pojo.TaskProgress;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 后台哈希队列
+ * 文件入库时只计算快速指纹，完整哈希 (file_hash) 为空表示待计算，由这里的后台线程以空闲 I/O 优先级补算：
+ * 1. 升级前入库、还没有快速指纹的记录先补算指纹，使其参与按指纹的重复检查；
+ * 2. 升级前入库、还没有感知哈希的图片补算感知哈希，并加入相似图片索引 (无法解码的图片本次运行期间不再重试)；
+ * 3. 按 file_id 顺序分页补算完整哈希，每条记录计算后立即写回。
+ * 待计算的记录就是数据库中的队列，应用重启后自动从剩余的记录继续。新文件入库后唤醒线程，空闲时每隔 interval-ms 检查一次。
+ * 文件在入库后被修改过 (修改时间与记录不一致) 时跳过，等待增量扫描或文件监听更新记录后再计算。
+ */
+@Slf4j
+@Service
+public class BackgroundHasher {
+
+    private static final int PAGE_SIZE = 200;
+
+    private final MediaFilesMapper mediaFilesMapper;
+    private final FileHasher fileHasher;
+    private final PerceptualHasher perceptualHasher;
+    private final SimilarImageIndex similarImageIndex;
+    private final Path rootPath;
+    @Value("${media.hash.background-enabled:true}")
+    private boolean enabled;
+    @Value("${media.hash.background-interval-ms:60000}")
+    private long intervalMs; // 没有新文件入库时检查待计算记录的间隔 (毫秒)
+
+    private Thread hashThread;
+    private volatile boolean stopping;
+    private volatile boolean paused;
+    private boolean wakeRequested; // 由本对象的锁保护
+    private final AtomicReference<TaskProgress> progress = new AtomicReference<>(newProgress(ScanStatus.IDLE, "后台哈希服务已就绪"));
+    private long perceptualHashCursor; // 已尝试补算感知哈希的最大 file_id，只由后台线程访问
+
+    public BackgroundHasher(MediaFilesMapper mediaFilesMapper, FileHasher fileHasher, PerceptualHasher perceptualHasher,
+                            SimilarImageIndex similarImageIndex, @Qualifier("projectPath") Path rootPath) {
+        this.mediaFilesMapper = mediaFilesMapper;
+        this.fileHasher = fileHasher;
+        this.perceptualHasher = perceptualHasher;
+        this.similarImageIndex = similarImageIndex;
+        this.rootPath = rootPath;
+    }
+
+    /**
+     * 应用启动完成 (数据库已初始化) 后开始处理上次未完成的记录
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || hashThread != null) {
+            return;
+        }
+        hashThread = new Thread(this::hashLoop, "media-background-hasher");
+        hashThread.setDaemon(true);
+        hashThread.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (hashThread != null) {
+            stopping = true;
+            hashThread.interrupt();
+            hashThread = null;
+        }
+    }
+
+    /**
+     * 有新的待计算记录 (例如新文件入库后)，唤醒后台线程；在事务中调用时等事务提交后再唤醒
+     */
+    public void wakeUp() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    signalWork();
+                }
+            });
+        } else {
+            signalWork();
+        }
+    }
+
+    private synchronized void signalWork() {
+        wakeRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * 暂停补算，正在计算的文件立即中止 (下次继续时重新计算)
+     */
+    public synchronized void pause() {
+        if (paused) {
+            return;
+        }
+        paused = true;
+        if (hashThread != null) {
+            hashThread.interrupt();
+        }
+        log.info("后台哈希计算已暂停");
+    }
+
+    /**
+     * 继续补算
+     */
+    public synchronized void resume() {
+        paused = false;
+        wakeRequested = true;
+        notifyAll();
+        log.info("后台哈希计算已继续");
+    }
+
+    /**
+     * @return 后台哈希的进度：待计算的记录数和本轮已处理的记录数
+     */
+    public TaskProgress getProgress() {
+        return progress.get();
+    }
+
+    private void hashLoop() {
+        while (!stopping) {
+            try {
+                if (!paused) {
+                    fillMissingFingerprints();
+                    fillMissingPerceptualHashes();
+                    fillMissingHashes();
+                }
+                awaitWork();
+            } catch (InterruptedException | InterruptedIOException e) {
+                // 暂停时被中断：清除中断标记，等待继续
+                Thread.interrupted();
+            } catch (RuntimeException e) {
+                log.error("后台哈希计算失败，稍后重试", e);
+                Thread.interrupted();
+                try {
+                    awaitWork();
+                } catch (InterruptedException ignored) {
+                    Thread.interrupted();
+                }
+            }
+            if (paused && !stopping) {
+                progress.set(newProgress(ScanStatus.CANCELED, "后台哈希计算已暂停"));
+            }
+        }
+        log.info("后台哈希服务已停止");
+    }
+
+    /**
+     * 等待新文件入库、继续或检查间隔到期 (暂停期间一直等待)
+     */
+    private synchronized void awaitWork() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + intervalMs;
+        while (!stopping && (paused || !wakeRequested)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (!paused && remaining <= 0) {
+                break;
+            }
+            wait(paused ? 0 : remaining);
+        }
+        wakeRequested = false;
+    }
+
+    /**
+     * 为还没有快速指纹的旧记录补算指纹
+     */
+    private void fillMissingFingerprints() throws InterruptedIOException {
+        long lastFileId = 0;
+        long filled = 0;
+        while (!paused) {
+            List<MediaFiles> page = mediaFilesMapper.selectList(new LambdaQueryWrapper<MediaFiles>()
+                    .select(MediaFiles::getFileId, MediaFiles::getFilePath)
+                    .isNull(MediaFiles::getFingerprint)
+                    .gt(MediaFiles::getFileId, lastFileId)
+                    .orderByAsc(MediaFiles::getFileId)
+                    .last("LIMIT " + PAGE_SIZE));
+            if (page.isEmpty()) {
+                break;
+            }
+            for (MediaFiles record : page) {
+                lastFileId = record.getFileId();
+                Path filePath = rootPath.resolve(record.getFilePath());
+                if (!Files.isRegularFile(filePath)) {
+                    continue; // 文件缺失由对账处理
+                }
+                try {
+                    long fingerprint = fileHasher.fingerprint(filePath, IoPriority.IDLE);
+                    mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                            .eq(MediaFiles::getFileId, record.getFileId())
+                            .set(MediaFiles::getFingerprint, fingerprint));
+                    filled++;
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    log.warn("计算文件 {} 的指纹失败: {}", record.getFilePath(), e.getMessage());
+                }
+            }
+        }
+        if (filled > 0) {
+            log.info("后台补算文件指纹 {} 条记录", filled);
+        }
+    }
+
+    /**
+     * 为还没有感知哈希的图片补算感知哈希 (从上次的位置继续，解码失败的图片不会反复重试)
+     */
+    private void fillMissingPerceptualHashes() throws InterruptedIOException {
+        long filled = 0;
+        while (!paused) {
+            List<MediaFiles> page = mediaFilesMapper.selectList(new LambdaQueryWrapper<MediaFiles>()
+                    .select(MediaFiles::getFileId, MediaFiles::getFilePath)
+                    .isNull(MediaFiles::getPerceptualHash)
+                    .likeRight(MediaFiles::getMimeType, "image/")
+                    .gt(MediaFiles::getFileId, perceptualHashCursor)
+                    .orderByAsc(MediaFiles::getFileId)
+                    .last("LIMIT " + PAGE_SIZE));
+            if (page.isEmpty()) {
+                break;
+            }
+            for (MediaFiles record : page) {
+                Path filePath = rootPath.resolve(record.getFilePath());
+                if (Files.isRegularFile(filePath)) {
+                    try {
+                        Long perceptualHash = perceptualHasher.hash(filePath, IoPriority.IDLE);
+                        if (perceptualHash != null) {
+                            mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                                    .eq(MediaFiles::getFileId, record.getFileId())
+                                    .set(MediaFiles::getPerceptualHash, perceptualHash));
+                            similarImageIndex.add(record.getFileId(), perceptualHash);
+                            filled++;
+                        }
+                    } catch (InterruptedIOException e) {
+                        throw e; // 游标停在这条记录之前，继续时重新计算
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("计算图片 {} 的感知哈希失败: {}", record.getFilePath(), e.getMessage());
+                    }
+                }
+                perceptualHashCursor = record.getFileId();
+            }
+        }
+        if (filled > 0) {
+            log.info("后台补算图片感知哈希 {} 条记录", filled);
+        }
+    }
+
+    /**
+     * 按 file_id 顺序为完整哈希为空的记录补算哈希
+     */
+    private void fillMissingHashes() throws InterruptedIOException {
+        long pending = mediaFilesMapper.selectCount(pendingHashQuery());
+        if (pending <= 0) {
+            progress.set(newProgress(ScanStatus.COMPLETED, "所有文件的哈希均已计算"));
+            return;
+        }
+        long lastFileId = 0;
+        long processed = 0;
+        long hashed = 0;
+        log.debug("开始后台计算文件哈希，待计算 {} 条记录", pending);
+        while (!paused) {
+            List<MediaFiles> page = mediaFilesMapper.selectList(pendingHashQuery()
+                    .select(MediaFiles::getFileId, MediaFiles::getFilePath, MediaFiles::getLastModified)
+                    .gt(MediaFiles::getFileId, lastFileId)
+                    .orderByAsc(MediaFiles::getFileId)
+                    .last("LIMIT " + PAGE_SIZE));
+            if (page.isEmpty()) {
+                break;
+            }
+            for (MediaFiles record : page) {
+                if (paused) {
+                    return;
+                }
+                lastFileId = record.getFileId();
+                updateProgress(pending, processed, record.getFilePath());
+                if (hashRecord(record)) {
+                    hashed++;
+                }
+                processed++;
+            }
+        }
+        if (hashed > 0) {
+            log.info("后台计算文件哈希完成，本轮计算 {} 条记录", hashed);
+        }
+        TaskProgress completed = newProgress(ScanStatus.COMPLETED, "后台哈希计算完成，本轮计算 " + hashed + " 条记录");
+        completed.setTotalTasks(pending);
+        completed.setProcessedTasks(processed);
+        completed.setPercentage(100);
+        progress.set(completed);
+    }
+
+    /**
+     * 计算一条记录的完整哈希并写回
+     * @return 是否写回成功
+     */
+    private boolean hashRecord(MediaFiles record) throws InterruptedIOException {
+        Path filePath = rootPath.resolve(record.getFilePath());
+        if (!Files.isRegularFile(filePath)) {
+            markMissing(record);
+            return false;
+        }
+        String fileHash;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+            Long lastModified = record.getLastModified();
+            if (lastModified != null && lastModified != attrs.lastModifiedTime().toMillis()) {
+                return false; // 入库后被修改过
+            }
+            fileHash = fileHasher.hash(filePath, IoPriority.IDLE);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            log.warn("计算文件 {} 的哈希失败: {}", record.getFilePath(), e.getMessage());
+            return false;
+        }
+        // 只在记录未被更新过 (哈希仍为空、修改时间一致) 时写回
+        return mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                .eq(MediaFiles::getFileId, record.getFileId())
+                .isNull(MediaFiles::getFileHash)
+                .eq(record.getLastModified() != null, MediaFiles::getLastModified, record.getLastModified())
+                .set(MediaFiles::getFileHash, fileHash)) > 0;
+    }
+
+    /**
+     * 文件已被删除或在应用外被移动：标记为错误，不再每轮重复读取；文件恢复后由对账恢复状态，重新进入队列
+     * 处理中和待删除的记录由对应的任务处理，不修改状态
+     */
+    private void markMissing(MediaFiles record) {
+        int marked = mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                .eq(MediaFiles::getFileId, record.getFileId())
+                .isNull(MediaFiles::getFileHash)
+                .and(w -> w.isNull(MediaFiles::getFileStatus)
+                        .or()
+                        .notIn(MediaFiles::getFileStatus, FileStatus.PROCESSING, FileStatus.MARKED_FOR_DELETION))
+                .set(MediaFiles::getFileStatus, FileStatus.ERROR));
+        if (marked > 0) {
+            log.warn("文件缺失，无法计算哈希，已标记为错误: {}", record.getFilePath());
+        }
+    }
+
+    /**
+     * 完整哈希待计算的记录 (处理中的文件可能正在被移动，待删除的文件不需要计算，错误状态的文件缺失或已损坏，跳过；旧记录的状态可能为空)
+     */
+    private LambdaQueryWrapper<MediaFiles> pendingHashQuery() {
+        return new LambdaQueryWrapper<MediaFiles>()
+                .isNull(MediaFiles::getFileHash)
+                .and(w -> w.isNull(MediaFiles::getFileStatus)
+                        .or()
+                        .notIn(MediaFiles::getFileStatus, FileStatus.PROCESSING, FileStatus.MARKED_FOR_DELETION, FileStatus.ERROR));
+    }
+
+    private void updateProgress(long total, long processed, String currentFile) {
+        TaskProgress current = newProgress(ScanStatus.RUNNING, "正在计算哈希: " + currentFile);
+        current.setTotalTasks(total);
+        current.setProcessedTasks(processed);
+        current.setPercentage(total > 0 ? (int) (100.0 * processed / total) : 0);
+        current.setCurrentStep(currentFile);
+        progress.set(current);
+    }
+
+    private static TaskProgress newProgress(ScanStatus status, String message) {
+        TaskProgress taskProgress = new TaskProgress("HASH");
+        taskProgress.setStatus(status);
+        taskProgress.setMessage(message);
+        return taskProgress;
+    }
+}
@@ -0,0 +1,372 @@
+package org.xinp.util;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.xinp.pojo.ProcessMetrics;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 外部进程 (ffmpeg/ffprobe) 管理
+ * 1. 每个工具有独立的并发上限，超出时调用方排队等待；
+ * 2. 每个进程有运行时间上限，超时后终止；
+ * 3. 输出由单独的线程读取，只保留最后 log-buffer-lines 行 (失败时写入异常信息)，不会因输出过多占满内存或阻塞进程；
+ * 4. 调用线程被中断 (任务取消)、超时或应用关闭时，终止进程及其所有子进程，先正常终止，超过宽限时间后强制终止；
+ * 5. 每次启动都记录日志并计入按工具的运行统计。
+ */
+@Slf4j
+@Service
+public class ExternalProcessManager {
+
+    private static final long DESTROY_GRACE_MS = 3000; // 正常终止后等待进程退出的时间，超过后强制终止
+    private static final int MAX_LINE_LENGTH = 2000; // 输出缓冲中每行保留的最大字符数
+    private static final int MAX_CAPTURED_BYTES = 16 * 1024 * 1024; // 完整读取标准输出时的大小上限
+
+    @Value("${media.process.ffmpeg-concurrency:2}")
+    private int ffmpegConcurrency; // 同时运行的 ffmpeg 进程数上限 (其他工具也使用该上限)
+    @Value("${media.process.ffprobe-concurrency:4}")
+    private int ffprobeConcurrency; // 同时运行的 ffprobe 进程数上限
+    @Value("${media.process.log-buffer-lines:200}")
+    private int logBufferLines; // 每个进程保留的最后输出行数
+
+    private final Map<String, ToolState> tools = new ConcurrentHashMap<>();
+    private final Set<Process> runningProcesses = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pumpThreadCount = new AtomicInteger();
+    private final ExecutorService outputPumps = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "media-process-output-" + pumpThreadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 运行一个外部命令并等待结束
+     * @param command       命令和参数 (不经过 shell，参数中的空格和特殊字符无需转义)
+     * @param timeout       运行时间上限 (不含排队等待的时间)
+     * @param captureStdout 是否完整读取标准输出 (例如 ffprobe 的 JSON)；为 false 时合并标准输出和标准错误，只保留最后的输出
+     * @return captureStdout 为 true 时返回完整的标准输出，否则返回最后 log-buffer-lines 行输出
+     * @throws RuntimeException 如果进程启动失败、超时或退出码不为 0
+     * @throws InterruptedException 如果等待时线程被中断 (进程已被终止)
+     */
+    public String run(List<String> command, Duration timeout, boolean captureStdout) throws InterruptedException {
+        ToolState state = stateOf(toolName(command.get(0)));
+        state.waiting.incrementAndGet();
+        try {
+            state.permits.acquire();
+        } finally {
+            state.waiting.decrementAndGet();
+        }
+        try {
+            return spawn(state, command, timeout, captureStdout);
+        } finally {
+            state.permits.release();
+        }
+    }
+
+    /**
+     * @return 各工具的运行统计
+     */
+    public List<ProcessMetrics> getMetrics() {
+        stateOf("ffmpeg");
+        stateOf("ffprobe");
+        List<ProcessMetrics> metrics = new ArrayList<>(tools.size());
+        for (ToolState state : tools.values()) {
+            metrics.add(state.snapshot());
+        }
+        metrics.sort(Comparator.comparing(ProcessMetrics::getTool));
+        return metrics;
+    }
+
+    /**
+     * 应用关闭时终止所有仍在运行的进程
+     */
+    @PreDestroy
+    public void shutdown() {
+        for (Process process : runningProcesses) {
+            log.warn("应用关闭，终止外部进程 pid={}", process.pid());
+            destroyTree(process);
+        }
+        outputPumps.shutdownNow();
+    }
+
+    private String spawn(ToolState state, List<String> command, Duration timeout, boolean captureStdout) throws InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(!captureStdout);
+        OutputTail tail = new OutputTail(logBufferLines);
+        BoundedOutput stdout = captureStdout ? new BoundedOutput() : null;
+
+        long startNanos = System.nanoTime();
+        Process process;
+        try {
+            process = processBuilder.start();
+        } catch (IOException e) {
+            state.startFailed();
+            throw new RuntimeException("启动 " + state.tool + " 失败: " + e.getMessage(), e);
+        }
+        runningProcesses.add(process);
+        state.started();
+        log.info("[{}] 启动进程 pid={}: {}", state.tool, process.pid(), String.join(" ", command));
+
+        Future<?> outputPump = outputPumps.submit(() -> captureStdout
+                ? copy(process.getInputStream(), stdout)
+                : readLines(process.getInputStream(), tail, state.tool));
+        Future<?> errorPump = captureStdout ? outputPumps.submit(() -> readLines(process.getErrorStream(), tail, state.tool)) : null;
+
+        Outcome outcome = Outcome.FAILED;
+        Integer exitCode = null;
+        try {
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                outcome = Outcome.TIMED_OUT;
+                destroyTree(process);
+                throw new RuntimeException(state.tool + " 运行超过 " + timeout.toSeconds() + " 秒，已终止。最后的输出: \n" + tail);
+            }
+            exitCode = process.exitValue();
+            awaitPump(outputPump);
+            awaitPump(errorPump);
+            if (exitCode != 0) {
+                throw new RuntimeException(state.tool + " 执行失败 (退出码: " + exitCode + ")。输出: \n" + tail);
+            }
+            if (stdout != null && stdout.overflowed) {
+                throw new RuntimeException(state.tool + " 的输出超过 " + MAX_CAPTURED_BYTES + " 字节");
+            }
+            outcome = Outcome.SUCCEEDED;
+            return stdout != null ? stdout.toString(StandardCharsets.UTF_8) : tail.toString();
+        } catch (InterruptedException e) {
+            outcome = Outcome.CANCELED;
+            destroyTree(process);
+            Thread.currentThread().interrupt(); // 保持中断状态
+            throw e;
+        } finally {
+            runningProcesses.remove(process);
+            long runtimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            state.finished(outcome, exitCode, runtimeMs);
+            log.info("[{}] 进程结束 pid={}: {}，退出码 {}，耗时 {} ms", state.tool, process.pid(), outcome.description, exitCode, runtimeMs);
+        }
+    }
+
+    /**
+     * 终止进程及其所有子进程：先正常终止，宽限时间内没有退出的强制终止
+     */
+    private void destroyTree(Process process) {
+        // 父进程退出后子进程会被托管，必须在终止前取得子进程列表
+        List<ProcessHandle> descendants = process.descendants().toList();
+        descendants.forEach(ProcessHandle::destroy);
+        process.destroy();
+        try {
+            if (!process.waitFor(DESTROY_GRACE_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("进程 pid={} 未在 {} ms 内退出，强制终止", process.pid(), DESTROY_GRACE_MS);
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        descendants.stream().filter(ProcessHandle::isAlive).forEach(ProcessHandle::destroyForcibly);
+    }
+
+    /**
+     * 等待输出读取线程读完 (进程退出后输出流随即结束；如果有子进程仍持有输出流，不再等待)
+     */
+    private void awaitPump(Future<?> pump) throws InterruptedException {
+        if (pump == null) {
+            return;
+        }
+        try {
+            pump.get(DESTROY_GRACE_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            pump.cancel(true);
+            log.warn("进程已退出，但输出流仍未关闭 (可能被子进程持有)，不再读取");
+        } catch (ExecutionException e) {
+            log.warn("读取进程输出失败: {}", e.getCause().getMessage());
+        }
+    }
+
+    private static Void readLines(InputStream inputStream, OutputTail tail, String tool) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                tail.add(line);
+                log.debug("[{}]: {}", tool, line);
+            }
+        }
+        return null;
+    }
+
+    private static Void copy(InputStream inputStream, BoundedOutput output) throws IOException {
+        try (inputStream) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                output.write(buffer, 0, read);
+            }
+        }
+        return null;
+    }
+
+    private ToolState stateOf(String tool) {
+        return tools.computeIfAbsent(tool, name -> new ToolState(name, name.equals("ffprobe") ? ffprobeConcurrency : ffmpegConcurrency));
+    }
+
+    private static String toolName(String executable) {
+        Path fileName = Path.of(executable).getFileName();
+        String name = (fileName == null ? executable : fileName.toString()).toLowerCase(Locale.ROOT);
+        return name.endsWith(".exe") ? name.substring(0, name.length() - 4) : name;
+    }
+
+    private enum Outcome {
+        SUCCEEDED("成功"),
+        FAILED("失败"),
+        TIMED_OUT("超时终止"),
+        CANCELED("取消终止");
+
+        private final String description;
+
+        Outcome(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * 单个工具的并发配额和运行统计
+     */
+    private static final class ToolState {
+        private final String tool;
+        private final int maxConcurrent;
+        private final Semaphore permits;
+        private final AtomicInteger waiting = new AtomicInteger();
+        // 以下统计由本对象的锁保护
+        private int running;
+        private long spawned;
+        private long succeeded;
+        private long failed;
+        private long timedOut;
+        private long canceled;
+        private long totalRuntimeMs;
+        private long maxRuntimeMs;
+        private Integer lastExitCode;
+        private long lastRuntimeMs;
+
+        private ToolState(String tool, int maxConcurrent) {
+            this.tool = tool;
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+            this.permits = new Semaphore(this.maxConcurrent, true);
+        }
+
+        private synchronized void started() {
+            running++;
+            spawned++;
+        }
+
+        private synchronized void startFailed() {
+            failed++;
+            lastExitCode = null;
+            lastRuntimeMs = 0;
+        }
+
+        private synchronized void finished(Outcome outcome, Integer exitCode, long runtimeMs) {
+            running--;
+            switch (outcome) {
+                case SUCCEEDED -> succeeded++;
+                case FAILED -> failed++;
+                case TIMED_OUT -> timedOut++;
+                case CANCELED -> canceled++;
+            }
+            totalRuntimeMs += runtimeMs;
+            maxRuntimeMs = Math.max(maxRuntimeMs, runtimeMs);
+            lastExitCode = exitCode;
+            lastRuntimeMs = runtimeMs;
+        }
+
+        private synchronized ProcessMetrics snapshot() {
+            ProcessMetrics metrics = new ProcessMetrics();
+            metrics.setTool(tool);
+            metrics.setMaxConcurrent(maxConcurrent);
+            metrics.setRunning(running);
+            metrics.setWaiting(waiting.get());
+            metrics.setSpawned(spawned);
+            metrics.setSucceeded(succeeded);
+            metrics.setFailed(failed);
+            metrics.setTimedOut(timedOut);
+            metrics.setCanceled(canceled);
+            metrics.setTotalRuntimeMs(totalRuntimeMs);
+            metrics.setMaxRuntimeMs(maxRuntimeMs);
+            metrics.setLastExitCode(lastExitCode);
+            metrics.setLastRuntimeMs(lastRuntimeMs);
+            return metrics;
+        }
+    }
+
+    /**
+     * 环形输出缓冲：只保留最后若干行
+     */
+    private static final class OutputTail {
+        private final int capacity;
+        private final Deque<String> lines = new ArrayDeque<>();
+        private long dropped;
+
+        private OutputTail(int capacity) {
+            this.capacity = Math.max(1, capacity);
+        }
+
+        private synchronized void add(String line) {
+            if (lines.size() == capacity) {
+                lines.removeFirst();
+                dropped++;
+            }
+            lines.addLast(line.length() > MAX_LINE_LENGTH ? line.substring(0, MAX_LINE_LENGTH) + "..." : line);
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder builder = new StringBuilder();
+            if (dropped > 0) {
+                builder.append("... (省略前 ").append(dropped).append(" 行)").append(System.lineSeparator());
+            }
+            for (String line : lines) {
+                builder.append(line).append(System.lineSeparator());
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * 有大小上限的输出缓冲，超出后丢弃后续内容并标记
+     */
+    private static final class BoundedOutput extends ByteArrayOutputStream {
+        private volatile boolean overflowed;
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            if (count + length > MAX_CAPTURED_BYTES) {
+                overflowed = true;
+                return;
+            }
+            super.write(bytes, offset, length);
+        }
+    }
+}
@@ -3,12 +3,12 @@ package org.xinp.util;
 import com.fasterxml.jackson.databind.JsonNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 
@@ -18,47 +18,23 @@ import java.util.List;
 public class FfmpegService {
 
     private final ObjectMapper objectMapper; // 注入ObjectMapper
+    private final ExternalProcessManager processManager;
+    @Value("${media.process.ffmpeg-timeout-minutes:240}")
+    private long ffmpegTimeoutMinutes; // 单个 ffmpeg 进程的运行时间上限 (分钟)
+    @Value("${media.process.ffprobe-timeout-seconds:60}")
+    private long ffprobeTimeoutSeconds; // 单个 ffprobe 进程的运行时间上限 (秒)
 
     /**
-     * 使用 ProcessBuilder 安全地执行一个FFmpeg命令。
+     * 执行一个FFmpeg命令 (不经过 shell；受并发上限和运行时间上限控制，线程被中断时终止进程)。
      * @param commandList 包含命令和所有参数的列表
-     * @return FFmpeg的完整输出日志
-     * @throws RuntimeException 如果FFmpeg执行失败 (退出码不为0)
+     * @return FFmpeg最后的输出日志 (media.process.log-buffer-lines 行)
+     * @throws RuntimeException 如果FFmpeg执行失败 (退出码不为0) 或超时
      * @throws InterruptedException 如果线程在等待时被中断
      */
     public String execute(List<String> commandList) throws InterruptedException {
-        log.info("准备执行FFmpeg命令: {}", String.join(" ", commandList));
-
-        ProcessBuilder processBuilder = new ProcessBuilder(commandList);
-        processBuilder.redirectErrorStream(true); // 合并标准错误和标准输出
-
-        StringBuilder output = new StringBuilder();
-        try {
-            Process process = processBuilder.start();
-
-            // 实时读取输出，防止缓冲区阻塞
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append(System.lineSeparator());
-                    log.debug("[FFMPEG]: {}", line);
-                }
-            }
-
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                throw new RuntimeException("FFmpeg执行失败 (退出码: " + exitCode + ")。输出: \n" + output);
-            }
-            
-            log.info("FFmpeg命令成功执行。");
-            return output.toString();
-
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt(); // 保持中断状态
-            throw e;
-        } catch (Exception e) {
-            throw new RuntimeException("执行FFmpeg命令时发生IO异常: " + e.getMessage(), e);
-        }
+        String output = processManager.run(commandList, Duration.ofMinutes(ffmpegTimeoutMinutes), false);
+        log.info("FFmpeg命令成功执行。");
+        return output;
     }
     /**
      * 使用 ffprobe 获取视频的元数据。
@@ -76,7 +52,7 @@ public class FfmpegService {
                 videoPath.toAbsolutePath().toString()
         );
 
-        String jsonOutput = this.execute(commandList); // 复用execute方法
+        String jsonOutput = processManager.run(commandList, Duration.ofSeconds(ffprobeTimeoutSeconds), true);
         try {
             return objectMapper.readTree(jsonOutput);
         } catch (Exception e) {
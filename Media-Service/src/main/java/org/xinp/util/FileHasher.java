@@ -0,0 +1,225 @@
+package org.xinp.util;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.MurmurHash3;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.HashReadMode;
+import org.xinp.constant.IoPriority;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 文件哈希计算
+ * 通过 FileChannel 读入可复用的直接缓冲区 (不经过 JVM 堆，读取时少一次拷贝)，缓冲区在各线程之间复用，
+ * 也可以改为内存映射方式读取。读取受全局 I/O 配额 ({@link IoGovernor}) 控制。
+ * 另外提供只读取文件头、中、尾三段的快速指纹 ({@link #fingerprint})，用于先行判断内容是否可能重复。
+ * 注意：file_hash 用于判断内容重复，修改默认算法后新旧记录的哈希不可比较。
+ */
+@Service
+public class FileHasher {
+
+    // 内存映射时每次映射的区域大小，避免超大文件占用过多虚拟地址空间
+    private static final long MAP_REGION_SIZE = 64L * 1024 * 1024;
+
+    private final IoGovernor ioGovernor;
+    private final String algorithm; // 默认哈希算法
+    private final int bufferSize; // 每次读取的字节数 (直接缓冲区大小)
+    private final HashReadMode readMode; // 默认读取方式
+    private final int fingerprintBlockSize; // 快速指纹每段读取的字节数
+    // 空闲的直接缓冲区：直接缓冲区分配和回收的代价较高，用完后放回复用，数量不超过同时计算哈希的线程数
+    private final Queue<ByteBuffer> idleBuffers = new ConcurrentLinkedQueue<>();
+
+    public FileHasher(IoGovernor ioGovernor,
+                      @Value("${media.hash.algorithm:SHA-256}") String algorithm,
+                      @Value("${media.hash.buffer-size:1048576}") int bufferSize,
+                      @Value("${media.hash.read-mode:CHANNEL}") HashReadMode readMode,
+                      @Value("${media.hash.fingerprint-block-size:65536}") int fingerprintBlockSize) {
+        if (bufferSize <= 0 || fingerprintBlockSize <= 0) {
+            throw new IllegalArgumentException("哈希读取缓冲区和指纹分段大小必须大于 0");
+        }
+        newDigest(algorithm); // 启动时检查算法是否可用
+        this.ioGovernor = ioGovernor;
+        this.algorithm = algorithm;
+        this.bufferSize = bufferSize;
+        this.readMode = readMode;
+        this.fingerprintBlockSize = fingerprintBlockSize;
+    }
+
+    /**
+     * 计算文件的快速指纹：文件大小 + 头、中、尾三段内容的 64 位 MurmurHash3 (非加密哈希)
+     * 无论文件多大最多只读取三段，不超过三段大小的文件读取全部内容。
+     * 指纹不同则内容一定不同；指纹相同只说明内容可能相同，需要再比较完整哈希。
+     * @param filePath 文件路径
+     * @param priority I/O 优先级
+     * @return 64 位指纹
+     * @throws InterruptedIOException 如果读取时线程被中断 (保留中断标记)
+     */
+    public long fingerprint(Path filePath, IoPriority priority) throws IOException {
+        try (IoGovernor.FilePermit ignored = ioGovernor.acquireFile(priority);
+             FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + 3 * fingerprintBlockSize);
+            buffer.putLong(size);
+            if (size <= 3L * fingerprintBlockSize) {
+                readFully(channel, buffer, 0, (int) size);
+            } else {
+                readFully(channel, buffer, 0, fingerprintBlockSize);
+                readFully(channel, buffer, size / 2 - fingerprintBlockSize / 2, fingerprintBlockSize);
+                readFully(channel, buffer, size - fingerprintBlockSize, fingerprintBlockSize);
+            }
+            ioGovernor.acquireBytes(buffer.position() - Long.BYTES, priority);
+            return MurmurHash3.hash128x64(buffer.array(), 0, buffer.position(), 0)[0];
+        } catch (ClosedByInterruptException e) {
+            throw new InterruptedIOException("计算文件指纹时被中断: " + filePath);
+        }
+    }
+
+    /**
+     * 使用默认算法和读取方式计算文件哈希
+     * @param filePath 文件路径
+     * @param priority I/O 优先级
+     * @return 十六进制小写的哈希值
+     * @throws InterruptedIOException 如果计算过程中线程被中断 (保留中断标记)
+     */
+    public String hash(Path filePath, IoPriority priority) throws IOException {
+        return hash(filePath, algorithm, readMode, priority);
+    }
+
+    /**
+     * 计算文件哈希
+     * @param filePath  文件路径
+     * @param algorithm 哈希算法，例如 "SHA-256"、"SHA-1"、"MD5"
+     * @param readMode  读取方式
+     * @param priority  I/O 优先级
+     * @return 十六进制小写的哈希值
+     * @throws InterruptedIOException 如果计算过程中线程被中断 (保留中断标记)
+     */
+    public String hash(Path filePath, String algorithm, HashReadMode readMode, IoPriority priority) throws IOException {
+        return hash(filePath, algorithm, readMode, priority, null);
+    }
+
+    /**
+     * 使用默认算法和读取方式计算文件哈希，每读取一段数据后回调 readListener (调用方可以在回调中按自己的速率休眠)
+     * @param filePath     文件路径
+     * @param priority     I/O 优先级
+     * @param readListener 读取回调，参数为本次读取的字节数
+     * @return 十六进制小写的哈希值
+     * @throws InterruptedIOException 如果计算过程中线程被中断 (保留中断标记)
+     */
+    public String hash(Path filePath, IoPriority priority, ReadListener readListener) throws IOException {
+        return hash(filePath, algorithm, readMode, priority, readListener);
+    }
+
+    private String hash(Path filePath, String algorithm, HashReadMode readMode, IoPriority priority,
+                        ReadListener readListener) throws IOException {
+        MessageDigest digest = newDigest(algorithm);
+        try (IoGovernor.FilePermit ignored = ioGovernor.acquireFile(priority);
+             FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            if (readMode == HashReadMode.MMAP) {
+                digestMapped(channel, digest, priority, readListener);
+            } else {
+                digestChannel(channel, digest, priority, readListener);
+            }
+        } catch (ClosedByInterruptException e) {
+            // 读取时线程被中断，通道已被关闭
+            throw new InterruptedIOException("计算文件哈希时被中断: " + filePath);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    private void digestChannel(FileChannel channel, MessageDigest digest, IoPriority priority,
+                               ReadListener readListener) throws IOException {
+        ByteBuffer buffer = borrowBuffer();
+        try {
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer);
+                if (read < 0) {
+                    return;
+                }
+                ioGovernor.acquireBytes(read, priority);
+                if (readListener != null) {
+                    readListener.onRead(read);
+                }
+                buffer.flip();
+                digest.update(buffer);
+            }
+        } finally {
+            idleBuffers.offer(buffer);
+        }
+    }
+
+    private void digestMapped(FileChannel channel, MessageDigest digest, IoPriority priority,
+                              ReadListener readListener) throws IOException {
+        long size = channel.size();
+        for (long position = 0; position < size; position += MAP_REGION_SIZE) {
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_REGION_SIZE, size - position));
+            // 按缓冲区大小分段计算，读取映射内存时触发的缺页同样计入 I/O 配额
+            while (region.hasRemaining()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("计算文件哈希时被中断");
+                }
+                int length = Math.min(bufferSize, region.remaining());
+                ioGovernor.acquireBytes(length, priority);
+                if (readListener != null) {
+                    readListener.onRead(length);
+                }
+                digest.update(region.slice(region.position(), length));
+                region.position(region.position() + length);
+            }
+        }
+    }
+
+    /**
+     * 从指定位置读取 length 个字节追加到缓冲区 (文件被截断时读到末尾为止)
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        int end = buffer.position() + length;
+        buffer.limit(end);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        buffer.limit(buffer.capacity());
+    }
+
+    private ByteBuffer borrowBuffer() {
+        ByteBuffer buffer = idleBuffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("不支持的哈希算法: " + algorithm, e);
+        }
+    }
+
+    /**
+     * 计算哈希时的读取回调
+     */
+    @FunctionalInterface
+    public interface ReadListener {
+        /**
+         * @param bytes 本次读取的字节数
+         * @throws InterruptedIOException 如果回调中等待时线程被中断
+         */
+        void onRead(long bytes) throws InterruptedIOException;
+    }
+}
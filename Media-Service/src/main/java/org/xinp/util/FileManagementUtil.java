@@ -6,9 +6,11 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 import org.xinp.constant.FileOperationError;
+import org.xinp.constant.IoPriority;
 import org.xinp.exception.FileOperationException;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -31,8 +33,10 @@ import java.util.Comparator;
 public class FileManagementUtil {
 
     private final Path rootPath;
-    public FileManagementUtil(@Qualifier("projectPath") Path projectPath) {
+    private final IoGovernor ioGovernor;
+    public FileManagementUtil(@Qualifier("projectPath") Path projectPath, IoGovernor ioGovernor) {
         this.rootPath = projectPath;
+        this.ioGovernor = ioGovernor;
     }
 
     // =========================================================================================
@@ -169,7 +173,7 @@ public class FileManagementUtil {
         }
         try {
             log.info("创建文件: {}", filePath);
-            return Files.write(filePath, data, StandardOpenOption.CREATE_NEW);
+            return ioGovernor.write(filePath, data, IoPriority.INTERACTIVE, StandardOpenOption.CREATE_NEW);
         } catch (IOException e) {
             throw new FileOperationException(FileOperationError.IO_EXCEPTION, "创建文件失败: " + filename, e);
         }
@@ -187,8 +191,8 @@ public class FileManagementUtil {
         if (!Files.isRegularFile(filePath)) {
             throw new FileOperationException(FileOperationError.RESOURCE_NOT_FOUND, "文件未找到或目标不是一个文件: " + relativeFilePath);
         }
-        try {
-            return Files.readAllBytes(filePath);
+        try (InputStream in = ioGovernor.newInputStream(filePath, IoPriority.INTERACTIVE)) {
+            return in.readAllBytes();
         } catch (IOException e) {
             throw new FileOperationException(FileOperationError.IO_EXCEPTION, "读取文件失败: " + relativeFilePath, e);
         }
@@ -243,6 +247,41 @@ public class FileManagementUtil {
         }
     }
 
+    /**
+     * 将一个文件替换为指向另一个文件的硬链接。
+     * 先在目标文件所在目录创建临时硬链接，再原子地替换目标文件，替换过程中目标路径始终可以访问。
+     *
+     * @param sourceRelativePath 硬链接指向的文件的相对路径。
+     * @param targetRelativePath 要被替换的文件的相对路径。
+     * @return 替换后的文件的绝对路径。
+     * @throws FileOperationException 如果任一文件不存在 (RESOURCE_NOT_FOUND)，或创建硬链接失败 (IO_EXCEPTION，例如两个文件不在同一文件系统)。
+     */
+    public Path replaceWithHardLink(String sourceRelativePath, String targetRelativePath) {
+        Path sourcePath = resolveSafely(sourceRelativePath);
+        Path targetPath = resolveSafely(targetRelativePath);
+
+        if (!Files.isRegularFile(sourcePath)) {
+            throw new FileOperationException(FileOperationError.RESOURCE_NOT_FOUND, "源文件不存在或不是一个文件: " + sourceRelativePath);
+        }
+        if (!Files.isRegularFile(targetPath)) {
+            throw new FileOperationException(FileOperationError.RESOURCE_NOT_FOUND, "目标文件不存在或不是一个文件: " + targetRelativePath);
+        }
+        Path linkPath = targetPath.resolveSibling("." + targetPath.getFileName() + ".link");
+        try {
+            Files.deleteIfExists(linkPath);
+            Files.createLink(linkPath, sourcePath);
+            log.info("将文件 {} 替换为指向 {} 的硬链接", targetPath, sourcePath);
+            return Files.move(linkPath, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException e) {
+            try {
+                Files.deleteIfExists(linkPath);
+            } catch (IOException ignored) {
+                // 临时链接清理失败不影响原文件
+            }
+            throw new FileOperationException(FileOperationError.IO_EXCEPTION, "创建硬链接失败: " + targetRelativePath, e);
+        }
+    }
+
     // =========================================================================================
     // 辅助方法
     // =========================================================================================
@@ -0,0 +1,442 @@
+package org.xinp.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.FileStatus;
+import org.xinp.constant.IoPriority;
+import org.xinp.constant.OperationLogStatus;
+import org.xinp.constant.ScanStatus;
+import org.xinp.entity.MediaFiles;
+import org.xinp.entity.OperationLogs;
+import org.xinp.entity.ScrubCursor;
+import org.xinp.mapper.MediaFilesMapper;
+import org.xinp.mapper.OperationLogsMapper;
+import org.xinp.mapper.ScrubCursorMapper;
+import org.xinp.pojo.TaskProgress;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 后台完整性校验 (发现存储介质的静默损坏)
+ * 按 file_id 顺序逐个重新计算已有完整哈希的文件，与 file_hash 不一致的文件标记为 ERROR，
+ * 并写入一条状态为 FAILED 的 SCRUB 操作日志 (记录期望和实际的哈希)；之后再次校验一致时 (例如已从备份恢复) 自动恢复。
+ * 1. 每一轮计划在 cycle-days 内完成：按剩余字节数和剩余时间计算校验速率，均匀地分摊读取，不超过 max-bytes-per-second；
+ * 2. 提前完成时等到计划时间再开始下一轮；落后时 (例如新入库了大量文件) 以上限速率追赶；
+ * 3. 校验游标和本轮统计保存在 scrub_cursor 表中，应用重启后从断点继续。
+ * 读取使用空闲 I/O 优先级，有其他读写时让行。入库后被修改过的文件 (修改时间不一致) 跳过，等待重新扫描更新哈希。
+ */
+@Slf4j
+@Service
+public class IntegrityScrubber {
+
+    private static final long CURSOR_ID = 1L;
+    private static final int PAGE_SIZE = 100;
+    public static final String OPERATION_TYPE = "SCRUB";
+
+    private final MediaFilesMapper mediaFilesMapper;
+    private final ScrubCursorMapper scrubCursorMapper;
+    private final OperationLogsMapper operationLogsMapper;
+    private final FileHasher fileHasher;
+    private final ObjectMapper objectMapper;
+    private final Path rootPath;
+    @Value("${media.scrub.enabled:true}")
+    private boolean enabled;
+    @Value("${media.scrub.cycle-days:30}")
+    private long cycleDays; // 完成一轮校验的计划天数
+    @Value("${media.scrub.max-bytes-per-second:10485760}")
+    private long maxBytesPerSecond; // 校验读取速率上限，0 表示只按计划速率
+
+    private Thread scrubThread;
+    private volatile boolean stopping;
+    private volatile boolean paused;
+    private boolean wakeRequested; // 由本对象的锁保护
+    private final AtomicReference<TaskProgress> progress = new AtomicReference<>(newProgress(ScanStatus.IDLE, "完整性校验服务已就绪"));
+    // 以下字段只由校验线程访问
+    private long bytesPerSecond; // 当前的校验速率
+    private long nextReadNanos; // 按当前速率，下一次读取允许开始的时间
+
+    public IntegrityScrubber(MediaFilesMapper mediaFilesMapper, ScrubCursorMapper scrubCursorMapper,
+                             OperationLogsMapper operationLogsMapper, FileHasher fileHasher, ObjectMapper objectMapper,
+                             @Qualifier("projectPath") Path rootPath) {
+        this.mediaFilesMapper = mediaFilesMapper;
+        this.scrubCursorMapper = scrubCursorMapper;
+        this.operationLogsMapper = operationLogsMapper;
+        this.fileHasher = fileHasher;
+        this.objectMapper = objectMapper;
+        this.rootPath = rootPath;
+    }
+
+    /**
+     * 应用启动完成 (数据库已初始化) 后从上次的断点继续校验
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || scrubThread != null) {
+            return;
+        }
+        scrubThread = new Thread(this::scrubLoop, "media-integrity-scrubber");
+        scrubThread.setDaemon(true);
+        scrubThread.setPriority(Thread.MIN_PRIORITY);
+        scrubThread.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (scrubThread != null) {
+            stopping = true;
+            scrubThread.interrupt();
+            scrubThread = null;
+        }
+    }
+
+    /**
+     * 暂停校验，正在校验的文件立即中止 (继续时重新校验该文件)
+     */
+    public synchronized void pause() {
+        if (paused) {
+            return;
+        }
+        paused = true;
+        if (scrubThread != null) {
+            scrubThread.interrupt();
+        }
+        log.info("完整性校验已暂停");
+    }
+
+    /**
+     * 继续校验
+     */
+    public synchronized void resume() {
+        paused = false;
+        wakeRequested = true;
+        notifyAll();
+        log.info("完整性校验已继续");
+    }
+
+    /**
+     * @return 本轮校验的进度
+     */
+    public TaskProgress getProgress() {
+        return progress.get();
+    }
+
+    /**
+     * 判断文件是否被校验发现内容损坏且尚未恢复 (对账时不应把这类 ERROR 记录恢复为正常)
+     * @param fileId 文件ID
+     * @return 是否有未恢复的校验失败记录
+     */
+    public boolean isCorrupted(Long fileId) {
+        return operationLogsMapper.selectCount(openFailures(fileId)) > 0;
+    }
+
+    private void scrubLoop() {
+        while (!stopping) {
+            try {
+                if (!paused) {
+                    scrubCycle();
+                } else {
+                    awaitUntil(Long.MAX_VALUE);
+                }
+            } catch (InterruptedException | InterruptedIOException e) {
+                // 暂停时被中断：清除中断标记，等待继续
+                Thread.interrupted();
+            } catch (RuntimeException e) {
+                log.error("完整性校验失败，稍后重试", e);
+                Thread.interrupted();
+                try {
+                    awaitUntil(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10));
+                } catch (InterruptedException ignored) {
+                    Thread.interrupted();
+                }
+            }
+            if (paused && !stopping) {
+                progress.set(newProgress(ScanStatus.CANCELED, "完整性校验已暂停"));
+            }
+        }
+        log.info("完整性校验服务已停止");
+    }
+
+    /**
+     * 从游标处继续本轮校验；本轮完成后等到计划完成时间，再开始下一轮
+     */
+    private void scrubCycle() throws InterruptedException, InterruptedIOException {
+        ScrubCursor cursor = loadCursor();
+        while (!paused && !stopping) {
+            List<MediaFiles> page = mediaFilesMapper.selectList(new LambdaQueryWrapper<MediaFiles>()
+                    .select(MediaFiles::getFileId, MediaFiles::getFilePath, MediaFiles::getFileSize, MediaFiles::getFileHash,
+                            MediaFiles::getFileStatus, MediaFiles::getLastModified, MediaFiles::getToolId)
+                    .isNotNull(MediaFiles::getFileHash)
+                    .gt(MediaFiles::getFileId, cursor.getCursorFileId())
+                    .orderByAsc(MediaFiles::getFileId)
+                    .last("LIMIT " + PAGE_SIZE));
+            if (page.isEmpty()) {
+                completeCycle(cursor);
+                return;
+            }
+            // 按剩余字节数和剩余时间重新计算速率 (每页一次)
+            Map<String, Object> remaining = remainingOf(cursor);
+            long remainingFiles = ((Number) remaining.get("files")).longValue();
+            long remainingBytes = ((Number) remaining.get("bytes")).longValue();
+            bytesPerSecond = plannedRate(remainingBytes, cursor.getCycleDeadline());
+            for (MediaFiles record : page) {
+                if (paused || stopping) {
+                    return;
+                }
+                updateProgress(cursor, remainingFiles, remainingBytes, record.getFilePath());
+                Long verifiedBytes = verify(record, cursor);
+                if (verifiedBytes != null) {
+                    cursor.setVerifiedFiles(cursor.getVerifiedFiles() + 1);
+                    cursor.setVerifiedBytes(cursor.getVerifiedBytes() + verifiedBytes);
+                    remainingBytes -= verifiedBytes;
+                }
+                remainingFiles--;
+                cursor.setCursorFileId(record.getFileId());
+                cursor.setUpdateTime(System.currentTimeMillis());
+                scrubCursorMapper.updateById(cursor);
+            }
+        }
+    }
+
+    /**
+     * 校验一个文件
+     * @return 校验的字节数；跳过时返回 null
+     */
+    private Long verify(MediaFiles record, ScrubCursor cursor) throws InterruptedIOException {
+        if (record.getFileStatus() == FileStatus.PROCESSING || record.getFileStatus() == FileStatus.MARKED_FOR_DELETION) {
+            return null; // 可能正在被移动或删除
+        }
+        Path filePath = rootPath.resolve(record.getFilePath());
+        String actualHash;
+        long size;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null; // 文件缺失由对账处理
+            }
+            if (record.getLastModified() != null && record.getLastModified() != attrs.lastModifiedTime().toMillis()) {
+                return null; // 入库后被正常修改过，等待重新扫描
+            }
+            size = attrs.size();
+            actualHash = fileHasher.hash(filePath, IoPriority.IDLE, this::pace);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // 读取出错 (例如坏道) 同样说明文件已损坏
+            log.warn("校验文件 {} 时读取失败: {}", record.getFilePath(), e.getMessage());
+            actualHash = "读取失败: " + e.getMessage();
+            size = 0;
+        }
+
+        if (record.getFileHash().equals(actualHash)) {
+            if (record.getFileStatus() == FileStatus.ERROR && isCorrupted(record.getFileId())) {
+                restore(record);
+            }
+        } else if (!isCorrupted(record.getFileId())) {
+            markCorrupted(record, actualHash);
+            cursor.setMismatchedFiles(cursor.getMismatchedFiles() + 1);
+        }
+        return size;
+    }
+
+    /**
+     * 将内容与入库时不一致的文件标记为 ERROR，并记录一条校验失败的操作日志
+     */
+    private void markCorrupted(MediaFiles record, String actualHash) {
+        log.error("文件内容已损坏: {} (期望哈希 {}，实际 {})", record.getFilePath(), record.getFileHash(), actualHash);
+        // 只在记录未被更新过 (哈希、修改时间一致) 时标记
+        int updated = mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                .eq(MediaFiles::getFileId, record.getFileId())
+                .eq(MediaFiles::getFileHash, record.getFileHash())
+                .eq(record.getLastModified() != null, MediaFiles::getLastModified, record.getLastModified())
+                .set(MediaFiles::getFileStatus, FileStatus.ERROR));
+        if (updated == 0) {
+            return;
+        }
+        OperationLogs failure = new OperationLogs();
+        failure.setFileId(record.getFileId());
+        failure.setOperationType(OPERATION_TYPE);
+        failure.setStatus(OperationLogStatus.FAILED);
+        failure.setErrorMessage("文件内容与入库时的哈希不一致");
+        failure.setOperationTime(System.currentTimeMillis());
+        try {
+            failure.setOperationDetail(objectMapper.writeValueAsString(Map.of(
+                    "filePath", record.getFilePath(),
+                    "expectedHash", record.getFileHash(),
+                    "actualHash", actualHash,
+                    "previousStatus", Objects.requireNonNullElse(record.getFileStatus(), FileStatus.PENDING_CLASSIFICATION).name())));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化操作详情失败", e);
+        }
+        operationLogsMapper.insert(failure);
+    }
+
+    /**
+     * 之前损坏的文件再次校验一致 (例如已从备份恢复)：恢复文件状态，校验失败记录标记为已完成
+     */
+    private void restore(MediaFiles record) {
+        FileStatus restored = record.getToolId() != null ? FileStatus.AVAILABLE : FileStatus.PENDING_CLASSIFICATION;
+        mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                .eq(MediaFiles::getFileId, record.getFileId())
+                .eq(MediaFiles::getFileStatus, FileStatus.ERROR)
+                .set(MediaFiles::getFileStatus, restored));
+        OperationLogs resolved = new OperationLogs();
+        resolved.setStatus(OperationLogStatus.COMPLETED);
+        operationLogsMapper.update(resolved, openFailures(record.getFileId()));
+        log.info("文件内容已恢复正常: {}", record.getFilePath());
+    }
+
+    /**
+     * 读取回调：按当前速率休眠，使读取均匀分布
+     */
+    private void pace(long bytes) throws InterruptedIOException {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        nextReadNanos = Math.max(nextReadNanos, now) + bytes * TimeUnit.SECONDS.toNanos(1) / rate;
+        long sleepNanos = nextReadNanos - now;
+        if (sleepNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("完整性校验被中断");
+            }
+        }
+    }
+
+    /**
+     * 计划速率：剩余字节数在剩余时间内均匀读完，不超过上限；已经超过计划时间时按上限速率
+     * @return 字节/秒，0 表示不限速
+     */
+    private long plannedRate(long remainingBytes, long deadline) {
+        long remainingSeconds = TimeUnit.MILLISECONDS.toSeconds(deadline - System.currentTimeMillis());
+        if (remainingSeconds <= 0) {
+            return maxBytesPerSecond;
+        }
+        long planned = Math.max(1, remainingBytes / remainingSeconds);
+        return maxBytesPerSecond > 0 ? Math.min(planned, maxBytesPerSecond) : planned;
+    }
+
+    /**
+     * 本轮完成：记录统计，等到计划完成时间后开始下一轮
+     */
+    private void completeCycle(ScrubCursor cursor) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        String summary = "第 " + (cursor.getCompletedCycles() + 1) + " 轮完整性校验完成：校验 " + cursor.getVerifiedFiles()
+                + " 个文件 (" + cursor.getVerifiedBytes() + " 字节)，发现损坏 " + cursor.getMismatchedFiles() + " 个";
+        if (cursor.getVerifiedFiles() > 0) {
+            log.info("{}，耗时 {} 小时", summary, TimeUnit.MILLISECONDS.toHours(now - cursor.getCycleStart()));
+        }
+        TaskProgress completed = newProgress(ScanStatus.COMPLETED, summary + "，下一轮开始时间: " + Instant.ofEpochMilli(cursor.getCycleDeadline()));
+        completed.setTotalTasks(cursor.getVerifiedFiles());
+        completed.setProcessedTasks(cursor.getVerifiedFiles());
+        completed.setPercentage(100);
+        progress.set(completed);
+
+        // 至少间隔一分钟，避免文件很少或计划天数为 0 时反复空转
+        awaitUntil(Math.max(cursor.getCycleDeadline(), now + TimeUnit.MINUTES.toMillis(1)));
+        if (paused || stopping) {
+            return;
+        }
+        startCycle(cursor, cursor.getCompletedCycles() + 1);
+        scrubCursorMapper.updateById(cursor);
+    }
+
+    /**
+     * 等到指定时间，或被继续/停止唤醒 (暂停期间一直等待)
+     */
+    private synchronized void awaitUntil(long deadline) throws InterruptedException {
+        wakeRequested = false;
+        while (!stopping && !wakeRequested) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (!paused && remaining <= 0) {
+                break;
+            }
+            wait(paused || remaining > Integer.MAX_VALUE ? Integer.MAX_VALUE : remaining);
+        }
+    }
+
+    private ScrubCursor loadCursor() {
+        ScrubCursor cursor = scrubCursorMapper.selectById(CURSOR_ID);
+        if (cursor == null) {
+            cursor = new ScrubCursor();
+            cursor.setCursorId(CURSOR_ID);
+            startCycle(cursor, 0L);
+            scrubCursorMapper.insert(cursor);
+        }
+        return cursor;
+    }
+
+    private void startCycle(ScrubCursor cursor, long completedCycles) {
+        long now = System.currentTimeMillis();
+        cursor.setCursorFileId(0L);
+        cursor.setCycleStart(now);
+        cursor.setCycleDeadline(now + TimeUnit.DAYS.toMillis(cycleDays));
+        cursor.setCompletedCycles(completedCycles);
+        cursor.setVerifiedFiles(0L);
+        cursor.setVerifiedBytes(0L);
+        cursor.setMismatchedFiles(0L);
+        cursor.setUpdateTime(now);
+    }
+
+    /**
+     * 游标之后待校验的文件数和字节数
+     */
+    private Map<String, Object> remainingOf(ScrubCursor cursor) {
+        return mediaFilesMapper.selectMaps(new QueryWrapper<MediaFiles>()
+                .select("COUNT(*) AS files", "COALESCE(SUM(file_size), 0) AS bytes")
+                .isNotNull("file_hash")
+                .gt("file_id", cursor.getCursorFileId())).get(0);
+    }
+
+    /**
+     * 文件未恢复的校验失败记录
+     */
+    private LambdaQueryWrapper<OperationLogs> openFailures(Long fileId) {
+        return new LambdaQueryWrapper<OperationLogs>()
+                .eq(OperationLogs::getFileId, fileId)
+                .eq(OperationLogs::getOperationType, OPERATION_TYPE)
+                .eq(OperationLogs::getStatus, OperationLogStatus.FAILED);
+    }
+
+    private void updateProgress(ScrubCursor cursor, long remainingFiles, long remainingBytes, String currentFile) {
+        long totalBytes = cursor.getVerifiedBytes() + remainingBytes;
+        TaskProgress current = newProgress(ScanStatus.RUNNING, "第 " + (cursor.getCompletedCycles() + 1) + " 轮完整性校验：发现损坏 "
+                + cursor.getMismatchedFiles() + " 个，当前速率 " + bytesPerSecond + " 字节/秒，计划完成时间 "
+                + Instant.ofEpochMilli(cursor.getCycleDeadline()));
+        current.setTotalTasks(cursor.getVerifiedFiles() + remainingFiles);
+        current.setProcessedTasks(cursor.getVerifiedFiles());
+        current.setPercentage(totalBytes > 0 ? (int) (100.0 * cursor.getVerifiedBytes() / totalBytes) : 0);
+        current.setCurrentStep(currentFile);
+        progress.set(current);
+    }
+
+    private static TaskProgress newProgress(ScanStatus status, String message) {
+        TaskProgress taskProgress = new TaskProgress(OPERATION_TYPE);
+        taskProgress.setStatus(status);
+        taskProgress.setMessage(message);
+        return taskProgress;
+    }
+}
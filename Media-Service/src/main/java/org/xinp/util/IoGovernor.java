@@ -0,0 +1,311 @@
+package org.xinp.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.IoPriority;
+import org.xinp.pojo.IoLimits;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 全局磁盘 I/O 调度 (令牌桶)
+ * 扫描计算哈希、生成缩略图、文件读写等操作都通过这里申请配额，避免批量任务占满磁盘、影响 nginx 对 /content/ 的读取：
+ * 1. 字节配额：令牌按 bytes-per-second 匀速补充，最多积累一秒的量；
+ * 2. 文件配额：同时打开的文件数不超过 max-open-files，其中 interactive-reserved-files 个只留给交互操作。
+ * 交互操作可以透支最多一秒的字节配额，有交互操作在等待时后台操作让行，有交互或后台操作在等待时空闲操作让行；
+ * 后台和空闲操作只在余额为正时消费，长期平均速率不超过上限。
+ * 限额可以在运行时调整，调整后立即对等待中的操作生效。
+ */
+@Slf4j
+@Service
+public class IoGovernor {
+
+    // 单字节读取累计到这个量再申请配额，避免每个字节都加锁
+    private static final int SINGLE_BYTE_CHARGE = 8192;
+
+    @Value("${media.io.bytes-per-second:0}")
+    private volatile long bytesPerSecond; // 每秒读写字节数上限，0 表示不限速
+    @Value("${media.io.max-open-files:0}")
+    private volatile int maxOpenFiles; // 同时打开的文件数上限，0 表示不限制
+    @Value("${media.io.interactive-reserved-files:2}")
+    private volatile int interactiveReservedFiles; // 为交互操作预留的打开文件数
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // 配额释放或限额调整时通知等待者
+    private final Condition quotaChanged = lock.newCondition();
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private int openFiles;
+    private int interactiveWaiting;
+    private int backgroundWaiting;
+    private int idleWaiting;
+
+    /**
+     * 申请读写字节配额，配额不足时阻塞
+     * @param bytes    读写的字节数
+     * @param priority 优先级
+     * @throws InterruptedIOException 如果等待时线程被中断 (保留中断标记)
+     */
+    public void acquireBytes(long bytes, IoPriority priority) throws InterruptedIOException {
+        if (bytes <= 0 || bytesPerSecond <= 0) {
+            return;
+        }
+        boolean interactive = priority == IoPriority.INTERACTIVE;
+        boolean idle = priority == IoPriority.IDLE;
+        lockInterruptibly();
+        try {
+            adjustWaiting(priority, 1);
+            try {
+                while (true) {
+                    long rate = bytesPerSecond;
+                    if (rate <= 0) {
+                        return;
+                    }
+                    refill(rate);
+                    // 交互操作在透支不到一秒时即可消费；后台操作需要余额为正且没有交互操作在等待；空闲操作还需要没有后台操作在等待
+                    double threshold = interactive ? -rate : 0;
+                    boolean yielding = !interactive && (interactiveWaiting > 0 || (idle && backgroundWaiting > 0));
+                    if (tokens > threshold && !yielding) {
+                        tokens -= bytes;
+                        return;
+                    }
+                    long waitNanos = tokens > threshold
+                            ? TimeUnit.MILLISECONDS.toNanos(100) // 等优先级更高的操作结束时被唤醒
+                            : (long) ((threshold - tokens) * TimeUnit.SECONDS.toNanos(1) / rate) + 1;
+                    quotaChanged.awaitNanos(waitNanos);
+                }
+            } finally {
+                adjustWaiting(priority, -1);
+                quotaChanged.signalAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待磁盘读写配额时被中断");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 申请一个打开文件的配额，配额不足时阻塞；使用完毕后必须关闭返回的配额
+     * @param priority 优先级
+     * @return 文件配额，关闭时归还
+     * @throws InterruptedIOException 如果等待时线程被中断 (保留中断标记)
+     */
+    public FilePermit acquireFile(IoPriority priority) throws InterruptedIOException {
+        boolean interactive = priority == IoPriority.INTERACTIVE;
+        lockInterruptibly();
+        try {
+            while (true) {
+                int limit = maxOpenFiles;
+                int available = limit <= 0 || interactive ? limit : Math.max(1, limit - interactiveReservedFiles);
+                if (limit <= 0 || openFiles < available) {
+                    openFiles++;
+                    return new FilePermit();
+                }
+                quotaChanged.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待打开文件配额时被中断");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 打开一个受配额控制的输入流：打开时占用一个文件配额，关闭时归还，读取的字节计入字节配额
+     * @param path     文件路径
+     * @param priority 优先级
+     * @return 输入流
+     */
+    public InputStream newInputStream(Path path, IoPriority priority) throws IOException {
+        FilePermit permit = acquireFile(priority);
+        try {
+            return new GovernedInputStream(Files.newInputStream(path), permit, priority);
+        } catch (IOException | RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 在配额控制下将数据写入文件
+     * @param path     文件路径
+     * @param data     写入的数据
+     * @param priority 优先级
+     * @param options  打开文件的选项
+     * @return 文件路径
+     */
+    public Path write(Path path, byte[] data, IoPriority priority, OpenOption... options) throws IOException {
+        try (FilePermit ignored = acquireFile(priority)) {
+            acquireBytes(data.length, priority);
+            return Files.write(path, data, options);
+        }
+    }
+
+    /**
+     * @return 当前限额及使用情况
+     */
+    public IoLimits getLimits() {
+        lock.lock();
+        try {
+            IoLimits limits = new IoLimits();
+            limits.setBytesPerSecond(bytesPerSecond);
+            limits.setMaxOpenFiles(maxOpenFiles);
+            limits.setInteractiveReservedFiles(interactiveReservedFiles);
+            limits.setOpenFiles(openFiles);
+            limits.setInteractiveWaiting(interactiveWaiting);
+            limits.setBackgroundWaiting(backgroundWaiting);
+            limits.setIdleWaiting(idleWaiting);
+            return limits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 运行时调整限额，参数为 null 时保持原值
+     * @param bytesPerSecond           每秒读写字节数上限，0 表示不限速
+     * @param maxOpenFiles             同时打开的文件数上限，0 表示不限制
+     * @param interactiveReservedFiles 为交互操作预留的打开文件数
+     * @return 调整后的限额
+     * @throws IllegalArgumentException 如果参数为负数
+     */
+    public IoLimits updateLimits(Long bytesPerSecond, Integer maxOpenFiles, Integer interactiveReservedFiles) {
+        if ((bytesPerSecond != null && bytesPerSecond < 0) || (maxOpenFiles != null && maxOpenFiles < 0)
+                || (interactiveReservedFiles != null && interactiveReservedFiles < 0)) {
+            throw new IllegalArgumentException("I/O 限额不能为负数");
+        }
+        lock.lock();
+        try {
+            if (bytesPerSecond != null) {
+                refill(this.bytesPerSecond);
+                this.bytesPerSecond = bytesPerSecond;
+                // 新的速率下最多积累一秒的配额
+                tokens = Math.min(tokens, bytesPerSecond);
+            }
+            if (maxOpenFiles != null) {
+                this.maxOpenFiles = maxOpenFiles;
+            }
+            if (interactiveReservedFiles != null) {
+                this.interactiveReservedFiles = interactiveReservedFiles;
+            }
+            quotaChanged.signalAll();
+            log.info("磁盘 I/O 限额已调整: 每秒 {} 字节，最多打开 {} 个文件 (交互操作预留 {} 个)",
+                    this.bytesPerSecond, this.maxOpenFiles, this.interactiveReservedFiles);
+        } finally {
+            lock.unlock();
+        }
+        return getLimits();
+    }
+
+    /**
+     * 调整等待配额的操作数 (调用方需持有锁)
+     */
+    private void adjustWaiting(IoPriority priority, int delta) {
+        switch (priority) {
+            case INTERACTIVE -> interactiveWaiting += delta;
+            case BACKGROUND -> backgroundWaiting += delta;
+            case IDLE -> idleWaiting += delta;
+        }
+    }
+
+    /**
+     * 按经过的时间补充令牌 (调用方需持有锁)
+     */
+    private void refill(long rate) {
+        long now = System.nanoTime();
+        if (rate > 0) {
+            tokens = Math.min(rate, tokens + (double) (now - lastRefillNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+        }
+        lastRefillNanos = now;
+    }
+
+    private void lockInterruptibly() throws InterruptedIOException {
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待磁盘读写配额时被中断");
+        }
+    }
+
+    /**
+     * 打开文件的配额，关闭时归还 (重复关闭无影响)
+     */
+    public class FilePermit implements Closeable {
+        private boolean released;
+
+        private FilePermit() {
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (!released) {
+                    released = true;
+                    openFiles--;
+                    quotaChanged.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 受配额控制的输入流：每次读取后按实际读到的字节数申请配额
+     */
+    private class GovernedInputStream extends FilterInputStream {
+        private final FilePermit permit;
+        private final IoPriority priority;
+        private int uncharged;
+
+        GovernedInputStream(InputStream in, FilePermit permit, IoPriority priority) {
+            super(in);
+            this.permit = permit;
+            this.priority = priority;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && ++uncharged >= SINGLE_BYTE_CHARGE) {
+                acquireBytes(uncharged, priority);
+                uncharged = 0;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                acquireBytes(n, priority);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                permit.close();
+            }
+        }
+    }
+}
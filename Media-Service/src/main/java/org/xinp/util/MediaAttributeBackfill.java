@@ -0,0 +1,241 @@
+package org.xinp.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import com.drew.imaging.ImageMetadataReader;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.xinp.constant.IoPriority;
+import org.xinp.constant.ScanStatus;
+import org.xinp.entity.MediaFiles;
+import org.xinp.mapper.MediaFilesMapper;
+import org.xinp.pojo.TaskProgress;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 结构化属性补全任务
+ * 升级前入库的记录 (attributes_version 为空) 或按旧规则提取的记录 (版本低于 MediaAttributeExtractor.VERSION)
+ * 由这里的后台线程按 file_id 顺序分页补全：音视频直接解析已保存的 metadata JSON，不再调用 ffprobe；
+ * 图片以空闲 I/O 优先级重新读取 EXIF。每页的结果在一个事务中写回，写回时记录的版本和修改时间必须未变，
+ * 避免覆盖期间重新入库的结果。待补全的记录就是队列，应用重启后自动从剩余的记录继续，全部补全后线程退出。
+ */
+@Slf4j
+@Service
+public class MediaAttributeBackfill {
+
+    private static final int PAGE_SIZE = 200;
+
+    private final MediaFilesMapper mediaFilesMapper;
+    private final MediaAttributeExtractor mediaAttributeExtractor;
+    private final IoGovernor ioGovernor;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate pageTransaction;
+    private final Path rootPath;
+    @Value("${media.attributes.backfill-enabled:true}")
+    private boolean enabled;
+
+    private Thread backfillThread;
+    private volatile boolean canceled;
+    private final AtomicReference<TaskProgress> progress = new AtomicReference<>(newProgress(ScanStatus.IDLE, "属性补全任务已就绪"));
+
+    public MediaAttributeBackfill(MediaFilesMapper mediaFilesMapper, MediaAttributeExtractor mediaAttributeExtractor,
+                                  IoGovernor ioGovernor, ObjectMapper objectMapper, PlatformTransactionManager transactionManager,
+                                  @Qualifier("projectPath") Path rootPath) {
+        this.mediaFilesMapper = mediaFilesMapper;
+        this.mediaAttributeExtractor = mediaAttributeExtractor;
+        this.ioGovernor = ioGovernor;
+        this.objectMapper = objectMapper;
+        this.pageTransaction = new TransactionTemplate(transactionManager);
+        this.rootPath = rootPath;
+    }
+
+    /**
+     * 应用启动完成 (数据库已初始化) 后补全剩余的记录
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (enabled) {
+            start();
+        }
+    }
+
+    /**
+     * 开始补全 (已在运行时不重复启动)
+     * @return 是否启动了新的补全线程
+     */
+    public synchronized boolean start() {
+        if (backfillThread != null && backfillThread.isAlive()) {
+            return false;
+        }
+        canceled = false;
+        backfillThread = new Thread(this::backfill, "media-attribute-backfill");
+        backfillThread.setDaemon(true);
+        backfillThread.start();
+        return true;
+    }
+
+    /**
+     * 取消补全，已写回的页保留，下次启动时从剩余的记录继续
+     */
+    @PreDestroy
+    public synchronized void cancel() {
+        canceled = true;
+        if (backfillThread != null) {
+            backfillThread.interrupt();
+        }
+    }
+
+    /**
+     * @return 补全进度：待补全的记录数和已处理的记录数
+     */
+    public TaskProgress getProgress() {
+        return progress.get();
+    }
+
+    private void backfill() {
+        long pending = mediaFilesMapper.selectCount(pendingQuery());
+        if (pending <= 0) {
+            progress.set(newProgress(ScanStatus.COMPLETED, "所有记录的结构化属性均已提取"));
+            return;
+        }
+        log.info("开始补全媒体结构化属性，待补全 {} 条记录", pending);
+        long lastFileId = 0;
+        long processed = 0;
+        try {
+            while (!canceled) {
+                List<MediaFiles> page = mediaFilesMapper.selectList(pendingQuery()
+                        .select(MediaFiles::getFileId, MediaFiles::getFilePath, MediaFiles::getMimeType, MediaFiles::getMetadata,
+                                MediaFiles::getLastModified, MediaFiles::getAttributesVersion)
+                        .gt(MediaFiles::getFileId, lastFileId)
+                        .orderByAsc(MediaFiles::getFileId)
+                        .last("LIMIT " + PAGE_SIZE));
+                if (page.isEmpty()) {
+                    break;
+                }
+                List<Extracted> extracted = new ArrayList<>(page.size());
+                for (MediaFiles record : page) {
+                    updateProgress(pending, processed, record.getFilePath());
+                    extracted.add(new Extracted(record, extract(record)));
+                    processed++;
+                }
+                pageTransaction.executeWithoutResult(status -> extracted.forEach(this::writeBack));
+                lastFileId = page.get(page.size() - 1).getFileId();
+            }
+        } catch (InterruptedIOException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("补全媒体结构化属性失败", e);
+            progress.set(newProgress(ScanStatus.FAILED, "属性补全失败: " + e.getMessage()));
+            return;
+        }
+        if (canceled) {
+            progress.set(newProgress(ScanStatus.CANCELED, "属性补全已取消，已处理 " + processed + " 条记录"));
+            return;
+        }
+        log.info("媒体结构化属性补全完成，共处理 {} 条记录", processed);
+        TaskProgress completed = newProgress(ScanStatus.COMPLETED, "属性补全完成，共处理 " + processed + " 条记录");
+        completed.setTotalTasks(pending);
+        completed.setProcessedTasks(processed);
+        completed.setPercentage(100);
+        progress.set(completed);
+    }
+
+    /**
+     * 提取一条记录的属性 (无法提取时属性为空，同样记为当前版本，不再重试)
+     * @return 只包含属性字段的记录
+     */
+    private MediaFiles extract(MediaFiles record) throws InterruptedIOException {
+        MediaFiles attributes = new MediaFiles();
+        String mimeType = record.getMimeType() == null ? "" : record.getMimeType();
+        try {
+            if ((mimeType.startsWith("video/") || mimeType.startsWith("audio/")) && record.getMetadata() != null) {
+                mediaAttributeExtractor.applyProbe(objectMapper.readTree(record.getMetadata()), attributes);
+            } else if (mimeType.startsWith("image/")) {
+                Path filePath = rootPath.resolve(record.getFilePath());
+                if (Files.isRegularFile(filePath)) {
+                    try (InputStream in = new BufferedInputStream(ioGovernor.newInputStream(filePath, IoPriority.IDLE))) {
+                        mediaAttributeExtractor.applyImage(ImageMetadataReader.readMetadata(in), attributes);
+                    }
+                }
+            }
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (JsonProcessingException e) {
+            log.warn("记录 {} 的 metadata 不是有效的JSON: {}", record.getFileId(), e.getOriginalMessage());
+        } catch (Exception e) {
+            log.warn("读取图片 {} 的 EXIF 失败: {}", record.getFilePath(), e.getMessage());
+        }
+        attributes.setAttributesVersion(MediaAttributeExtractor.VERSION);
+        return attributes;
+    }
+
+    /**
+     * 写回属性：只在记录未被重新入库 (属性版本和修改时间未变) 时更新
+     */
+    private void writeBack(Extracted extracted) {
+        MediaFiles record = extracted.record();
+        MediaFiles attributes = extracted.attributes();
+        mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                .eq(MediaFiles::getFileId, record.getFileId())
+                .isNull(record.getAttributesVersion() == null, MediaFiles::getAttributesVersion)
+                .eq(record.getAttributesVersion() != null, MediaFiles::getAttributesVersion, record.getAttributesVersion())
+                .eq(record.getLastModified() != null, MediaFiles::getLastModified, record.getLastModified())
+                .set(MediaFiles::getVideoCodec, attributes.getVideoCodec())
+                .set(MediaFiles::getAudioCodec, attributes.getAudioCodec())
+                .set(MediaFiles::getBitRate, attributes.getBitRate())
+                .set(MediaFiles::getFrameRate, attributes.getFrameRate())
+                .set(MediaFiles::getAudioChannels, attributes.getAudioChannels())
+                .set(MediaFiles::getCapturedAt, attributes.getCapturedAt())
+                .set(MediaFiles::getCameraModel, attributes.getCameraModel())
+                .set(MediaFiles::getAttributesVersion, attributes.getAttributesVersion()));
+    }
+
+    /**
+     * 待补全的记录：没有属性版本或版本低于当前规则
+     */
+    private LambdaQueryWrapper<MediaFiles> pendingQuery() {
+        return new LambdaQueryWrapper<MediaFiles>()
+                .and(wrapper -> wrapper.isNull(MediaFiles::getAttributesVersion)
+                        .or()
+                        .lt(MediaFiles::getAttributesVersion, MediaAttributeExtractor.VERSION));
+    }
+
+    private void updateProgress(long total, long processed, String currentFile) {
+        TaskProgress current = newProgress(ScanStatus.RUNNING, "正在补全属性: " + currentFile);
+        current.setTotalTasks(total);
+        current.setProcessedTasks(processed);
+        current.setPercentage(total > 0 ? (int) (100.0 * processed / total) : 0);
+        current.setCurrentStep(currentFile);
+        progress.set(current);
+    }
+
+    /**
+     * 一条记录和从中提取的属性
+     */
+    private record Extracted(MediaFiles record, MediaFiles attributes) {
+    }
+
+    private static TaskProgress newProgress(ScanStatus status, String message) {
+        TaskProgress taskProgress = new TaskProgress("ATTRIBUTES");
+        taskProgress.setStatus(status);
+        taskProgress.setMessage(message);
+        return taskProgress;
+    }
+}
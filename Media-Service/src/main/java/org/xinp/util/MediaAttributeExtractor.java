@@ -0,0 +1,184 @@
+package org.xinp.util;
+
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.stereotype.Service;
+import org.xinp.entity.MediaFiles;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * 媒体结构化属性提取
+ * 从 ffprobe (或 MediaHeaderParser) 的探测结果和图片 EXIF 中取出常用于筛选的属性，写入 media_files 的独立字段
+ * (编码、码率、帧率、声道数、拍摄时间、设备型号)，按这些条件查询时走索引，不再解析 metadata JSON。
+ * 入库时和后台补全任务 (MediaAttributeBackfill) 共用这里的规则；规则变化时增加 VERSION，旧记录会被重新补全。
+ */
+@Service
+public class MediaAttributeExtractor {
+
+    /**
+     * 属性提取规则的版本，记录在 media_files.attributes_version 中
+     */
+    public static final int VERSION = 1;
+
+    // 早于该时间的拍摄时间视为未设置 (mvhd 的 0 值对应 1904 年，部分设备写入 1970 年)
+    private static final long MIN_CAPTURED_AT = OffsetDateTime.of(1971, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC).toInstant().toEpochMilli();
+    // 容器标签中的时间：ISO 格式，时区可以是 Z、+08:00 或 +0800，也可以没有 (按 UTC 处理)
+    private static final DateTimeFormatter TAG_TIME = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE_TIME)
+            .optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+            .optionalStart().appendOffset("+HHMM", "Z").optionalEnd()
+            .toFormatter(Locale.ROOT);
+    // 拍摄时间标签，按优先级排列 (Apple 设备的 creationdate 带有拍摄地时区，比 creation_time 准确)
+    private static final List<String> CAPTURE_TIME_TAGS = List.of("com.apple.quicktime.creationdate", "creation_time", "date");
+    // 设备型号标签，按优先级排列
+    private static final List<String> CAMERA_MODEL_TAGS = List.of("com.apple.quicktime.model", "com.android.model", "model");
+
+    /**
+     * 从音视频的探测结果中提取属性 (取第一条视频流和第一条音频流，忽略作为封面的图片流)
+     * @param probeResult ffprobe -show_format -show_streams 结构的JSON根节点
+     * @param mediaFile   待写入的记录
+     */
+    public void applyProbe(JsonNode probeResult, MediaFiles mediaFile) {
+        JsonNode format = probeResult.path("format");
+        mediaFile.setBitRate(positiveLong(format.path("bit_rate")));
+        JsonNode videoStream = null;
+        JsonNode audioStream = null;
+        for (JsonNode stream : probeResult.path("streams")) {
+            String codecType = stream.path("codec_type").asText();
+            if (videoStream == null && "video".equals(codecType) && stream.path("disposition").path("attached_pic").asInt() == 0) {
+                videoStream = stream;
+            } else if (audioStream == null && "audio".equals(codecType)) {
+                audioStream = stream;
+            }
+        }
+        if (videoStream != null) {
+            mediaFile.setVideoCodec(codecName(videoStream));
+            Double frameRate = parseRate(videoStream.path("avg_frame_rate").asText(null));
+            mediaFile.setFrameRate(frameRate != null ? frameRate : parseRate(videoStream.path("r_frame_rate").asText(null)));
+        }
+        if (audioStream != null) {
+            mediaFile.setAudioCodec(codecName(audioStream));
+            int channels = audioStream.path("channels").asInt();
+            mediaFile.setAudioChannels(channels > 0 ? channels : null);
+        }
+
+        // 容器标签优先，其次是视频流的标签 (部分设备只写在流上)
+        JsonNode formatTags = format.path("tags");
+        JsonNode streamTags = videoStream != null ? videoStream.path("tags") : formatTags;
+        Long capturedAt = null;
+        for (String tag : CAPTURE_TIME_TAGS) {
+            capturedAt = parseTagTime(tagValue(formatTags, streamTags, tag));
+            if (capturedAt != null) {
+                break;
+            }
+        }
+        mediaFile.setCapturedAt(capturedAt);
+        String cameraModel = null;
+        for (String tag : CAMERA_MODEL_TAGS) {
+            cameraModel = tagValue(formatTags, streamTags, tag);
+            if (cameraModel != null) {
+                break;
+            }
+        }
+        mediaFile.setCameraModel(cameraModel);
+        mediaFile.setAttributesVersion(VERSION);
+    }
+
+    /**
+     * 从图片的 EXIF 中提取拍摄时间和设备型号
+     * EXIF 的拍摄时间没有时区时按本机时区解析 (有 OffsetTimeOriginal 时以它为准)
+     * @param metadata  metadata-extractor 读取的图片元数据
+     * @param mediaFile 待写入的记录
+     */
+    public void applyImage(Metadata metadata, MediaFiles mediaFile) {
+        Date captured = null;
+        ExifSubIFDDirectory subIfd = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+        if (subIfd != null) {
+            captured = subIfd.getDateOriginal(TimeZone.getDefault());
+            if (captured == null) {
+                captured = subIfd.getDateDigitized(TimeZone.getDefault());
+            }
+        }
+        ExifIFD0Directory ifd0 = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+        if (captured == null && ifd0 != null) {
+            captured = ifd0.getDate(ExifIFD0Directory.TAG_DATETIME, TimeZone.getDefault());
+        }
+        mediaFile.setCapturedAt(captured != null && captured.getTime() >= MIN_CAPTURED_AT ? captured.getTime() : null);
+        mediaFile.setCameraModel(ifd0 != null ? trimToNull(ifd0.getString(ExifIFD0Directory.TAG_MODEL)) : null);
+        mediaFile.setAttributesVersion(VERSION);
+    }
+
+    /**
+     * 解析容器标签中的时间
+     * @param text 标签值，如 2023-05-01T12:34:56.000000Z 或 2023-05-01T14:34:56+0200
+     * @return 毫秒时间戳；无法解析或明显无效时返回 null
+     */
+    static Long parseTagTime(String text) {
+        if (text == null) {
+            return null;
+        }
+        try {
+            TemporalAccessor parsed = TAG_TIME.parseBest(text.trim().replace(' ', 'T'), OffsetDateTime::from, LocalDateTime::from);
+            long epochMilli = parsed instanceof OffsetDateTime offsetDateTime
+                    ? offsetDateTime.toInstant().toEpochMilli()
+                    : ((LocalDateTime) parsed).toInstant(ZoneOffset.UTC).toEpochMilli();
+            return epochMilli >= MIN_CAPTURED_AT ? epochMilli : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解析 ffprobe 的帧率 (分数形式，如 30000/1001；未知时为 0/0)
+     */
+    static Double parseRate(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        try {
+            int slash = text.indexOf('/');
+            double rate = slash < 0 ? Double.parseDouble(text)
+                    : Double.parseDouble(text.substring(0, slash)) / Double.parseDouble(text.substring(slash + 1));
+            // 保留三位小数，避免 29.97002997... 这样的值在按帧率筛选时不便比较
+            return rate > 0 && Double.isFinite(rate) ? Math.round(rate * 1000) / 1000.0 : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String codecName(JsonNode stream) {
+        String codecName = trimToNull(stream.path("codec_name").asText(null));
+        return codecName != null ? codecName.toLowerCase(Locale.ROOT) : null;
+    }
+
+    private static String tagValue(JsonNode formatTags, JsonNode streamTags, String tag) {
+        String value = trimToNull(formatTags.path(tag).asText(null));
+        return value != null ? value : trimToNull(streamTags.path(tag).asText(null));
+    }
+
+    private static Long positiveLong(JsonNode node) {
+        long value = node.asLong(); // ffprobe 以字符串表示数值，asLong 同样可以解析
+        return value > 0 ? value : null;
+    }
+
+    private static String trimToNull(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+}
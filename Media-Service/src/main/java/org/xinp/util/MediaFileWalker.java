@@ -0,0 +1,167 @@
+package org.xinp.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 流式目录遍历器
+ * 深度优先、逐个目录读取，边遍历边返回普通文件，不会预先收集整棵目录树。
+ * 内存占用只与目录深度和单个目录下的条目数有关，与目录树中的文件总数无关。
+ * 同级条目按名称排序 (目录名视为带 '/' 后缀)，使输出顺序与相对路径字符串的字典序一致。
+ * 无法读取的目录或文件会记录日志并跳过，不会中断整个遍历；跳过的路径由 {@link #getUnreadablePaths()} 返回，
+ * 使用方 (例如对账) 不能把其中的记录当作文件已缺失。
+ * 支持从断点继续：只输出相对路径在断点之后的文件，断点之前的整个子目录不会被读取。
+ */
+@Slf4j
+public class MediaFileWalker implements Iterator<Path> {
+
+    // 按 Unicode 码点比较，与 SQLite 对 UTF-8 文本的默认 BINARY 排序一致
+    public static final Comparator<String> PATH_ORDER = (a, b) -> {
+        int i = 0, j = 0;
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    };
+
+    private final Deque<Iterator<Entry>> stack = new ArrayDeque<>();
+    private final String resumeAfter;
+    // 无法读取的目录 (以 '/' 结尾，根目录为 "") 和文件，相对遍历根目录
+    private final List<String> unreadablePaths = new ArrayList<>();
+    private Path next;
+
+    public MediaFileWalker(Path root) {
+        this(root, null);
+    }
+
+    /**
+     * @param root        遍历的根目录
+     * @param resumeAfter 断点：相对根目录的路径 (分隔符为 '/')，只输出排在它之后的文件；为 null 时从头开始
+     */
+    public MediaFileWalker(Path root, String resumeAfter) {
+        this.resumeAfter = resumeAfter;
+        pushDirectory(root, "");
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Path next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Path result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * @return 到目前为止无法读取而跳过的路径 (相对遍历根目录，目录以 '/' 结尾，根目录本身为 "")；
+     *         遍历按路径顺序进行，某个路径之前的目录是否可读在输出该路径时就已确定
+     */
+    public List<String> getUnreadablePaths() {
+        return unreadablePaths;
+    }
+
+    /**
+     * @param relativePath 相对遍历根目录的路径
+     * @return 该路径是否位于 (或就是) 无法读取的目录或文件，遍历结果不能说明它是否存在
+     */
+    public boolean isUnreadable(String relativePath) {
+        for (String unreadable : unreadablePaths) {
+            boolean directory = unreadable.isEmpty() || unreadable.endsWith("/");
+            if (directory ? relativePath.startsWith(unreadable) : relativePath.equals(unreadable)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Path advance() {
+        while (!stack.isEmpty()) {
+            Iterator<Entry> top = stack.peek();
+            if (!top.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Entry entry = top.next();
+            if (entry.directory()) {
+                pushDirectory(entry.path(), entry.relativePath());
+            } else {
+                return entry.path();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 读取一个目录下的条目 (不跟随符号链接，与 Files.walk 默认行为一致)，排序后压栈
+     */
+    private void pushDirectory(Path dir, String relativeDir) {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        addIfAfterResumePoint(entries, new Entry(child, relativeDir + child.getFileName() + "/", true));
+                    } else if (attrs.isRegularFile()) {
+                        addIfAfterResumePoint(entries, new Entry(child, relativeDir + child.getFileName(), false));
+                    }
+                } catch (IOException e) {
+                    log.warn("读取文件属性失败，跳过: {}", child, e);
+                    unreadablePaths.add(relativeDir + child.getFileName());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("读取目录失败，跳过: {}", dir, e);
+            unreadablePaths.add(relativeDir);
+            return;
+        }
+        entries.sort(Comparator.comparing(Entry::relativePath, PATH_ORDER));
+        stack.push(entries.iterator());
+    }
+
+    /**
+     * 过滤断点之前的条目：文件排在断点之后才保留；
+     * 目录 (相对路径以 '/' 结尾) 包含断点时需要进入继续过滤，否则整个目录都在断点之前或之后
+     */
+    private void addIfAfterResumePoint(List<Entry> entries, Entry entry) {
+        if (resumeAfter == null
+                || PATH_ORDER.compare(entry.relativePath(), resumeAfter) > 0
+                || (entry.directory() && resumeAfter.startsWith(entry.relativePath()))) {
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * @param relativePath 相对遍历根目录的路径，目录以 '/' 结尾，同时作为排序键
+     */
+    private record Entry(Path path, String relativePath, boolean directory) {
+    }
+}
@@ -0,0 +1,147 @@
+package org.xinp.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.xinp.entity.MediaFiles;
+import org.xinp.mapper.MediaFilesMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * 文件记录的批量写库 (组提交)
+ * 每一批记录在同一个事务中提交，只需一次落盘；新记录使用多行 INSERT 写入，已入库记录逐条更新。
+ * 单条记录的失败 (例如违反 NOT NULL 约束) 通过保存点隔离，只回滚这一条，不影响同批的其他记录：
+ * 多行 INSERT 失败时回滚到该语句之前的保存点，再逐条重试以找出并跳过出错的记录。
+ * file_path 有唯一索引，路径已存在的新记录 (其他途径已先入库) 直接跳过，不视为失败。
+ */
+@Slf4j
+@Service
+public class MediaFilesBatchWriter {
+
+    // 每条多行 INSERT 的记录数：25 列 x 35 行 = 875 个参数，低于旧版 SQLite 单条语句 999 个参数的限制
+    private static final int ROWS_PER_STATEMENT = 35;
+
+    private final MediaFilesMapper mediaFilesMapper;
+    private final BackgroundHasher backgroundHasher;
+    private final SimilarImageIndex similarImageIndex;
+    private final TransactionTemplate batchTransaction;
+    private final TransactionTemplate rowSavepoint;
+
+    public MediaFilesBatchWriter(MediaFilesMapper mediaFilesMapper, BackgroundHasher backgroundHasher,
+                                 SimilarImageIndex similarImageIndex, PlatformTransactionManager transactionManager) {
+        this.mediaFilesMapper = mediaFilesMapper;
+        this.backgroundHasher = backgroundHasher;
+        this.similarImageIndex = similarImageIndex;
+        this.batchTransaction = new TransactionTemplate(transactionManager);
+        // 嵌套事务：在外层事务中以 JDBC 保存点实现
+        this.rowSavepoint = new TransactionTemplate(transactionManager);
+        this.rowSavepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+    }
+
+    /**
+     * 在一个事务中写入一批记录：fileId 为空的记录插入，不为空的记录按 fileId 用重新提取的结果整体覆盖
+     * (新结果中没有的字段同样清空；缩略图清空等待重新生成；没有计算完整哈希时清空旧的哈希，等待重新计算)
+     * @param batch 待写入的记录
+     * @return 写入结果统计
+     */
+    public WriteResult write(List<MediaFiles> batch) {
+        List<MediaFiles> inserts = new ArrayList<>(batch.size());
+        List<MediaFiles> updates = new ArrayList<>();
+        for (MediaFiles mediaFile : batch) {
+            (mediaFile.getFileId() == null ? inserts : updates).add(mediaFile);
+        }
+
+        long start = System.currentTimeMillis();
+        WriteResult result = batchTransaction.execute(status -> {
+            int inserted = 0, updated = 0, duplicated = 0, failed = 0;
+            for (int from = 0; from < inserts.size(); from += ROWS_PER_STATEMENT) {
+                List<MediaFiles> chunk = inserts.subList(from, Math.min(from + ROWS_PER_STATEMENT, inserts.size()));
+                int rows = runInSavepoint(() -> mediaFilesMapper.insertMultiRow(chunk), null);
+                if (rows >= 0) {
+                    inserted += rows;
+                    duplicated += chunk.size() - rows;
+                    continue;
+                }
+                // 整条语句已回滚，逐条重试以隔离出错的记录
+                for (MediaFiles mediaFile : chunk) {
+                    rows = runInSavepoint(() -> mediaFilesMapper.insertMultiRow(List.of(mediaFile)), mediaFile);
+                    if (rows > 0) {
+                        inserted++;
+                    } else if (rows == 0) {
+                        duplicated++;
+                    } else {
+                        failed++;
+                    }
+                }
+            }
+            // 已入库记录原来的感知哈希，更新成功后从相似图片索引中移除 (事务提交后生效)
+            Map<Long, Long> previousHashes = updates.isEmpty() ? Map.of() : mediaFilesMapper.selectList(new LambdaQueryWrapper<MediaFiles>()
+                            .select(MediaFiles::getFileId, MediaFiles::getPerceptualHash)
+                            .in(MediaFiles::getFileId, updates.stream().map(MediaFiles::getFileId).toList())
+                            .isNotNull(MediaFiles::getPerceptualHash))
+                    .stream().collect(Collectors.toMap(MediaFiles::getFileId, MediaFiles::getPerceptualHash));
+            for (MediaFiles mediaFile : updates) {
+                if (runInSavepoint(() -> mediaFilesMapper.updateExtracted(mediaFile), mediaFile) >= 0) {
+                    Long previousHash = previousHashes.get(mediaFile.getFileId());
+                    if (previousHash != null) {
+                        similarImageIndex.remove(mediaFile.getFileId(), previousHash);
+                    }
+                    updated++;
+                } else {
+                    failed++;
+                }
+            }
+            return new WriteResult(inserted, updated, duplicated, failed);
+        });
+        log.info("批量写入文件记录完成: 新增 {} 条，更新 {} 条，路径已存在跳过 {} 条，失败 {} 条，耗时 {} ms",
+                result.inserted(), result.updated(), result.duplicated(), result.failed(), System.currentTimeMillis() - start);
+        if (result.inserted() > 0 || result.updated() > 0) {
+            // 新写入的记录完整哈希待计算
+            backgroundHasher.wakeUp();
+        }
+        // 新插入的记录在查询时自动加载到相似图片索引，已入库记录的新感知哈希需要单独加入 (旧哈希已在提交时移除)
+        for (MediaFiles mediaFile : updates) {
+            if (mediaFile.getPerceptualHash() != null) {
+                similarImageIndex.add(mediaFile.getFileId(), mediaFile.getPerceptualHash());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在保存点中执行一条写操作，失败时只回滚到该保存点
+     * @param statement 写操作
+     * @param mediaFile 单条记录写入时用于记录日志，多行写入时为 null
+     * @return 影响的行数，失败时返回 -1
+     */
+    private int runInSavepoint(IntSupplier statement, MediaFiles mediaFile) {
+        try {
+            return rowSavepoint.execute(status -> statement.getAsInt());
+        } catch (Exception e) {
+            if (mediaFile != null) {
+                log.error("写入文件记录 {} 失败: {}", mediaFile.getFilePath(), e.getMessage());
+            } else {
+                log.warn("多行写入失败，改为逐条写入: {}", e.getMessage());
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * 一批记录的写入结果
+     * @param inserted 新增条数
+     * @param updated    更新条数
+     * @param duplicated 路径已存在而跳过的新记录条数
+     * @param failed     失败条数
+     */
+    public record WriteResult(int inserted, int updated, int duplicated, int failed) {
+    }
+}
@@ -0,0 +1,894 @@
+package org.xinp.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.IoPriority;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 媒体文件头解析 (不启动 ffprobe 进程)
+ * 按文件开头的魔数识别常见容器，只读取描述媒体信息的文件头，得到时长、分辨率和编码：
+ * 1. MP4/MOV：读取 moov 盒 (mvhd 时长和创建时间，各轨道 hdlr/mdhd/stsd/stts，meta 中的 QuickTime 元数据)，moov 在文件末尾时直接定位读取；
+ * 2. Matroska/WebM：读取 EBML 头和 Segment 中的 Info (时长、DateUTC)、Tracks，遇到第一个 Cluster 即停止；
+ * 3. MP3：跳过 ID3v2 标签，读取第一帧帧头和 Xing/Info/VBRI 头 (没有时按固定码率估算)；
+ * 4. FLAC：读取 STREAMINFO 块；
+ * 5. WAV：读取 fmt 和 data 块。
+ * 输出与 ffprobe -show_format -show_streams 的 JSON 结构一致 (format 和 streams 中的常用字段，包括 avg_frame_rate 和 format.tags)，调用方无需区分来源。
+ * 无法识别或信息不完整 (例如分片 MP4 没有总时长) 时返回 null，由调用方改用 ffprobe。
+ */
+@Slf4j
+@Service
+public class MediaHeaderParser {
+
+    private static final int MAX_MOOV_SIZE = 64 * 1024 * 1024; // moov 盒超过该大小时改用 ffprobe
+    private static final int MAX_EBML_ELEMENT_SIZE = 16 * 1024 * 1024; // Info/Tracks 元素超过该大小时改用 ffprobe
+    private static final int MP3_SYNC_SEARCH_BYTES = 64 * 1024; // 查找 MP3 第一帧帧同步的范围
+    private static final String MP4_FORMAT_NAME = "mov,mp4,m4a,3gp,3g2,mj2";
+    private static final String MATROSKA_FORMAT_NAME = "matroska,webm";
+    private static final long MP4_EPOCH_OFFSET = 2_082_844_800L; // 1904-01-01 到 1970-01-01 的秒数
+    private static final long MATROSKA_EPOCH_MILLIS = 978_307_200_000L; // 2001-01-01 的毫秒时间戳
+    // 与 ffprobe 的 creation_time 标签格式一致
+    private static final DateTimeFormatter CREATION_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSS'Z'", Locale.ROOT).withZone(ZoneOffset.UTC);
+
+    private static final Map<String, String> MP4_CODECS = Map.ofEntries(
+            Map.entry("avc1", "h264"), Map.entry("avc3", "h264"), Map.entry("hvc1", "hevc"), Map.entry("hev1", "hevc"),
+            Map.entry("av01", "av1"), Map.entry("vp09", "vp9"), Map.entry("vp08", "vp8"), Map.entry("mp4v", "mpeg4"),
+            Map.entry("jpeg", "mjpeg"), Map.entry("apcn", "prores"), Map.entry("apch", "prores"), Map.entry("mp4a", "aac"),
+            Map.entry("ac-3", "ac3"), Map.entry("ec-3", "eac3"), Map.entry("Opus", "opus"), Map.entry("fLaC", "flac"),
+            Map.entry("alac", "alac"), Map.entry("sowt", "pcm_s16le"), Map.entry("twos", "pcm_s16be"), Map.entry(".mp3", "mp3"));
+    private static final Map<String, String> MATROSKA_CODECS = Map.ofEntries(
+            Map.entry("V_MPEG4/ISO/AVC", "h264"), Map.entry("V_MPEGH/ISO/HEVC", "hevc"), Map.entry("V_VP8", "vp8"),
+            Map.entry("V_VP9", "vp9"), Map.entry("V_AV1", "av1"), Map.entry("V_MPEG4/ISO/ASP", "mpeg4"),
+            Map.entry("V_MJPEG", "mjpeg"), Map.entry("A_OPUS", "opus"), Map.entry("A_VORBIS", "vorbis"),
+            Map.entry("A_FLAC", "flac"), Map.entry("A_AC3", "ac3"), Map.entry("A_EAC3", "eac3"), Map.entry("A_MPEG/L3", "mp3"),
+            Map.entry("A_PCM/INT/LIT", "pcm_s16le"), Map.entry("S_TEXT/UTF8", "subrip"), Map.entry("S_TEXT/ASS", "ass"));
+    // MP3 码率表 (kbps)：MPEG-1 第 1/2/3 层，MPEG-2/2.5 第 1 层，MPEG-2/2.5 第 2/3 层
+    private static final int[][] MP3_BITRATES = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}};
+    private static final int[] MP3_SAMPLE_RATES = {44100, 48000, 32000};
+
+    private final IoGovernor ioGovernor;
+    private final ObjectMapper objectMapper;
+
+    public MediaHeaderParser(IoGovernor ioGovernor, ObjectMapper objectMapper) {
+        this.ioGovernor = ioGovernor;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 解析媒体文件头
+     * @param filePath 文件绝对路径
+     * @return 与 ffprobe 输出结构一致的JSON根节点；无法识别或信息不完整时返回 null
+     * @throws InterruptedIOException 如果等待 I/O 配额时被中断
+     */
+    public JsonNode parse(Path filePath) throws InterruptedIOException {
+        return parse(filePath, null, IoPriority.BACKGROUND);
+    }
+
+    /**
+     * 解析媒体文件头，复用识别媒体类型时已读取的文件头 (所需内容都在其中时不再打开文件)
+     * @param filePath 文件绝对路径
+     * @param sniffed  MediaTypeDetector 的识别结果，为 null 时从文件读取
+     * @param priority 读取文件头的 I/O 优先级 (用户等待结果时为交互优先级)
+     * @return 与 ffprobe 输出结构一致的JSON根节点；无法识别或信息不完整时返回 null
+     * @throws InterruptedIOException 如果等待 I/O 配额时被中断
+     */
+    public JsonNode parse(Path filePath, MediaTypeDetector.Sniffed sniffed, IoPriority priority) throws InterruptedIOException {
+        try (HeaderReader reader = new HeaderReader(filePath, sniffed, ioGovernor, priority)) {
+            if (reader.size < 12) {
+                return null;
+            }
+            ByteBuffer magic = reader.read(0, 12);
+            String type = ascii(magic, 4, 4);
+            MediaInfo info;
+            if (type.equals("ftyp") || type.equals("moov") || type.equals("wide")) {
+                info = parseMp4(reader);
+            } else if (magic.getInt(0) == 0x1A45DFA3) {
+                info = parseMatroska(reader);
+            } else if (ascii(magic, 0, 4).equals("fLaC")) {
+                info = parseFlac(reader, 0);
+            } else if (ascii(magic, 0, 4).equals("RIFF") && ascii(magic, 8, 4).equals("WAVE")) {
+                info = parseWav(reader);
+            } else if (ascii(magic, 0, 3).equals("ID3") || (magic.getShort(0) & 0xFFE0) == 0xFFE0) {
+                info = parseMpegAudio(reader);
+            } else {
+                info = null;
+            }
+            return info == null || info.streams.isEmpty() || !(info.duration > 0) ? null : toJson(filePath, reader.size, info);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            // 文件头不完整或格式异常，交给 ffprobe 处理
+            log.debug("解析文件头失败，改用 ffprobe: {} ({})", filePath, e.toString());
+            return null;
+        }
+    }
+
+    // ---------------- MP4/MOV ----------------
+
+    private MediaInfo parseMp4(HeaderReader reader) throws IOException {
+        // 顶层盒依次排列，只读取盒头，直到找到 moov
+        ByteBuffer moov = null;
+        long position = 0;
+        while (position + 8 <= reader.size) {
+            ByteBuffer header = reader.read(position, (int) Math.min(16, reader.size - position));
+            long boxSize = header.getInt(0) & 0xFFFFFFFFL;
+            String type = ascii(header, 4, 4);
+            int headerSize = 8;
+            if (boxSize == 1) {
+                boxSize = header.getLong(8);
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                boxSize = reader.size - position;
+            }
+            if (boxSize < headerSize) {
+                return null;
+            }
+            if (type.equals("moov")) {
+                if (boxSize > MAX_MOOV_SIZE) {
+                    return null;
+                }
+                moov = reader.read(position + headerSize, (int) (boxSize - headerSize));
+                break;
+            }
+            position += boxSize;
+        }
+        if (moov == null) {
+            return null;
+        }
+
+        MediaInfo info = new MediaInfo(MP4_FORMAT_NAME);
+        boolean[] fragmented = {false};
+        forEachBox(moov, (type, box) -> {
+            switch (type) {
+                case "mvhd" -> {
+                    info.duration = fullBoxDuration(box);
+                    putCreationTime(info, mp4CreationTime(box));
+                }
+                case "mvex" -> fragmented[0] = true;
+                case "trak" -> parseMp4Track(box, info);
+                case "meta" -> parseQuickTimeMetadata(box, info);
+                default -> { }
+            }
+        });
+        if (fragmented[0] && !(info.duration > 0)) {
+            return null; // 分片 MP4 的 mvhd 中通常没有总时长，需要 ffprobe 读取各个分片
+        }
+        if (!(info.duration > 0)) {
+            info.duration = info.streams.stream().mapToDouble(stream -> stream.duration).max().orElse(0);
+        }
+        return info;
+    }
+
+    private void parseMp4Track(ByteBuffer trak, MediaInfo info) {
+        ByteBuffer mdia = childBox(trak, "mdia");
+        if (mdia == null) {
+            return;
+        }
+        ByteBuffer hdlr = childBox(mdia, "hdlr");
+        String handler = hdlr == null ? "" : ascii(hdlr, 8, 4);
+        String codecType = switch (handler) {
+            case "vide" -> "video";
+            case "soun" -> "audio";
+            default -> null;
+        };
+        if (codecType == null) {
+            return;
+        }
+        StreamInfo stream = new StreamInfo(codecType);
+        ByteBuffer mdhd = childBox(mdia, "mdhd");
+        if (mdhd != null) {
+            stream.duration = fullBoxDuration(mdhd);
+        }
+        ByteBuffer minf = childBox(mdia, "minf");
+        ByteBuffer stbl = minf == null ? null : childBox(minf, "stbl");
+        ByteBuffer stts = stbl == null ? null : childBox(stbl, "stts");
+        if (codecType.equals("video") && mdhd != null && stts != null) {
+            stream.frameRate = mp4FrameRate(mdhd, stts);
+        }
+        ByteBuffer stsd = stbl == null ? null : childBox(stbl, "stsd");
+        if (stsd != null && stsd.limit() >= 16 && stsd.getInt(4) > 0) {
+            // 第一个样本描述：盒类型即编码，之后是 SampleEntry (6 字节保留 + 2 字节数据引用索引)
+            ByteBuffer entry = stsd.slice(8, stsd.limit() - 8);
+            String fourcc = ascii(entry, 4, 4);
+            stream.codecName = MP4_CODECS.getOrDefault(fourcc, fourcc.trim().toLowerCase(Locale.ROOT));
+            if (codecType.equals("video") && entry.limit() >= 36) {
+                stream.width = entry.getShort(32) & 0xFFFF;
+                stream.height = entry.getShort(34) & 0xFFFF;
+            } else if (codecType.equals("audio") && entry.limit() >= 36) {
+                stream.channels = entry.getShort(24) & 0xFFFF;
+                stream.sampleRate = entry.getShort(32) & 0xFFFF; // 16.16 定点数的整数部分
+            }
+        }
+        info.streams.add(stream);
+    }
+
+    /**
+     * 读取 mvhd/mdhd 中的时长 (秒)
+     */
+    private static double fullBoxDuration(ByteBuffer box) {
+        int version = box.get(0);
+        long timescale;
+        long duration;
+        if (version == 1) {
+            timescale = box.getInt(20) & 0xFFFFFFFFL;
+            duration = box.getLong(24);
+        } else {
+            timescale = box.getInt(12) & 0xFFFFFFFFL;
+            duration = box.getInt(16) & 0xFFFFFFFFL;
+        }
+        // 时长全为 1 表示未知
+        if (timescale == 0 || duration == -1 || (version != 1 && duration == 0xFFFFFFFFL)) {
+            return 0;
+        }
+        return (double) duration / timescale;
+    }
+
+    /**
+     * 读取 mvhd 中的创建时间 (自 1904 年起的秒数，0 表示未设置)
+     * @return 毫秒时间戳；未设置时返回 0
+     */
+    private static long mp4CreationTime(ByteBuffer mvhd) {
+        long seconds = mvhd.get(0) == 1 ? mvhd.getLong(4) : mvhd.getInt(4) & 0xFFFFFFFFL;
+        return seconds > MP4_EPOCH_OFFSET ? (seconds - MP4_EPOCH_OFFSET) * 1000 : 0;
+    }
+
+    /**
+     * 视频轨道的平均帧率：样本 (帧) 总数 / 轨道时长，按 ffprobe 的格式表示为分数
+     * stts 中每个条目为 {样本数, 样本时长}，累加样本数即总帧数
+     */
+    private static String mp4FrameRate(ByteBuffer mdhd, ByteBuffer stts) {
+        int version = mdhd.get(0);
+        long timescale = version == 1 ? mdhd.getInt(20) & 0xFFFFFFFFL : mdhd.getInt(12) & 0xFFFFFFFFL;
+        long duration = version == 1 ? mdhd.getLong(24) : mdhd.getInt(16) & 0xFFFFFFFFL;
+        if (stts.limit() < 8) {
+            return null;
+        }
+        long entryCount = stts.getInt(4) & 0xFFFFFFFFL;
+        long frames = 0;
+        for (long i = 0, offset = 8; i < entryCount && offset + 8 <= stts.limit(); i++, offset += 8) {
+            frames += stts.getInt((int) offset) & 0xFFFFFFFFL;
+        }
+        return rational(frames * timescale, duration);
+    }
+
+    /**
+     * 读取 moov/meta 中的 QuickTime 元数据 (mdta 键值对，如 com.apple.quicktime.make/model/creationdate)，
+     * 按 ffprobe 的方式以键名作为 format.tags 的字段；只保留 UTF-8 文本值
+     */
+    private static void parseQuickTimeMetadata(ByteBuffer meta, MediaInfo info) {
+        // QuickTime 的 meta 直接包含子盒，ISO 的 meta 是 FullBox (先有 4 字节版本和标志)
+        ByteBuffer content = meta.limit() >= 8 && ascii(meta, 4, 4).equals("hdlr") ? meta : meta.slice(4, meta.limit() - 4);
+        ByteBuffer keys = childBox(content, "keys");
+        ByteBuffer ilst = childBox(content, "ilst");
+        if (keys == null || ilst == null || keys.limit() < 8) {
+            return;
+        }
+        List<String> keyNames = new ArrayList<>();
+        int position = 8;
+        for (long i = 0, count = keys.getInt(4) & 0xFFFFFFFFL; i < count && position + 8 <= keys.limit(); i++) {
+            int keySize = keys.getInt(position);
+            if (keySize < 8 || position + keySize > keys.limit()) {
+                break;
+            }
+            keyNames.add(new String(bytes(keys, position + 8, keySize - 8), StandardCharsets.UTF_8));
+            position += keySize;
+        }
+        forEachBox(ilst, (type, item) -> {
+            // 条目的盒类型是从 1 开始的键序号
+            byte[] typeBytes = type.getBytes(StandardCharsets.ISO_8859_1);
+            int keyIndex = ByteBuffer.wrap(typeBytes).getInt() - 1;
+            ByteBuffer data = childBox(item, "data");
+            if (keyIndex < 0 || keyIndex >= keyNames.size() || data == null || data.limit() < 8 || data.getInt(0) != 1) {
+                return;
+            }
+            String value = new String(bytes(data, 8, data.limit() - 8), StandardCharsets.UTF_8).trim();
+            if (!value.isEmpty()) {
+                info.tags.putIfAbsent(keyNames.get(keyIndex), value);
+            }
+        });
+    }
+
+    private static void forEachBox(ByteBuffer parent, BiConsumer<String, ByteBuffer> visitor) {
+        int position = 0;
+        while (position + 8 <= parent.limit()) {
+            long boxSize = parent.getInt(position) & 0xFFFFFFFFL;
+            String type = ascii(parent, position + 4, 4);
+            int headerSize = 8;
+            if (boxSize == 1) {
+                boxSize = parent.getLong(position + 8);
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                boxSize = parent.limit() - position;
+            }
+            if (boxSize < headerSize || position + boxSize > parent.limit()) {
+                return;
+            }
+            visitor.accept(type, parent.slice(position + headerSize, (int) boxSize - headerSize));
+            position += (int) boxSize;
+        }
+    }
+
+    private static ByteBuffer childBox(ByteBuffer parent, String wanted) {
+        ByteBuffer[] found = {null};
+        forEachBox(parent, (type, box) -> {
+            if (found[0] == null && type.equals(wanted)) {
+                found[0] = box;
+            }
+        });
+        return found[0];
+    }
+
+    // ---------------- Matroska/WebM ----------------
+
+    private MediaInfo parseMatroska(HeaderReader reader) throws IOException {
+        EbmlHeader ebml = EbmlHeader.read(reader, 0);
+        if (ebml == null || ebml.id() != 0x1A45DFA3 || ebml.unknownSize()) {
+            return null;
+        }
+        EbmlHeader segment = EbmlHeader.read(reader, ebml.dataEnd());
+        if (segment == null || segment.id() != 0x18538067) {
+            return null;
+        }
+        long segmentEnd = segment.unknownSize() ? reader.size : Math.min(reader.size, segment.dataEnd());
+
+        MediaInfo info = new MediaInfo(MATROSKA_FORMAT_NAME);
+        long timecodeScale = 1_000_000;
+        double duration = 0;
+        boolean infoFound = false;
+        boolean tracksFound = false;
+        long position = segment.dataStart();
+        // 依次读取 Segment 的子元素，跳过 SeekHead 等，读到 Info 和 Tracks 或遇到 Cluster 时停止
+        while (position < segmentEnd && !(infoFound && tracksFound)) {
+            EbmlHeader element = EbmlHeader.read(reader, position);
+            if (element == null || element.id() == 0x1F43B675 || element.unknownSize()) {
+                break;
+            }
+            if (element.id() == 0x1549A966 || element.id() == 0x1654AE6B) {
+                if (element.size() > MAX_EBML_ELEMENT_SIZE) {
+                    return null;
+                }
+                ByteBuffer data = reader.read(element.dataStart(), (int) element.size());
+                if (element.id() == 0x1549A966) {
+                    infoFound = true;
+                    long[] scale = {timecodeScale};
+                    double[] rawDuration = {0};
+                    forEachElement(data, (id, value) -> {
+                        if (id == 0x2AD7B1) {
+                            scale[0] = unsigned(value);
+                        } else if (id == 0x4489) {
+                            rawDuration[0] = ebmlFloat(value);
+                        } else if (id == 0x4461 && value.limit() == 8) {
+                            // DateUTC：自 2001-01-01 起的纳秒数 (有符号)
+                            putCreationTime(info, MATROSKA_EPOCH_MILLIS + value.getLong(0) / 1_000_000);
+                        }
+                    });
+                    timecodeScale = scale[0];
+                    duration = rawDuration[0];
+                } else {
+                    tracksFound = true;
+                    forEachElement(data, (id, value) -> {
+                        if (id == 0xAE) {
+                            parseMatroskaTrack(value, info);
+                        }
+                    });
+                }
+            }
+            position = element.dataEnd();
+        }
+        info.duration = duration * timecodeScale / 1e9;
+        return info;
+    }
+
+    private void parseMatroskaTrack(ByteBuffer trackEntry, MediaInfo info) {
+        long[] trackType = {0};
+        long[] defaultDuration = {0};
+        String[] codecId = {""};
+        ByteBuffer[] video = {null};
+        ByteBuffer[] audio = {null};
+        forEachElement(trackEntry, (id, value) -> {
+            switch (id.intValue()) {
+                case 0x83 -> trackType[0] = unsigned(value);
+                case 0x86 -> codecId[0] = ascii(value, 0, value.limit()).trim();
+                case 0x23E383 -> defaultDuration[0] = unsigned(value);
+                case 0xE0 -> video[0] = value;
+                case 0xE1 -> audio[0] = value;
+                default -> { }
+            }
+        });
+        String codecType = switch ((int) trackType[0]) {
+            case 1 -> "video";
+            case 2 -> "audio";
+            case 0x11 -> "subtitle";
+            default -> null;
+        };
+        if (codecType == null) {
+            return;
+        }
+        StreamInfo stream = new StreamInfo(codecType);
+        String codec = codecId[0];
+        stream.codecName = codec.startsWith("A_AAC") ? "aac"
+                : MATROSKA_CODECS.getOrDefault(codec, codec.replaceFirst("^[VAS]_", "").toLowerCase(Locale.ROOT));
+        if (video[0] != null) {
+            // DefaultDuration 是每帧的纳秒数，帧率为其倒数
+            stream.frameRate = defaultDuration[0] > 0 ? rational(1_000_000_000L, defaultDuration[0]) : null;
+            forEachElement(video[0], (id, value) -> {
+                if (id == 0xB0) {
+                    stream.width = (int) unsigned(value);
+                } else if (id == 0xBA) {
+                    stream.height = (int) unsigned(value);
+                }
+            });
+        }
+        if (audio[0] != null) {
+            stream.sampleRate = 8000; // SamplingFrequency 的默认值
+            stream.channels = 1; // Channels 的默认值
+            forEachElement(audio[0], (id, value) -> {
+                if (id == 0xB5) {
+                    stream.sampleRate = (int) ebmlFloat(value);
+                } else if (id == 0x9F) {
+                    stream.channels = (int) unsigned(value);
+                }
+            });
+        }
+        info.streams.add(stream);
+    }
+
+    private static void forEachElement(ByteBuffer parent, BiConsumer<Long, ByteBuffer> visitor) {
+        int position = 0;
+        while (position < parent.limit()) {
+            int idLength = vintLength(parent.get(position));
+            if (idLength == 0 || idLength > 4 || position + idLength >= parent.limit()) {
+                return;
+            }
+            long id = 0;
+            for (int i = 0; i < idLength; i++) {
+                id = (id << 8) | (parent.get(position + i) & 0xFF);
+            }
+            int sizePosition = position + idLength;
+            int sizeLength = vintLength(parent.get(sizePosition));
+            if (sizeLength == 0 || sizePosition + sizeLength > parent.limit()) {
+                return;
+            }
+            long size = parent.get(sizePosition) & (0xFF >> sizeLength);
+            for (int i = 1; i < sizeLength; i++) {
+                size = (size << 8) | (parent.get(sizePosition + i) & 0xFF);
+            }
+            int dataStart = sizePosition + sizeLength;
+            if (size > parent.limit() - dataStart) {
+                return;
+            }
+            visitor.accept(id, parent.slice(dataStart, (int) size));
+            position = dataStart + (int) size;
+        }
+    }
+
+    /**
+     * EBML 变长整数的字节数 (第一个字节中前导 0 的个数 + 1)，0 表示非法
+     */
+    private static int vintLength(byte first) {
+        int value = first & 0xFF;
+        return value == 0 ? 0 : Integer.numberOfLeadingZeros(value) - 23;
+    }
+
+    private static long unsigned(ByteBuffer value) {
+        long result = 0;
+        for (int i = 0; i < Math.min(8, value.limit()); i++) {
+            result = (result << 8) | (value.get(i) & 0xFF);
+        }
+        return result;
+    }
+
+    private static double ebmlFloat(ByteBuffer value) {
+        return switch (value.limit()) {
+            case 4 -> value.getFloat(0);
+            case 8 -> value.getDouble(0);
+            default -> 0;
+        };
+    }
+
+    /**
+     * 从文件中读取的 EBML 元素头
+     */
+    private record EbmlHeader(long id, long size, boolean unknownSize, long dataStart) {
+
+        static EbmlHeader read(HeaderReader reader, long position) throws IOException {
+            if (position >= reader.size) {
+                return null;
+            }
+            ByteBuffer header = reader.read(position, (int) Math.min(12, reader.size - position));
+            int idLength = vintLength(header.get(0));
+            if (idLength == 0 || idLength > 4 || idLength >= header.limit()) {
+                return null;
+            }
+            long id = 0;
+            for (int i = 0; i < idLength; i++) {
+                id = (id << 8) | (header.get(i) & 0xFF);
+            }
+            int sizeLength = vintLength(header.get(idLength));
+            if (sizeLength == 0 || idLength + sizeLength > header.limit()) {
+                return null;
+            }
+            long mask = 0xFF >> sizeLength;
+            long size = header.get(idLength) & mask;
+            boolean allOnes = size == mask;
+            for (int i = 1; i < sizeLength; i++) {
+                int b = header.get(idLength + i) & 0xFF;
+                size = (size << 8) | b;
+                allOnes &= b == 0xFF;
+            }
+            return new EbmlHeader(id, size, allOnes, position + idLength + sizeLength);
+        }
+
+        long dataEnd() {
+            return dataStart + size;
+        }
+    }
+
+    // ---------------- MP3 ----------------
+
+    private MediaInfo parseMpegAudio(HeaderReader reader) throws IOException {
+        long audioStart = 0;
+        ByteBuffer head = reader.read(0, 10);
+        if (ascii(head, 0, 3).equals("ID3")) {
+            // ID3v2 标签长度为 4 个 7 位的同步安全整数，标志位 0x10 表示还有 10 字节的标签尾
+            int tagSize = ((head.get(6) & 0x7F) << 21) | ((head.get(7) & 0x7F) << 14) | ((head.get(8) & 0x7F) << 7) | (head.get(9) & 0x7F);
+            audioStart = 10L + tagSize + ((head.get(5) & 0x10) != 0 ? 10 : 0);
+        }
+        if (audioStart + 4 > reader.size) {
+            return null;
+        }
+        if (ascii(reader.read(audioStart, 4), 0, 4).equals("fLaC")) {
+            return parseFlac(reader, audioStart); // 带 ID3 标签的 FLAC
+        }
+
+        // 标签后可能有填充，查找第一个合法且下一帧也合法的帧头；没有标签时第一帧必须在文件开头 (避免把 ADTS 等误判为 MP3)
+        int searchBytes = audioStart > 0 ? MP3_SYNC_SEARCH_BYTES : 4;
+        ByteBuffer search = reader.read(audioStart, (int) Math.min(searchBytes, reader.size - audioStart));
+        for (int offset = 0; offset + 4 <= search.limit(); offset++) {
+            MpegFrame frame = MpegFrame.parse(search.getInt(offset));
+            if (frame == null) {
+                continue;
+            }
+            long framePosition = audioStart + offset;
+            long nextPosition = framePosition + frame.length();
+            if (nextPosition + 4 <= reader.size && MpegFrame.parse(reader.read(nextPosition, 4).getInt(0)) == null) {
+                continue;
+            }
+            return mpegAudioInfo(reader, framePosition, frame);
+        }
+        return null;
+    }
+
+    private MediaInfo mpegAudioInfo(HeaderReader reader, long framePosition, MpegFrame frame) throws IOException {
+        MediaInfo info = new MediaInfo("mp3");
+        StreamInfo stream = new StreamInfo("audio");
+        stream.codecName = frame.layer() == 3 ? "mp3" : frame.layer() == 2 ? "mp2" : "mp1";
+        stream.sampleRate = frame.sampleRate();
+        stream.channels = frame.mono() ? 1 : 2;
+        info.streams.add(stream);
+
+        // VBR 文件在第一帧中有 Xing/Info 或 VBRI 头，记录了总帧数
+        ByteBuffer firstFrame = reader.read(framePosition, (int) Math.min(frame.length() + 4L, reader.size - framePosition));
+        int xingOffset = 4 + (frame.mpeg1() ? (frame.mono() ? 17 : 32) : (frame.mono() ? 9 : 17));
+        long frames = 0;
+        if (firstFrame.limit() >= xingOffset + 12) {
+            String tag = ascii(firstFrame, xingOffset, 4);
+            if ((tag.equals("Xing") || tag.equals("Info")) && (firstFrame.getInt(xingOffset + 4) & 1) != 0) {
+                frames = firstFrame.getInt(xingOffset + 8) & 0xFFFFFFFFL;
+            }
+        }
+        if (frames == 0 && firstFrame.limit() >= 36 + 18 && ascii(firstFrame, 36, 4).equals("VBRI")) {
+            frames = firstFrame.getInt(36 + 14) & 0xFFFFFFFFL;
+        }
+        if (frames > 0) {
+            info.duration = (double) frames * frame.samplesPerFrame() / frame.sampleRate();
+        } else {
+            // 固定码率：按音频数据长度估算 (去掉文件末尾 128 字节的 ID3v1 标签)
+            long audioEnd = reader.size;
+            if (audioEnd - 128 > framePosition && ascii(reader.read(audioEnd - 128, 3), 0, 3).equals("TAG")) {
+                audioEnd -= 128;
+            }
+            info.duration = (audioEnd - framePosition) * 8.0 / (frame.bitrateKbps() * 1000L);
+        }
+        return info;
+    }
+
+    /**
+     * MPEG 音频帧头
+     */
+    private record MpegFrame(boolean mpeg1, int layer, int bitrateKbps, int sampleRate, boolean mono, int samplesPerFrame, int length) {
+
+        static MpegFrame parse(int header) {
+            if ((header & 0xFFE00000) != 0xFFE00000) {
+                return null;
+            }
+            int versionBits = (header >>> 19) & 3; // 0: MPEG-2.5, 2: MPEG-2, 3: MPEG-1
+            int layerBits = (header >>> 17) & 3; // 1: 第 3 层, 2: 第 2 层, 3: 第 1 层
+            int bitrateIndex = (header >>> 12) & 0xF;
+            int sampleRateIndex = (header >>> 10) & 3;
+            if (versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+                return null; // 保留值或自由码率
+            }
+            boolean mpeg1 = versionBits == 3;
+            int layer = 4 - layerBits;
+            int table = mpeg1 ? layer - 1 : (layer == 1 ? 3 : 4);
+            int bitrateKbps = MP3_BITRATES[table][bitrateIndex];
+            int sampleRate = MP3_SAMPLE_RATES[sampleRateIndex] >> (mpeg1 ? 0 : versionBits == 2 ? 1 : 2);
+            int padding = (header >>> 9) & 1;
+            boolean mono = ((header >>> 6) & 3) == 3;
+            int samplesPerFrame = layer == 1 ? 384 : (layer == 3 && !mpeg1 ? 576 : 1152);
+            int length = layer == 1
+                    ? (12 * bitrateKbps * 1000 / sampleRate + padding) * 4
+                    : samplesPerFrame / 8 * bitrateKbps * 1000 / sampleRate + padding;
+            return new MpegFrame(mpeg1, layer, bitrateKbps, sampleRate, mono, samplesPerFrame, length);
+        }
+    }
+
+    // ---------------- FLAC ----------------
+
+    private MediaInfo parseFlac(HeaderReader reader, long start) throws IOException {
+        // "fLaC" 之后的第一个元数据块必须是 STREAMINFO (类型 0，34 字节)
+        ByteBuffer block = reader.read(start + 4, 4 + 34);
+        if ((block.get(0) & 0x7F) != 0) {
+            return null;
+        }
+        long packed = block.getLong(4 + 10); // 采样率 20 位、声道数-1 3 位、位深-1 5 位、总采样数 36 位
+        int sampleRate = (int) (packed >>> 44);
+        int channels = (int) ((packed >>> 41) & 7) + 1;
+        long totalSamples = packed & 0xFFFFFFFFFL;
+        if (sampleRate == 0 || totalSamples == 0) {
+            return null;
+        }
+        MediaInfo info = new MediaInfo("flac");
+        StreamInfo stream = new StreamInfo("audio");
+        stream.codecName = "flac";
+        stream.sampleRate = sampleRate;
+        stream.channels = channels;
+        info.streams.add(stream);
+        info.duration = (double) totalSamples / sampleRate;
+        return info;
+    }
+
+    // ---------------- WAV ----------------
+
+    private MediaInfo parseWav(HeaderReader reader) throws IOException {
+        StreamInfo stream = null;
+        long byteRate = 0;
+        long position = 12;
+        // RIFF 块依次排列 (小端序，奇数长度的块有 1 字节填充)，读到 fmt 和 data 为止
+        while (position + 8 <= reader.size) {
+            ByteBuffer chunk = reader.read(position, 8).order(ByteOrder.LITTLE_ENDIAN);
+            String id = ascii(chunk, 0, 4);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            long dataStart = position + 8;
+            if (id.equals("fmt ")) {
+                ByteBuffer fmt = reader.read(dataStart, (int) Math.min(size, 40)).order(ByteOrder.LITTLE_ENDIAN);
+                int format = fmt.getShort(0) & 0xFFFF;
+                int bits = fmt.getShort(14) & 0xFFFF;
+                if (format == 0xFFFE && fmt.limit() >= 26) {
+                    format = fmt.getShort(24) & 0xFFFF; // WAVE_FORMAT_EXTENSIBLE：子格式 GUID 的前两个字节
+                }
+                String codec = wavCodec(format, bits);
+                if (codec == null) {
+                    return null;
+                }
+                stream = new StreamInfo("audio");
+                stream.codecName = codec;
+                stream.channels = fmt.getShort(2) & 0xFFFF;
+                stream.sampleRate = fmt.getInt(4);
+                byteRate = fmt.getInt(8) & 0xFFFFFFFFL;
+            } else if (id.equals("data")) {
+                if (stream == null || byteRate == 0) {
+                    return null;
+                }
+                // 边录边写的文件 data 长度可能未填写，按文件剩余长度计算
+                long dataSize = size == 0 || size == 0xFFFFFFFFL ? reader.size - dataStart : Math.min(size, reader.size - dataStart);
+                MediaInfo info = new MediaInfo("wav");
+                info.streams.add(stream);
+                info.duration = (double) dataSize / byteRate;
+                return info;
+            }
+            position = dataStart + size + (size & 1);
+        }
+        return null;
+    }
+
+    private static String wavCodec(int format, int bits) {
+        return switch (format) {
+            case 1 -> switch (bits) {
+                case 8 -> "pcm_u8";
+                case 16 -> "pcm_s16le";
+                case 24 -> "pcm_s24le";
+                case 32 -> "pcm_s32le";
+                default -> null;
+            };
+            case 3 -> bits == 64 ? "pcm_f64le" : "pcm_f32le";
+            case 6 -> "pcm_alaw";
+            case 7 -> "pcm_mulaw";
+            case 0x55 -> "mp3";
+            default -> null;
+        };
+    }
+
+    // ---------------- 公共部分 ----------------
+
+    private JsonNode toJson(Path filePath, long fileSize, MediaInfo info) {
+        ObjectNode root = objectMapper.createObjectNode();
+        ArrayNode streams = root.putArray("streams");
+        for (int i = 0; i < info.streams.size(); i++) {
+            StreamInfo stream = info.streams.get(i);
+            ObjectNode node = streams.addObject();
+            node.put("index", i);
+            node.put("codec_name", stream.codecName);
+            node.put("codec_type", stream.codecType);
+            if (stream.width > 0) {
+                node.put("width", stream.width);
+                node.put("height", stream.height);
+            }
+            if (stream.frameRate != null) {
+                node.put("avg_frame_rate", stream.frameRate);
+            }
+            if (stream.sampleRate > 0) {
+                node.put("sample_rate", String.valueOf(stream.sampleRate));
+                node.put("channels", stream.channels);
+            }
+            if (stream.duration > 0) {
+                node.put("duration", String.format(Locale.ROOT, "%.6f", stream.duration));
+            }
+        }
+        // 与 ffprobe 一致，format 中的数值以字符串表示
+        ObjectNode format = root.putObject("format");
+        format.put("filename", filePath.toAbsolutePath().toString());
+        format.put("nb_streams", info.streams.size());
+        format.put("format_name", info.formatName);
+        format.put("duration", String.format(Locale.ROOT, "%.6f", info.duration));
+        format.put("size", String.valueOf(fileSize));
+        format.put("bit_rate", String.valueOf((long) (fileSize * 8 / info.duration)));
+        if (!info.tags.isEmpty()) {
+            ObjectNode tags = format.putObject("tags");
+            info.tags.forEach(tags::put);
+        }
+        return root;
+    }
+
+    private static void putCreationTime(MediaInfo info, long epochMilli) {
+        if (epochMilli > 0) {
+            info.tags.put("creation_time", CREATION_TIME_FORMAT.format(Instant.ofEpochMilli(epochMilli)));
+        }
+    }
+
+    /**
+     * 约分后的分数 (如 30000/1001)，分母为 0 时返回 null
+     */
+    private static String rational(long numerator, long denominator) {
+        if (numerator <= 0 || denominator <= 0) {
+            return null;
+        }
+        long gcd = BigInteger.valueOf(numerator).gcd(BigInteger.valueOf(denominator)).longValue();
+        return numerator / gcd + "/" + denominator / gcd;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return bytes;
+    }
+
+    private static String ascii(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static final class MediaInfo {
+        private final String formatName;
+        private final List<StreamInfo> streams = new ArrayList<>(2);
+        private final Map<String, String> tags = new LinkedHashMap<>(); // 与 ffprobe 的 format.tags 对应
+        private double duration; // 秒
+
+        private MediaInfo(String formatName) {
+            this.formatName = formatName;
+        }
+    }
+
+    private static final class StreamInfo {
+        private final String codecType;
+        private String codecName = "";
+        private int width;
+        private int height;
+        private int sampleRate;
+        private int channels;
+        private double duration; // 秒，0 表示未知
+        private String frameRate; // 平均帧率 (分数形式)，null 表示未知
+
+        private StreamInfo(String codecType) {
+            this.codecType = codecType;
+        }
+    }
+
+    /**
+     * 按位置读取文件头 (大端序)：已读取的文件头范围内直接返回，超出时才打开文件读取，读取的字节计入 I/O 配额
+     */
+    private static final class HeaderReader implements Closeable {
+        private final Path filePath;
+        private final IoGovernor ioGovernor;
+        private final IoPriority priority;
+        private final ByteBuffer prefix;
+        private final long size;
+        private IoGovernor.FilePermit permit;
+        private FileChannel channel;
+
+        private HeaderReader(Path filePath, MediaTypeDetector.Sniffed sniffed, IoGovernor ioGovernor, IoPriority priority) throws IOException {
+            this.filePath = filePath;
+            this.ioGovernor = ioGovernor;
+            this.priority = priority;
+            this.prefix = sniffed != null ? sniffed.header() : ByteBuffer.allocate(0);
+            this.size = sniffed != null ? sniffed.fileSize() : Files.size(filePath);
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            if (position < 0 || length < 0 || position + length > size) {
+                throw new EOFException("超出文件范围: " + position + "+" + length);
+            }
+            if (position + length <= prefix.limit()) {
+                return prefix.slice((int) position, length);
+            }
+            if (channel == null) {
+                permit = ioGovernor.acquireFile(priority);
+                channel = FileChannel.open(filePath, StandardOpenOption.READ);
+            }
+            ioGovernor.acquireBytes(length, priority);
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("文件被截断: " + position);
+                }
+            }
+            return buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } finally {
+                if (permit != null) {
+                    permit.close();
+                }
+            }
+        }
+    }
+}
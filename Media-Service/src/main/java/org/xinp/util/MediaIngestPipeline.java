@@ -0,0 +1,388 @@
+package org.xinp.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.xinp.entity.MediaFiles;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多阶段并行入库流水线
+ * 阶段1：目录遍历 (调用线程) -> 有界队列 -> 阶段2：哈希/元数据提取工作线程池 -> 有界队列 -> 阶段3：单线程批量写库。
+ * 写库阶段按条数或时间攒批：攒满 batchSize 条，或第一条记录等待超过 flushIntervalMs 时写入一批。
+ * 文件边发现边处理，进度中的总数为“截至目前已发现的文件数”，遍历结束后即为最终总数。
+ * 进度回调只在写库线程中触发，保证回调顺序与原来的单线程扫描一致；
+ * 调用线程被中断时，会中断所有工作线程并抛出 InterruptedException，写库线程会先把已处理完的记录写入数据库。
+ * 写库线程因异常 (进度回调、写库超时等) 退出时，中断工作线程并在调用线程抛出 IllegalStateException，不会因结果队列无人消费而卡住。
+ * <p>
+ * 检查点：工作线程并行处理，文件完成的顺序与遍历顺序不同。写库线程为每个文件记录遍历序号，
+ * 跳过/失败的文件立即视为已提交，入库的文件在所在批次写库后视为已提交，
+ * “已提交位置”是遍历顺序中之前所有文件都已提交的最后一个文件，从它之后继续遍历不会漏掉文件。
+ */
+@Slf4j
+public class MediaIngestPipeline {
+
+    // 队列结束标记
+    private static final PendingPath END_OF_PATHS = new PendingPath(0, Path.of(""));
+    private static final IngestResult END_OF_RESULTS = new IngestResult(0, END_OF_PATHS.filePath(), null, IngestStatus.FAILED);
+    // 两次检查点回调之间的最短间隔 (毫秒)，结束或取消时总会回调一次
+    private static final long CHECKPOINT_INTERVAL_MS = 2000;
+
+    private final int processWorkers;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final FileProcessor fileProcessor;
+    private final BatchWriter batchWriter;
+    private final MediaScannerService.ProgressCallback progressCallback;
+
+    /**
+     * @param processWorkers   哈希/元数据提取工作线程数
+     * @param queueCapacity    各阶段之间有界队列的容量
+     * @param batchSize        写库线程每批写入的最大记录数
+     * @param flushIntervalMs  一批记录最长的等待时间 (毫秒)，超时后不足 batchSize 也写入
+     * @param fileProcessor    单个文件的处理逻辑，返回 null 表示跳过
+     * @param batchWriter      批量写库逻辑
+     * @param progressCallback 进度回调
+     */
+    public MediaIngestPipeline(int processWorkers, int queueCapacity, int batchSize, long flushIntervalMs,
+                               FileProcessor fileProcessor, BatchWriter batchWriter,
+                               MediaScannerService.ProgressCallback progressCallback) {
+        this.processWorkers = Math.max(1, processWorkers);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(0, flushIntervalMs);
+        this.fileProcessor = fileProcessor;
+        this.batchWriter = batchWriter;
+        this.progressCallback = progressCallback;
+    }
+
+    /**
+     * 运行流水线，直到所有文件处理并写库完毕。
+     * @param files 待处理的文件，按需逐个读取 (可以是流式遍历器)
+     * @return 本次共发现的文件数
+     * @throws InterruptedException 如果调用线程被中断 (扫描被取消)
+     */
+    public long run(Iterator<Path> files) throws InterruptedException {
+        return run(files, null);
+    }
+
+    /**
+     * 运行流水线，并在已提交位置前进时回调检查点。
+     * @param files              待处理的文件，按需逐个读取 (可以是流式遍历器)
+     * @param checkpointListener 检查点回调 (在写库线程中调用)，为 null 时不回调
+     * @return 本次共发现的文件数
+     * @throws InterruptedException 如果调用线程被中断 (扫描被取消)
+     * @throws IllegalStateException 如果写库线程异常退出
+     */
+    public long run(Iterator<Path> files, CheckpointListener checkpointListener) throws InterruptedException {
+        AtomicLong discoveredFiles = new AtomicLong();
+        BlockingQueue<PendingPath> pathQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<IngestResult> resultQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        ExecutorService workers = Executors.newFixedThreadPool(processWorkers, namedThreadFactory("media-scan-worker-"));
+        ExecutorService writer = Executors.newSingleThreadExecutor(namedThreadFactory("media-scan-writer-"));
+        // 写库线程异常退出的原因，不为 null 时各阶段不再等待
+        AtomicReference<Throwable> writerFailure = new AtomicReference<>();
+        try {
+            for (int i = 0; i < processWorkers; i++) {
+                workers.submit(() -> processLoop(pathQueue, resultQueue));
+            }
+            writer.submit(() -> {
+                writeLoop(resultQueue, discoveredFiles, checkpointListener, writerFailure);
+                if (writerFailure.get() != null) {
+                    // 结果队列不再被消费，中断阻塞在投递结果上的工作线程
+                    workers.shutdownNow();
+                }
+            });
+
+            // 阶段1：遍历并投递文件，队列满时阻塞，形成背压
+            while (files.hasNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("扫描任务已被取消");
+                }
+                put(pathQueue, new PendingPath(discoveredFiles.incrementAndGet(), files.next()), writerFailure);
+            }
+            for (int i = 0; i < processWorkers; i++) {
+                put(pathQueue, END_OF_PATHS, writerFailure);
+            }
+
+            // 等待工作线程全部退出后，再通知写库线程结束
+            workers.shutdown();
+            while (!workers.awaitTermination(1, TimeUnit.SECONDS)) {
+                checkWriter(writerFailure);
+                log.debug("等待扫描工作线程结束...");
+            }
+            put(resultQueue, END_OF_RESULTS, writerFailure);
+            writer.shutdown();
+            while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.debug("等待写库线程结束...");
+            }
+            checkWriter(writerFailure);
+            return discoveredFiles.get();
+        } finally {
+            // 正常结束时两个线程池均已终止；被取消时在这里中断所有阶段
+            workers.shutdownNow();
+            writer.shutdownNow();
+            awaitWriter(writer);
+        }
+    }
+
+    /**
+     * 投递到有界队列，队列满时阻塞；写库线程已异常退出时不再等待 (队列可能永远不会被消费)
+     */
+    private static <T> void put(BlockingQueue<T> queue, T item, AtomicReference<Throwable> writerFailure) throws InterruptedException {
+        while (!queue.offer(item, 1, TimeUnit.SECONDS)) {
+            checkWriter(writerFailure);
+        }
+    }
+
+    private static void checkWriter(AtomicReference<Throwable> writerFailure) {
+        Throwable failure = writerFailure.get();
+        if (failure != null) {
+            throw new IllegalStateException("写库线程异常退出: " + failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * 被取消时等待写库线程写完已处理的记录并回调最后一次检查点，
+     * 保证调用方在 run 返回后看到的检查点是最终的。等待期间暂时清除调用线程的中断标记。
+     */
+    private void awaitWriter(ExecutorService writer) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("等待写库线程结束超时");
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 阶段2：从路径队列取出文件，完成哈希和元数据提取后投递到结果队列
+     */
+    private void processLoop(BlockingQueue<PendingPath> pathQueue, BlockingQueue<IngestResult> resultQueue) {
+        try {
+            while (true) {
+                PendingPath pending = pathQueue.take();
+                if (pending == END_OF_PATHS) {
+                    return;
+                }
+                Path filePath = pending.filePath();
+                IngestResult result;
+                try {
+                    MediaFiles mediaFile = fileProcessor.process(filePath);
+                    result = new IngestResult(pending.sequence(), filePath, mediaFile, mediaFile == null ? IngestStatus.SKIPPED : IngestStatus.PROCESSED);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    log.error("处理文件 {} 失败", filePath, e);
+                    result = new IngestResult(pending.sequence(), filePath, null, IngestStatus.FAILED);
+                }
+                resultQueue.put(result);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 阶段3：单线程消费结果队列，攒批写库并上报进度和检查点
+     * 任何异常 (进度回调失败、写库超时、Error) 都记录到 writerFailure 后退出，由调用线程结束整个流水线
+     */
+    private void writeLoop(BlockingQueue<IngestResult> resultQueue, AtomicLong discoveredFiles, CheckpointListener checkpointListener,
+                           AtomicReference<Throwable> writerFailure) {
+        List<IngestResult> batch = new ArrayList<>(batchSize);
+        CommitTracker commitTracker = new CommitTracker(checkpointListener);
+        long processedFiles = 0;
+        long batchDeadline = 0;
+        try {
+            while (true) {
+                // 没有待写记录时阻塞等待；否则最多等到本批的截止时间，避免少量记录长时间滞留在内存中
+                IngestResult result;
+                if (batch.isEmpty()) {
+                    result = resultQueue.take();
+                } else {
+                    long remaining = batchDeadline - System.currentTimeMillis();
+                    result = remaining > 0 ? resultQueue.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                }
+                if (result == null) {
+                    flush(batch, commitTracker);
+                    commitTracker.checkpoint(false);
+                    continue;
+                }
+                if (result == END_OF_RESULTS) {
+                    flush(batch, commitTracker);
+                    commitTracker.checkpoint(true);
+                    return;
+                }
+
+                String message;
+                if (result.status() == IngestStatus.SKIPPED) {
+                    message = "跳过已索引文件: " + result.filePath().getFileName();
+                    commitTracker.commit(result);
+                } else {
+                    message = "正在处理: " + result.filePath().getFileName();
+                    if (result.status() == IngestStatus.PROCESSED) {
+                        if (batch.isEmpty()) {
+                            batchDeadline = System.currentTimeMillis() + flushIntervalMs;
+                        }
+                        batch.add(result);
+                        if (batch.size() >= batchSize) {
+                            flush(batch, commitTracker);
+                        }
+                    } else {
+                        commitTracker.commit(result);
+                    }
+                }
+                commitTracker.checkpoint(false);
+                processedFiles++;
+                long totalFiles = Math.max(discoveredFiles.get(), processedFiles);
+                progressCallback.onProgress(totalFiles, processedFiles, message, totalFiles > 0 ? (int) (100.0 * processedFiles / totalFiles) : 0);
+            }
+        } catch (InterruptedException e) {
+            // 被取消时，已经处理完的记录仍然写入数据库，并记录最后的检查点
+            flush(batch, commitTracker);
+            commitTracker.checkpoint(true);
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            log.error("写库线程异常退出，扫描终止", e);
+            writerFailure.set(e);
+        }
+    }
+
+    private void flush(List<IngestResult> batch, CommitTracker commitTracker) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<MediaFiles> mediaFiles = new ArrayList<>(batch.size());
+        for (IngestResult result : batch) {
+            mediaFiles.add(result.mediaFile());
+        }
+        try {
+            batchWriter.write(mediaFiles);
+        } catch (Exception e) {
+            log.error("批量写入 {} 条文件记录失败", batch.size(), e);
+        } finally {
+            // 写入失败的记录不会在续扫时重试，与单个文件处理失败的行为一致
+            for (IngestResult result : batch) {
+                commitTracker.commit(result);
+            }
+            batch.clear();
+        }
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private enum IngestStatus {PROCESSED, SKIPPED, FAILED}
+
+    private record PendingPath(long sequence, Path filePath) {
+    }
+
+    private record IngestResult(long sequence, Path filePath, MediaFiles mediaFile, IngestStatus status) {
+    }
+
+    /**
+     * 已提交位置的计算 (只在写库线程中使用)
+     * 乱序完成的文件暂存在有序表中，大小受队列容量和批大小限制。
+     */
+    private static class CommitTracker {
+        private final CheckpointListener listener;
+        private final TreeMap<Long, Path> outOfOrder = new TreeMap<>();
+        private long committedSequence = 0;
+        private Path committedPath;
+        private long reportedSequence = 0;
+        private long lastCheckpointAt = System.currentTimeMillis();
+
+        CommitTracker(CheckpointListener listener) {
+            this.listener = listener;
+        }
+
+        void commit(IngestResult result) {
+            if (listener == null) {
+                return;
+            }
+            outOfOrder.put(result.sequence(), result.filePath());
+            Map.Entry<Long, Path> first;
+            while ((first = outOfOrder.firstEntry()) != null && first.getKey() == committedSequence + 1) {
+                outOfOrder.pollFirstEntry();
+                committedSequence = first.getKey();
+                committedPath = first.getValue();
+            }
+        }
+
+        void checkpoint(boolean force) {
+            if (listener == null || committedSequence == reportedSequence) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (!force && now - lastCheckpointAt < CHECKPOINT_INTERVAL_MS) {
+                return;
+            }
+            try {
+                listener.onCheckpoint(committedPath, committedSequence);
+                reportedSequence = committedSequence;
+                lastCheckpointAt = now;
+            } catch (Exception e) {
+                log.error("记录扫描检查点失败", e);
+            }
+        }
+    }
+
+    /**
+     * 单个文件的处理逻辑 (哈希、元数据提取)
+     */
+    @FunctionalInterface
+    public interface FileProcessor {
+        /**
+         * @param filePath 文件绝对路径
+         * @return 待入库的文件记录，返回 null 表示该文件被跳过
+         */
+        MediaFiles process(Path filePath) throws Exception;
+    }
+
+    /**
+     * 批量写库逻辑
+     */
+    @FunctionalInterface
+    public interface BatchWriter {
+        void write(List<MediaFiles> batch);
+    }
+
+    /**
+     * 检查点回调
+     */
+    @FunctionalInterface
+    public interface CheckpointListener {
+        /**
+         * @param lastCommittedFile 已提交位置：遍历顺序中它及之前的所有文件都已处理并写库
+         * @param committedFiles    已提交的文件数 (本次运行)
+         */
+        void onCheckpoint(Path lastCommittedFile, long committedFiles);
+    }
+}
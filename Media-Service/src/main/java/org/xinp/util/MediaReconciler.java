@@ -0,0 +1,287 @@
+package org.xinp.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.FileStatus;
+import org.xinp.constant.ReconcilePolicy;
+import org.xinp.entity.MediaFiles;
+import org.xinp.mapper.MediaFilesMapper;
+import org.xinp.pojo.ReconcileReport;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * 数据库/文件系统对账
+ * 将 media_files 中目录下的记录按 file_path 排序分页读取，与同样按路径字典序输出的流式目录遍历做归并连接，一次遍历完成对账：
+ * 1. 有记录无文件：按策略标记为 ERROR 或删除记录 (处理中的记录跳过，避免与移动等任务冲突；
+ *    所在目录读取失败时 (权限、I/O 错误、网络存储掉线) 无法确认文件是否存在，同样跳过，不会误删记录)；
+ * 2. 有文件无记录：交给入库流水线入库；
+ * 3. 记录与文件一致：之前为 ERROR 的记录恢复为正常/待分类 (完整性校验发现内容损坏的记录除外，由校验通过后恢复)。
+ * 内存占用只有一页记录和遍历器的目录栈，与文件总数无关。
+ * 只对账开始时已存在的记录 (file_id 不超过开始时的最大值)，避免把本次新入库的记录当作缺失。
+ */
+@Slf4j
+@Service
+public class MediaReconciler {
+
+    private static final int PAGE_SIZE = 1000;
+    private static final int UPDATE_BATCH_SIZE = 500;
+
+    private final MediaFilesMapper mediaFilesMapper;
+    private final MediaScannerService mediaScannerService;
+    private final IntegrityScrubber integrityScrubber;
+    private final SimilarImageIndex similarImageIndex;
+
+    public MediaReconciler(MediaFilesMapper mediaFilesMapper, MediaScannerService mediaScannerService,
+                           IntegrityScrubber integrityScrubber, SimilarImageIndex similarImageIndex) {
+        this.mediaFilesMapper = mediaFilesMapper;
+        this.mediaScannerService = mediaScannerService;
+        this.integrityScrubber = integrityScrubber;
+        this.similarImageIndex = similarImageIndex;
+    }
+
+    /**
+     * 对账一个目录
+     * @param directoryPath    要对账的目录
+     * @param policy           文件缺失时的处理策略
+     * @param progressCallback 进度回调 (新文件入库的进度)
+     * @return 对账报告
+     * @throws InterruptedException 如果任务被取消
+     */
+    public ReconcileReport reconcile(Path directoryPath, ReconcilePolicy policy,
+                                     MediaScannerService.ProgressCallback progressCallback) throws InterruptedException {
+        if (!Files.isDirectory(directoryPath)) {
+            throw new IllegalArgumentException("路径不是一个有效的目录: " + directoryPath);
+        }
+        if (policy == ReconcilePolicy.PURGE && isEmptyDirectory(directoryPath)) {
+            // 目录为空通常意味着存储未挂载，此时删除记录会造成不可恢复的数据丢失
+            throw new IllegalStateException("目录为空，为防止误删记录拒绝执行: " + directoryPath);
+        }
+
+        ReconcileReport report = new ReconcileReport();
+        report.setDirectory(mediaScannerService.toStoredPath(directoryPath));
+        report.setPolicy(policy);
+        report.setStartTime(System.currentTimeMillis());
+        log.info("开始对账目录: {}，缺失文件处理策略: {}", directoryPath, policy.getDescription());
+
+        MergeJoin mergeJoin = new MergeJoin(directoryPath, policy, report);
+        try {
+            mediaScannerService.indexNewFiles(mergeJoin, progressCallback);
+        } finally {
+            // 被取消时也把已确认缺失的记录处理掉
+            mergeJoin.flushMissing();
+        }
+
+        report.setEndTime(System.currentTimeMillis());
+        log.info("{} 耗时 {} ms", report.summary(), report.getEndTime() - report.getStartTime());
+        return report;
+    }
+
+    private static boolean isEmptyDirectory(Path directoryPath) {
+        try (Stream<Path> entries = Files.list(directoryPath)) {
+            return entries.findAny().isEmpty();
+        } catch (IOException e) {
+            throw new IllegalStateException("读取目录失败: " + directoryPath, e);
+        }
+    }
+
+    /**
+     * 归并连接：作为入库流水线的输入，只输出有文件无记录的路径，其余两种情况在遍历过程中就地处理
+     */
+    private class MergeJoin implements Iterator<Path> {
+        private final ReconcilePolicy policy;
+        private final ReconcileReport report;
+        private final MediaFileWalker walker;
+        private final RecordCursor records;
+        private final String prefix;
+        private final List<MediaFiles> missingRecords = new ArrayList<>(UPDATE_BATCH_SIZE);
+
+        private Path currentFile;
+        private String currentFilePath;
+        private String lastMatchedPath;
+        private Path nextOrphan;
+
+        MergeJoin(Path directoryPath, ReconcilePolicy policy, ReconcileReport report) {
+            this.policy = policy;
+            this.report = report;
+            this.walker = new MediaFileWalker(directoryPath);
+            this.prefix = report.getDirectory().isEmpty() ? "" : report.getDirectory() + "/";
+            this.records = new RecordCursor(prefix);
+            advanceFile();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextOrphan == null) {
+                nextOrphan = advance();
+            }
+            return nextOrphan != null;
+        }
+
+        @Override
+        public Path next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Path orphan = nextOrphan;
+            nextOrphan = null;
+            return orphan;
+        }
+
+        private Path advance() {
+            while (true) {
+                MediaFiles record = records.peek();
+                if (record == null && currentFile == null) {
+                    flushMissing();
+                    return null;
+                }
+                int cmp = record == null ? 1
+                        : currentFile == null ? -1
+                        : MediaFileWalker.PATH_ORDER.compare(record.getFilePath(), currentFilePath);
+                if (cmp < 0) {
+                    // 有记录无文件 (同一路径的重复记录视为一致)
+                    records.next();
+                    if (record.getFilePath().equals(lastMatchedPath)) {
+                        matched(record);
+                    } else {
+                        missing(record);
+                    }
+                } else if (cmp > 0) {
+                    // 有文件无记录
+                    Path orphan = currentFile;
+                    advanceFile();
+                    report.setOrphanFiles(report.getOrphanFiles() + 1);
+                    return orphan;
+                } else {
+                    records.next();
+                    lastMatchedPath = currentFilePath;
+                    advanceFile();
+                    matched(record);
+                }
+            }
+        }
+
+        private void advanceFile() {
+            currentFile = walker.hasNext() ? walker.next() : null;
+            currentFilePath = currentFile == null ? null : mediaScannerService.toStoredPath(currentFile);
+        }
+
+        private void matched(MediaFiles record) {
+            report.setMatchedFiles(report.getMatchedFiles() + 1);
+            if (record.getFileStatus() == FileStatus.ERROR && !integrityScrubber.isCorrupted(record.getFileId())) {
+                FileStatus restored = record.getToolId() != null ? FileStatus.AVAILABLE : FileStatus.PENDING_CLASSIFICATION;
+                mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                        .eq(MediaFiles::getFileId, record.getFileId())
+                        .set(MediaFiles::getFileStatus, restored));
+                report.setRestoredFiles(report.getRestoredFiles() + 1);
+                log.info("文件已恢复: {}", record.getFilePath());
+            }
+        }
+
+        private void missing(MediaFiles record) {
+            // 遍历按路径顺序进行，记录之前的目录都已读取过，这里可以确定记录所在的目录是否读取失败
+            if (record.getFilePath().startsWith(prefix) && walker.isUnreadable(record.getFilePath().substring(prefix.length()))) {
+                report.setUnreadableFiles(report.getUnreadableFiles() + 1);
+                return;
+            }
+            report.setMissingFiles(report.getMissingFiles() + 1);
+            if (record.getFileStatus() == FileStatus.PROCESSING) {
+                report.setSkippedFiles(report.getSkippedFiles() + 1);
+                return;
+            }
+            if (policy == ReconcilePolicy.MARK_ERROR && record.getFileStatus() == FileStatus.ERROR) {
+                return; // 已经是错误状态
+            }
+            log.warn("文件缺失: {}", record.getFilePath());
+            missingRecords.add(record);
+            if (missingRecords.size() >= UPDATE_BATCH_SIZE) {
+                flushMissing();
+            }
+        }
+
+        void flushMissing() {
+            if (missingRecords.isEmpty()) {
+                return;
+            }
+            List<Long> missingIds = missingRecords.stream().map(MediaFiles::getFileId).toList();
+            if (policy == ReconcilePolicy.PURGE) {
+                int purged = mediaFilesMapper.deleteByIds(missingIds);
+                report.setPurgedFiles(report.getPurgedFiles() + purged);
+                for (MediaFiles record : missingRecords) {
+                    if (record.getPerceptualHash() != null) {
+                        similarImageIndex.remove(record.getFileId(), record.getPerceptualHash());
+                    }
+                }
+            } else {
+                int marked = mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                        .in(MediaFiles::getFileId, missingIds)
+                        .set(MediaFiles::getFileStatus, FileStatus.ERROR));
+                report.setMarkedErrorFiles(report.getMarkedErrorFiles() + marked);
+            }
+            missingRecords.clear();
+        }
+    }
+
+    /**
+     * 按 (file_path, file_id) 键集分页读取目录下的记录
+     * 每页是一次独立的短查询，不会长时间占用数据库读锁，流水线可以同时写入。
+     */
+    private class RecordCursor {
+        private final String prefix;
+        private final String upperBound;
+        private final Long maxFileId;
+        private List<MediaFiles> page = List.of();
+        private int position;
+        private boolean exhausted;
+
+        RecordCursor(String prefix) {
+            this.prefix = prefix;
+            // 前缀以 '/' 结尾，'/' 的下一个字符是 '0'，[prefix, upperBound) 即为该目录下的所有路径；对账根目录时不限范围
+            this.upperBound = prefix.isEmpty() ? null : prefix.substring(0, prefix.length() - 1) + (char) ('/' + 1);
+            MediaFiles last = mediaFilesMapper.selectOne(new LambdaQueryWrapper<MediaFiles>()
+                    .select(MediaFiles::getFileId)
+                    .orderByDesc(MediaFiles::getFileId)
+                    .last("LIMIT 1"));
+            this.maxFileId = last == null ? 0L : last.getFileId();
+        }
+
+        MediaFiles peek() {
+            if (position >= page.size() && !exhausted) {
+                loadPage();
+            }
+            return position < page.size() ? page.get(position) : null;
+        }
+
+        void next() {
+            position++;
+        }
+
+        private void loadPage() {
+            MediaFiles last = page.isEmpty() ? null : page.get(page.size() - 1);
+            LambdaQueryWrapper<MediaFiles> wrapper = new LambdaQueryWrapper<MediaFiles>()
+                    .select(MediaFiles::getFileId, MediaFiles::getFilePath, MediaFiles::getFileStatus, MediaFiles::getToolId,
+                            MediaFiles::getPerceptualHash)
+                    .lt(upperBound != null, MediaFiles::getFilePath, upperBound)
+                    .le(MediaFiles::getFileId, maxFileId);
+            if (last == null) {
+                wrapper.ge(MediaFiles::getFilePath, prefix);
+            } else {
+                wrapper.and(w -> w.gt(MediaFiles::getFilePath, last.getFilePath())
+                        .or(o -> o.eq(MediaFiles::getFilePath, last.getFilePath()).gt(MediaFiles::getFileId, last.getFileId())));
+            }
+            wrapper.orderByAsc(MediaFiles::getFilePath, MediaFiles::getFileId).last("LIMIT " + PAGE_SIZE);
+            page = mediaFilesMapper.selectList(wrapper);
+            position = 0;
+            exhausted = page.size() < PAGE_SIZE;
+        }
+    }
+}
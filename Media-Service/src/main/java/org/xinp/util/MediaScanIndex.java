@@ -0,0 +1,316 @@
+package org.xinp.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.xinp.entity.MediaFiles;
+import org.xinp.mapper.MediaFilesMapper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 扫描用的内存索引
+ * 每次扫描开始时用一条流式查询加载 media_files 中已入库文件的路径和指纹，此后扫描中的所有判断均为 O(1) 的内存查找，不再逐个文件查询数据库：
+ * 1. 路径索引：以路径的 64 位哈希为键的开放寻址表，保存 fileId、文件大小、最后修改时间和 fileKey 哈希，用于判断文件是否已入库/是否变化；
+ * 2. inode 索引：以 fileKey 哈希为键，指向路径索引中的槽位，用于识别硬链接；
+ * 3. 快速指纹的布隆过滤器：放在按指纹查询重复之前，绝大多数不重复的文件无需访问数据库。
+ * <p>
+ * 内存占用 (负载因子 0.75)：路径索引每个槽位 5 个 long (40 字节)，inode 索引每个槽位 1 个 int (4 字节)，
+ * 布隆过滤器按 1% 误判率每个文件约 10 bit，并为本次扫描新增文件预留一倍容量。
+ * 合计每百万已入库文件约 (40 + 4) / 0.75 + 2.5 ≈ 61 MB。
+ * <p>
+ * 路径比较基于 64 位哈希，不同路径哈希相同的概率在百万文件规模下约为 1e-8，
+ * 增量模式下还需大小和修改时间同时相同才会误判，可以忽略。
+ * 加载完成后路径索引和 inode 索引只读，可被多个工作线程并发查询；布隆过滤器支持并发写入。
+ */
+@Slf4j
+public class MediaScanIndex {
+
+    private static final double LOAD_FACTOR = 0.75;
+    private static final long EMPTY = 0L;
+
+    // 路径索引 (开放寻址，线性探测)
+    private long[] pathHashes;
+    private long[] fileIds;
+    private long[] sizes;
+    private long[] lastModifieds;
+    private long[] fileKeyHashes;
+    private int size;
+
+    // inode 索引：fileKey 哈希 -> 路径索引槽位 + 1 (0 表示空)
+    private int[] fileKeySlots;
+
+    private final FingerprintBloomFilter fingerprintFilter;
+
+    private MediaScanIndex(long expectedFiles) {
+        int capacity = capacityFor(expectedFiles);
+        allocate(capacity);
+        // 为本次扫描中新入库的文件预留容量
+        this.fingerprintFilter = new FingerprintBloomFilter(Math.max(expectedFiles * 2, 1 << 16), 0.01);
+    }
+
+    /**
+     * 使用一条流式查询从数据库加载索引
+     * @param mediaFilesMapper 文件Mapper
+     * @return 加载完成的索引
+     */
+    public static MediaScanIndex load(MediaFilesMapper mediaFilesMapper) {
+        long start = System.currentTimeMillis();
+        long expected = mediaFilesMapper.selectCount(null);
+        MediaScanIndex index = new MediaScanIndex(expected);
+        mediaFilesMapper.selectList(new LambdaQueryWrapper<MediaFiles>()
+                        .select(MediaFiles::getFileId, MediaFiles::getFilePath, MediaFiles::getFileSize,
+                                MediaFiles::getLastModified, MediaFiles::getFileKey, MediaFiles::getFingerprint),
+                resultContext -> {
+                    MediaFiles row = resultContext.getResultObject();
+                    index.put(row.getFilePath(), row.getFileId(), row.getFileSize(), row.getLastModified(), row.getFileKey());
+                    if (row.getFingerprint() != null) {
+                        index.fingerprintFilter.add(row.getFingerprint());
+                    }
+                });
+        log.info("扫描索引加载完成，共 {} 条记录，耗时 {} ms", index.size, System.currentTimeMillis() - start);
+        return index;
+    }
+
+    /**
+     * @param storedPath 数据库中存储的相对路径
+     * @return 该路径是否已入库
+     */
+    public boolean containsPath(String storedPath) {
+        return findSlot(hashPath(storedPath)) >= 0;
+    }
+
+    /**
+     * 查询路径对应的已入库记录
+     * @param storedPath 数据库中存储的相对路径
+     * @return 已入库记录的指纹，未入库返回 null
+     */
+    public Entry findByPath(String storedPath) {
+        int slot = findSlot(hashPath(storedPath));
+        return slot < 0 ? null : entryAt(slot);
+    }
+
+    /**
+     * 查询 fileKey (设备号+inode) 对应的已入库记录，用于识别硬链接
+     * @param fileKey 文件系统标识
+     * @return 已入库记录的指纹，不存在返回 null
+     */
+    public Entry findByFileKey(String fileKey) {
+        if (fileKey == null) {
+            return null;
+        }
+        long keyHash = hashString(fileKey);
+        int capacity = fileKeySlots.length;
+        for (int i = Math.floorMod(keyHash, capacity); fileKeySlots[i] != 0; i = (i + 1) % capacity) {
+            int slot = fileKeySlots[i] - 1;
+            if (fileKeyHashes[slot] == keyHash) {
+                return entryAt(slot);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 快速指纹是否可能已存在 (布隆过滤器，返回 false 时一定不存在)
+     */
+    public boolean mightContainFingerprint(Long fingerprint) {
+        return fingerprint != null && fingerprintFilter.mightContain(fingerprint);
+    }
+
+    /**
+     * 记录本次扫描中新计算出的快速指纹，供后续文件的重复检查使用 (线程安全)
+     */
+    public void addFingerprint(Long fingerprint) {
+        if (fingerprint != null) {
+            fingerprintFilter.add(fingerprint);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void put(String storedPath, Long fileId, Long fileSize, Long lastModified, String fileKey) {
+        if (storedPath == null) {
+            return;
+        }
+        if (size + 1 > pathHashes.length * LOAD_FACTOR) {
+            rehash(pathHashes.length * 2);
+        }
+        long pathHash = hashPath(storedPath);
+        int capacity = pathHashes.length;
+        int i = Math.floorMod(pathHash, capacity);
+        while (pathHashes[i] != EMPTY && pathHashes[i] != pathHash) {
+            i = (i + 1) % capacity;
+        }
+        boolean added = pathHashes[i] == EMPTY;
+        pathHashes[i] = pathHash;
+        fileIds[i] = fileId == null ? 0 : fileId;
+        sizes[i] = fileSize == null ? -1 : fileSize;
+        lastModifieds[i] = lastModified == null ? -1 : lastModified;
+        fileKeyHashes[i] = fileKey == null ? EMPTY : hashString(fileKey);
+        if (added) {
+            size++;
+            indexFileKey(i);
+        }
+    }
+
+    private void indexFileKey(int slot) {
+        long keyHash = fileKeyHashes[slot];
+        if (keyHash == EMPTY) {
+            return;
+        }
+        int capacity = fileKeySlots.length;
+        int i = Math.floorMod(keyHash, capacity);
+        while (fileKeySlots[i] != 0) {
+            if (fileKeyHashes[fileKeySlots[i] - 1] == keyHash) {
+                return; // 同一 inode 只记录第一条
+            }
+            i = (i + 1) % capacity;
+        }
+        fileKeySlots[i] = slot + 1;
+    }
+
+    private int findSlot(long pathHash) {
+        int capacity = pathHashes.length;
+        for (int i = Math.floorMod(pathHash, capacity); pathHashes[i] != EMPTY; i = (i + 1) % capacity) {
+            if (pathHashes[i] == pathHash) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Entry entryAt(int slot) {
+        return new Entry(fileIds[slot],
+                sizes[slot] < 0 ? null : sizes[slot],
+                lastModifieds[slot] < 0 ? null : lastModifieds[slot],
+                fileKeyHashes[slot]);
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldPathHashes = pathHashes, oldFileIds = fileIds, oldSizes = sizes,
+                oldLastModifieds = lastModifieds, oldFileKeyHashes = fileKeyHashes;
+        allocate(newCapacity);
+        for (int j = 0; j < oldPathHashes.length; j++) {
+            if (oldPathHashes[j] == EMPTY) {
+                continue;
+            }
+            int i = Math.floorMod(oldPathHashes[j], newCapacity);
+            while (pathHashes[i] != EMPTY) {
+                i = (i + 1) % newCapacity;
+            }
+            pathHashes[i] = oldPathHashes[j];
+            fileIds[i] = oldFileIds[j];
+            sizes[i] = oldSizes[j];
+            lastModifieds[i] = oldLastModifieds[j];
+            fileKeyHashes[i] = oldFileKeyHashes[j];
+            indexFileKey(i);
+        }
+    }
+
+    private void allocate(int capacity) {
+        pathHashes = new long[capacity];
+        fileIds = new long[capacity];
+        sizes = new long[capacity];
+        lastModifieds = new long[capacity];
+        fileKeyHashes = new long[capacity];
+        fileKeySlots = new int[capacity];
+    }
+
+    private static int capacityFor(long expected) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, (long) (expected / LOAD_FACTOR) + 1));
+    }
+
+    private static long hashPath(String path) {
+        long hash = hashString(path);
+        return hash == EMPTY ? 1 : hash; // 0 保留为空槽位标记
+    }
+
+    /**
+     * FNV-1a 64 位哈希 + MurmurHash3 的 fmix64 混淆
+     */
+    static long hashString(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix64(hash);
+    }
+
+    private static long mix64(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * 已入库记录的指纹
+     * @param fileId       文件ID
+     * @param fileSize     文件大小，未记录时为 null
+     * @param lastModified 最后修改时间，未记录时为 null
+     * @param fileKeyHash  fileKey 的哈希，未记录时为 0
+     */
+    public record Entry(long fileId, Long fileSize, Long lastModified, long fileKeyHash) {
+
+        /**
+         * 判断文件当前的属性是否与入库时一致
+         */
+        public boolean matches(long currentSize, long currentLastModified, String currentFileKey) {
+            return fileSize != null && fileSize == currentSize
+                    && lastModified != null && lastModified == currentLastModified
+                    && (currentFileKey == null || fileKeyHash == hashString(currentFileKey));
+        }
+    }
+
+    /**
+     * 快速指纹的布隆过滤器
+     * 由两个 64 位基础哈希通过双重哈希生成 k 个位置。
+     */
+    static class FingerprintBloomFilter {
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashCount;
+
+        FingerprintBloomFilter(long expectedItems, double falsePositiveRate) {
+            long m = (long) Math.ceil(-expectedItems * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64);
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = (long) words * 64;
+            this.hashCount = Math.max(1, (int) Math.round((double) m / expectedItems * Math.log(2)));
+        }
+
+        void add(long fingerprint) {
+            long[] base = baseHashes(fingerprint);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(base[0] + i * base[1], bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << (bit & 63);
+                long current;
+                while (((current = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, current, current | mask)) {
+                    // CAS 失败时重试
+                }
+            }
+        }
+
+        boolean mightContain(long fingerprint) {
+            long[] base = baseHashes(fingerprint);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(base[0] + i * base[1], bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long[] baseHashes(long fingerprint) {
+            long h1 = mix64(fingerprint);
+            long h2 = mix64(h1 + 0x9e3779b97f4a7c15L) | 1;
+            return new long[]{h1, h2};
+        }
+    }
+}
@@ -1,29 +1,31 @@
 package org.xinp.util;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.drew.imaging.ImageMetadataReader;
 import com.drew.metadata.Metadata;
 import com.drew.metadata.exif.ExifSubIFDDirectory;
 import com.drew.metadata.jpeg.JpegDirectory;
 import com.drew.metadata.png.PngDirectory;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.xinp.constant.FileStatus;
+import org.xinp.constant.IoPriority;
+import org.xinp.constant.ScanMode;
 import org.xinp.entity.MediaFiles;
 import org.xinp.mapper.MediaFilesMapper;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.stream.Stream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
 
 /**
  * 媒体文件扫描服务
@@ -33,107 +35,384 @@ import java.util.stream.Stream;
 public class MediaScannerService {
 
     private final MediaFilesMapper mediaFilesMapper;
-    private final ObjectMapper objectMapper;
+    private final MediaFilesBatchWriter mediaFilesBatchWriter;
+    private final FileHasher fileHasher;
+    private final PerceptualHasher perceptualHasher;
+    private final ProbeCache probeCache;
+    private final MediaTypeDetector mediaTypeDetector;
+    private final MediaAttributeExtractor mediaAttributeExtractor;
     private final Path rootPath; // -- 修正点 2.1: 注入项目根路径
-    @Value("${media.system}")
-    private String system;
+    @Value("${media.scan.process-workers:4}")
+    private int processWorkers; // 哈希/元数据提取阶段的工作线程数
+    @Value("${media.scan.queue-capacity:1000}")
+    private int queueCapacity; // 流水线各阶段之间的队列容量
+    @Value("${media.scan.batch-size:200}")
+    private int batchSize; // 写库阶段每批写入的记录数
+    @Value("${media.scan.flush-interval-ms:1000}")
+    private long flushIntervalMs; // 写库阶段一批记录的最长等待时间 (毫秒)
+    @Value("${media.scan.skip-duplicates:false}")
+    private boolean skipDuplicates; // 入库时是否跳过内容与已入库文件重复的文件 (不跳过时由去重功能统一处理)
 
     // -- 修正点 2.1: 修改构造函数以接收根路径
-    public MediaScannerService(MediaFilesMapper mediaFilesMapper, ObjectMapper objectMapper, @Qualifier("projectPath") Path rootPath) {
+    public MediaScannerService(MediaFilesMapper mediaFilesMapper, MediaFilesBatchWriter mediaFilesBatchWriter,
+                               FileHasher fileHasher, PerceptualHasher perceptualHasher,
+                               ProbeCache probeCache, MediaTypeDetector mediaTypeDetector,
+                               MediaAttributeExtractor mediaAttributeExtractor, @Qualifier("projectPath") Path rootPath) {
         this.mediaFilesMapper = mediaFilesMapper;
-        this.objectMapper = objectMapper;
+        this.mediaFilesBatchWriter = mediaFilesBatchWriter;
+        this.fileHasher = fileHasher;
+        this.perceptualHasher = perceptualHasher;
+        this.probeCache = probeCache;
+        this.mediaTypeDetector = mediaTypeDetector;
+        this.mediaAttributeExtractor = mediaAttributeExtractor;
         this.rootPath = rootPath;
     }
 
-    public void scanAndIndexDirectory(Path directoryPath, ProgressCallback progressCallback) throws InterruptedException{
-        // ... (这部分代码无需修改)
-        log.info("开始扫描目录: {}", directoryPath);
+    /**
+     * 扫描目录并将其中的文件入库
+     * @param directoryPath    要扫描的目录
+     * @param scanMode         扫描模式 (全量/增量)
+     * @param progressCallback 进度回调
+     * @throws InterruptedException 如果扫描被取消
+     * @throws IllegalArgumentException 如果目录不存在
+     */
+    public void scanAndIndexDirectory(Path directoryPath, ScanMode scanMode, ProgressCallback progressCallback) throws InterruptedException{
+        scanAndIndexDirectory(directoryPath, scanMode, null, 0, progressCallback, null);
+    }
 
-        try (Stream<Path> paths = Files.walk(directoryPath)) {
-            var fileList = paths.filter(Files::isRegularFile).toList();
-            long totalFiles = fileList.size();
-            long processedFiles = 0;
+    /**
+     * 从断点继续扫描目录并将其中的文件入库
+     * @param directoryPath      要扫描的目录
+     * @param scanMode           扫描模式 (全量/增量)
+     * @param resumeAfter        断点：相对扫描目录的路径，只处理遍历顺序中排在它之后的文件；为 null 时从头开始
+     * @param workers            本次扫描的哈希/元数据提取工作线程数，不大于 0 时使用 media.scan.process-workers
+     * @param progressCallback   进度回调
+     * @param checkpointListener 检查点回调，为 null 时不记录检查点
+     * @throws InterruptedException 如果扫描被取消
+     * @throws IllegalArgumentException 如果目录不存在 (扫描会话记为失败，目录恢复后可以继续)
+     */
+    public void scanAndIndexDirectory(Path directoryPath, ScanMode scanMode, String resumeAfter, int workers, ProgressCallback progressCallback,
+                                      MediaIngestPipeline.CheckpointListener checkpointListener) throws InterruptedException {
+        log.info("开始扫描目录: {}，模式: {}{}", directoryPath, scanMode.getDescription(),
+                resumeAfter == null ? "" : "，从断点 " + resumeAfter + " 之后继续");
+
+        if (!Files.isDirectory(directoryPath)) {
+            log.error("遍历目录失败: {}", directoryPath);
+            progressCallback.onError("遍历目录失败: 目录不存在 " + directoryPath);
+            throw new IllegalArgumentException("目录不存在: " + directoryPath);
+        }
 
-            if (totalFiles == 0) {
-                log.info("目录为空，无需处理。");
-                progressCallback.onProgress(0, 0, "目录为空", 100);
-                return;
+        // 一次性加载已入库文件的路径和指纹，扫描过程中不再逐个文件查询数据库
+        MediaScanIndex scanIndex = MediaScanIndex.load(mediaFilesMapper);
+
+        // 流式遍历 -> 哈希/元数据工作线程池 -> 单线程批量写库，遍历与入库同时进行
+        MediaIngestPipeline pipeline = new MediaIngestPipeline(
+                workers > 0 ? workers : processWorkers, queueCapacity, batchSize, flushIntervalMs,
+                filePath -> processForScan(filePath, scanMode, scanIndex), mediaFilesBatchWriter::write, progressCallback);
+        long totalFiles = pipeline.run(new MediaFileWalker(directoryPath, resumeAfter), checkpointListener);
+        if (totalFiles == 0 && resumeAfter == null) {
+            log.info("目录为空，无需处理。");
+            progressCallback.onProgress(0, 0, "目录为空", 100);
+            return;
+        }
+        log.info("目录扫描完成: {}", directoryPath);
+    }
+
+    /**
+     * 流水线工作线程调用：返回 null 表示跳过该文件
+     */
+    private MediaFiles processForScan(Path filePath, ScanMode scanMode, MediaScanIndex scanIndex) throws Exception {
+        if (scanMode == ScanMode.INCREMENTAL) {
+            return processIncremental(filePath, scanIndex);
+        }
+        if (scanIndex.containsPath(toStoredPath(filePath))) {
+            log.warn("文件已在数据库中，跳过: {}", filePath);
+            return null;
+        }
+        return processSingleFile(filePath, scanIndex, IoPriority.BACKGROUND);
+    }
+
+    /**
+     * 增量扫描：只读取文件属性 (大小、最后修改时间、设备号+inode) 与数据库中的指纹比较。
+     * 未变化的文件直接跳过，不读取文件内容；变化的文件重新提取，返回带 fileId 的记录用于原地更新；
+     * 新路径如果与已入库文件是同一个 inode：已入库的路径仍然存在时为硬链接，无需再次计算哈希，直接跳过；
+     * 已入库的路径不存在时为同一文件系统内的移动/重命名 (inode、大小、修改时间都不变)，直接把记录的路径改为新路径。
+     */
+    private MediaFiles processIncremental(Path filePath, MediaScanIndex scanIndex) throws Exception {
+        BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        String fileKey = fileKeyOf(attrs);
+
+        MediaScanIndex.Entry indexed = scanIndex.findByPath(toStoredPath(filePath));
+        if (indexed != null) {
+            if (indexed.matches(attrs.size(), lastModified, fileKey)) {
+                log.debug("文件未变化，跳过: {}", filePath);
+                return null;
             }
+            log.info("文件已变化，重新提取: {}", filePath);
+            // 内容可能与自身旧记录相同 (例如只修改了时间)，因此不做重复内容检查
+            MediaFiles changed = processSingleFile(filePath);
+            changed.setFileId(indexed.fileId());
+            changed.setFileStatus(null); // 保留原有的文件状态
+            return changed;
+        }
 
-            for (Path filePath : fileList) {
-                if (Thread.currentThread().isInterrupted()) {
-                    // 如果线程被中断，抛出异常，由上层(ScanTaskManager)捕获并处理
-                    throw new InterruptedException("扫描任务已被取消");
-                }
-                try {
-                    if (isAlreadyIndexed(filePath)) {
-                        log.warn("文件已在数据库中，跳过: {}", filePath);
-                        processedFiles++;
-                        progressCallback.onProgress(totalFiles, processedFiles, "跳过已索引文件: " + filePath.getFileName(), (int) (100.0 * processedFiles / totalFiles));
-                        continue;
-                    }
-
-                    MediaFiles mediaFile = processSingleFile(filePath);
-                    mediaFilesMapper.insert(mediaFile);
-                    log.info("成功索引文件: {}", filePath.getFileName());
-
-                } catch (Exception e) {
-                    log.error("处理文件 {} 失败", filePath, e);
-                } finally {
-                    processedFiles++;
-                    progressCallback.onProgress(totalFiles, processedFiles, "正在处理: " + filePath.getFileName(), (int) (100.0 * processedFiles / totalFiles));
-                }
+        MediaScanIndex.Entry linked = scanIndex.findByFileKey(fileKey);
+        if (linked != null && linked.matches(attrs.size(), lastModified, fileKey)) {
+            MediaFiles linkedRecord = mediaFilesMapper.selectOne(new LambdaQueryWrapper<MediaFiles>()
+                    .select(MediaFiles::getFileId, MediaFiles::getFilePath)
+                    .eq(MediaFiles::getFileId, linked.fileId()));
+            if (linkedRecord != null && Files.exists(rootPath.resolve(linkedRecord.getFilePath()))) {
+                log.info("文件 {} 与已索引文件 (ID:{}) 为同一文件 (硬链接)，跳过。", filePath, linked.fileId());
+                return null;
             }
-            log.info("目录扫描完成: {}", directoryPath);
-        } catch (IOException e) {
-            log.error("遍历目录失败: {}", directoryPath, e);
-            progressCallback.onError("遍历目录失败: " + e.getMessage());
+            if (linkedRecord != null && moveRecord(linkedRecord, filePath)) {
+                return null;
+            }
+        }
+        return processSingleFile(filePath, scanIndex, IoPriority.BACKGROUND);
+    }
+
+    /**
+     * 文件被移动/重命名：把记录的路径和文件名改为新位置 (内容未变化，保留哈希、元数据和状态)
+     * 按旧路径条件更新，同一 inode 的多个新路径 (移动后又建了硬链接) 只有一个能改到记录，其余的按新文件入库。
+     * 只改一行，由工作线程直接写入，不经过批量写库。
+     * @return 是否已更新记录
+     */
+    private boolean moveRecord(MediaFiles record, Path newPath) {
+        String newStoredPath = toStoredPath(newPath);
+        int updated = mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                .eq(MediaFiles::getFileId, record.getFileId())
+                .eq(MediaFiles::getFilePath, record.getFilePath())
+                .set(MediaFiles::getFilePath, newStoredPath)
+                .set(MediaFiles::getFileName, newPath.getFileName().toString())
+                .set(MediaFiles::getUpdateTime, System.currentTimeMillis()));
+        if (updated > 0) {
+            log.info("文件已移动: {} -> {} (ID:{})", record.getFilePath(), newStoredPath, record.getFileId());
+        }
+        return updated > 0;
+    }
+
+    /**
+     * 处理文件监听发现的新增/变化文件
+     * 路径已入库且大小、修改时间未变化时跳过；已入库但已变化时重新提取，返回带 fileId 的记录用于原地更新；
+     * 开启 skip-duplicates 时，新路径的内容与已入库文件重复 (例如文件被复制到了另一个分类目录) 的跳过。
+     * @param filePath 文件绝对路径
+     * @return 待写入的记录，跳过时返回 null
+     */
+    public MediaFiles processWatchedFile(Path filePath) throws Exception {
+        BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        MediaFiles indexed = mediaFilesMapper.selectOne(new LambdaQueryWrapper<MediaFiles>()
+                .select(MediaFiles::getFileId, MediaFiles::getFileSize, MediaFiles::getLastModified)
+                .eq(MediaFiles::getFilePath, toStoredPath(filePath))
+                .last("LIMIT 1"));
+        if (indexed != null) {
+            if (Objects.equals(indexed.getFileSize(), attrs.size())
+                    && Objects.equals(indexed.getLastModified(), attrs.lastModifiedTime().toMillis())) {
+                log.debug("文件已入库且未变化，跳过: {}", filePath);
+                return null;
+            }
+            log.info("文件已变化，重新提取: {}", filePath);
+            MediaFiles changed = processSingleFile(filePath);
+            changed.setFileId(indexed.getFileId());
+            changed.setFileStatus(null); // 保留原有的文件状态
+            return changed;
+        }
+
+        return processNewFile(filePath);
+    }
+
+    /**
+     * 处理一个确定尚未入库的路径：开启 skip-duplicates 时，内容与已入库文件重复的跳过
+     * @param filePath 文件绝对路径
+     * @return 待插入的记录，跳过时返回 null
+     */
+    public MediaFiles processNewFile(Path filePath) throws Exception {
+        MediaFiles mediaFile = processSingleFile(filePath);
+        if (skipDuplicates && isDuplicate(mediaFile, filePath, IoPriority.BACKGROUND)) {
+            log.warn("文件内容与已入库文件重复，跳过: {}", filePath);
+            return null;
         }
+        return mediaFile;
+    }
+
+    /**
+     * 将一组确定尚未入库的文件通过入库流水线处理并批量写库 (不加载扫描索引，内存占用与文件数量无关)
+     * @param files            待入库的文件，按需逐个读取
+     * @param progressCallback 进度回调
+     * @return 提交入库的文件数
+     * @throws InterruptedException 如果任务被取消
+     */
+    public long indexNewFiles(Iterator<Path> files, ProgressCallback progressCallback) throws InterruptedException {
+        MediaIngestPipeline pipeline = new MediaIngestPipeline(
+                processWorkers, queueCapacity, batchSize, flushIntervalMs,
+                this::processNewFile, mediaFilesBatchWriter::write, progressCallback);
+        return pipeline.run(files);
     }
 
     public MediaFiles processSingleFile(Path filePath) throws Exception {
+        return processSingleFile(filePath, null, IoPriority.BACKGROUND);
+    }
+
+    /**
+     * 处理单个文件：计算哈希并提取元数据
+     * @param filePath 文件绝对路径
+     * @param priority 读取文件内容的 I/O 优先级 (用户等待结果时为交互优先级)
+     * @return 待入库的文件记录
+     */
+    public MediaFiles processSingleFile(Path filePath, IoPriority priority) throws Exception {
+        return processSingleFile(filePath, null, priority);
+    }
+
+    /**
+     * 处理单个文件：计算哈希并提取元数据
+     * @param filePath  文件绝对路径
+     * @param scanIndex 扫描索引，不为 null 且开启 skip-duplicates 时在提取元数据前检查内容是否与已入库文件重复
+     * @param priority  读取文件内容的 I/O 优先级
+     * @return 待入库的文件记录；内容重复时返回 null
+     */
+    private MediaFiles processSingleFile(Path filePath, MediaScanIndex scanIndex, IoPriority priority) throws Exception {
         MediaFiles mediaFile = new MediaFiles();
 
         // -- 修正点 2.2: 计算并存储相对路径
-        Path relativePath = rootPath.relativize(filePath);
-        String storedPath = relativePath.toString().replace('\\', '/'); // 统一路径分隔符
+        String storedPath = toStoredPath(filePath); // 统一路径分隔符
+        BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
 
         mediaFile.setFileName(filePath.getFileName().toString());
         mediaFile.setFilePath(storedPath); // 使用相对路径
-        mediaFile.setFileSize(Files.size(filePath));
-        mediaFile.setMimeType(Files.probeContentType(filePath));
+        mediaFile.setFileSize(attrs.size());
+        mediaFile.setLastModified(attrs.lastModifiedTime().toMillis());
+        mediaFile.setFileKey(fileKeyOf(attrs));
+        // 按文件内容识别类型 (没有扩展名的上传临时文件也能识别)，读取的文件头在提取音视频元数据时复用
+        MediaTypeDetector.Sniffed sniffed = mediaTypeDetector.sniff(filePath, priority);
+        mediaFile.setMimeType(sniffed.mimeType());
         mediaFile.setFileStatus(FileStatus.PENDING_CLASSIFICATION);
         mediaFile.setUpdateTime(System.currentTimeMillis());
-        mediaFile.setFileHash(calculateFileHash(filePath));
+        // 结构化属性在提取元数据时填写；提取失败的文件同样记为已处理，后台补全任务不再重试
+        mediaFile.setAttributesVersion(MediaAttributeExtractor.VERSION);
+        // 只读取头/中/尾三段计算快速指纹，完整哈希只在指纹相同时计算
+        mediaFile.setFingerprint(calculateFingerprint(filePath, priority));
+
+        if (skipDuplicates && scanIndex != null && mediaFile.getFingerprint() != null) {
+            // 布隆过滤器判定不存在时一定不重复，只有可能重复时才查询数据库 (fingerprint 有索引)
+            if (scanIndex.mightContainFingerprint(mediaFile.getFingerprint()) && isDuplicate(mediaFile, filePath, priority)) {
+                log.warn("文件内容与已入库文件重复，跳过: {}", filePath);
+                return null;
+            }
+            scanIndex.addFingerprint(mediaFile.getFingerprint());
+        }
 
         String mimeType = mediaFile.getMimeType();
         if (mimeType != null) {
             if (mimeType.startsWith("image/")) {
                 extractImageMetadata(filePath, mediaFile);
+                mediaFile.setPerceptualHash(calculatePerceptualHash(filePath, priority));
             } else if (mimeType.startsWith("video/")) {
-                extractVideoMetadata(filePath, mediaFile);
+                extractVideoMetadata(filePath, sniffed, mediaFile, priority);
             } else if (mimeType.startsWith("audio/")) {
-                extractVideoMetadata(filePath, mediaFile);
+                extractVideoMetadata(filePath, sniffed, mediaFile, priority);
             }
         }
 
         return mediaFile;
     }
 
-    // -- 修正点 2.3: 查询时也使用相对路径
-    private boolean isAlreadyIndexed(Path filePath) {
-        Path relativePath = rootPath.relativize(filePath);
-        String storedPath = relativePath.toString().replace('\\', '/');
+    /**
+     * 判断文件内容是否与已入库文件重复：先按快速指纹和大小查找候选记录，只有找到候选时才计算完整哈希比较。
+     * 新文件的完整哈希计算后保存在 mediaFile 中一起入库；候选记录还没有完整哈希时，计算后顺便写回数据库。
+     * @param mediaFile 已计算快速指纹的新文件记录
+     * @param filePath  文件绝对路径
+     * @param priority  I/O 优先级
+     * @return 是否与已入库文件内容相同
+     */
+    private boolean isDuplicate(MediaFiles mediaFile, Path filePath, IoPriority priority) throws InterruptedException {
+        if (mediaFile.getFingerprint() == null) {
+            return false;
+        }
+        List<MediaFiles> candidates = mediaFilesMapper.selectList(new LambdaQueryWrapper<MediaFiles>()
+                .select(MediaFiles::getFileId, MediaFiles::getFilePath, MediaFiles::getFileHash)
+                .eq(MediaFiles::getFingerprint, mediaFile.getFingerprint())
+                .eq(MediaFiles::getFileSize, mediaFile.getFileSize()));
+        if (candidates.isEmpty()) {
+            return false;
+        }
+        if (mediaFile.getFileHash() == null) {
+            mediaFile.setFileHash(calculateFileHash(filePath, priority));
+        }
+        if (mediaFile.getFileHash() == null) {
+            return false;
+        }
+        for (MediaFiles candidate : candidates) {
+            String candidateHash = candidate.getFileHash() != null ? candidate.getFileHash() : fillFileHash(candidate, priority);
+            if (mediaFile.getFileHash().equals(candidateHash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 为还没有完整哈希的已入库记录计算哈希并写回数据库
+     * @return 计算出的哈希，文件不存在或读取失败时返回 null
+     */
+    private String fillFileHash(MediaFiles record, IoPriority priority) throws InterruptedException {
+        Path recordPath = rootPath.resolve(record.getFilePath());
+        if (!Files.isRegularFile(recordPath)) {
+            return null;
+        }
+        String fileHash = calculateFileHash(recordPath, priority);
+        if (fileHash != null) {
+            mediaFilesMapper.update(null, new LambdaUpdateWrapper<MediaFiles>()
+                    .eq(MediaFiles::getFileId, record.getFileId())
+                    .set(MediaFiles::getFileHash, fileHash));
+        }
+        return fileHash;
+    }
 
-        return mediaFilesMapper.selectCount(
-                new QueryWrapper<MediaFiles>().eq("file_path", storedPath)
-        ) > 0;
+    /**
+     * 将绝对路径转换为数据库中存储的相对路径
+     */
+    public String toStoredPath(Path filePath) {
+        return rootPath.relativize(filePath).toString().replace('\\', '/');
     }
 
-    private String calculateFileHash(Path filePath) {
-        // ... (这部分代码无需修改)
-        try (FileInputStream fis = new FileInputStream(filePath.toFile())) {
-            return DigestUtils.sha256Hex(fis);
+    /**
+     * 文件系统提供的文件标识，Linux 上为设备号+inode，例如 "(dev=803,ino=1234)"；不支持的文件系统返回 null
+     */
+    public static String fileKeyOf(BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        return fileKey == null ? null : fileKey.toString();
+    }
+
+    private Long calculateFingerprint(Path filePath, IoPriority priority) throws InterruptedException {
+        try {
+            return fileHasher.fingerprint(filePath, priority);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        } catch (IOException e) {
+            log.error("计算文件指纹失败: {}", filePath, e);
+            return null;
+        }
+    }
+
+    private Long calculatePerceptualHash(Path filePath, IoPriority priority) throws InterruptedException {
+        try {
+            return perceptualHasher.hash(filePath, priority);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            // 格式损坏或解码器不支持时不影响入库，只是不参与相似图片查找
+            log.warn("计算图片感知哈希失败: {} ({})", filePath, e.getMessage());
+            return null;
+        }
+    }
+
+    private String calculateFileHash(Path filePath, IoPriority priority) throws InterruptedException {
+        // 读取受全局 I/O 配额控制，避免扫描占满磁盘带宽
+        try {
+            return fileHasher.hash(filePath, priority);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
         } catch (IOException e) {
             log.error("计算文件哈希失败: {}", filePath, e);
             return null;
@@ -142,11 +421,13 @@ public class MediaScannerService {
 
     /**
      * -- 修正点 1: 更健壮的图片元数据提取方法
-     * 依次尝试从 JPEG, PNG, EXIF 等多种元数据目录中获取尺寸信息。
+     * 依次尝试从 JPEG, PNG, EXIF 等多种元数据目录中获取尺寸信息，同时提取拍摄时间和设备型号。
      */
     private void extractImageMetadata(Path filePath, MediaFiles mediaFile) {
         try {
             Metadata metadata = ImageMetadataReader.readMetadata(filePath.toFile());
+            // 拍摄时间和设备型号
+            mediaAttributeExtractor.applyImage(metadata, mediaFile);
 
             // 策略1：尝试从 JpegDirectory 获取 (最常见)
             JpegDirectory jpegDirectory = metadata.getFirstDirectoryOfType(JpegDirectory.class);
@@ -189,39 +470,15 @@ public class MediaScannerService {
     }
 
 
-    private void extractVideoMetadata(Path filePath, MediaFiles mediaFile) {
-        // ... (这部分代码无需修改)
-        String command = String.format("ffprobe -v quiet -print_format json -show_format -show_streams \"%s\"", filePath.toAbsolutePath());
-
+    /**
+     * 提取音视频元数据 (探测结果由 ProbeCache 缓存，文件未变化时不再重复调用 ffprobe)
+     */
+    private void extractVideoMetadata(Path filePath, MediaTypeDetector.Sniffed sniffed, MediaFiles mediaFile, IoPriority priority) {
         try {
-            //判断使用的系统
-            ProcessBuilder processBuilder = null;
-            if (system.equals("windows")) {
-                processBuilder = new ProcessBuilder("cmd.exe", "/c", command);
-            }else{
-                processBuilder = new ProcessBuilder("sh", "-c", command);
-            }
-            // 注意: 在Linux/macOS上，最好使用 "sh", "-c"
-            processBuilder.redirectErrorStream(true);
-
-            Process process = processBuilder.start();
-
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line);
-                }
-            }
-
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                log.error("ffprobe 执行失败，退出码: {}，文件: {}", exitCode, filePath);
-                return;
-            }
-
-            JsonNode rootNode = objectMapper.readTree(output.toString());
+            JsonNode rootNode = probeCache.probe(filePath, sniffed, priority);
             mediaFile.setMetadata(rootNode.toString());
+            // 编码、码率、帧率等写入独立字段，便于按条件查询
+            mediaAttributeExtractor.applyProbe(rootNode, mediaFile);
 
             JsonNode formatNode = rootNode.path("format");
             if (formatNode.has("duration")) {
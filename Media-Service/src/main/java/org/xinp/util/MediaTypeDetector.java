@@ -0,0 +1,264 @@
+package org.xinp.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.IoPriority;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * 按文件内容识别媒体类型 (不依赖扩展名)
+ * 读取文件开头的 HEADER_BYTES 字节，按魔数匹配常见的图片、视频和音频格式，
+ * 可以识别没有扩展名的文件 (如 nginx 上传的临时文件) 和扩展名错误的文件。
+ * 读取的文件头随结果一起返回，提取元数据时直接复用 (见 MediaHeaderParser)，不再重复读取。
+ * 不是已知的媒体格式时才按扩展名判断 (Files.probeContentType)。
+ */
+@Slf4j
+@Service
+public class MediaTypeDetector {
+
+    public static final int HEADER_BYTES = 4096;
+
+    private static final Set<String> HEIF_BRANDS = Set.of("heic", "heix", "hevc", "hevx", "heim", "heis", "mif1", "msf1");
+    private static final Set<String> AVIF_BRANDS = Set.of("avif", "avis");
+    private static final Set<String> MP4_AUDIO_BRANDS = Set.of("M4A ", "M4B ", "M4P ", "F4A ", "F4B ");
+
+    private final IoGovernor ioGovernor;
+
+    public MediaTypeDetector(IoGovernor ioGovernor) {
+        this.ioGovernor = ioGovernor;
+    }
+
+    /**
+     * 文件头识别结果
+     * @param mimeType 媒体类型，无法识别时为 null
+     * @param fileSize 文件大小
+     * @param header   文件开头的内容 (只读，最多 HEADER_BYTES 字节)
+     */
+    public record Sniffed(String mimeType, long fileSize, ByteBuffer header) {
+    }
+
+    /**
+     * 读取文件头并识别媒体类型
+     * @param filePath 文件路径
+     * @param priority 读取的 I/O 优先级
+     * @return 识别结果
+     */
+    public Sniffed sniff(Path filePath, IoPriority priority) throws IOException {
+        ByteBuffer header;
+        long fileSize;
+        try (IoGovernor.FilePermit ignored = ioGovernor.acquireFile(priority);
+             FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            header = ByteBuffer.allocate((int) Math.min(HEADER_BYTES, fileSize));
+            ioGovernor.acquireBytes(header.capacity(), priority);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // 读满文件头或读到文件末尾
+            }
+            header.flip();
+        }
+        String mimeType = detect(header);
+        if (mimeType == null) {
+            mimeType = Files.probeContentType(filePath);
+        }
+        return new Sniffed(mimeType, fileSize, header.asReadOnlyBuffer());
+    }
+
+    /**
+     * 按文件头的魔数识别媒体类型
+     * @param header 文件开头的内容 (从位置 0 开始)
+     * @return 媒体类型；不是已知的媒体格式时返回 null
+     */
+    public static String detect(ByteBuffer header) {
+        int length = header.limit();
+        if (length < 4) {
+            return null;
+        }
+        // ---- 图片 ----
+        if (startsWith(header, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(header, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (ascii(header, 0, 6).equals("GIF87a") || ascii(header, 0, 6).equals("GIF89a")) {
+            return "image/gif";
+        }
+        if (ascii(header, 0, 4).equals("RIFF")) {
+            String riffType = ascii(header, 8, 4);
+            switch (riffType) {
+                case "WEBP":
+                    return "image/webp";
+                case "WAVE":
+                    return "audio/wav";
+                case "AVI ":
+                    return "video/x-msvideo";
+                default:
+                    return null;
+            }
+        }
+        if (startsWith(header, 0, 'I', 'I', 0x2A, 0x00) || startsWith(header, 0, 'M', 'M', 0x00, 0x2A)) {
+            return "image/tiff"; // 也包括 DNG/CR2/NEF 等基于 TIFF 的 RAW 格式
+        }
+        if (ascii(header, 0, 2).equals("BM") && length >= 18 && isBmpInfoHeaderSize(header.getInt(14))) {
+            return "image/bmp";
+        }
+        if (startsWith(header, 0, 0xFF, 0x0A) || startsWith(header, 0, 0x00, 0x00, 0x00, 0x0C, 'J', 'X', 'L', ' ')) {
+            return "image/jxl";
+        }
+
+        // ---- ISO BMFF (MP4/MOV/3GP/M4A/HEIF/AVIF)：按 ftyp 的主品牌和兼容品牌区分 ----
+        String boxType = ascii(header, 4, 4);
+        if (boxType.equals("ftyp")) {
+            return isoBmffType(header);
+        }
+        if (boxType.equals("moov") || boxType.equals("mdat") || boxType.equals("wide") || boxType.equals("free")) {
+            return "video/quicktime"; // 没有 ftyp 的旧版 QuickTime 文件
+        }
+
+        // ---- 其他视频容器 ----
+        if (header.getInt(0) == 0x1A45DFA3) {
+            // EBML 头中的 DocType 区分 WebM 和 Matroska
+            return indexOf(header, "webm") >= 0 ? "video/webm" : "video/x-matroska";
+        }
+        if (ascii(header, 0, 3).equals("FLV")) {
+            return "video/x-flv";
+        }
+        if (startsWith(header, 0, 0x30, 0x26, 0xB2, 0x75, 0x8E, 0x66, 0xCF, 0x11)) {
+            return "video/x-ms-asf";
+        }
+        if (startsWith(header, 0, 0x00, 0x00, 0x01, 0xBA)) {
+            return "video/mpeg";
+        }
+        if (length >= 377 && header.get(0) == 0x47 && header.get(188) == 0x47 && header.get(376) == 0x47) {
+            return "video/mp2t"; // MPEG-TS：每 188 字节一个同步字节
+        }
+
+        // ---- 音频 ----
+        if (ascii(header, 0, 4).equals("fLaC")) {
+            return "audio/flac";
+        }
+        if (ascii(header, 0, 4).equals("OggS")) {
+            return indexOf(header, "theora") >= 0 ? "video/ogg" : "audio/ogg";
+        }
+        if (ascii(header, 0, 4).equals("FORM") && (ascii(header, 8, 4).equals("AIFF") || ascii(header, 8, 4).equals("AIFC"))) {
+            return "audio/aiff";
+        }
+        if (ascii(header, 0, 5).equals("#!AMR")) {
+            return "audio/amr";
+        }
+        if (ascii(header, 0, 4).equals("caff")) {
+            return "audio/x-caf";
+        }
+        if (ascii(header, 0, 3).equals("ID3") && length >= 10) {
+            // ID3v2 标签之后的内容决定实际格式 (标签超出已读取的文件头时按 MP3 处理)
+            int tagSize = ((header.get(6) & 0x7F) << 21) | ((header.get(7) & 0x7F) << 14) | ((header.get(8) & 0x7F) << 7) | (header.get(9) & 0x7F);
+            int audioStart = 10 + tagSize + ((header.get(5) & 0x10) != 0 ? 10 : 0);
+            if (audioStart + 4 <= length && ascii(header, audioStart, 4).equals("fLaC")) {
+                return "audio/flac";
+            }
+            if (audioStart + 2 <= length && isAdts(header, audioStart)) {
+                return "audio/aac";
+            }
+            return "audio/mpeg";
+        }
+        if ((header.get(0) & 0xFF) == 0xFF && (header.get(1) & 0xE0) == 0xE0) {
+            if (isAdts(header, 0)) {
+                return "audio/aac";
+            }
+            int versionBits = (header.get(1) >>> 3) & 3;
+            int layerBits = (header.get(1) >>> 1) & 3;
+            int bitrateIndex = (header.get(2) >>> 4) & 0xF;
+            int sampleRateIndex = (header.get(2) >>> 2) & 3;
+            if (versionBits != 1 && layerBits != 0 && bitrateIndex != 15 && sampleRateIndex != 3) {
+                return "audio/mpeg";
+            }
+        }
+        return null;
+    }
+
+    private static String isoBmffType(ByteBuffer header) {
+        int boxSize = header.getInt(0);
+        String majorBrand = ascii(header, 8, 4);
+        if (majorBrand.equals("qt  ")) {
+            return "video/quicktime";
+        }
+        // 主品牌之后是次版本号和兼容品牌列表
+        int brandsEnd = Math.min(header.limit(), Math.max(16, boxSize));
+        boolean heif = false;
+        for (int offset = 8; offset + 4 <= brandsEnd; offset = offset == 8 ? 16 : offset + 4) {
+            String brand = ascii(header, offset, 4);
+            if (AVIF_BRANDS.contains(brand)) {
+                return "image/avif"; // AVIF 同时兼容 mif1，优先判断
+            }
+            heif |= HEIF_BRANDS.contains(brand);
+        }
+        if (heif) {
+            return "image/heic";
+        }
+        if (MP4_AUDIO_BRANDS.contains(majorBrand)) {
+            return "audio/mp4";
+        }
+        if (majorBrand.startsWith("3g2")) {
+            return "video/3gpp2";
+        }
+        if (majorBrand.startsWith("3g")) {
+            return "video/3gpp";
+        }
+        return "video/mp4";
+    }
+
+    /**
+     * ADTS (裸 AAC) 帧头：帧同步 12 位，层固定为 0
+     */
+    private static boolean isAdts(ByteBuffer header, int offset) {
+        return (header.get(offset) & 0xFF) == 0xFF && (header.get(offset + 1) & 0xF6) == 0xF0;
+    }
+
+    private static boolean isBmpInfoHeaderSize(int littleEndianSize) {
+        int size = Integer.reverseBytes(littleEndianSize);
+        return size == 12 || size == 40 || size == 52 || size == 56 || size == 64 || size == 108 || size == 124;
+    }
+
+    private static boolean startsWith(ByteBuffer header, int offset, int... bytes) {
+        if (offset + bytes.length > header.limit()) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if ((header.get(offset + i) & 0xFF) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ascii(ByteBuffer header, int offset, int length) {
+        if (offset < 0 || offset + length > header.limit()) {
+            return "";
+        }
+        byte[] bytes = new byte[length];
+        header.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int indexOf(ByteBuffer header, String text) {
+        byte[] pattern = text.getBytes(StandardCharsets.ISO_8859_1);
+        outer:
+        for (int i = 0; i + pattern.length <= header.limit(); i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (header.get(i + j) != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,340 @@
+package org.xinp.util;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.FileStatus;
+import org.xinp.entity.MediaFiles;
+import org.xinp.entity.ToolList;
+import org.xinp.mapper.ToolListMapper;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件监听服务：持续监听 TemporaryMedia 和所有分类目录，新文件无需全量扫描即可自动入库
+ * 基于 WatchService (Linux 下为 inotify)，WatchService 不支持递归监听，因此逐个注册每一级子目录，新建的子目录在事件中补注册。
+ * 文件的新建/修改事件只会把文件加入待入库列表并刷新其最后变化时间 (去抖)；
+ * 超过 debounce-ms 没有新事件后读取一次大小和修改时间，再等待一个 debounce-ms 后二者均未变化才认为复制已完成，
+ * 交给入库线程按 processSingleFile 的流程处理，并通过 MediaFilesBatchWriter 批量写库。
+ * 事件溢出 (OVERFLOW) 时重新遍历对应目录，分类目录的增删在 ROOT_REFRESH_INTERVAL_MS 内生效。
+ */
+@Slf4j
+@Service
+public class MediaWatchService {
+
+    private static final String TEMPORARY_MEDIA = "TemporaryMedia";
+    private static final long ROOT_REFRESH_INTERVAL_MS = 60_000;
+
+    private final MediaScannerService mediaScannerService;
+    private final MediaFilesBatchWriter mediaFilesBatchWriter;
+    private final ToolListMapper toolListMapper;
+    private final Path rootPath;
+
+    @Value("${media.watch.enabled:true}")
+    private boolean enabled;
+    @Value("${media.watch.debounce-ms:1000}")
+    private long debounceMs; // 文件最后一次变化后的等待时间 (毫秒)
+
+    // 以下状态只由监听线程访问
+    private WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    private final Map<Path, PendingFile> pendingFiles = new HashMap<>();
+
+    private volatile List<ToolList> tools = List.of();
+    private Thread watchThread;
+    private final ExecutorService indexExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "media-watch-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MediaWatchService(MediaScannerService mediaScannerService, MediaFilesBatchWriter mediaFilesBatchWriter,
+                             ToolListMapper toolListMapper, @Qualifier("projectPath") Path rootPath) {
+        this.mediaScannerService = mediaScannerService;
+        this.mediaFilesBatchWriter = mediaFilesBatchWriter;
+        this.toolListMapper = toolListMapper;
+        this.rootPath = rootPath;
+    }
+
+    /**
+     * 应用启动完成 (数据库已初始化) 后开始监听
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || watchThread != null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            log.error("创建文件监听服务失败，新文件需要手动扫描入库", e);
+            return;
+        }
+        watchThread = new Thread(this::watchLoop, "media-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("文件监听服务已启动");
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (watchThread == null) {
+            return;
+        }
+        watchThread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("关闭文件监听服务失败", e);
+        }
+        indexExecutor.shutdownNow();
+        watchThread = null;
+    }
+
+    private void watchLoop() {
+        long nextRootRefresh = 0;
+        long pollMs = Math.max(100, Math.min(debounceMs, 500));
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (System.currentTimeMillis() >= nextRootRefresh) {
+                    refreshRoots();
+                    nextRootRefresh = System.currentTimeMillis() + ROOT_REFRESH_INTERVAL_MS;
+                }
+                WatchKey key = watchService.poll(pollMs, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handleEvents(key);
+                    key = watchService.poll();
+                }
+                checkPendingFiles();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.info("文件监听服务已停止");
+        } catch (Exception e) {
+            log.error("文件监听服务异常退出", e);
+        }
+    }
+
+    /**
+     * 注册 TemporaryMedia 和所有分类目录 (已注册的目录不会重复注册)
+     */
+    private void refreshRoots() {
+        try {
+            List<ToolList> currentTools = toolListMapper.selectList(null);
+            tools = currentTools;
+            List<Path> roots = new ArrayList<>();
+            roots.add(rootPath.resolve(TEMPORARY_MEDIA));
+            for (ToolList tool : currentTools) {
+                if (tool.getPath() != null && tool.getPath().length() > 1) {
+                    roots.add(rootPath.resolve(tool.getPath().substring(1)).normalize()); // 去掉开头的'/'
+                }
+            }
+            for (Path root : roots) {
+                if (root.startsWith(rootPath) && !watchKeys.containsKey(root) && Files.isDirectory(root)) {
+                    registerTree(root, false);
+                }
+            }
+        } catch (Exception e) {
+            log.error("刷新监听目录失败", e);
+        }
+    }
+
+    /**
+     * 注册目录及其所有子目录
+     * @param dir           目录
+     * @param enqueueFiles  是否把目录下已有的文件加入待入库列表 (新建/移入的目录需要，启动时的已有目录由扫描负责)
+     */
+    private void registerTree(Path dir, boolean enqueueFiles) {
+        List<Path> stack = new ArrayList<>();
+        stack.add(dir);
+        while (!stack.isEmpty()) {
+            Path current = stack.remove(stack.size() - 1);
+            if (watchKeys.containsKey(current)) {
+                continue;
+            }
+            try {
+                WatchKey key = current.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.put(key, current);
+                watchKeys.put(current, key);
+                try (var children = Files.newDirectoryStream(current)) {
+                    for (Path child : children) {
+                        if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                            stack.add(child);
+                        } else if (enqueueFiles && Files.isRegularFile(child, LinkOption.NOFOLLOW_LINKS)) {
+                            markPending(child);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("注册监听目录失败，跳过: {}", current, e);
+            }
+        }
+        log.debug("已监听目录: {}", dir);
+    }
+
+    private void handleEvents(WatchKey key) {
+        Path dir = watchedDirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // 事件过多被丢弃，重新遍历该目录，已入库且未变化的文件在入库时会被跳过
+                log.warn("监听事件溢出，重新检查目录: {}", dir);
+                new MediaFileWalker(dir).forEachRemaining(this::markPending);
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pendingFiles.remove(child);
+            } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    registerTree(child, true);
+                }
+            } else if (Files.isRegularFile(child, LinkOption.NOFOLLOW_LINKS)) {
+                markPending(child);
+            }
+        }
+        if (!key.reset()) {
+            // 目录已被删除
+            Path removed = watchedDirs.remove(key);
+            if (removed != null) {
+                watchKeys.remove(removed);
+            }
+        }
+    }
+
+    private void markPending(Path file) {
+        PendingFile pending = pendingFiles.get(file);
+        if (pending == null) {
+            pendingFiles.put(file, new PendingFile(System.currentTimeMillis()));
+        } else {
+            pending.lastEventAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 找出已经稳定 (大小和修改时间在一个去抖周期内未变化) 的文件，交给入库线程
+     */
+    private void checkPendingFiles() {
+        if (pendingFiles.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Path> stableFiles = new ArrayList<>();
+        Iterator<Map.Entry<Path, PendingFile>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            PendingFile pending = entry.getValue();
+            if (now - pending.lastEventAt < debounceMs) {
+                continue;
+            }
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                iterator.remove(); // 临时文件已被删除或改名
+                continue;
+            } catch (IOException e) {
+                log.warn("读取文件属性失败，放弃入库: {}", entry.getKey(), e);
+                iterator.remove();
+                continue;
+            }
+            long lastModified = attrs.lastModifiedTime().toMillis();
+            if (attrs.size() == pending.size && lastModified == pending.lastModified) {
+                iterator.remove();
+                stableFiles.add(entry.getKey());
+            } else {
+                // 仍在写入 (或第一次检查)，记录当前大小并再等待一个周期
+                pending.size = attrs.size();
+                pending.lastModified = lastModified;
+                pending.lastEventAt = now;
+            }
+        }
+        if (!stableFiles.isEmpty()) {
+            indexExecutor.submit(() -> indexFiles(stableFiles));
+        }
+    }
+
+    /**
+     * 入库线程：提取文件信息并批量写库
+     */
+    private void indexFiles(List<Path> files) {
+        List<MediaFiles> batch = new ArrayList<>(files.size());
+        for (Path file : files) {
+            try {
+                MediaFiles mediaFile = mediaScannerService.processWatchedFile(file);
+                if (mediaFile == null) {
+                    continue;
+                }
+                if (mediaFile.getFileId() == null) {
+                    // 与上传文件一致：分类目录下的文件直接归入该分类，TemporaryMedia 下的文件等待分类
+                    ToolList tool = findTool(mediaFile.getFilePath());
+                    if (tool != null) {
+                        mediaFile.setToolId(tool.getToolId());
+                        mediaFile.setFileStatus(FileStatus.AVAILABLE);
+                    }
+                }
+                batch.add(mediaFile);
+            } catch (NoSuchFileException e) {
+                log.debug("文件在入库前已被删除: {}", file);
+            } catch (Exception e) {
+                log.error("监听入库文件 {} 失败", file, e);
+            }
+        }
+        if (!batch.isEmpty()) {
+            mediaFilesBatchWriter.write(batch);
+            log.info("文件监听自动入库 {} 个文件", batch.size());
+        }
+    }
+
+    /**
+     * 查找文件所属的分类 (路径前缀最长的分类目录)
+     */
+    private ToolList findTool(String storedPath) {
+        String path = "/" + storedPath;
+        ToolList matched = null;
+        for (ToolList tool : tools) {
+            String toolPath = tool.getPath();
+            if (toolPath != null && path.startsWith(toolPath + "/")
+                    && (matched == null || toolPath.length() > matched.getPath().length())) {
+                matched = tool;
+            }
+        }
+        return matched;
+    }
+
+    private static class PendingFile {
+        long lastEventAt;
+        long size = -1;
+        long lastModified = -1;
+
+        PendingFile(long lastEventAt) {
+            this.lastEventAt = lastEventAt;
+        }
+    }
+}
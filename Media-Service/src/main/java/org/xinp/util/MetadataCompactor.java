@@ -0,0 +1,129 @@
+package org.xinp.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.xinp.entity.MediaFiles;
+import org.xinp.entity.ProbeResults;
+import org.xinp.mapper.MediaFilesMapper;
+import org.xinp.mapper.ProbeResultsMapper;
+
+import java.util.List;
+
+/**
+ * 元数据压缩迁移
+ * 旧版本以 TEXT 保存的 media_files.metadata 和 probe_results.probe_result，启动后由这里的后台线程分页读出，
+ * 经 CompressedJsonTypeHandler 压缩后写回 (只更新仍是 TEXT 的值，不覆盖期间重新写入的结果)。
+ * 已压缩的值是 BLOB，通过 typeof() 区分，迁移完成后再次启动时查不到待迁移的记录，直接结束。
+ * 压缩释放的页只是标记为空闲，迁移了记录时按配置执行一次 VACUUM 缩小数据库文件。
+ */
+@Slf4j
+@Service
+public class MetadataCompactor {
+
+    private static final int PAGE_SIZE = 200;
+    private static final String LEGACY_METADATA = "typeof(metadata) = 'text'";
+    private static final String LEGACY_PROBE_RESULT = "typeof(probe_result) = 'text'";
+
+    private final MediaFilesMapper mediaFilesMapper;
+    private final ProbeResultsMapper probeResultsMapper;
+    private final JdbcTemplate jdbcTemplate;
+    @Value("${media.metadata.compact-on-startup:true}")
+    private boolean enabled;
+    @Value("${media.metadata.vacuum-after-compact:true}")
+    private boolean vacuumAfterCompact;
+
+    public MetadataCompactor(MediaFilesMapper mediaFilesMapper, ProbeResultsMapper probeResultsMapper, JdbcTemplate jdbcTemplate) {
+        this.mediaFilesMapper = mediaFilesMapper;
+        this.probeResultsMapper = probeResultsMapper;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 应用启动完成 (数据库已初始化) 后在后台迁移
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread thread = new Thread(this::compact, "media-metadata-compactor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 压缩全部未压缩的记录
+     */
+    public void compact() {
+        try {
+            long compacted = compactMediaFiles() + compactProbeResults();
+            if (compacted == 0) {
+                return;
+            }
+            log.info("元数据压缩迁移完成，共压缩 {} 条记录", compacted);
+            if (vacuumAfterCompact) {
+                long start = System.currentTimeMillis();
+                jdbcTemplate.execute("VACUUM");
+                log.info("数据库 VACUUM 完成，耗时 {} 毫秒", System.currentTimeMillis() - start);
+            }
+        } catch (DataAccessException e) {
+            // 迁移可以随时中断，下次启动时继续
+            log.warn("元数据压缩迁移未完成，下次启动时继续: {}", e.getMessage());
+        }
+    }
+
+    private long compactMediaFiles() {
+        long lastFileId = 0;
+        long compacted = 0;
+        while (true) {
+            List<MediaFiles> page = mediaFilesMapper.selectList(new LambdaQueryWrapper<MediaFiles>()
+                    .select(MediaFiles::getFileId, MediaFiles::getMetadata)
+                    .apply(LEGACY_METADATA)
+                    .gt(MediaFiles::getFileId, lastFileId)
+                    .orderByAsc(MediaFiles::getFileId)
+                    .last("LIMIT " + PAGE_SIZE));
+            if (page.isEmpty()) {
+                return compacted;
+            }
+            for (MediaFiles record : page) {
+                lastFileId = record.getFileId();
+                MediaFiles update = new MediaFiles();
+                update.setMetadata(record.getMetadata()); // 通过实体更新才会经过类型处理器压缩
+                compacted += mediaFilesMapper.update(update, new LambdaUpdateWrapper<MediaFiles>()
+                        .eq(MediaFiles::getFileId, record.getFileId())
+                        .apply(LEGACY_METADATA));
+            }
+        }
+    }
+
+    private long compactProbeResults() {
+        String lastCacheKey = "";
+        long compacted = 0;
+        while (true) {
+            List<ProbeResults> page = probeResultsMapper.selectList(new LambdaQueryWrapper<ProbeResults>()
+                    .select(ProbeResults::getCacheKey, ProbeResults::getProbeResult)
+                    .apply(LEGACY_PROBE_RESULT)
+                    .gt(ProbeResults::getCacheKey, lastCacheKey)
+                    .orderByAsc(ProbeResults::getCacheKey)
+                    .last("LIMIT " + PAGE_SIZE));
+            if (page.isEmpty()) {
+                return compacted;
+            }
+            for (ProbeResults record : page) {
+                lastCacheKey = record.getCacheKey();
+                ProbeResults update = new ProbeResults();
+                update.setProbeResult(record.getProbeResult());
+                compacted += probeResultsMapper.update(update, new LambdaUpdateWrapper<ProbeResults>()
+                        .eq(ProbeResults::getCacheKey, record.getCacheKey())
+                        .apply(LEGACY_PROBE_RESULT));
+            }
+        }
+    }
+}
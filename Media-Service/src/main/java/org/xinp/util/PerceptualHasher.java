@@ -0,0 +1,160 @@
+package org.xinp.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.IoPriority;
+import org.xinp.constant.PerceptualHashAlgorithm;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 图片感知哈希计算
+ * 缩放、重新压缩后的图片完整哈希 (file_hash) 完全不同，感知哈希只与图片的整体明暗结构有关，
+ * 相似图片的哈希汉明距离小，配合 {@link SimilarImageIndex} 查找近似重复的图片。
+ * 解码时按比例降采样 (只解码约 SAMPLE_TARGET 像素宽的图片)，大图不需要完整解码到内存。读取受全局 I/O 配额控制。
+ * 注意：修改算法后新旧记录的感知哈希不可比较。
+ */
+@Service
+public class PerceptualHasher {
+
+    // 降采样后图片短边的目标像素数，远大于哈希使用的 32x32，保证缩小时的平均效果
+    private static final int SAMPLE_TARGET = 128;
+    private static final int DCT_SIZE = 32;
+    private static final int DCT_LOW = 8;
+    // 一维 DCT-II 系数：DCT_COS[u][x] = cos((2x+1)uπ / 2N)
+    private static final double[][] DCT_COS = new double[DCT_LOW][DCT_SIZE];
+
+    static {
+        for (int u = 0; u < DCT_LOW; u++) {
+            for (int x = 0; x < DCT_SIZE; x++) {
+                DCT_COS[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * DCT_SIZE));
+            }
+        }
+    }
+
+    private final IoGovernor ioGovernor;
+    private final PerceptualHashAlgorithm algorithm;
+
+    public PerceptualHasher(IoGovernor ioGovernor,
+                            @Value("${media.similar.algorithm:PHASH}") PerceptualHashAlgorithm algorithm) {
+        this.ioGovernor = ioGovernor;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * 计算图片的感知哈希
+     * @param filePath 图片路径
+     * @param priority I/O 优先级
+     * @return 64 位感知哈希；格式不支持 (例如 HEIC、WebP) 或无法解码时返回 null
+     * @throws java.io.InterruptedIOException 如果读取时线程被中断 (保留中断标记)
+     */
+    public Long hash(Path filePath, IoPriority priority) throws IOException {
+        BufferedImage image = decodeSubsampled(filePath, priority);
+        if (image == null) {
+            return null;
+        }
+        return algorithm == PerceptualHashAlgorithm.DHASH ? dHash(image) : pHash(image);
+    }
+
+    /**
+     * 差异哈希：9x8 灰度图中每个像素是否比右侧像素亮
+     */
+    static long dHash(BufferedImage image) {
+        int[] gray = toGray(image, 9, 8);
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                hash = (hash << 1) | (gray[y * 9 + x] > gray[y * 9 + x + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 感知哈希：32x32 灰度图二维 DCT 的左上角 8x8 低频系数是否大于中位数 (中位数不含直流分量)
+     */
+    static long pHash(BufferedImage image) {
+        int[] gray = toGray(image, DCT_SIZE, DCT_SIZE);
+        // 先对每行做一维 DCT 得到低频部分 (DCT_SIZE x DCT_LOW)，再对列做一维 DCT
+        double[] rows = new double[DCT_SIZE * DCT_LOW];
+        for (int y = 0; y < DCT_SIZE; y++) {
+            for (int u = 0; u < DCT_LOW; u++) {
+                double sum = 0;
+                for (int x = 0; x < DCT_SIZE; x++) {
+                    sum += gray[y * DCT_SIZE + x] * DCT_COS[u][x];
+                }
+                rows[y * DCT_LOW + u] = sum;
+            }
+        }
+        double[] coefficients = new double[DCT_LOW * DCT_LOW];
+        for (int v = 0; v < DCT_LOW; v++) {
+            for (int u = 0; u < DCT_LOW; u++) {
+                double sum = 0;
+                for (int y = 0; y < DCT_SIZE; y++) {
+                    sum += rows[y * DCT_LOW + u] * DCT_COS[v][y];
+                }
+                coefficients[v * DCT_LOW + u] = sum;
+            }
+        }
+        double[] ac = Arrays.copyOfRange(coefficients, 1, coefficients.length);
+        Arrays.sort(ac);
+        double median = (ac[ac.length / 2 - 1] + ac[ac.length / 2]) / 2;
+        long hash = 0;
+        for (double coefficient : coefficients) {
+            hash = (hash << 1) | (coefficient > median ? 1 : 0);
+        }
+        return hash;
+    }
+
+    /**
+     * 解码图片，按比例降采样到短边约 SAMPLE_TARGET 像素
+     */
+    private BufferedImage decodeSubsampled(Path filePath, IoPriority priority) throws IOException {
+        try (InputStream in = ioGovernor.newInputStream(filePath, priority);
+             // 图片数据缓存在内存中 (ImageIO 默认缓存到临时文件)
+             ImageInputStream imageIn = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageIn);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageIn, true, true);
+                int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / SAMPLE_TARGET);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 缩放为指定尺寸的灰度图
+     * @return 按行排列的亮度值 (0-255)
+     */
+    private static int[] toGray(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled.getRaster().getPixels(0, 0, width, height, (int[]) null);
+    }
+}
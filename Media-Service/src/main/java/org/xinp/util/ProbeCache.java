@@ -0,0 +1,142 @@
+package org.xinp.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.xinp.constant.IoPriority;
+import org.xinp.entity.ProbeResults;
+import org.xinp.mapper.ProbeResultsMapper;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 媒体探测结果缓存 (ffprobe 每次都要启动一个进程)
+ * 扫描入库、视频规范化、转码输出入库都通过这里探测，未变化的文件只探测一次：
+ * 1. 内存中按最近使用保留 memory-entries 条结果；
+ * 2. 所有结果保存在 probe_results 表中，应用重启后仍然有效。
+ * 常见容器 (MP4/MOV、Matroska/WebM、MP3、FLAC、WAV) 先由 MediaHeaderParser 直接解析文件头，不启动进程也不读写缓存；
+ * 无法解析的文件才调用 ffprobe 并缓存结果。
+ * 结果以文件标识 (设备号+inode，文件系统不支持时为相对路径) 为键，文件在同一文件系统内移动、重命名后仍可命中；
+ * 文件大小或修改时间与探测时不一致时重新探测并覆盖旧结果。
+ */
+@Slf4j
+@Service
+public class ProbeCache {
+
+    private final FfmpegService ffmpegService;
+    private final MediaHeaderParser mediaHeaderParser;
+    private final ProbeResultsMapper probeResultsMapper;
+    private final ObjectMapper objectMapper;
+    private final Path rootPath;
+    private final Map<String, ProbeResults> memoryCache; // 由自身的锁保护
+
+    public ProbeCache(FfmpegService ffmpegService, MediaHeaderParser mediaHeaderParser, ProbeResultsMapper probeResultsMapper, ObjectMapper objectMapper,
+                      @Qualifier("projectPath") Path rootPath,
+                      @Value("${media.probe.memory-entries:10000}") int memoryEntries) {
+        this.ffmpegService = ffmpegService;
+        this.mediaHeaderParser = mediaHeaderParser;
+        this.probeResultsMapper = probeResultsMapper;
+        this.objectMapper = objectMapper;
+        this.rootPath = rootPath;
+        this.memoryCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ProbeResults> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    /**
+     * 获取文件的探测结果：能直接解析文件头时不调用 ffprobe，否则文件未变化时使用缓存
+     * @param filePath 文件绝对路径
+     * @return ffprobe 输出 (format 和 streams) 的JSON根节点
+     * @throws RuntimeException 如果读取文件属性或 ffprobe 执行失败
+     */
+    public JsonNode probe(Path filePath) throws InterruptedException {
+        return probe(filePath, null, IoPriority.BACKGROUND);
+    }
+
+    /**
+     * 获取文件的探测结果，复用识别媒体类型时已读取的文件头
+     * @param filePath 文件绝对路径
+     * @param sniffed  MediaTypeDetector 的识别结果，为 null 时从文件读取
+     * @param priority 解析文件头的 I/O 优先级
+     * @return ffprobe 输出 (format 和 streams) 的JSON根节点
+     * @throws RuntimeException 如果读取文件属性或 ffprobe 执行失败
+     */
+    public JsonNode probe(Path filePath, MediaTypeDetector.Sniffed sniffed, IoPriority priority) throws InterruptedException {
+        JsonNode parsed;
+        try {
+            parsed = mediaHeaderParser.parse(filePath, sniffed, priority);
+        } catch (InterruptedIOException e) {
+            throw new InterruptedException(e.getMessage());
+        }
+        if (parsed != null) {
+            return parsed;
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取文件属性失败: " + filePath, e);
+        }
+        String cacheKey = cacheKeyOf(filePath, attrs);
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+
+        ProbeResults cached;
+        synchronized (memoryCache) {
+            cached = memoryCache.get(cacheKey);
+        }
+        if (cached == null) {
+            cached = probeResultsMapper.selectById(cacheKey);
+        }
+        if (cached != null && Objects.equals(cached.getFileSize(), size) && Objects.equals(cached.getLastModified(), lastModified)) {
+            remember(cached);
+            try {
+                return objectMapper.readTree(cached.getProbeResult());
+            } catch (JsonProcessingException e) {
+                log.warn("探测结果缓存已损坏，重新探测: {}", filePath);
+            }
+        }
+
+        JsonNode probeResult = ffmpegService.probe(filePath);
+        ProbeResults fresh = new ProbeResults();
+        fresh.setCacheKey(cacheKey);
+        fresh.setFileSize(size);
+        fresh.setLastModified(lastModified);
+        fresh.setProbeResult(probeResult.toString());
+        fresh.setUpdateTime(System.currentTimeMillis());
+        probeResultsMapper.upsert(fresh);
+        remember(fresh);
+        return probeResult;
+    }
+
+    private void remember(ProbeResults probeResults) {
+        synchronized (memoryCache) {
+            memoryCache.put(probeResults.getCacheKey(), probeResults);
+        }
+    }
+
+    private String cacheKeyOf(Path filePath, BasicFileAttributes attrs) {
+        String fileKey = MediaScannerService.fileKeyOf(attrs);
+        if (fileKey != null) {
+            return "key:" + fileKey;
+        }
+        Path absolutePath = filePath.toAbsolutePath().normalize();
+        Path relativePath = absolutePath.startsWith(rootPath) ? rootPath.relativize(absolutePath) : absolutePath;
+        return "path:" + relativePath.toString().replace('\\', '/');
+    }
+}
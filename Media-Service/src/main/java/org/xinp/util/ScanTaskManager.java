@@ -1,110 +1,396 @@
 package org.xinp.util;
 
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.xinp.constant.ReconcilePolicy;
+import org.xinp.entity.ScanSessions;
+import org.xinp.mapper.ScanSessionsMapper;
+import org.xinp.pojo.ReconcileReport;
 import org.xinp.pojo.ScanProgress;
+import org.xinp.constant.ScanMode;
 import org.xinp.constant.ScanStatus;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 扫描任务管理器
+ * 每次扫描对应数据库中的一个扫描会话 (scan_sessions)，会话ID即扫描ID。扫描过程中定期记录已提交位置作为断点，
+ * 取消、失败或应用重启后可以从断点继续，不必重新遍历和处理断点之前的文件。
+ * 多个扫描可以同时运行，每个扫描有独立的进度、取消句柄和工作线程数，但扫描目录不能互相重叠 (同一目录或父子目录)；
+ * 对账任务同样参与目录重叠检查，同一时间只运行一个对账任务。
  */
 @Service
 @Slf4j
 public class ScanTaskManager {
 
     private final MediaScannerService mediaScannerService;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor(); // 确保一次只有一个扫描任务
+    private final MediaReconciler mediaReconciler;
+    private final ScanSessionsMapper scanSessionsMapper;
+    private final Path rootPath;
+    @Value("${media.scan.resume-on-startup:true}")
+    private boolean resumeOnStartup; // 应用启动时是否自动继续上次未完成的扫描
+    @Value("${media.scan.max-concurrent-scans:4}")
+    private int maxConcurrentScans; // 同时运行的扫描/对账任务数上限
 
-    // 使用AtomicReference来保证对ScanProgress对象的读写是线程安全的
-    private final AtomicReference<ScanProgress> progressRef = new AtomicReference<>(new ScanProgress(ScanStatus.IDLE, 0, 0, 0, "", "扫描服务已就绪"));
-    
-    // 用于持有正在运行的任务，以便可以取消它
-    private volatile Future<?> scanTaskFuture;
+    private final AtomicInteger threadCounter = new AtomicInteger(1);
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "media-scan-task-" + threadCounter.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    public ScanTaskManager(MediaScannerService mediaScannerService) {
+    // 运行中和最近结束的扫描：扫描ID (会话ID) -> 任务句柄
+    private final Map<Long, ScanHandle> scans = new ConcurrentHashMap<>();
+    // 当前/最近一次的对账任务
+    private volatile ScanHandle reconcileHandle;
+    // 最近启动的任务，未指定扫描ID时查询进度和取消的对象
+    private volatile ScanHandle latestHandle;
+
+    // 最近一次完成的对账报告
+    private final AtomicReference<ReconcileReport> lastReconcileReport = new AtomicReference<>();
+
+    public ScanTaskManager(MediaScannerService mediaScannerService, MediaReconciler mediaReconciler,
+                           ScanSessionsMapper scanSessionsMapper, @Qualifier("projectPath") Path rootPath) {
         this.mediaScannerService = mediaScannerService;
+        this.mediaReconciler = mediaReconciler;
+        this.scanSessionsMapper = scanSessionsMapper;
+        this.rootPath = rootPath;
     }
 
     /**
      * 启动一个新的扫描任务。
      * @param directoryPath 要扫描的目录
-     * @throws IllegalStateException 如果当前已有任务正在运行
+     * @param scanMode 扫描模式 (全量/增量)
+     * @param processWorkers 本次扫描的哈希/元数据提取工作线程数，不大于 0 时使用默认配置
+     * @return 扫描ID (扫描会话ID)，用于查询进度、取消和继续扫描
+     * @throws IllegalStateException 如果目录与正在运行的任务重叠，或同时运行的任务数已达上限
+     */
+    public synchronized Long startScan(Path directoryPath, ScanMode scanMode, int processWorkers) {
+        checkRootAvailable(directoryPath);
+        long now = System.currentTimeMillis();
+        ScanSessions session = new ScanSessions();
+        session.setScanPath(mediaScannerService.toStoredPath(directoryPath));
+        session.setScanMode(scanMode);
+        session.setStatus(ScanStatus.RUNNING);
+        session.setProcessedFiles(0L);
+        session.setCreateTime(now);
+        session.setUpdateTime(now);
+        scanSessionsMapper.insert(session);
+        runSession(session, directoryPath, processWorkers);
+        return session.getSessionId();
+    }
+
+    /**
+     * 从断点继续一个未完成的扫描会话。
+     * @param sessionId 扫描会话ID，为 null 时继续最近一个未完成且未在运行的会话
+     * @param processWorkers 本次扫描的哈希/元数据提取工作线程数，不大于 0 时使用默认配置
+     * @return 扫描ID (扫描会话ID)
+     * @throws IllegalStateException 如果该会话正在运行、目录与正在运行的任务重叠，或同时运行的任务数已达上限
+     * @throws IllegalArgumentException 如果没有可以继续的扫描会话
+     */
+    public synchronized Long resumeScan(Long sessionId, int processWorkers) {
+        ScanSessions session;
+        if (sessionId != null) {
+            session = scanSessionsMapper.selectById(sessionId);
+            if (session != null && isRunning(scans.get(sessionId))) {
+                throw new IllegalStateException("扫描任务 " + sessionId + " 正在运行中，请勿重复启动！");
+            }
+        } else {
+            session = scanSessionsMapper.selectList(new LambdaQueryWrapper<ScanSessions>()
+                            .ne(ScanSessions::getStatus, ScanStatus.COMPLETED)
+                            .orderByDesc(ScanSessions::getSessionId)).stream()
+                    .filter(candidate -> !isRunning(scans.get(candidate.getSessionId())))
+                    .findFirst().orElse(null);
+        }
+        if (session == null || session.getStatus() == ScanStatus.COMPLETED) {
+            throw new IllegalArgumentException("没有可以继续的扫描任务");
+        }
+        Path directoryPath = rootPath.resolve(session.getScanPath()).normalize();
+        checkRootAvailable(directoryPath);
+        log.info("继续扫描会话 {}: {}，断点: {}，已处理 {} 个文件", session.getSessionId(), session.getScanPath(),
+                session.getCursorPath(), session.getProcessedFiles());
+        updateSession(session.getSessionId(), ScanStatus.RUNNING, "继续扫描");
+        runSession(session, directoryPath, processWorkers);
+        return session.getSessionId();
+    }
+
+    /**
+     * 应用启动完成后，自动继续上次因应用停止而中断的扫描 (状态仍为 RUNNING 的会话)
      */
-    public void startScan(Path directoryPath) {
-        // 使用compareAndSet确保只有一个线程可以启动任务
-        if (!progressRef.get().getStatus().equals(ScanStatus.IDLE) &&
-            !progressRef.get().getStatus().equals(ScanStatus.COMPLETED) &&
-            !progressRef.get().getStatus().equals(ScanStatus.FAILED) &&
-            !progressRef.get().getStatus().equals(ScanStatus.CANCELED)) {
-            throw new IllegalStateException("扫描任务正在运行中，请勿重复启动！");
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedScan() {
+        if (!resumeOnStartup) {
+            return;
+        }
+        List<ScanSessions> interrupted = scanSessionsMapper.selectList(new LambdaQueryWrapper<ScanSessions>()
+                .eq(ScanSessions::getStatus, ScanStatus.RUNNING)
+                .orderByDesc(ScanSessions::getSessionId));
+        for (ScanSessions session : interrupted) {
+            try {
+                resumeScan(session.getSessionId(), 0);
+                log.info("应用重启，自动继续未完成的扫描会话 {}", session.getSessionId());
+            } catch (IllegalStateException e) {
+                // 与更新的会话目录重叠或超过并发上限，保留断点并标记为已取消，之后可以手动继续
+                updateSession(session.getSessionId(), ScanStatus.CANCELED, "应用重启时未完成: " + e.getMessage());
+            } catch (Exception e) {
+                log.error("自动继续扫描会话 {} 失败", session.getSessionId(), e);
+            }
         }
-        
-        // 重置进度并设置为RUNNING状态
-        progressRef.set(new ScanProgress(ScanStatus.RUNNING, 0, 0, 0, "", "正在初始化扫描..."));
+    }
+
+    /**
+     * 启动一个对账任务 (参与目录重叠检查，同一时间只运行一个对账任务)。
+     * @param directoryPath 要对账的目录
+     * @param policy 文件缺失时的处理策略
+     * @throws IllegalStateException 如果已有对账任务在运行、目录与正在运行的任务重叠，或同时运行的任务数已达上限
+     */
+    public synchronized void startReconcile(Path directoryPath, ReconcilePolicy policy) {
+        if (isRunning(reconcileHandle)) {
+            throw new IllegalStateException("对账任务正在运行中，请勿重复启动！");
+        }
+        checkRootAvailable(directoryPath);
+        ScanHandle handle = new ScanHandle(null, directoryPath, "对账");
+        reconcileHandle = handle;
+        submit(handle, callback -> {
+            ReconcileReport report = mediaReconciler.reconcile(directoryPath, policy, callback);
+            lastReconcileReport.set(report);
+            return report.summary();
+        });
+    }
+
+    /**
+     * 运行扫描会话：从会话的断点开始扫描，扫描过程中记录检查点，结束时更新会话状态
+     */
+    private void runSession(ScanSessions session, Path directoryPath, int processWorkers) {
+        Long sessionId = session.getSessionId();
+        long resumedFiles = session.getProcessedFiles() == null ? 0 : session.getProcessedFiles();
+        ScanHandle handle = new ScanHandle(sessionId, directoryPath, "扫描");
+        scans.put(sessionId, handle);
+        submit(handle, callback -> {
+            // 进度包含断点之前已处理的文件
+            MediaScannerService.ProgressCallback resumedCallback = (total, processed, currentFile, percentage) -> {
+                long resumedTotal = resumedFiles + total;
+                long resumedProcessed = resumedFiles + processed;
+                callback.onProgress(resumedTotal, resumedProcessed, currentFile,
+                        resumedTotal > 0 ? (int) (100.0 * resumedProcessed / resumedTotal) : 0);
+            };
+            MediaIngestPipeline.CheckpointListener checkpointListener = (lastCommittedFile, committedFiles) ->
+                    scanSessionsMapper.update(null, new LambdaUpdateWrapper<ScanSessions>()
+                            .eq(ScanSessions::getSessionId, sessionId)
+                            .set(ScanSessions::getCursorPath, directoryPath.relativize(lastCommittedFile).toString().replace('\\', '/'))
+                            .set(ScanSessions::getProcessedFiles, resumedFiles + committedFiles)
+                            .set(ScanSessions::getUpdateTime, System.currentTimeMillis()));
+            try {
+                mediaScannerService.scanAndIndexDirectory(directoryPath, session.getScanMode(), session.getCursorPath(),
+                        processWorkers, resumedCallback, checkpointListener);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+            } catch (InterruptedException e) {
+                updateSession(sessionId, ScanStatus.CANCELED, "扫描任务已被用户取消，可从断点继续。");
+                throw e;
+            } catch (Exception e) {
+                updateSession(sessionId, ScanStatus.FAILED, "扫描失败: " + e.getMessage());
+                throw e;
+            }
+            updateSession(sessionId, ScanStatus.COMPLETED, "全部文件扫描完成。");
+            return "全部文件扫描完成。";
+        });
+    }
+
+    /**
+     * 更新扫描会话状态 (取消时调用线程处于中断状态，先暂时清除中断标记，避免获取数据库连接失败)
+     */
+    private void updateSession(Long sessionId, ScanStatus status, String message) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            scanSessionsMapper.update(null, new LambdaUpdateWrapper<ScanSessions>()
+                    .eq(ScanSessions::getSessionId, sessionId)
+                    .set(ScanSessions::getStatus, status)
+                    .set(ScanSessions::getMessage, message)
+                    .set(ScanSessions::getUpdateTime, System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.error("更新扫描会话 {} 状态失败", sessionId, e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 检查目录能否开始新任务 (调用方需持有本对象的锁)，同时清理已结束的扫描句柄 (其进度可从扫描会话中查询)
+     * @throws IllegalStateException 如果目录与正在运行的任务重叠，或同时运行的任务数已达上限
+     */
+    private void checkRootAvailable(Path directoryPath) {
+        scans.values().removeIf(handle -> !isRunning(handle) && handle != latestHandle);
+        List<ScanHandle> running = new ArrayList<>();
+        for (ScanHandle handle : scans.values()) {
+            if (isRunning(handle)) {
+                running.add(handle);
+            }
+        }
+        if (isRunning(reconcileHandle)) {
+            running.add(reconcileHandle);
+        }
+        if (running.size() >= Math.max(1, maxConcurrentScans)) {
+            throw new IllegalStateException("同时运行的扫描任务已达上限 (" + maxConcurrentScans + ")，请稍后再试！");
+        }
+        Path root = directoryPath.normalize();
+        for (ScanHandle handle : running) {
+            if (root.startsWith(handle.root) || handle.root.startsWith(root)) {
+                throw new IllegalStateException("目录与正在运行的" + handle.taskName + "任务"
+                        + (handle.scanId == null ? "" : " " + handle.scanId) + " 重叠: " + handle.root);
+            }
+        }
+    }
+
+    private static boolean isRunning(ScanHandle handle) {
+        return handle != null && handle.progress.get().getStatus() == ScanStatus.RUNNING;
+    }
+
+    /**
+     * 提交任务到线程池，并在任务结束时更新该任务的进度状态
+     * @param handle 任务句柄
+     * @param job 任务内容，返回完成时的状态信息
+     */
+    private void submit(ScanHandle handle, ScanJob job) {
+        String taskName = handle.taskName;
+        AtomicReference<ScanProgress> progressRef = handle.progress;
+        latestHandle = handle;
 
         // 将任务提交到线程池执行
-        scanTaskFuture = executor.submit(() -> {
+        handle.future = executor.submit(() -> {
             try {
                 // 定义进度回调，用于更新AtomicReference中的progress对象
                 MediaScannerService.ProgressCallback callback = (total, processed, currentFile, percentage) -> {
                     ScanProgress currentProgress = new ScanProgress(
-                            ScanStatus.RUNNING, total, processed, percentage, currentFile, "正在扫描: " + currentFile
+                            ScanStatus.RUNNING, total, processed, percentage, currentFile, "正在" + taskName + ": " + currentFile, handle.scanId
                     );
                     progressRef.set(currentProgress);
                 };
-                
-                // 执行扫描
-                mediaScannerService.scanAndIndexDirectory(directoryPath, callback);
-                
+
+                // 执行任务
+                String completedMessage = job.run(callback);
+
                 // 检查任务是否被中途取消
                 if (Thread.currentThread().isInterrupted()) {
                     throw new InterruptedException();
                 }
 
                 // 正常完成
-                progressRef.set(new ScanProgress(ScanStatus.COMPLETED, 
-                        progressRef.get().getTotalFiles(), progressRef.get().getTotalFiles(), 100, "", "全部文件扫描完成。"));
-                log.info("扫描任务成功完成。");
+                progressRef.set(new ScanProgress(ScanStatus.COMPLETED,
+                        progressRef.get().getTotalFiles(), progressRef.get().getTotalFiles(), 100, "", completedMessage, handle.scanId));
+                log.info("{}任务成功完成。", taskName);
 
             } catch (InterruptedException e) {
                 // 任务被取消
-                progressRef.set(new ScanProgress(ScanStatus.CANCELED, 
-                        progressRef.get().getTotalFiles(), progressRef.get().getProcessedFiles(), progressRef.get().getPercentage(), "", "扫描任务已被用户取消。"));
-                log.warn("扫描任务被取消。");
+                progressRef.set(new ScanProgress(ScanStatus.CANCELED,
+                        progressRef.get().getTotalFiles(), progressRef.get().getProcessedFiles(), progressRef.get().getPercentage(), "", taskName + "任务已被用户取消。", handle.scanId));
+                log.warn("{}任务被取消。", taskName);
                 Thread.currentThread().interrupt(); // 保持中断状态
             } catch (Exception e) {
                 // 发生其他错误
-                progressRef.set(new ScanProgress(ScanStatus.FAILED, 
-                        progressRef.get().getTotalFiles(), progressRef.get().getProcessedFiles(), progressRef.get().getPercentage(), "", "扫描失败: " + e.getMessage()));
-                log.error("扫描任务执行失败。", e);
+                progressRef.set(new ScanProgress(ScanStatus.FAILED,
+                        progressRef.get().getTotalFiles(), progressRef.get().getProcessedFiles(), progressRef.get().getPercentage(), "", taskName + "失败: " + e.getMessage(), handle.scanId));
+                log.error("{}任务执行失败。", taskName, e);
             }
         });
     }
 
     /**
      * 取消正在进行的扫描任务。
+     * @param scanId 扫描ID，为 null 时取消最近启动的任务
      */
-    public void cancelScan() {
-        if (scanTaskFuture != null && !scanTaskFuture.isDone()) {
-            log.info("收到取消扫描任务的请求...");
+    public void cancelScan(Long scanId) {
+        ScanHandle handle = scanId == null ? latestHandle : scans.get(scanId);
+        Future<?> future = handle == null ? null : handle.future;
+        if (future != null && !future.isDone()) {
+            log.info("收到取消{}任务的请求...", handle.taskName);
             // true参数会尝试中断正在执行的线程
-            scanTaskFuture.cancel(true);
+            future.cancel(true);
         } else {
             log.warn("没有正在运行的扫描任务可以取消。");
         }
     }
 
     /**
-     * 获取当前的扫描进度。
-     * @return ScanProgress 包含当前所有进度信息的对象
+     * 获取扫描进度。
+     * @param scanId 扫描ID，为 null 时返回最近启动的任务的进度
+     * @return ScanProgress 包含当前所有进度信息的对象；扫描ID不存在时返回 null
+     */
+    public ScanProgress getProgress(Long scanId) {
+        if (scanId == null) {
+            ScanHandle handle = latestHandle;
+            return handle != null ? handle.progress.get() : new ScanProgress(ScanStatus.IDLE, 0, 0, 0, "", "扫描服务已就绪", null);
+        }
+        ScanHandle handle = scans.get(scanId);
+        if (handle != null) {
+            return handle.progress.get();
+        }
+        // 已结束并被清理的扫描，或应用重启前的扫描，从扫描会话中读取
+        ScanSessions session = scanSessionsMapper.selectById(scanId);
+        if (session == null) {
+            return null;
+        }
+        long processed = session.getProcessedFiles() == null ? 0 : session.getProcessedFiles();
+        return new ScanProgress(session.getStatus(), processed, processed, session.getStatus() == ScanStatus.COMPLETED ? 100 : 0,
+                "", session.getMessage(), scanId);
+    }
+
+    /**
+     * 获取最近一次完成的对账报告。
+     * @return 对账报告，尚未完成过对账时为 null
+     */
+    public ReconcileReport getLastReconcileReport() {
+        return lastReconcileReport.get();
+    }
+
+    /**
+     * 单个任务的句柄：进度、取消句柄和任务目录
+     */
+    private static class ScanHandle {
+        private final Long scanId; // 扫描ID，对账任务为 null
+        private final Path root;
+        private final String taskName;
+        // 使用AtomicReference来保证对ScanProgress对象的读写是线程安全的
+        private final AtomicReference<ScanProgress> progress = new AtomicReference<>();
+        // 用于持有正在运行的任务，以便可以取消它
+        private volatile Future<?> future;
+
+        ScanHandle(Long scanId, Path root, String taskName) {
+            this.scanId = scanId;
+            this.root = root.normalize();
+            this.taskName = taskName;
+            // 创建句柄时即为RUNNING状态，登记后立即参与目录重叠检查
+            this.progress.set(new ScanProgress(ScanStatus.RUNNING, 0, 0, 0, "", "正在初始化" + taskName + "...", scanId));
+        }
+    }
+
+    /**
+     * 在任务线程中执行的任务
      */
-    public ScanProgress getCurrentProgress() {
-        return progressRef.get();
+    @FunctionalInterface
+    private interface ScanJob {
+        /**
+         * @param callback 进度回调
+         * @return 任务完成时的状态信息
+         */
+        String run(MediaScannerService.ProgressCallback callback) throws InterruptedException;
     }
-}
\ No newline at end of file
+}
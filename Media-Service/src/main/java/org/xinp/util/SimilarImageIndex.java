@@ -0,0 +1,304 @@
+package org.xinp.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.xinp.entity.MediaFiles;
+import org.xinp.mapper.MediaFilesMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 相似图片索引 (多索引哈希，按汉明距离查找感知哈希相近的图片)
+ * 64 位感知哈希分为 4 段 16 位，每段一张哈希表，桶号即段值。两个哈希的距离不超过 k 时，由抽屉原理至少有一段的距离不超过 k/4，
+ * 因此每张表只需枚举与查询段距离不超过 k/4 的桶，再对桶中的候选计算完整距离：k 不超过 7 时每张表只查 17 个桶，
+ * 百万张图片 (每桶约 15 条) 一次查询只比较约一千个候选，不需要遍历全部哈希。
+ * 索引只保存在内存中：启动后按 file_id 分页加载，之后查询前增量加载新入库的记录 (最多每秒一次)；
+ * 已入库记录的哈希变化时由写入方调用 {@link #remove} 移除旧哈希、{@link #add} 加入新哈希，文件删除、移入回收站或标记为重复副本时调用 {@link #remove}。
+ * 索引与数据库之间仍可能短暂不一致 (例如在应用外修改了数据库)，查询结果需要以数据库中的记录为准再过滤一次。
+ */
+@Slf4j
+@Service
+public class SimilarImageIndex {
+
+    private static final int SEGMENTS = 4;
+    private static final int SEGMENT_BITS = 16;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private static final int LOAD_PAGE_SIZE = 10000;
+    // 查询前增量加载的最短间隔，新入库的图片最多延迟这么久才能被查到
+    private static final long CATCH_UP_INTERVAL_MS = 1000;
+
+    private final MediaFilesMapper mediaFilesMapper;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock loadLock = new ReentrantLock(); // 同一时间只有一个线程从数据库加载
+    // 条目按插入顺序存放，桶中保存条目下标
+    private long[] hashes = new long[1024];
+    private long[] fileIds = new long[1024];
+    private int size;
+    private final int[][][] buckets = new int[SEGMENTS][1 << SEGMENT_BITS][];
+    private final int[][] bucketSizes = new int[SEGMENTS][1 << SEGMENT_BITS];
+    private volatile long loadedFileId; // 已从数据库加载的最大 file_id
+    private volatile long lastCatchUpMillis; // 上次增量加载的时间
+
+    public SimilarImageIndex(MediaFilesMapper mediaFilesMapper) {
+        this.mediaFilesMapper = mediaFilesMapper;
+    }
+
+    /**
+     * 应用启动完成后在后台预先加载索引，避免第一次查询时等待
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        Thread loader = new Thread(() -> {
+            try {
+                catchUp();
+            } catch (RuntimeException e) {
+                log.error("加载相似图片索引失败，将在查询时重试", e);
+            }
+        }, "similar-image-index-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 加入一条记录 (已入库记录的感知哈希变化时调用，新入库的记录在查询前自动加载)
+     * @param fileId 文件ID
+     * @param hash   感知哈希
+     */
+    public void add(long fileId, long hash) {
+        lock.writeLock().lock();
+        try {
+            addEntry(fileId, hash);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除一条记录 (文件被删除、移入回收站、标记为重复副本，或感知哈希变化前调用)
+     * 在事务中调用时等事务提交后再移除，事务回滚时索引不变
+     * @param fileId 文件ID
+     * @param hash   索引中的感知哈希
+     */
+    public void remove(long fileId, long hash) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    removeNow(fileId, hash);
+                }
+            });
+        } else {
+            removeNow(fileId, hash);
+        }
+    }
+
+    private void removeNow(long fileId, long hash) {
+        lock.writeLock().lock();
+        try {
+            // 同一记录可能被加入过多次 (例如入库后又被增量加载)，全部移除
+            int entry;
+            while ((entry = findEntry(fileId, hash)) >= 0) {
+                removeEntry(entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查找与给定哈希距离不超过 maxDistance 的记录
+     * 每张表枚举的桶数随 maxDistance/4 组合增长：距离 0-3 查 1 个桶，4-7 查 17 个，8-11 查 137 个，12-15 查 697 个，16 以上查 2517 个，
+     * 候选数按相同比例增加 (百万张图片时距离 16 一次查询约比较十五万个候选)，因此配置的上限 media.similar.max-distance 不宜超过 7
+     * @param hash        感知哈希
+     * @param maxDistance 最大汉明距离 (0-64)
+     * @return 匹配的记录，按距离从小到大排序 (同一文件只保留距离最小的条目)
+     */
+    public List<Match> search(long hash, int maxDistance) {
+        if (System.currentTimeMillis() - lastCatchUpMillis >= CATCH_UP_INTERVAL_MS) {
+            catchUp();
+        }
+        int radius = maxDistance / SEGMENTS;
+        Map<Long, Integer> matches = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (int segment = 0; segment < SEGMENTS; segment++) {
+                probe(segment, segmentOf(hash, segment), 0, radius, hash, maxDistance, matches);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Match> result = new ArrayList<>(matches.size());
+        matches.forEach((fileId, distance) -> result.add(new Match(fileId, distance)));
+        result.sort((a, b) -> a.distance() != b.distance() ? Integer.compare(a.distance(), b.distance()) : Long.compare(a.fileId(), b.fileId()));
+        return result;
+    }
+
+    /**
+     * @return 索引中的条目数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从数据库增量加载 file_id 大于已加载位置、已有感知哈希的记录 (按主键范围查询，没有新记录时开销很小)
+     */
+    public void catchUp() {
+        loadLock.lock();
+        try {
+            lastCatchUpMillis = System.currentTimeMillis();
+            long loaded = 0;
+            while (true) {
+                List<MediaFiles> page = mediaFilesMapper.selectList(new LambdaQueryWrapper<MediaFiles>()
+                        .select(MediaFiles::getFileId, MediaFiles::getPerceptualHash)
+                        .gt(MediaFiles::getFileId, loadedFileId)
+                        .isNotNull(MediaFiles::getPerceptualHash)
+                        .orderByAsc(MediaFiles::getFileId)
+                        .last("LIMIT " + LOAD_PAGE_SIZE));
+                if (page.isEmpty()) {
+                    break;
+                }
+                lock.writeLock().lock();
+                try {
+                    for (MediaFiles record : page) {
+                        addEntry(record.getFileId(), record.getPerceptualHash());
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                loadedFileId = page.get(page.size() - 1).getFileId();
+                loaded += page.size();
+                if (page.size() < LOAD_PAGE_SIZE) {
+                    break;
+                }
+            }
+            if (loaded > LOAD_PAGE_SIZE) {
+                log.info("相似图片索引已加载 {} 条记录，共 {} 条", loaded, size());
+            }
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    /**
+     * 枚举与 key 距离不超过 remaining 的所有桶 (从 fromBit 开始翻转，每个桶只访问一次)，比较其中的条目 (调用方需持有读锁)
+     */
+    private void probe(int segment, int key, int fromBit, int remaining, long hash, int maxDistance, Map<Long, Integer> matches) {
+        int[] bucket = buckets[segment][key];
+        for (int i = 0, n = bucketSizes[segment][key]; i < n; i++) {
+            int entry = bucket[i];
+            int distance = Long.bitCount(hashes[entry] ^ hash);
+            if (distance <= maxDistance) {
+                matches.merge(fileIds[entry], distance, Math::min);
+            }
+        }
+        if (remaining == 0) {
+            return;
+        }
+        for (int bit = fromBit; bit < SEGMENT_BITS; bit++) {
+            probe(segment, key ^ (1 << bit), bit + 1, remaining - 1, hash, maxDistance, matches);
+        }
+    }
+
+    /**
+     * 追加一个条目并放入各段的桶中 (调用方需持有写锁)
+     */
+    private void addEntry(long fileId, long hash) {
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            fileIds = Arrays.copyOf(fileIds, size * 2);
+        }
+        hashes[size] = hash;
+        fileIds[size] = fileId;
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            int key = segmentOf(hash, segment);
+            int[] bucket = buckets[segment][key];
+            int count = bucketSizes[segment][key];
+            if (bucket == null) {
+                bucket = buckets[segment][key] = new int[2];
+            } else if (count == bucket.length) {
+                bucket = buckets[segment][key] = Arrays.copyOf(bucket, count * 2);
+            }
+            bucket[count] = size;
+            bucketSizes[segment][key] = count + 1;
+        }
+        size++;
+    }
+
+    /**
+     * 在第一段的桶中查找条目 (调用方需持有锁)
+     * @return 条目下标，不存在时返回 -1
+     */
+    private int findEntry(long fileId, long hash) {
+        int key = segmentOf(hash, 0);
+        int[] bucket = buckets[0][key];
+        for (int i = 0, n = bucketSizes[0][key]; i < n; i++) {
+            int entry = bucket[i];
+            if (fileIds[entry] == fileId && hashes[entry] == hash) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 删除一个条目 (调用方需持有写锁)：从各段的桶中移除，再把最后一个条目移到空出的位置，保持条目连续存放
+     */
+    private void removeEntry(int entry) {
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            int key = segmentOf(hashes[entry], segment);
+            int[] bucket = buckets[segment][key];
+            int last = --bucketSizes[segment][key];
+            for (int i = 0; i <= last; i++) {
+                if (bucket[i] == entry) {
+                    bucket[i] = bucket[last]; // 桶内顺序无关
+                    break;
+                }
+            }
+        }
+        int last = --size;
+        if (entry == last) {
+            return;
+        }
+        hashes[entry] = hashes[last];
+        fileIds[entry] = fileIds[last];
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            int key = segmentOf(hashes[entry], segment);
+            int[] bucket = buckets[segment][key];
+            for (int i = 0, n = bucketSizes[segment][key]; i < n; i++) {
+                if (bucket[i] == last) {
+                    bucket[i] = entry;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int segmentOf(long hash, int segment) {
+        return (int) (hash >>> (segment * SEGMENT_BITS)) & SEGMENT_MASK;
+    }
+
+    /**
+     * 查询结果
+     * @param fileId   文件ID
+     * @param distance 与查询哈希的汉明距离
+     */
+    public record Match(long fileId, int distance) {
+    }
+}
@@ -6,6 +6,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import org.xinp.constant.IoPriority;
 import org.xinp.entity.MediaFiles;
 import org.xinp.mapper.MediaFilesMapper;
 import org.xinp.pojo.TaskProgress;
@@ -32,6 +33,8 @@ import java.util.stream.Stream;
 public class VideoNormalizationProcessor {
 
     private final FfmpegService ffmpegService;
+    private final ProbeCache probeCache;
+    private final MediaTypeDetector mediaTypeDetector;
     private final FileManagementUtil fileManagementUtil;
     private final MediaFilesMapper mediaFilesMapper;
     @Qualifier("projectPath")
@@ -88,14 +91,15 @@ public class VideoNormalizationProcessor {
      */
     private boolean isNormalizationNeeded(Path videoPath) {
         try {
-            // 首先进行简单的MIME类型判断，过滤掉非视频文件，避免对所有文件都调用ffprobe
-            String contentType = Files.probeContentType(videoPath);
+            // 首先按文件内容判断MIME类型，过滤掉非视频文件，避免对所有文件都调用ffprobe
+            MediaTypeDetector.Sniffed sniffed = mediaTypeDetector.sniff(videoPath, IoPriority.BACKGROUND);
+            String contentType = sniffed.mimeType();
             if (contentType == null || !contentType.startsWith("video/")) {
                 return false;
             }
 
             log.debug("正在探测文件: {}", videoPath.getFileName());
-            JsonNode probeResult = ffmpegService.probe(videoPath);
+            JsonNode probeResult = probeCache.probe(videoPath, sniffed, IoPriority.BACKGROUND); // 未变化的文件入库时直接复用探测结果
 
             // 获取 format_name，它可能包含多个格式，用逗号分隔，如 "mov,mp4,m4a,3gp,3g2,mj2"
             String formatName = probeResult.path("format").path("format_name").asText("");
@@ -1,9 +1,13 @@
+-- 数据库的最新结构；修改表结构时同时在 SchemaMigrator 中追加迁移，已存在的数据库由迁移升级
 -- 删除旧表，防止重复创建出错
 DROP TABLE IF EXISTS hide_list;
 DROP TABLE IF EXISTS media_files;
 DROP TABLE IF EXISTS operation_logs;
 DROP TABLE IF EXISTS tool_list;
 DROP TABLE IF EXISTS user_settings;
+DROP TABLE IF EXISTS scan_sessions;
+DROP TABLE IF EXISTS scrub_cursor;
+DROP TABLE IF EXISTS probe_results;
 
 
 -- 1. 用户隐藏分类列表 (hide_list)
@@ -29,10 +33,32 @@ CREATE TABLE media_files
     height      INTEGER,                           -- 对应 Integer height
     duration    INTEGER,                           -- 对应 Long duration
     thumbnail   TEXT,                              -- 对应 String thumbnail
-    file_hash   TEXT UNIQUE,                       -- 对应 String fileHash (建议设为唯一)
-    metadata    TEXT,                              -- 对应 String metadata (存储JSON)
-    update_time INTEGER                            -- 对应 Long updateTime (存储Unix时间戳)
+    file_hash   TEXT,                              -- 对应 String fileHash (不唯一，相同内容的文件由去重功能分组处理)，为空表示尚未计算
+    fingerprint INTEGER,                           -- 对应 Long fingerprint (大小+头/中/尾三段的 64 位快速指纹)
+    perceptual_hash INTEGER,                       -- 对应 Long perceptualHash (图片的 64 位感知哈希，用于查找相似图片)
+    metadata    BLOB,                              -- 对应 String metadata (JSON，经 CompressedJsonTypeHandler 压缩存储)
+    update_time INTEGER,                           -- 对应 Long updateTime (存储Unix时间戳)
+    last_modified INTEGER,                         -- 对应 Long lastModified (文件最后修改时间，增量扫描指纹)
+    file_key    TEXT,                              -- 对应 String fileKey (设备号+inode，增量扫描指纹)
+    video_codec TEXT,                              -- 对应 String videoCodec (第一条视频流的编码，如 h264/hevc)
+    audio_codec TEXT,                              -- 对应 String audioCodec (第一条音频流的编码，如 aac/opus)
+    bit_rate    INTEGER,                           -- 对应 Long bitRate (总码率，比特/秒)
+    frame_rate  REAL,                              -- 对应 Double frameRate (平均帧率)
+    audio_channels INTEGER,                        -- 对应 Integer audioChannels (声道数)
+    captured_at INTEGER,                           -- 对应 Long capturedAt (拍摄时间，毫秒时间戳)
+    camera_model TEXT,                             -- 对应 String cameraModel (拍摄设备型号)
+    attributes_version INTEGER                     -- 对应 Integer attributesVersion (上述属性的提取版本，为空表示待补全)
 );
+CREATE INDEX idx_media_files_file_key ON media_files (file_key);
+CREATE INDEX idx_media_files_fingerprint ON media_files (fingerprint);
+CREATE INDEX idx_media_files_file_hash ON media_files (file_hash);
+CREATE INDEX idx_media_files_video_codec ON media_files (video_codec, height);
+CREATE INDEX idx_media_files_audio_codec ON media_files (audio_codec);
+CREATE INDEX idx_media_files_timeline ON media_files (captured_at, file_status, tool_id);
+CREATE INDEX idx_media_files_camera_model ON media_files (camera_model, captured_at);
+CREATE UNIQUE INDEX idx_media_files_file_path ON media_files (file_path);
+CREATE INDEX idx_media_files_tool_id ON media_files (tool_id, update_time);
+CREATE INDEX idx_media_files_file_status ON media_files (file_status, update_time);
 
 
 -- 3. 操作记录 (operation_logs)
@@ -46,6 +72,7 @@ CREATE TABLE operation_logs
     error_message    TEXT,                              -- 对应 String errorMessage
     operation_time   INTEGER                            -- 对应 Long operationTime (存储Unix时间戳)
 );
+CREATE INDEX idx_operation_logs_type_status ON operation_logs (operation_type, status);
 
 
 -- 4. 分类列表信息 (tool_list)
@@ -77,6 +104,44 @@ CREATE TABLE user_settings
     login_background    TEXT,                              -- 对应 String loginBackground
     home_background     TEXT                               -- 对应 String homeBackground
 );
+-- 6. 扫描会话 (scan_sessions)
+CREATE TABLE scan_sessions
+(
+    session_id      INTEGER PRIMARY KEY AUTOINCREMENT, -- 对应 @TableId
+    scan_path       TEXT NOT NULL,                     -- 对应 String scanPath (相对项目根目录)
+    scan_mode       TEXT,                              -- 对应 Enum ScanMode (存储枚举名)
+    status          TEXT,                              -- 对应 Enum ScanStatus (存储枚举名)
+    cursor_path     TEXT,                              -- 对应 String cursorPath (断点，相对扫描目录)
+    processed_files INTEGER DEFAULT 0,                 -- 对应 Long processedFiles
+    message         TEXT,                              -- 对应 String message
+    create_time     INTEGER,                           -- 对应 Long createTime (存储Unix时间戳)
+    update_time     INTEGER                            -- 对应 Long updateTime (存储Unix时间戳)
+);
+-- 7. 完整性校验游标 (scrub_cursor)，只有一行
+CREATE TABLE scrub_cursor
+(
+    cursor_id        INTEGER PRIMARY KEY,  -- 对应 @TableId (固定为 1)
+    cursor_file_id   INTEGER DEFAULT 0,    -- 对应 Long cursorFileId (本轮已校验到的 file_id)
+    cycle_start      INTEGER,              -- 对应 Long cycleStart (本轮开始时间，Unix时间戳)
+    cycle_deadline   INTEGER,              -- 对应 Long cycleDeadline (本轮计划完成时间，Unix时间戳)
+    completed_cycles INTEGER DEFAULT 0,    -- 对应 Long completedCycles (已完成的轮数)
+    verified_files   INTEGER DEFAULT 0,    -- 对应 Long verifiedFiles (本轮已校验的文件数)
+    verified_bytes   INTEGER DEFAULT 0,    -- 对应 Long verifiedBytes (本轮已校验的字节数)
+    mismatched_files INTEGER DEFAULT 0,    -- 对应 Long mismatchedFiles (本轮发现内容损坏的文件数)
+    update_time      INTEGER               -- 对应 Long updateTime (存储Unix时间戳)
+);
+
+-- 8. 媒体探测结果缓存 (probe_results)，文件未变化时不再重复调用 ffprobe
+CREATE TABLE probe_results
+(
+    cache_key     TEXT PRIMARY KEY,  -- 对应 @TableId (文件标识：设备号+inode，不支持时为相对路径)
+    file_size     INTEGER,           -- 对应 Long fileSize (探测时的文件大小)
+    last_modified INTEGER,           -- 对应 Long lastModified (探测时的修改时间，Unix时间戳)
+    probe_result  BLOB,              -- 对应 String probeResult (ffprobe 输出的 JSON，压缩存储)
+    update_time   INTEGER            -- 对应 Long updateTime (存储Unix时间戳)
+);
+
+
 -- 初始化用户
 insert into user_settings (user_id, account, password, nick_name,avatar,login_background,home_background)
 values (0, 'root', '%9#6ImIpkTot1f*e', 'XinP','/BackgroundImg/avatar.jpg','/BackgroundImg/login.png','/BackgroundImg/home.png');
\ No newline at end of file
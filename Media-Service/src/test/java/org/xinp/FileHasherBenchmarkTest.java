@@ -0,0 +1,104 @@
+package org.xinp;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.xinp.constant.HashReadMode;
+import org.xinp.constant.IoPriority;
+import org.xinp.util.FileHasher;
+import org.xinp.util.IoGovernor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * FileHasher 的文件通道/内存映射方式与 DigestUtils 的结果一致性检查，以及吞吐量对比
+ * 吞吐量对比默认不执行，需要指定 -Dbenchmark=true；测试文件大小默认 256 MB，
+ * 可通过 -Dbenchmark.size-mb=4096 指定 (较大的文件更接近视频入库的情况)
+ */
+@Slf4j
+public class FileHasherBenchmarkTest {
+
+    private static final int ROUNDS = 3;
+
+    @TempDir
+    Path tempDir;
+
+    private final IoGovernor ioGovernor = new IoGovernor();
+    private final FileHasher channelHasher = new FileHasher(ioGovernor, "SHA-256", 1024 * 1024, HashReadMode.CHANNEL, 65536);
+    private final FileHasher mappedHasher = new FileHasher(ioGovernor, "SHA-256", 1024 * 1024, HashReadMode.MMAP, 65536);
+
+    @Test
+    public void hashesMatchDigestUtils() throws Exception {
+        Path testFile = createTestFile(3);
+        String expected;
+        try (FileInputStream fis = new FileInputStream(testFile.toFile())) {
+            expected = DigestUtils.sha256Hex(fis);
+        }
+        assertEquals(expected, channelHasher.hash(testFile, IoPriority.BACKGROUND));
+        assertEquals(expected, mappedHasher.hash(testFile, IoPriority.BACKGROUND));
+
+        // 其他算法的结果与 DigestUtils 一致
+        try (FileInputStream fis = new FileInputStream(testFile.toFile())) {
+            assertEquals(DigestUtils.md5Hex(fis), channelHasher.hash(testFile, "MD5", HashReadMode.CHANNEL, IoPriority.BACKGROUND));
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    public void compareThroughput() throws Exception {
+        Path testFile = createTestFile(Long.getLong("benchmark.size-mb", 256));
+        long fileSize = Files.size(testFile);
+        String expected;
+        try (FileInputStream fis = new FileInputStream(testFile.toFile())) {
+            expected = DigestUtils.sha256Hex(fis); // 预热页缓存
+        }
+
+        measure("FileInputStream + DigestUtils", fileSize, () -> {
+            try (FileInputStream fis = new FileInputStream(testFile.toFile())) {
+                return DigestUtils.sha256Hex(fis);
+            }
+        }, expected);
+        measure("FileChannel + 直接缓冲区", fileSize, () -> channelHasher.hash(testFile, IoPriority.BACKGROUND), expected);
+        measure("内存映射", fileSize, () -> mappedHasher.hash(testFile, IoPriority.BACKGROUND), expected);
+    }
+
+    /**
+     * 创建随机内容的测试文件 (大小不与缓冲区大小对齐)
+     * @param sizeMb 约多少 MB
+     */
+    private Path createTestFile(long sizeMb) throws IOException {
+        Path testFile = tempDir.resolve("hash-test-" + sizeMb + ".bin");
+        byte[] block = new byte[1024 * 1024 + 7];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(testFile)) {
+            for (long i = 0; i < sizeMb; i++) {
+                out.write(block);
+            }
+        }
+        return testFile;
+    }
+
+    private void measure(String name, long fileSize, HashTask task, String expected) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            assertEquals(expected, task.run());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        log.info("{}: {} MB/s", name, String.format("%.1f", fileSize / 1024.0 / 1024.0 / (best / 1e9)));
+    }
+
+    @FunctionalInterface
+    private interface HashTask {
+        String run() throws Exception;
+    }
+}
@@ -0,0 +1,269 @@
+package org.xinp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xinp.constant.IoPriority;
+import org.xinp.util.IoGovernor;
+import org.xinp.util.MediaHeaderParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 媒体文件头解析：按容器生成最小的样例文件，解析结果与 ffprobe 输出的字段一致；文件头不完整时返回 null (由调用方改用 ffprobe)，不抛出异常
+ */
+public class MediaHeaderParserTest {
+
+    private static final String CREATION_TIME = "2024-05-01T12:34:56.000000Z";
+    private static final long CREATION_EPOCH_SECONDS = Instant.parse("2024-05-01T12:34:56Z").getEpochSecond();
+
+    private final MediaHeaderParser parser = new MediaHeaderParser(new IoGovernor(), new ObjectMapper());
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void parsesMp4WithMoovAtEnd() throws IOException {
+        JsonNode probe = parse("clip.mp4", mp4());
+        assertNotNull(probe);
+        JsonNode format = probe.path("format");
+        assertEquals("mov,mp4,m4a,3gp,3g2,mj2", format.path("format_name").asText());
+        assertEquals("2.500000", format.path("duration").asText());
+        assertEquals(CREATION_TIME, format.path("tags").path("creation_time").asText());
+
+        JsonNode video = probe.path("streams").get(0);
+        assertEquals("video", video.path("codec_type").asText());
+        assertEquals("h264", video.path("codec_name").asText());
+        assertEquals(320, video.path("width").asInt());
+        assertEquals(240, video.path("height").asInt());
+        assertEquals("30/1", video.path("avg_frame_rate").asText());
+        JsonNode audio = probe.path("streams").get(1);
+        assertEquals("audio", audio.path("codec_type").asText());
+        assertEquals("aac", audio.path("codec_name").asText());
+        assertEquals("48000", audio.path("sample_rate").asText());
+        assertEquals(2, audio.path("channels").asInt());
+    }
+
+    @Test
+    public void parsesMatroska() throws IOException {
+        JsonNode probe = parse("clip.mkv", matroska());
+        assertNotNull(probe);
+        JsonNode format = probe.path("format");
+        assertEquals("matroska,webm", format.path("format_name").asText());
+        assertEquals("2.500000", format.path("duration").asText());
+        assertEquals(CREATION_TIME, format.path("tags").path("creation_time").asText());
+
+        JsonNode video = probe.path("streams").get(0);
+        assertEquals("vp9", video.path("codec_name").asText());
+        assertEquals(320, video.path("width").asInt());
+        assertEquals(240, video.path("height").asInt());
+        assertEquals("25/1", video.path("avg_frame_rate").asText());
+        JsonNode audio = probe.path("streams").get(1);
+        assertEquals("opus", audio.path("codec_name").asText());
+        assertEquals("48000", audio.path("sample_rate").asText());
+        assertEquals(2, audio.path("channels").asInt());
+    }
+
+    @Test
+    public void parsesMp3WithId3TagAndXingHeader() throws IOException {
+        JsonNode probe = parse("song.mp3", mp3());
+        assertNotNull(probe);
+        assertEquals("mp3", probe.path("format").path("format_name").asText());
+        // 100 帧 × 1152 个采样 / 44100 Hz
+        assertEquals("2.612245", probe.path("format").path("duration").asText());
+        JsonNode audio = probe.path("streams").get(0);
+        assertEquals("mp3", audio.path("codec_name").asText());
+        assertEquals("44100", audio.path("sample_rate").asText());
+        assertEquals(2, audio.path("channels").asInt());
+    }
+
+    @Test
+    public void parsesFlac() throws IOException {
+        JsonNode probe = parse("song.flac", flac());
+        assertNotNull(probe);
+        assertEquals("flac", probe.path("format").path("format_name").asText());
+        assertEquals("2.500000", probe.path("format").path("duration").asText());
+        JsonNode audio = probe.path("streams").get(0);
+        assertEquals("flac", audio.path("codec_name").asText());
+        assertEquals("44100", audio.path("sample_rate").asText());
+        assertEquals(2, audio.path("channels").asInt());
+    }
+
+    @Test
+    public void parsesWav() throws IOException {
+        JsonNode probe = parse("sound.wav", wav());
+        assertNotNull(probe);
+        assertEquals("wav", probe.path("format").path("format_name").asText());
+        assertEquals("2.500000", probe.path("format").path("duration").asText());
+        JsonNode audio = probe.path("streams").get(0);
+        assertEquals("pcm_s16le", audio.path("codec_name").asText());
+        assertEquals("8000", audio.path("sample_rate").asText());
+        assertEquals(2, audio.path("channels").asInt());
+    }
+
+    @Test
+    public void truncatedHeadersFallBackToFfprobe() throws IOException {
+        byte[] mp4 = mp4();
+        // moov 在文件末尾，截掉最后一个字节后 moov 不完整
+        assertNull(parse("truncated.mp4", Arrays.copyOf(mp4, mp4.length - 1)));
+        byte[] matroska = matroska();
+        // 截断在 Tracks 中间
+        assertNull(parse("truncated.mkv", Arrays.copyOf(matroska, matroska.length - 40)));
+        // 只剩 ID3 标签
+        assertNull(parse("truncated.mp3", Arrays.copyOf(mp3(), 20)));
+        // STREAMINFO 不完整
+        assertNull(parse("truncated.flac", Arrays.copyOf(flac(), 20)));
+        // 只有 fmt 块，没有 data 块
+        assertNull(parse("truncated.wav", Arrays.copyOf(wav(), 36)));
+        // 不足 12 字节，无法识别
+        assertNull(parse("tiny.mp4", Arrays.copyOf(mp4, 8)));
+    }
+
+    private JsonNode parse(String fileName, byte[] content) throws IOException {
+        Path file = tempDir.resolve(fileName);
+        Files.write(file, content);
+        return parser.parse(file, null, IoPriority.BACKGROUND);
+    }
+
+    // ---------------- 样例文件 ----------------
+
+    /**
+     * ftyp + mdat + moov (320x240 30fps H.264 和 48kHz 双声道 AAC，时长 2.5 秒)
+     */
+    private static byte[] mp4() {
+        byte[] mvhd = ByteBuffer.allocate(100)
+                .putInt(0).putInt((int) (CREATION_EPOCH_SECONDS + 2_082_844_800L)).putInt(0).putInt(1000).putInt(2500)
+                .array();
+        byte[] videoEntry = ByteBuffer.allocate(78).putShort(6, (short) 1).putShort(24, (short) 320).putShort(26, (short) 240).array();
+        byte[] videoTrak = box("trak", box("mdia",
+                box("mdhd", ByteBuffer.allocate(24).putInt(0).putInt(0).putInt(0).putInt(30).putInt(75).array()),
+                box("hdlr", handler("vide")),
+                box("minf", box("stbl",
+                        box("stsd", concat(ByteBuffer.allocate(8).putInt(0).putInt(1).array(), box("avc1", videoEntry))),
+                        box("stts", ByteBuffer.allocate(16).putInt(0).putInt(1).putInt(75).putInt(1).array())))));
+        byte[] audioEntry = ByteBuffer.allocate(28).putShort(6, (short) 1).putShort(16, (short) 2).putShort(18, (short) 16)
+                .putInt(24, 48000 << 16).array();
+        byte[] audioTrak = box("trak", box("mdia",
+                box("mdhd", ByteBuffer.allocate(24).putInt(0).putInt(0).putInt(0).putInt(48000).putInt(120000).array()),
+                box("hdlr", handler("soun")),
+                box("minf", box("stbl",
+                        box("stsd", concat(ByteBuffer.allocate(8).putInt(0).putInt(1).array(), box("mp4a", audioEntry)))))));
+        return concat(
+                box("ftyp", ascii("isom"), new byte[4], ascii("isomiso2avc1mp41")),
+                box("mdat", new byte[4096]),
+                box("moov", box("mvhd", mvhd), videoTrak, audioTrak));
+    }
+
+    private static byte[] handler(String type) {
+        return concat(new byte[8], ascii(type), new byte[13]);
+    }
+
+    private static byte[] box(String type, byte[]... children) {
+        byte[] content = concat(children);
+        return concat(ByteBuffer.allocate(4).putInt(8 + content.length).array(), ascii(type), content);
+    }
+
+    /**
+     * EBML 头 + Segment (Info 与 Tracks：320x240 25fps VP9 和 48kHz 双声道 Opus，时长 2.5 秒) + Cluster
+     */
+    private static byte[] matroska() {
+        long dateUtc = (CREATION_EPOCH_SECONDS * 1000 - 978_307_200_000L) * 1_000_000;
+        byte[] info = ebml(0x1549A966,
+                ebml(0x2AD7B1, uint(1_000_000, 3)),
+                ebml(0x4489, ByteBuffer.allocate(8).putDouble(2500).array()),
+                ebml(0x4461, ByteBuffer.allocate(8).putLong(dateUtc).array()));
+        byte[] tracks = ebml(0x1654AE6B,
+                ebml(0xAE,
+                        ebml(0x83, uint(1, 1)),
+                        ebml(0x86, ascii("V_VP9")),
+                        ebml(0x23E383, uint(40_000_000, 4)),
+                        ebml(0xE0, ebml(0xB0, uint(320, 2)), ebml(0xBA, uint(240, 1)))),
+                ebml(0xAE,
+                        ebml(0x83, uint(2, 1)),
+                        ebml(0x86, ascii("A_OPUS")),
+                        ebml(0xE1, ebml(0xB5, ByteBuffer.allocate(8).putDouble(48000).array()), ebml(0x9F, uint(2, 1)))));
+        byte[] cluster = ebml(0x1F43B675, ebml(0xE7, uint(0, 1)));
+        return concat(
+                ebml(0x1A45DFA3, ebml(0x4282, ascii("matroska"))),
+                ebml(0x18538067, info, tracks, cluster));
+    }
+
+    private static byte[] ebml(long id, byte[]... children) {
+        byte[] content = concat(children);
+        int idLength = (64 - Long.numberOfLeadingZeros(id) + 7) / 8;
+        // 长度统一用 8 字节的变长整数表示
+        byte[] size = ByteBuffer.allocate(8).putLong(content.length).array();
+        size[0] = 0x01;
+        return concat(uint(id, idLength), size, content);
+    }
+
+    private static byte[] uint(long value, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i >= 0; i--, value >>>= 8) {
+            bytes[i] = (byte) value;
+        }
+        return bytes;
+    }
+
+    /**
+     * ID3v2 标签 (10 字节填充) + 3 帧 MPEG-1 Layer III (128kbps 44.1kHz 立体声)，第一帧带 Xing 头记录总帧数 100
+     */
+    private static byte[] mp3() {
+        byte[] id3 = concat(ascii("ID3"), new byte[]{3, 0, 0, 0, 0, 0, 10}, new byte[10]);
+        int frameLength = 1152 / 8 * 128_000 / 44_100;
+        ByteBuffer frames = ByteBuffer.allocate(frameLength * 3);
+        for (int i = 0; i < 3; i++) {
+            frames.putInt(i * frameLength, 0xFFFB9000);
+        }
+        frames.put(36, ascii("Xing")).putInt(40, 1).putInt(44, 100);
+        return concat(id3, frames.array());
+    }
+
+    /**
+     * fLaC + STREAMINFO (44.1kHz 双声道 16 位，110250 个采样即 2.5 秒)
+     */
+    private static byte[] flac() {
+        long packed = (44_100L << 44) | (1L << 41) | (15L << 36) | 110_250L;
+        ByteBuffer streamInfo = ByteBuffer.allocate(4 + 34).putInt(0x80000000 | 34).putShort((short) 4096).putShort((short) 4096);
+        streamInfo.putLong(4 + 10, packed);
+        return concat(ascii("fLaC"), streamInfo.array(), new byte[64]);
+    }
+
+    /**
+     * RIFF/WAVE：fmt (PCM 8kHz 双声道 16 位) + data (80000 字节即 2.5 秒)
+     */
+    private static byte[] wav() {
+        int dataSize = 80_000;
+        ByteBuffer wav = ByteBuffer.allocate(44 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put(ascii("RIFF")).putInt(36 + dataSize).put(ascii("WAVE"));
+        wav.put(ascii("fmt ")).putInt(16).putShort((short) 1).putShort((short) 2).putInt(8000).putInt(32_000)
+                .putShort((short) 4).putShort((short) 16);
+        wav.put(ascii("data")).putInt(dataSize);
+        return wav.array();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
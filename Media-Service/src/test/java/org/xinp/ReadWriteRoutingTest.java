@@ -0,0 +1,115 @@
+package org.xinp;
+
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.xinp.config.ReadQueryInterceptor;
+import org.xinp.config.ReadWriteRoutingDataSource;
+import org.xinp.config.SqliteDataSourceConfig;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 读写分离数据源的路由：事务外的查询使用只读连接，写入和事务中的查询使用写连接，只读连接不能写入
+ */
+public class ReadWriteRoutingTest {
+
+    private final ReadQueryInterceptor readQueryInterceptor = new ReadQueryInterceptor();
+
+    @TempDir
+    Path tempDir;
+
+    private ReadWriteRoutingDataSource dataSource;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        dataSource = new SqliteDataSourceConfig().dataSource("jdbc:sqlite:" + tempDir.resolve("routing.db"), 2, 5000, 5000);
+        dataSource.afterPropertiesSet();
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE t (id INTEGER PRIMARY KEY, name TEXT)");
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    public void queriesOutsideTransactionUseReadOnlyPool() throws Throwable {
+        Connection connection = asQuery(() -> dataSource.getConnection());
+        try (connection; Statement statement = connection.createStatement()) {
+            assertTrue(connection.isReadOnly());
+            // 只读连接拒绝写入
+            assertThrows(SQLException.class, () -> statement.execute("INSERT INTO t (name) VALUES ('read')"));
+        }
+    }
+
+    @Test
+    public void writesUseWritePool() throws Throwable {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            assertFalse(connection.isReadOnly());
+            assertEquals(1, statement.executeUpdate("INSERT INTO t (name) VALUES ('write')"));
+        }
+        // 写入提交后只读连接可以读到
+        Connection connection = asQuery(() -> dataSource.getConnection());
+        try (connection; Statement statement = connection.createStatement()) {
+            assertEquals(1, statement.executeQuery("SELECT COUNT(*) FROM t WHERE name = 'write'").getInt(1));
+        }
+    }
+
+    @Test
+    public void queriesInTransactionUseWriteConnection() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transactionTemplate.executeWithoutResult(status -> {
+            try {
+                Connection transactional = DataSourceUtils.getConnection(dataSource);
+                try (Statement statement = transactional.createStatement()) {
+                    statement.executeUpdate("INSERT INTO t (name) VALUES ('uncommitted')");
+                }
+                // 事务中的查询使用事务的写连接，可以读到未提交的修改
+                Connection connection = asQuery(() -> DataSourceUtils.getConnection(dataSource));
+                assertSame(transactional, connection);
+                assertFalse(connection.isReadOnly());
+                try (Statement statement = connection.createStatement()) {
+                    assertEquals(1, statement.executeQuery("SELECT COUNT(*) FROM t WHERE name = 'uncommitted'").getInt(1));
+                }
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * 作为 MyBatis 的 Executor.query 经过 ReadQueryInterceptor 执行，返回执行期间获取的连接
+     */
+    private Connection asQuery(Callable<Connection> query) throws Throwable {
+        Executor executor = (Executor) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Executor.class},
+                (proxy, method, args) -> List.of(query.call()));
+        Method method = Executor.class.getMethod("query", MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class);
+        List<?> result = (List<?>) readQueryInterceptor.intercept(new Invocation(executor, method, new Object[4]));
+        return (Connection) result.get(0);
+    }
+}
@@ -0,0 +1,201 @@
+package org.xinp;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.xinp.config.SchemaMigrator;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 数据库版本迁移测试：旧数据库升级后与 schema.sql 新建的结构一致，常用查询走索引
+ */
+public class SchemaMigrationTest {
+
+    // 版本记录之前 (第一版 schema.sql) 创建的数据库
+    private static final String LEGACY_SCHEMA = """
+            CREATE TABLE hide_list (id INTEGER PRIMARY KEY AUTOINCREMENT, user_id INTEGER NOT NULL, hide_id INTEGER NOT NULL);
+            CREATE TABLE media_files (file_id INTEGER PRIMARY KEY AUTOINCREMENT, file_name TEXT NOT NULL, mime_type TEXT,
+                file_size INTEGER, file_status TEXT, tool_id INTEGER, file_path TEXT NOT NULL, width INTEGER, height INTEGER,
+                duration INTEGER, thumbnail TEXT, file_hash TEXT UNIQUE, metadata TEXT, update_time INTEGER);
+            CREATE TABLE operation_logs (operation_id INTEGER PRIMARY KEY AUTOINCREMENT, file_id INTEGER NOT NULL,
+                operation_type TEXT NOT NULL, operation_detail TEXT, status TEXT, error_message TEXT, operation_time INTEGER);
+            CREATE TABLE tool_list (tool_id INTEGER PRIMARY KEY AUTOINCREMENT, tool_name TEXT NOT NULL, path TEXT,
+                description TEXT, sort INTEGER, parent_id INTEGER DEFAULT 0, cover_image_url TEXT, create_time INTEGER);
+            CREATE TABLE user_settings (user_id INTEGER PRIMARY KEY AUTOINCREMENT, account TEXT UNIQUE NOT NULL,
+                password TEXT NOT NULL, token TEXT, nick_name TEXT, avatar TEXT, thumbnail_threshold INTEGER, width INTEGER,
+                height INTEGER, login_background TEXT, home_background TEXT);
+            INSERT INTO media_files (file_name, file_status, tool_id, file_path, file_hash, metadata, update_time)
+                VALUES ('a.jpg', 'AVAILABLE', 1, 'a/a.jpg', 'hash-a', '{"format":{}}', 1700000000);
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void legacyDatabaseIsMigratedToLatestSchema() throws Exception {
+        try (Connection legacy = open("legacy.db"); Connection created = open("created.db")) {
+            execute(legacy, LEGACY_SCHEMA);
+            // 没有唯一约束时同一路径被重复入库的记录
+            execute(legacy, "INSERT INTO media_files (file_name, file_path, update_time) VALUES ('a.jpg', 'a/a.jpg', 1700000001)");
+            assertEquals(0, SchemaMigrator.currentVersion(legacy));
+            assertEquals(SchemaMigrator.latestVersion(), SchemaMigrator.migrate(legacy));
+            assertEquals(SchemaMigrator.latestVersion(), SchemaMigrator.currentVersion(legacy));
+            // 已是最新版本时不再执行
+            assertEquals(0, SchemaMigrator.migrate(legacy));
+
+            createFromSchema(created);
+            assertEquals(SchemaMigrator.latestVersion(), SchemaMigrator.currentVersion(created));
+
+            for (String table : List.of("media_files", "operation_logs", "scan_sessions", "scrub_cursor", "probe_results")) {
+                assertEquals(columns(created, table), columns(legacy, table), "表 " + table + " 的字段不一致");
+                assertEquals(indexes(created, table), indexes(legacy, table), "表 " + table + " 的索引不一致");
+            }
+            // 旧数据保留，file_hash 的唯一约束已去掉
+            try (Statement statement = legacy.createStatement()) {
+                statement.execute("INSERT INTO media_files (file_name, file_path, file_hash) VALUES ('b.jpg', 'b/b.jpg', 'hash-a')");
+                try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM media_files WHERE file_hash = 'hash-a'")) {
+                    assertTrue(resultSet.next());
+                    assertEquals(2, resultSet.getInt(1));
+                }
+                // 同一路径的重复记录只保留最早入库的一条，之后不能再插入同一路径
+                try (ResultSet resultSet = statement.executeQuery("SELECT file_id, update_time FROM media_files WHERE file_path = 'a/a.jpg'")) {
+                    assertTrue(resultSet.next());
+                    assertEquals(1700000000, resultSet.getLong("update_time"));
+                    assertFalse(resultSet.next());
+                }
+                assertThrows(SQLException.class, () -> statement.execute("INSERT INTO media_files (file_name, file_path) VALUES ('a.jpg', 'a/a.jpg')"));
+            }
+        }
+    }
+
+    @Test
+    public void failedMigrationIsRolledBack() throws Exception {
+        try (Connection connection = open("broken.db")) {
+            // 缺少 operation_logs 表，版本 2 的索引无法创建
+            execute(connection, LEGACY_SCHEMA);
+            execute(connection, "DROP TABLE operation_logs;");
+            assertThrows(SQLException.class, () -> SchemaMigrator.migrate(connection));
+            assertEquals(1, SchemaMigrator.currentVersion(connection));
+            assertFalse(indexes(connection, "media_files").containsKey("idx_media_files_file_path"));
+        }
+    }
+
+    @Test
+    public void hotPathQueriesUseIndexes() throws Exception {
+        try (Connection legacy = open("legacy.db")) {
+            execute(legacy, LEGACY_SCHEMA);
+            SchemaMigrator.migrate(legacy);
+
+            // 扫描入库、移动文件：按路径查找记录
+            assertPlan(legacy, "SELECT * FROM media_files WHERE file_path = ?",
+                    "idx_media_files_file_path", "a/a.jpg");
+            // 对账：按路径顺序分页
+            assertPlan(legacy, "SELECT * FROM media_files WHERE file_path >= ? AND file_path < ? "
+                            + "ORDER BY file_path, file_id LIMIT 200",
+                    "idx_media_files_file_path", "a/", "a0");
+            // 分类下的文件列表：按更新时间倒序分页，不需要临时排序
+            assertPlan(legacy, "SELECT * FROM media_files WHERE (file_status = ? OR file_status = ?) AND tool_id = ? "
+                            + "ORDER BY update_time DESC LIMIT 50",
+                    "idx_media_files_tool_id", "PENDING_CLASSIFICATION", "AVAILABLE", 1);
+            // 待分类的文件列表
+            assertPlan(legacy, "SELECT * FROM media_files WHERE (file_status = ? OR file_status = ?) AND tool_id IS NULL "
+                            + "ORDER BY update_time DESC LIMIT 50",
+                    "idx_media_files_tool_id", "PENDING_CLASSIFICATION", "AVAILABLE");
+            // 删除分类时查找分类下的文件
+            assertPlan(legacy, "SELECT file_id FROM media_files WHERE tool_id IN (?, ?)",
+                    "idx_media_files_tool_id", 1, 2);
+            // 按状态查找
+            assertPlan(legacy, "SELECT file_id FROM media_files WHERE file_status = ?",
+                    "idx_media_files_file_status", "ERROR");
+            // 任务调度：按类型和状态查找待执行的任务
+            assertPlan(legacy, "SELECT * FROM operation_logs WHERE operation_type = ? AND status = ?",
+                    "idx_operation_logs_type_status", "MOVE", "PENDING");
+        }
+    }
+
+    private Connection open(String fileName) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + tempDir.resolve(fileName));
+    }
+
+    private static void createFromSchema(Connection connection) throws SQLException {
+        ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+        SchemaMigrator.markLatest(connection);
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String part : sql.split(";")) {
+                if (!part.isBlank()) {
+                    statement.execute(part);
+                }
+            }
+        }
+    }
+
+    /**
+     * 查询计划使用了指定的索引，并且没有全表扫描和临时排序
+     */
+    private static void assertPlan(Connection connection, String sql, String index, Object... parameters) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN QUERY PLAN " + sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    plan.add(resultSet.getString("detail"));
+                }
+            }
+        }
+        String detail = String.join("\n", plan);
+        assertTrue(plan.stream().anyMatch(line -> line.contains("INDEX " + index)), sql + "\n未使用索引 " + index + ":\n" + detail);
+        assertFalse(plan.stream().anyMatch(line -> line.matches("SCAN \\w+")), sql + "\n存在全表扫描:\n" + detail);
+        assertFalse(detail.contains("TEMP B-TREE"), sql + "\n存在临时排序:\n" + detail);
+    }
+
+    private static List<String> columns(Connection connection, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (resultSet.next()) {
+                columns.add(resultSet.getString("name") + " " + resultSet.getString("type"));
+            }
+        }
+        columns.sort(null);
+        return columns;
+    }
+
+    /**
+     * @return 索引名 -> 创建索引的语句 (不含约束生成的自动索引)
+     */
+    private static Map<String, String> indexes(Connection connection, String table) throws SQLException {
+        Map<String, String> indexes = new TreeMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT name, sql FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND sql IS NOT NULL")) {
+            statement.setString(1, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    indexes.put(resultSet.getString("name"), resultSet.getString("sql").replace("IF NOT EXISTS ", ""));
+                }
+            }
+        }
+        return indexes;
+    }
+}